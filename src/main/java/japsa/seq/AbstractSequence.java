@@ -209,9 +209,7 @@ Comparable<japsa.seq.AbstractSequence>, CharSequence {
 	 * @throws IOException
 	 */
 	public void writeStream(SequenceOutputStream out) throws IOException {
-		for (int i = 0; i < length(); i++) {
-			out.print(charAt(i));			
-		}
+		out.writeSymbols(this, 0, length());
 	}
 
 
@@ -231,13 +229,19 @@ Comparable<japsa.seq.AbstractSequence>, CharSequence {
 			out.print(desc.replaceAll("\n+", ";"));//make sure no extra new line is written 
 		}
 
-		for (int i = 0; i < length(); i++) {
-			if (i % 60 == 0)
-				out.print('\n');
-			out.print(charAt(i));			
-		}
+		writeFastaBases(out, 0);
 		out.print('\n');
 	}
+	
+	/**
+	 * Write the bases in lines of 60 as writeFasta(), starting at a column of
+	 * the current line (so a sequence made of pieces can write them in turn)
+	 * @return the column after the last base
+	 * @throws IOException
+	 */
+	protected int writeFastaBases(SequenceOutputStream out, int column) throws IOException {
+		return out.writeFastaSymbols(this, 0, length(), column);
+	}
 
 
 	/**
@@ -0,0 +1,134 @@
+/*****************************************************************************
+ * Copyright (c) Minh Duc Cao, Monash Uni & UQ, All rights reserved.         *
+ *                                                                           *
+ * Redistribution and use in source and binary forms, with or without        *
+ * modification, are permitted provided that the following conditions        *
+ * are met:                                                                  * 
+ *                                                                           *
+ * 1. Redistributions of source code must retain the above copyright notice, *
+ *    this list of conditions and the following disclaimer.                  *
+ * 2. Redistributions in binary form must reproduce the above copyright      *
+ *    notice, this list of conditions and the following disclaimer in the    *
+ *    documentation and/or other materials provided with the distribution.   *
+ * 3. Neither the names of the institutions nor the names of the contributors*
+ *    may be used to endorse or promote products derived from this software  *
+ *    without specific prior written permission.                             *
+ *                                                                           *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS   *
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, *
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR    *
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR         *
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,     *
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,       *
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR        *
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF    *
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING      *
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS        *
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.              *
+ ****************************************************************************/
+
+package japsa.seq;
+
+import java.util.Arrays;
+
+/**
+ * Banded global edit distance of 2 DNA sequences with Myers' bit-vector algorithm
+ * (Myers 1999, Hyyro 2003): the query is split into blocks of 64 rows, each column of
+ * the dynamic programming matrix is computed with a few word operations per block.
+ * Only the blocks crossing the band of the diagonals that can give a distance within
+ * the threshold k are computed, so a call costs O(n * k/64).
+ * 
+ * Bases are the symbols 0-3 of the DNA alphabets (A, C, G, T), any other symbol (e.g. N) 
+ * is a mismatch.
+ */
+public class EditDistance {
+	private static final int WORD = 64;
+	
+	/**
+	 * Edit distance between 2 sequences if it is at most k
+	 * @return the distance, or -1 if it is greater than k
+	 */
+	public static int banded(Sequence query, Sequence target, int k){
+		return banded(query.toBytes(), 0, query.length(), target.toBytes(), 0, target.length(), k);
+	}
+	
+	/**
+	 * Edit distance between query[qStart, qEnd) and target[tStart, tEnd) if it is at most k
+	 * @return the distance, or -1 if it is greater than k
+	 */
+	public static int banded(byte[] query, int qStart, int qEnd, byte[] target, int tStart, int tEnd, int k){
+		int m = qEnd - qStart, n = tEnd - tStart;
+		if (k < 0 || Math.abs(m - n) > k)
+			return -1;
+		if (m == 0 || n == 0)
+			return Math.max(m, n);
+		
+		int blocks = (m + WORD - 1) / WORD;
+		//match vectors of each base, per block
+		long [] peq = new long[4 * blocks];
+		for (int i = 0; i < m; i++){
+			int sy = query[qStart + i];
+			if (sy >= 0 && sy < 4)
+				peq[sy * blocks + i / WORD] |= 1L << (i % WORD);
+		}
+		
+		long [] pv = new long[blocks], mv = new long[blocks];
+		int [] score = new int[blocks];//value of the last row of the block in the current column
+		long lastMask = 1L << ((m - 1) % WORD);
+		
+		//rows of column 0 are 0..m: all vertical differences are +1
+		Arrays.fill(pv, -1L);
+		int firstBlock = 0, lastBlock = -1;
+		
+		for (int c = 1; c <= n; c++){
+			//rows (1-based) that can be on an alignment within k: |i - c| <= k and |(m - i) - (n - c)| <= k
+			int lo = Math.max(1, Math.max(c - k, c + m - n - k)),
+				hi = Math.min(m, Math.min(c + k, c + m - n + k));
+			if (lo > hi)
+				return -1;
+			
+			//blocks entering the band: their values in the previous column are taken from the block above
+			//with vertical differences +1, an upper bound of the actual values
+			for (int b = lastBlock + 1; b <= (hi - 1) / WORD; b++){
+				pv[b] = -1L;
+				mv[b] = 0;
+				score[b] = (b == 0 ? c - 1 : score[b - 1]) + (b == blocks - 1 ? m - b * WORD : WORD);
+			}
+			lastBlock = (hi - 1) / WORD;
+			//blocks leaving the band are not needed anymore: the row above the first block is taken
+			//with horizontal difference +1, again an upper bound
+			firstBlock = Math.max(firstBlock, (lo - 1) / WORD);
+			
+			int sy = target[tStart + c - 1];
+			int hout = 1; //row 0: D[0][c] - D[0][c-1]
+			for (int b = firstBlock; b <= lastBlock; b++){
+				long eq = (sy >= 0 && sy < 4) ? peq[sy * blocks + b] : 0L;
+				long p = pv[b], mm = mv[b];
+				long high = b == blocks - 1 ? lastMask : Long.MIN_VALUE;
+				
+				long xv = eq | mm;
+				if (hout < 0)
+					eq |= 1L;
+				long xh = (((eq & p) + p) ^ p) | eq;
+				long ph = mm | ~(xh | p);
+				long mh = p & xh;
+				
+				int hin = hout;
+				hout = (ph & high) != 0 ? 1 : ((mh & high) != 0 ? -1 : 0);
+				
+				ph <<= 1;
+				mh <<= 1;
+				if (hin < 0)
+					mh |= 1L;
+				else if (hin > 0)
+					ph |= 1L;
+				
+				pv[b] = mh | ~(xv | ph);
+				mv[b] = ph & xv;
+				score[b] += hout;
+			}
+		}
+		int retval = score[blocks - 1];
+		return retval <= k ? retval : -1;
+	}
+}
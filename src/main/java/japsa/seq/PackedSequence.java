@@ -0,0 +1,248 @@
+/*****************************************************************************
+ * Copyright (c) Minh Duc Cao, Monash Uni & UQ, All rights reserved.         *
+ *                                                                           *
+ * Redistribution and use in source and binary forms, with or without        *
+ * modification, are permitted provided that the following conditions        *
+ * are met:                                                                  * 
+ *                                                                           *
+ * 1. Redistributions of source code must retain the above copyright notice, *
+ *    this list of conditions and the following disclaimer.                  *
+ * 2. Redistributions in binary form must reproduce the above copyright      *
+ *    notice, this list of conditions and the following disclaimer in the    *
+ *    documentation and/or other materials provided with the distribution.   *
+ * 3. Neither the names of the institutions nor the names of the contributors*
+ *    may be used to endorse or promote products derived from this software  *
+ *    without specific prior written permission.                             *
+ *                                                                           *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS   *
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, *
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR    *
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR         *
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,     *
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,       *
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR        *
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF    *
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING      *
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS        *
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.              *
+ ****************************************************************************/
+
+package japsa.seq;
+
+import java.util.Arrays;
+
+/**
+ * Read-only DNA sequence packed in 2 bits per base (A, C, G, T as symbols 0 to
+ * 3), 32 bases per long. Other symbols (N, IUPAC codes) are kept as runs in a
+ * sparse exception list, so a sequence takes about a quarter of the memory
+ * of a Sequence.
+ * 
+ * Subsequence and reverse complement are computed a word at a time.
+ */
+public class PackedSequence extends AbstractSequence {
+	private final long[] words;//base i at bits 2*(i%32) of words[i/32]
+	private final int length;
+	
+	//runs [runStart, runEnd) of runSymbol, sorted
+	private final int[] runStart, runEnd;
+	private final byte[] runSymbol;
+	
+	/**
+	 * Pack the symbols [from, to) of an array
+	 * @param alphabet: a DNA alphabet
+	 * @param symbols
+	 * @param from
+	 * @param to
+	 * @param name
+	 */
+	public PackedSequence(Alphabet alphabet, byte[] symbols, int from, int to, String name) {
+		super(alphabet, name);
+		length = to - from;
+		words = new long[(length + 31) >>> 5];
+		int runs = 0;
+		for (int i = from; i < to; i++){
+			if ((symbols[i] < 0 || symbols[i] > 3) && (i == from || symbols[i - 1] != symbols[i]))
+				runs++;
+		}
+		runStart = new int[runs];
+		runEnd = new int[runs];
+		runSymbol = new byte[runs];
+		runs = 0;
+		for (int i = 0; i < length; i++){
+			byte symbol = symbols[from + i];
+			if (symbol >= 0 && symbol <= 3)
+				words[i >>> 5] |= (long) symbol << ((i & 31) << 1);
+			else if (runs > 0 && runEnd[runs - 1] == i && runSymbol[runs - 1] == symbol)
+				runEnd[runs - 1]++;
+			else{
+				runStart[runs] = i;
+				runEnd[runs] = i + 1;
+				runSymbol[runs++] = symbol;
+			}
+		}
+		assert runs == runStart.length;
+	}
+	
+	/**
+	 * Packed copy of a sequence, with its name and description
+	 */
+	public PackedSequence(AbstractSequence seq) {
+		this(seq.alphabet(), symbols(seq), 0, seq.length(), seq.getName());
+		setDesc(seq.getDesc());
+	}
+	
+	private PackedSequence(Alphabet alphabet, long[] words, int length, int[] runStart, int[] runEnd, byte[] runSymbol) {
+		super(alphabet);
+		this.words = words;
+		this.length = length;
+		this.runStart = runStart;
+		this.runEnd = runEnd;
+		this.runSymbol = runSymbol;
+	}
+	
+	private static byte[] symbols(AbstractSequence seq){
+		if (seq instanceof Sequence)
+			return ((Sequence) seq).toBytes();
+		byte[] retval = new byte[seq.length()];
+		for (int i = 0; i < retval.length; i++)
+			retval[i] = (byte) seq.symbolAt(i);
+		return retval;
+	}
+	
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public int symbolAt(int loc) {
+		if (loc < 0 || loc >= length)
+			throw new IndexOutOfBoundsException("Index " + loc + " out of a sequence of length " + length);
+		if (runStart.length > 0){
+			int run = Arrays.binarySearch(runStart, loc);
+			if (run < 0)
+				run = -run - 2;
+			if (run >= 0 && loc < runEnd[run])
+				return runSymbol[run];
+		}
+		return (int) (words[loc >>> 5] >>> ((loc & 31) << 1)) & 3;
+	}
+
+	@Override
+	public byte getBase(int loc) {
+		return (byte) symbolAt(loc);
+	}
+
+	@Override
+	public void setSymbol(int loc, int symbol) {
+		throw new UnsupportedOperationException("Read-only packed sequence");
+	}
+
+	@Override
+	public byte setBase(int loc, byte base) {
+		throw new UnsupportedOperationException("Read-only packed sequence");
+	}
+	
+	/**
+	 * Copy the symbols [start, end) into an array, a word at a time
+	 */
+	public void getSymbols(int start, int end, byte[] dest, int destPos){
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("[" + start + ", " + end + ") out of a sequence of length " + length);
+		for (int i = start; i < end;){
+			long word = words[i >>> 5] >>> ((i & 31) << 1);
+			int stop = Math.min(end, (i | 31) + 1);
+			for (; i < stop; i++, word >>>= 2)
+				dest[destPos++] = (byte) (word & 3);
+		}
+		destPos -= end - start;
+		for (int run = firstRun(start); run < runStart.length && runStart[run] < end; run++)
+			Arrays.fill(dest, destPos + Math.max(start, runStart[run]) - start, destPos + Math.min(end, runEnd[run]) - start, runSymbol[run]);
+	}
+	
+	//index of the first run ending after pos
+	private int firstRun(int pos){
+		int run = Arrays.binarySearch(runStart, pos);
+		if (run < 0)
+			run = -run - 2;
+		if (run < 0 || runEnd[run] <= pos)
+			run++;
+		return run;
+	}
+
+	/**
+	 * Bases [start, end), shifted a word at a time
+	 */
+	@Override
+	public PackedSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("[" + start + ", " + end + ") out of a sequence of length " + length);
+		int first = firstRun(start), last = first;
+		while (last < runStart.length && runStart[last] < end)
+			last++;
+		int[] newStart = new int[last - first], newEnd = new int[last - first];
+		for (int run = first; run < last; run++){
+			newStart[run - first] = Math.max(start, runStart[run]) - start;
+			newEnd[run - first] = Math.min(end, runEnd[run]) - start;
+		}
+		return new PackedSequence(alphabet(), shift(words, start, end - start), end - start,
+				newStart, newEnd, Arrays.copyOfRange(runSymbol, first, last));
+	}
+	
+	//the 2-bit symbols [start, start+length) of words
+	private static long[] shift(long[] words, int start, int length){
+		long[] retval = new long[(length + 31) >>> 5];
+		int offset = start >>> 5, bits = (start & 31) << 1;
+		for (int j = 0; j < retval.length; j++){
+			long word = words[offset + j] >>> bits;
+			if (bits != 0 && offset + j + 1 < words.length)
+				word |= words[offset + j + 1] << (64 - bits);
+			retval[j] = word;
+		}
+		if ((length & 31) != 0)
+			retval[retval.length - 1] &= (1L << ((length & 31) << 1)) - 1;
+		return retval;
+	}
+	
+	/**
+	 * Reverse complement, a word at a time (A, C, G, T complemented as 3 - x)
+	 */
+	public PackedSequence reverseComplement(){
+		if (!(alphabet() instanceof Alphabet.DNA))
+			throw new RuntimeException(alphabet() + " is not DNA");
+		Alphabet.DNA dna = (Alphabet.DNA) alphabet();
+		
+		int m = words.length;
+		long[] reversed = new long[m];
+		for (int j = 0; j < m; j++){
+			long x = words[m - 1 - j];
+			//reverse the 2-bit groups of the word
+			x = ((x >>> 2) & 0x3333333333333333L) | ((x & 0x3333333333333333L) << 2);
+			x = ((x >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((x & 0x0F0F0F0F0F0F0F0FL) << 4);
+			reversed[j] = ~Long.reverseBytes(x);
+		}
+		//the padding of the last word is now at the start
+		long[] newWords = shift(reversed, (m << 5) - length, length);
+		
+		int runs = runStart.length;
+		int[] newStart = new int[runs], newEnd = new int[runs];
+		byte[] newSymbol = new byte[runs];
+		for (int run = 0; run < runs; run++){
+			int r = runs - 1 - run;
+			newStart[run] = length - runEnd[r];
+			newEnd[run] = length - runStart[r];
+			newSymbol[run] = runSymbol[r] < 0 ? runSymbol[r] : (byte) dna.complement(runSymbol[r]);
+		}
+		return new PackedSequence(alphabet(), newWords, length, newStart, newEnd, newSymbol);
+	}
+	
+	/**
+	 * Unpack into a new sequence
+	 */
+	public Sequence toSequence(){
+		Sequence seq = new Sequence(alphabet(), length, getName());
+		getSymbols(0, length, seq.toBytes(), 0);
+		seq.setDesc(getDesc());
+		return seq;
+	}
+}
@@ -0,0 +1,115 @@
+/*****************************************************************************
+ * Copyright (c) Minh Duc Cao, Monash Uni & UQ, All rights reserved.         *
+ *                                                                           *
+ * Redistribution and use in source and binary forms, with or without        *
+ * modification, are permitted provided that the following conditions        *
+ * are met:                                                                  * 
+ *                                                                           *
+ * 1. Redistributions of source code must retain the above copyright notice, *
+ *    this list of conditions and the following disclaimer.                  *
+ * 2. Redistributions in binary form must reproduce the above copyright      *
+ *    notice, this list of conditions and the following disclaimer in the    *
+ *    documentation and/or other materials provided with the distribution.   *
+ * 3. Neither the names of the institutions nor the names of the contributors*
+ *    may be used to endorse or promote products derived from this software  *
+ *    without specific prior written permission.                             *
+ *                                                                           *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS   *
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, *
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR    *
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR         *
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,     *
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,       *
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR        *
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF    *
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING      *
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS        *
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.              *
+ ****************************************************************************/
+
+package japsa.seq;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Concatenation of sequences (usually views, see SequenceView) without copying 
+ * their bases, e.g. the spelling of a path in an assembly graph. Appending is
+ * amortised O(1), a random access is O(log(number of segments)) and writing
+ * goes through the segments in turn.
+ */
+public class RopeSequence extends SequenceView {
+	private AbstractSequence[] segments = new AbstractSequence[8];
+	private int[] ends = new int[8];//end (exclusive) of each segment in the rope
+	private int count = 0, length = 0;
+	
+	public RopeSequence(Alphabet alphabet) {
+		super(alphabet);
+	}
+	
+	public RopeSequence(Alphabet alphabet, String name) {
+		super(alphabet, name);
+	}
+	
+	/**
+	 * Append a sequence (not copied), the segments of a rope are appended
+	 * one by one
+	 * @return this rope
+	 */
+	public RopeSequence append(AbstractSequence seq){
+		if (seq.alphabet() != alphabet())
+			throw new RuntimeException("The alphabets do not match");
+		if (seq instanceof RopeSequence){
+			RopeSequence rope = (RopeSequence) seq;
+			for (int i = 0; i < rope.count; i++)
+				append(rope.segments[i]);
+			return this;
+		}
+		if (seq.length() == 0)
+			return this;
+		if (count == segments.length){
+			segments = Arrays.copyOf(segments, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		}
+		length += seq.length();
+		segments[count] = seq;
+		ends[count++] = length;
+		return this;
+	}
+	
+	/**
+	 * Append a run of a symbol, e.g. a gap of Ns
+	 * @return this rope
+	 */
+	public RopeSequence appendRun(int symbol, int runLength){
+		return append(SequenceView.run(alphabet(), symbol, runLength));
+	}
+	
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public int symbolAt(int loc) {
+		if (loc < 0 || loc >= length)
+			throw new IndexOutOfBoundsException("Position " + loc + " out of a sequence of length " + length);
+		//first segment ending after loc
+		int i = Arrays.binarySearch(ends, 0, count, loc);
+		i = i < 0 ? -i - 1 : i + 1;
+		return segments[i].symbolAt(loc - (i == 0 ? 0 : ends[i - 1]));
+	}
+	
+	@Override
+	protected int writeFastaBases(SequenceOutputStream out, int column) throws IOException {
+		for (int i = 0; i < count; i++)
+			column = segments[i].writeFastaBases(out, column);
+		return column;
+	}
+	
+	@Override
+	public void writeStream(SequenceOutputStream out) throws IOException {
+		for (int i = 0; i < count; i++)
+			segments[i].writeStream(out);
+	}
+}
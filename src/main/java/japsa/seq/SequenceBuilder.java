@@ -187,8 +187,12 @@ public class SequenceBuilder extends AbstractSequence {
 				}
 			}
 		}
-		for (int i = start; i < end; i++)
-			byteSeq[length++] = (byte) seq.symbolAt(i);		
+		if (seq instanceof PackedSequence){
+			((PackedSequence) seq).getSymbols(start, end, byteSeq, length);
+			length += end - start;
+		}else
+			for (int i = start; i < end; i++)
+				byteSeq[length++] = (byte) seq.symbolAt(i);		
 	}
 
 	public void append(AbstractSequence seq){
@@ -279,13 +279,30 @@ public class SequenceOutputStream  extends OutputStream {
 	 * @throws IOException
 	 */
 	public void print(int num)throws IOException {
-		//FIXME: this is slow
-		print(Integer.toString(num));		
+		print((long) num);
 	}
 	
 	public void print(long num)throws IOException {
-		//FIXME: this is slow
-		print(Long.toString(num));		
+		//the digits are written straight into the buffer
+		if (num == Long.MIN_VALUE || buf.length < 20){
+			print(Long.toString(num));
+			return;
+		}
+		if (count + 20 > buf.length) {
+			flushBuffer();
+		}
+		if (num < 0){
+			buf[count++] = '-';
+			num = -num;
+		}
+		int digits = 1;
+		for (long n = num / 10; n > 0; n /= 10)
+			digits++;
+		for (int i = count + digits - 1; i >= count; i--){
+			buf[i] = (byte) ('0' + num % 10);
+			num /= 10;
+		}
+		count += digits;
 	}
 	
 	public void print(float num)throws IOException {
@@ -303,6 +320,50 @@ public class SequenceOutputStream  extends OutputStream {
 		write(JapsaMath.formatLong((int)num,fm));		
 	}
 	
+	/**
+	 * Write the symbols [start, end) of a sequence as characters of its
+	 * alphabet, encoded straight into the buffer (no string is created). The
+	 * bases of a Sequence are read from its byte array.
+	 * @param seq
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	public void writeSymbols(AbstractSequence seq, int start, int end) throws IOException {
+		Alphabet alphabet = seq.alphabet();
+		byte[] bases = (seq instanceof Sequence) ? ((Sequence) seq).toBytes() : null;
+		while (start < end){
+			if (count >= buf.length) {
+				flushBuffer();
+			}
+			int stop = start + Math.min(end - start, buf.length - count);
+			if (bases != null)
+				for (; start < stop; start++)
+					buf[count++] = (byte) alphabet.int2char(bases[start]);
+			else
+				for (; start < stop; start++)
+					buf[count++] = (byte) alphabet.int2char(seq.symbolAt(start));
+		}
+	}
+	
+	/**
+	 * Write the symbols [start, end) of a sequence in lines of 60 characters
+	 * as AbstractSequence.writeFasta(), starting at a column of the current line
+	 * @return the column after the last symbol
+	 * @throws IOException
+	 */
+	public int writeFastaSymbols(AbstractSequence seq, int start, int end, int column) throws IOException {
+		while (start < end){
+			if (column % 60 == 0)
+				print('\n');
+			int n = Math.min(end - start, 60 - column % 60);
+			writeSymbols(seq, start, start + n);
+			start += n;
+			column += n;
+		}
+		return column;
+	}
+	
 	/**
 	 * Write the string presenting the number in fm spaces, right justified, to
 	 * the stream. 
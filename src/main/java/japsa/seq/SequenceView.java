@@ -0,0 +1,180 @@
+/*****************************************************************************
+ * Copyright (c) Minh Duc Cao, Monash Uni & UQ, All rights reserved.         *
+ *                                                                           *
+ * Redistribution and use in source and binary forms, with or without        *
+ * modification, are permitted provided that the following conditions        *
+ * are met:                                                                  * 
+ *                                                                           *
+ * 1. Redistributions of source code must retain the above copyright notice, *
+ *    this list of conditions and the following disclaimer.                  *
+ * 2. Redistributions in binary form must reproduce the above copyright      *
+ *    notice, this list of conditions and the following disclaimer in the    *
+ *    documentation and/or other materials provided with the distribution.   *
+ * 3. Neither the names of the institutions nor the names of the contributors*
+ *    may be used to endorse or promote products derived from this software  *
+ *    without specific prior written permission.                             *
+ *                                                                           *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS   *
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, *
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR    *
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR         *
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,     *
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,       *
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR        *
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF    *
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING      *
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS        *
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.              *
+ ****************************************************************************/
+
+package japsa.seq;
+
+import java.io.IOException;
+
+/**
+ * Read-only sequences over other sequences, without copying their bases: a
+ * reverse complement, a subsequence and a run of the same symbol. See also 
+ * RopeSequence to concatenate them.
+ * 
+ * A view reflects the changes of the underlying sequence.
+ */
+public abstract class SequenceView extends AbstractSequence {
+
+	public SequenceView(Alphabet alphabet) {
+		super(alphabet);
+	}
+	
+	public SequenceView(Alphabet alphabet, String name) {
+		super(alphabet, name);
+	}
+	
+	/**
+	 * Reverse complement of a DNA sequence
+	 */
+	public static AbstractSequence reverseComplement(AbstractSequence seq){
+		if (seq instanceof ReverseComplement)
+			return ((ReverseComplement) seq).seq;
+		return new ReverseComplement(seq);
+	}
+	
+	/**
+	 * Bases [start, end) of a sequence
+	 */
+	public static AbstractSequence subSequence(AbstractSequence seq, int start, int end){
+		if (start < 0 || end > seq.length() || start > end)
+			throw new IndexOutOfBoundsException("[" + start + ", " + end + ") out of a sequence of length " + seq.length());
+		if (start == 0 && end == seq.length())
+			return seq;
+		if (seq instanceof Sub){
+			Sub sub = (Sub) seq;
+			return new Sub(sub.seq, sub.start + start, sub.start + end);
+		}
+		return new Sub(seq, start, end);
+	}
+	
+	/**
+	 * A symbol repeated, e.g. a gap of Ns
+	 */
+	public static AbstractSequence run(Alphabet alphabet, int symbol, int length){
+		return new Run(alphabet, symbol, length);
+	}
+	
+	@Override
+	public byte getBase(int loc) {
+		return (byte) symbolAt(loc);
+	}
+	
+	@Override
+	public void setSymbol(int loc, int symbol) {
+		throw new UnsupportedOperationException("Read-only sequence view");
+	}
+
+	@Override
+	public byte setBase(int loc, byte base) {
+		throw new UnsupportedOperationException("Read-only sequence view");
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return subSequence(this, start, end);
+	}
+	
+	/**
+	 * Copy the bases into a new sequence
+	 */
+	public Sequence toSequence(){
+		Sequence seq = new Sequence(alphabet(), length(), getName());
+		for (int i = 0; i < length(); i++)
+			seq.setSymbol(i, symbolAt(i));
+		seq.setDesc(getDesc());
+		return seq;
+	}
+	
+	static final class ReverseComplement extends SequenceView{
+		private final AbstractSequence seq;
+		private final Alphabet.DNA dna;
+		
+		ReverseComplement(AbstractSequence seq){
+			super(seq.alphabet());
+			if (!(seq.alphabet() instanceof Alphabet.DNA))
+				throw new RuntimeException(seq.alphabet() + " is not DNA");
+			this.seq = seq;
+			dna = (Alphabet.DNA) seq.alphabet();
+		}
+		@Override
+		public int length() {
+			return seq.length();
+		}
+		@Override
+		public int symbolAt(int loc) {
+			return dna.complement(seq.symbolAt(seq.length() - 1 - loc));
+		}
+	}
+	
+	static final class Sub extends SequenceView{
+		private final AbstractSequence seq;
+		private final int start, end;
+		
+		Sub(AbstractSequence seq, int start, int end){
+			super(seq.alphabet());
+			this.seq = seq;
+			this.start = start;
+			this.end = end;
+		}
+		@Override
+		public int length() {
+			return end - start;
+		}
+		@Override
+		public int symbolAt(int loc) {
+			return seq.symbolAt(start + loc);
+		}
+		//straight from the underlying sequence (e.g. its byte array)
+		@Override
+		public void writeStream(SequenceOutputStream out) throws IOException {
+			out.writeSymbols(seq, start, end);
+		}
+		@Override
+		protected int writeFastaBases(SequenceOutputStream out, int column) throws IOException {
+			return out.writeFastaSymbols(seq, start, end, column);
+		}
+	}
+	
+	static final class Run extends SequenceView{
+		private final int symbol, length;
+		
+		Run(Alphabet alphabet, int symbol, int length){
+			super(alphabet);
+			this.symbol = symbol;
+			this.length = length;
+		}
+		@Override
+		public int length() {
+			return length;
+		}
+		@Override
+		public int symbolAt(int loc) {
+			return symbol;
+		}
+	}
+}
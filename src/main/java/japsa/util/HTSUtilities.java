@@ -35,9 +35,13 @@ package japsa.util;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
 import japsa.seq.Alphabet;
 import japsa.seq.Sequence;
 import org.slf4j.Logger;
@@ -51,6 +55,23 @@ import org.slf4j.LoggerFactory;
 public class HTSUtilities {
 	private static final Logger LOG = LoggerFactory.getLogger(HTSUtilities.class);
 
+	/**
+	 * Build a table from the reference indices of the SAM header's sequence dictionary
+	 * to the objects representing the references (e.g. contigs, graph nodes), so a record
+	 * can be resolved by SAMRecord.getReferenceIndex() alone. References that the lookup
+	 * can't resolve are left null.
+	 * @param header
+	 * @param lookup: from reference name to the object
+	 * @param generator: array constructor, e.g. Contig[]::new
+	 * @return the table indexed by reference index
+	 */
+	public static <T> T[] referenceTable(SAMFileHeader header, Function<String, T> lookup, IntFunction<T[]> generator){
+		T[] table = generator.apply(header.getSequenceDictionary().size());
+		for (SAMSequenceRecord ref:header.getSequenceDictionary().getSequences()){
+			table[ref.getSequenceIndex()] = lookup.apply(ref.getSequenceName());
+		}
+		return table;
+	}
 
 
 	/**
@@ -22,13 +22,13 @@ public class NPGraphCmd extends CommandLine{
 
 		addString("si", "", "Name of the short-read assembly file.");
 		addString("sf", "", "Format of the assembly input file. Accepted format are FASTG, GFA");
-		addString("li", "", "Name of the long-read data input file, - for stdin.");
+		addString("li", "", "Name of the long-read data input file, - for stdin, or a folder of FASTQ/FASTA files written during the run (e.g. fastq_pass/).");
 		addString("lf", "", "Format of the long-read data input file. This may be FASTQ/FASTA (MinION reads) or SAM/BAM (aligned with the assembly graph already)");
 		addString("output", "/tmp/", "Output folder for temporary files and the final assembly npgraph_assembly.fasta");
 				
 		addString("sb", "", "Name of the metaBAT file for binning information (experimental).");
 
-		addString("aligner","","Aligner tool that will be used, either minimap2 or bwa");
+		addString("aligner","","Aligner tool that will be used, either minimap2, bwa or internal (in-process mapper, no binary needed)");
 
 		addString("algPath","","Absolute path to the binary aligner file");
 		addString("algOpt", "", "Settings used by aligner to align long reads to the contigs");
@@ -38,6 +38,17 @@ public class NPGraphCmd extends CommandLine{
 		addBoolean("sp", false, "Whether to use SPAdes contigs.paths for bridging.");
 		addInt("qual", 10, "Minimum quality of alignment to considered");
 		addInt("mcov", 3, "Minimum number of reads spanning a confident bridge");
+		addInt("threads", 1, "Number of threads used to process the alignments (>1 for the pipelined ingest) and to write the outputs");
+		addBoolean("unordered", false, "Build the bridges of reads with different anchors concurrently in the pipelined ingest (faster, but the result may differ between runs)");
+		addBoolean("partition", false, "Assemble groups of connected components of the graph concurrently, one per thread, e.g. for metagenomes (no bridge between components of different groups)");
+		addBoolean("readstore", false, "Keep the bases of the reads waiting to be committed by the pipelined (--threads>1) or partitioned ingest in a memory-mapped file of the output folder instead of the heap (long runs of ultra-long reads), no effect on the serial ingest");
+		addBoolean("bgzf", false, "Write the final assembly BGZF-compressed (npgraph_assembly.fasta.gz, npgraph_assembly.gfa.gz)");
+		addInt("wait", 600, "Seconds to wait for a new file when the long-read input is a folder, before ending the input (0 to wait until stopped)");
+		addInt("checkpoint", 0, "Interval in seconds between checkpoints of the assembly in the output folder (0 to disable)");
+		addString("journal", "", "Record the alignments of the long reads into this binary journal file, for replaying");
+		addString("replay", "", "Replay the alignments from a journal file (recorded with --journal) instead of the long-read data");
+		addBoolean("pace", false, "Replay the journal at the recorded pace instead of the maximum speed");
+		addBoolean("resume", false, "Whether to resume from the last checkpoint in the output folder, skipping the reads already processed (with the internal mapper, the files of a long-read folder already consumed are not read again).");
 
 		addBoolean("gui", false, "Whether using GUI or not.");
 		addBoolean("verbose", false, "For debugging.");
@@ -64,6 +75,7 @@ public class NPGraphCmd extends CommandLine{
 			
 		Alignment.MIN_QUAL = cmdLine.getIntVal("qual");
 		BDGraph.MIN_COVER=cmdLine.getIntVal("mcov");
+		BDGraph.OUTPUT_THREADS=cmdLine.getIntVal("threads");
 		HybridAssembler.VERBOSE=cmdLine.getBooleanVal("verbose");
 		//Default output dir 
 		if(outputDir == null) {
@@ -95,6 +107,16 @@ public class NPGraphCmd extends CommandLine{
 		if(algOpt!=null && !algOpt.isEmpty())
 			hbAss.setAlignerOpts(algOpt);
 		
+		hbAss.setNumberOfThreads(cmdLine.getIntVal("threads"));
+		hbAss.setUnordered(cmdLine.getBooleanVal("unordered"));
+		hbAss.setPartitioned(cmdLine.getBooleanVal("partition"));
+		hbAss.setReadStore(cmdLine.getBooleanVal("readstore"));
+		hbAss.setCompressOutput(cmdLine.getBooleanVal("bgzf"));
+		hbAss.setWatchTimeout(cmdLine.getIntVal("wait"));
+		hbAss.setCheckpointInterval(cmdLine.getIntVal("checkpoint"));
+		hbAss.setResume(cmdLine.getBooleanVal("resume"));
+		hbAss.setJournalFile(cmdLine.getStringVal("journal"));
+		String replay = cmdLine.getStringVal("replay");
 		hbAss.setOverwrite(overwrite);
 		hbAss.setUseSPAdesPath(spaths);
 		        
@@ -105,7 +127,17 @@ public class NPGraphCmd extends CommandLine{
         }else {
 	        
 			try {
-				if(hbAss.prepareShortReadsProcess() &&	hbAss.prepareLongReadsProcess()) {
+				if(replay!=null && !replay.isEmpty()) {
+					//no long-read data needed
+					if(hbAss.prepareShortReadsProcess()) {
+						hbAss.replay(replay, cmdLine.getBooleanVal("pace"));
+						hbAss.postProcessGraph();
+					}else {
+						LOG.error("Error with pre-processing step: \n" + hbAss.getErrorLog());
+						System.exit(1);
+					}
+				}
+				else if(hbAss.prepareShortReadsProcess() &&	hbAss.prepareLongReadsProcess()) {
 					hbAss.assembly();
 					hbAss.postProcessGraph();
 				}
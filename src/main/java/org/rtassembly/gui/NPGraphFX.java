@@ -490,7 +490,7 @@ public class NPGraphFX extends Application{
     	optionPane.getChildren().add(algPathTF);
     	
     	ComboBox<String> algCombo=new ComboBox<String>();
-    	algCombo.getItems().addAll("minimap2", "bwa");   
+    	algCombo.getItems().addAll("minimap2", "bwa", "internal");   
     	algCombo.valueProperty().bindBidirectional(myass.alignerProperty());
         GridPane.setConstraints(algCombo, 2, 0, 2, 1);
         optionPane.getChildren().add(algCombo);
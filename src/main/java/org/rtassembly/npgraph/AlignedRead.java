@@ -39,30 +39,53 @@ import japsa.seq.Alphabet;
 import japsa.seq.Sequence;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.function.Supplier;
 
 
 public class AlignedRead{
 	/**
-	 * The read sequence
+	 * The read sequence, only decoded (or fetched back from the ReadStore) when asked for by getReadSequence()
 	 */
-	Sequence readSequence;		
+	private Supplier<Sequence> readSupplier;
+	private Sequence readSequence=null;
+	private boolean reversed=false;
 	private boolean sorted = false;
 	
 	//This is only used in uniqueBridgesFinding()
 	private int eFlag=0; // 0: both ends are from non-unique nodes; 1: start node is unique; 2: end node is unique; 3: both ends are from unique nodes
+	private PopBin bin=null; //population bin of the unique ending(s), also only used in uniqueBridgesFinding()
 	
 	ArrayList<Alignment> alignments;	
 
-	public AlignedRead(Sequence read, ArrayList<Alignment> alignmentList){
-		readSequence = read;
+	public AlignedRead(Supplier<Sequence> read, ArrayList<Alignment> alignmentList){
+		readSupplier = read;
 		alignments = alignmentList;
 	}
-	public AlignedRead(Sequence read, Alignment alg){
+	public AlignedRead(Supplier<Sequence> read, Alignment alg){
 		this(read, new ArrayList<Alignment>());
 		append(alg);
 	}
+	public AlignedRead(Sequence read, ArrayList<Alignment> alignmentList){
+		this(()->read, alignmentList);
+	}
+	
+	//e.g. once the read is moved to the ReadStore (see HybridAssembler.keepRead())
+	void setReadSupplier(Supplier<Sequence> read){
+		readSupplier = read;
+	}
 	
 	public Sequence getReadSequence(){
+		if(readSequence==null && readSupplier!=null) {
+			readSequence = readSupplier.get();
+			//bases not available, e.g. replayed from a journal or dropped from the read store
+			if(readSequence==null)
+				return null;
+			if(reversed) {
+				Sequence revRead = Alphabet.DNA.complement(readSequence);
+				revRead.setName("REV"+readSequence.getName());
+				readSequence = revRead;
+			}
+		}
 		return readSequence;
 	}
 
@@ -92,18 +115,25 @@ public class AlignedRead{
 	public int getEFlag(){
 		return eFlag;
 	}
+	
+	public void setBin(PopBin bin){
+		this.bin=bin;
+	}
+	public PopBin getBin(){
+		return bin;
+	}
 
 	
 	public void reverse(){
 		//return an (conceptually the same) read filling with the a reverse read
-		Sequence revRead = Alphabet.DNA.complement(readSequence);
-		revRead.setName("REV"+readSequence.getName());
+		//the sequence itself is reversed lazily by getReadSequence()
 		ArrayList<Alignment> revAlignments = new ArrayList<Alignment>(); 
 		
 		for (Alignment alignment:alignments)
 			revAlignments.add(0,alignment.reverseRead());
 		
-		readSequence=revRead;
+		reversed=!reversed;
+		readSequence=null;
 		alignments=revAlignments;
 
 	}
@@ -34,11 +34,10 @@
  ****************************************************************************/
 package org.rtassembly.npgraph;
 
-import java.util.ArrayList;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.SAMRecord;
-import japsa.seq.Sequence;
+import japsa.seq.AbstractSequence;
 
 public class Alignment implements Comparable<Alignment> {
 //	public final static int OVERHANG_THRES=500; 
@@ -46,7 +45,7 @@ public class Alignment implements Comparable<Alignment> {
 
 	public static int MIN_QUAL=10; 
 
-	int quality;
+	short quality; //MAPQ
 
 	public String readID;
 	BDNode node;
@@ -61,22 +60,17 @@ public class Alignment implements Comparable<Alignment> {
 	//read length
 	public int readLength = 0;		
 
-	//TODO: take into account NM (edit distance) and AS (alignment score) tag from SAM file
-	public int score = 0; //just alignment length for now
-	
 	public boolean strand = true;//positive
 	public boolean prime = true;//primary alignment
 	public boolean goodMargin = false;
 	public boolean useful = false;
-	//SAMRecord mySam;
-	
-	ArrayList<CigarElement> alignmentCigars = new ArrayList<CigarElement>();
+	//Only the coordinates, MAPQ and flags are kept (neither the CIGAR nor the SAMRecord)
 	
 
 	//public int readLeft, readRight, readAlign, refLeft, refRight, refAlign;
 	//left and right are in the direction of the reference sequence
 	public Alignment(String readID, int refStart, int refEnd, int readLength, 
-			int readStart, int readEnd, boolean strand, boolean useful, BDNode node, int score){
+			int readStart, int readEnd, boolean strand, boolean useful, BDNode node){
 		this.readID = readID;
 		this.refStart = refStart;
 		this.refEnd = refEnd;
@@ -87,13 +81,12 @@ public class Alignment implements Comparable<Alignment> {
 		this.strand = strand;
 		this.useful = useful;			
 		this.node = node;
-		this.score = score;
 	}
 	
 	public Alignment(SAMRecord sam, BDNode node) {
 //		readID = Integer.parseInt(sam.getReadName().split("_")[0]);
 		readID = sam.getReadName();
-		quality = sam.getMappingQuality();
+		quality = (short) sam.getMappingQuality();
 		prime=!sam.getNotPrimaryAlignmentFlag();
 		this.node = node;
 
@@ -105,7 +98,6 @@ public class Alignment implements Comparable<Alignment> {
 		//////////////////////////////////////////////////////////////////////////////////
 
 		for (final CigarElement e : cigar.getCigarElements()) {
-			alignmentCigars.add(e);
 			final int  length = e.getLength();
 			switch (e.getOperator()) {
 			case H :
@@ -140,11 +132,7 @@ public class Alignment implements Comparable<Alignment> {
 		//these temporary variable to determine usefulness
 		int readLeft = readStart -1;
 		int readRight = readLength - readEnd;
-
-		int refLeft = refStart - 1;
-		int refRight = ((Sequence) node.getAttribute("seq")).length() - refEnd;
 		
-		score = refEnd + 1 - refStart;
 		if (sam.getReadNegativeStrandFlag()){			
 			strand = false;
 			//need to convert the alignment position on read the correct direction 
@@ -152,6 +140,46 @@ public class Alignment implements Comparable<Alignment> {
 			readEnd = 1 + readLength - readEnd;
 		}
 		
+		setUsefulness(readLeft, readRight);
+	}
+	
+	/*
+	 * Alignment reported by the internal mapper (MinimizerMapper): [qStart,qEnd) on the read (using the direction of read)
+	 * and [rStart,rEnd) on the node sequence, both 0-based.
+	 */
+	public Alignment(String readID, int readLength, int qStart, int qEnd, BDNode node, int rStart, int rEnd, 
+			boolean strand, boolean prime, int quality) {
+		this.readID = readID;
+		this.readLength = readLength;
+		this.node = node;
+		this.strand = strand;
+		this.prime = prime;
+		this.quality = (short) quality;
+		
+		refStart = rStart + 1;
+		refEnd = rEnd;
+		
+		int readLeft, readRight;
+		if(strand) {
+			readStart = qStart + 1;
+			readEnd = qEnd;
+			readLeft = qStart;
+			readRight = readLength - qEnd;
+		}else {
+			readStart = qEnd;
+			readEnd = qStart + 1;
+			readLeft = readLength - qEnd;
+			readRight = qStart;
+		}
+		
+		setUsefulness(readLeft, readRight);
+	}
+	
+	//readLeft, readRight: unaligned parts of the read, in the direction of the reference sequence
+	private void setUsefulness(int readLeft, int readRight) {
+		int refLeft = refStart - 1;
+		int refRight = ((AbstractSequence) node.getAttribute("seq")).length() - refEnd;
+		
 		int overhangTolerance = (int) Math.min(BDGraph.A_TOL, BDGraph.R_TOL*node.getNumber("len"));
 		if (
 				(readLeft < overhangTolerance || refLeft < overhangTolerance) &&
@@ -165,10 +193,14 @@ public class Alignment implements Comparable<Alignment> {
 				&& quality >= MIN_QUAL
 			)
 			useful = true;
-
 	}
 	
 	
+	//TODO: take into account NM (edit distance) and AS (alignment score) tag from SAM file
+	public int score(){
+		return refEnd + 1 - refStart; //just alignment length for now
+	}
+	
 	public int readAlignmentStart(){
 		return Math.min(readStart,readEnd);
 	
@@ -180,9 +212,7 @@ public class Alignment implements Comparable<Alignment> {
 
 	public Alignment reverseRead(){
 		Alignment revAlign = new Alignment(readID, refStart, refEnd, readLength, 
-		readLength - readStart + 1, readLength - readEnd + 1, !strand, useful, node, score);
-		
-		revAlign.alignmentCigars = alignmentCigars;
+		readLength - readStart + 1, readLength - readEnd + 1, !strand, useful, node);
 
 		return revAlign;
 	}
@@ -190,7 +220,7 @@ public class Alignment implements Comparable<Alignment> {
 		return node.getAttribute("name")  
 				+ ": " + refStart 
 				+ " -> " + refEnd
-				+ " / " + ((Sequence) node.getAttribute("seq")).length()
+				+ " / " + ((AbstractSequence) node.getAttribute("seq")).length()
 				+ " map to "
 				+ readID
 				+ ": " + readStart 
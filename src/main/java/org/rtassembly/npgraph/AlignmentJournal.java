@@ -0,0 +1,124 @@
+package org.rtassembly.npgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.graphstream.graph.Graph;
+
+/*
+ * Binary journal of the alignments of the reads, in the order they were consumed by HybridAssembler.assembly(),
+ * to replay the bridging later without the aligner or the SAM parsing (HybridAssembler.replay()).
+ * Each read is a group of the Alignment fields used for bridging, with the time it was consumed.
+ * The read bases are not kept.
+ */
+public class AlignmentJournal {
+	private static final int MAGIC=0x4e50474a, VERSION=1; //"NPGJ"
+
+	//Alignments of a read as recorded
+	public static class ReadGroup{
+		long time; //ms since the start of the recording
+		ArrayList<Alignment> alignments;
+	}
+
+	/*
+	 * Writer, used by the (single) thread committing the reads. Node IDs are written once then referred to by index.
+	 */
+	public static class Writer implements Closeable{
+		private DataOutputStream out;
+		private HashMap<String, Integer> nodeIndex = new HashMap<>();
+		private long startTime;
+
+		public Writer(String fileName) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1<<16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			startTime = System.currentTimeMillis();
+		}
+
+		public synchronized void write(List<Alignment> alignments) throws IOException {
+			out.writeBoolean(true);
+			out.writeLong(System.currentTimeMillis() - startTime);
+			out.writeUTF(alignments.isEmpty()?"":alignments.get(0).readID);
+			out.writeInt(alignments.size());
+			for(Alignment alg:alignments) {
+				Integer idx = nodeIndex.get(alg.node.getId());
+				if(idx==null) {
+					out.writeInt(-1);
+					out.writeUTF(alg.node.getId());
+					nodeIndex.put(alg.node.getId(), nodeIndex.size());
+				}else
+					out.writeInt(idx);
+				out.writeInt(alg.readLength);
+				out.writeInt(alg.readStart);
+				out.writeInt(alg.readEnd);
+				out.writeInt(alg.refStart);
+				out.writeInt(alg.refEnd);
+				out.writeInt(alg.score()); //kept for the format, derived from the coordinates
+				out.writeInt(alg.quality);
+				out.writeByte((alg.strand?1:0) | (alg.prime?2:0) | (alg.goodMargin?4:0) | (alg.useful?8:0));
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			out.writeBoolean(false);
+			out.close();
+		}
+	}
+
+	/*
+	 * Read the whole journal into memory so the replay is not slowed down by I/O.
+	 * Alignments to nodes not in the graph are dropped.
+	 */
+	public static List<ReadGroup> readAll(String fileName, Graph graph) throws IOException {
+		ArrayList<ReadGroup> retval = new ArrayList<>();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1<<16))){
+			if(in.readInt()!=MAGIC || in.readInt()!=VERSION)
+				throw new IOException("Invalid alignment journal " + fileName);
+			ArrayList<BDNode> nodes = new ArrayList<>();
+			//a journal not closed properly (e.g. killed process) is read up to its last complete group
+			try {
+				while(in.readBoolean()) {
+					ReadGroup group = new ReadGroup();
+					group.time = in.readLong();
+					String readID = in.readUTF();
+					int size = in.readInt();
+					group.alignments = new ArrayList<>(size);
+					for(int i=0;i<size;i++) {
+						int idx = in.readInt();
+						if(idx < 0) {
+							idx = nodes.size();
+							nodes.add((BDNode) graph.getNode(in.readUTF()));
+						}
+						int readLength = in.readInt(), readStart = in.readInt(), readEnd = in.readInt(),
+							refStart = in.readInt(), refEnd = in.readInt();
+						in.readInt(); //score
+						int quality = in.readInt();
+						byte flags = in.readByte();
+						if(nodes.get(idx)==null)
+							continue;
+						Alignment alg = new Alignment(readID, refStart, refEnd, readLength, readStart, readEnd, (flags&1)!=0, (flags&8)!=0, nodes.get(idx));
+						alg.quality = (short) quality;
+						alg.prime = (flags&2)!=0;
+						alg.goodMargin = (flags&4)!=0;
+						group.alignments.add(alg);
+					}
+					retval.add(group);
+				}
+			}catch(EOFException e) {
+				//truncated
+			}
+		}
+		return retval;
+	}
+}
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 
 public class BDEdge extends AbstractEdge{
 	protected boolean dir0, dir1;//true: outward, false: inward
+	int binRow=-1; //in SimpleBinner.edgeBins, -1 if never binned
 	//note that traversing direction (true: template, false: reverse complement) of destination node is opposite its defined direction (true: outward, false:inward) 
 	
     private static final Logger LOG = LoggerFactory.getLogger(BDEdge.class);
@@ -161,6 +162,20 @@ public class BDEdge extends AbstractEdge{
 		return dir1;
 	}
 
+	//the length of an edge depends on its path
+	@Override
+	protected void attributeChanged(AttributeChangeEvent event, String attribute, Object oldValue, Object newValue) {
+		super.attributeChanged(event, attribute, oldValue, newValue);
+		if(attribute.equals("path")) {
+			BDNode n0 = (BDNode) getNode0(), n1 = (BDNode) getNode1();
+			if(n0.index >= 0) {
+				GraphCore core = ((BDGraph) n0.getGraph()).core;
+				core.touch(n0);
+				core.touch(n1);
+			}
+		}
+	}
+	
 	public int getLength(){
 		if(this.hasAttribute("path")) {
 			BDPath tmp=(BDPath) this.getAttribute("path");
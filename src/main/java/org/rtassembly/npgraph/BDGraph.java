@@ -1,21 +1,22 @@
 package org.rtassembly.npgraph;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.graphstream.graph.*;
@@ -23,8 +24,8 @@ import org.graphstream.graph.implementations.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import japsa.seq.AbstractSequence;
 import japsa.seq.Sequence;
-import japsa.seq.SequenceOutputStream;
 
 
 public class BDGraph extends MultiGraph{
@@ -44,12 +45,27 @@ public class BDGraph extends MultiGraph{
     public static int MAX_DFS_PATHS=100; //maximum number of candidate DFS paths
     
 	public static volatile int MAX_DIFF=5;//safe distance between good and bad possible paths so we can discard the bad ones
+	public static volatile int OUTPUT_THREADS=1;//threads formatting the FASTA/GFA outputs, see RecordWriter
 	public static volatile int MIN_COVER=3;//number of reads spanning 2 ends of an bridge for it to be considered complete 
 
 	
     //provide mapping from unique directed node to its corresponding bridge
     //E.g: 103-: <103-82-> also 82+:<82+103+>
-    private HashMap<String, GoInBetweenBridge> bridgesMap; 
+    private ConcurrentHashMap<String, GoInBetweenBridge> bridgesMap; 
+    /*
+     * Locking for building bridges concurrently (see uniqueBridgesFinding()): bridges are built under the read lock,
+     * the changes of the graph structure (reductions, pseudo edges, checkpoints) are made under the write lock.
+     * Reads touching the same unique anchors are serialized by lock striping on the anchor node id, the state of
+     * a bridge itself is guarded by its monitor.
+     */
+    static final int LOCK_STRIPES=256;
+    final ReentrantReadWriteLock graphLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] bridgeLocks = Stream.generate(ReentrantLock::new).limit(LOCK_STRIPES).toArray(ReentrantLock[]::new);
+    //int-indexed mirror of the graph for the path finding
+    GraphCore core = new GraphCore();
+    //ids of the nodes whose edges changed since the last poll, for the incremental GraphWatcher.update() (null if not watched)
+    private HashSet<String> changedNodes = null;
+    private boolean allChanged = true;
 //    private HashMap<Node, Set<Node>> adjacencyMap; // map a node to the set of its nearest unique nodes (identify via reduce function) 
     private static final Logger LOG = LoggerFactory.getLogger(BDGraph.class);
 
@@ -80,7 +96,7 @@ public class BDGraph extends MultiGraph{
 			int initialNodeCapacity, int initialEdgeCapacity) {
 		super(id, strictChecking, autoCreate);
 		
-		bridgesMap=new HashMap<String, GoInBetweenBridge>(initialNodeCapacity*2);
+		bridgesMap=new ConcurrentHashMap<String, GoInBetweenBridge>(initialNodeCapacity*2);
 //		adjacencyMap=new HashMap<Node, Set<Node>>();
 		// All we need to do is to change the node & edge factory
 		setNodeFactory(new NodeFactory<BDNode>() {
@@ -96,6 +112,62 @@ public class BDGraph extends MultiGraph{
 		});
 		
 	}
+	// *** Callbacks to keep the core in sync ***
+	@Override
+	protected void addNodeCallback(AbstractNode node) {
+		super.addNodeCallback(node);
+		core.add((BDNode) node);
+	}
+	@Override
+	protected void removeNodeCallback(AbstractNode node) {
+		super.removeNodeCallback(node);
+		core.remove((BDNode) node);
+		recordChange(node);
+	}
+	@Override
+	protected void addEdgeCallback(AbstractEdge edge) {
+		super.addEdgeCallback(edge);
+		core.touch((BDNode) edge.getNode0());
+		core.touch((BDNode) edge.getNode1());
+		recordChange(edge.getNode0());
+		recordChange(edge.getNode1());
+	}
+	@Override
+	protected void removeEdgeCallback(AbstractEdge edge) {
+		super.removeEdgeCallback(edge);
+		core.touch((BDNode) edge.getNode0());
+		core.touch((BDNode) edge.getNode1());
+		recordChange(edge.getNode0());
+		recordChange(edge.getNode1());
+	}
+	@Override
+	protected void clearCallback() {
+		super.clearCallback();
+		core.clear();
+		allChanged = true;
+	}
+	
+	private void recordChange(Node node) {
+		if(changedNodes!=null)
+			changedNodes.add(node.getId());
+	}
+	//start recording the changes, see GraphWatcher
+	void watchChanges() {
+		changedNodes = new HashSet<>();
+		allChanged = true;
+	}
+	//ids of the nodes changed since the last call, null if all of them should be considered changed
+	Set<String> pollChangedNodes() {
+		Set<String> retval = allChanged ? null : changedNodes;
+		changedNodes = new HashSet<>();
+		allChanged = false;
+		return retval;
+	}
+	
+	//for checkpointing
+	Map<String, GoInBetweenBridge> getBridgesMap(){
+		return bridgesMap;
+	}
 	public HashSet<GoInBetweenBridge> getUnsolvedBridges(){
 		HashSet<GoInBetweenBridge> retval = new HashSet<GoInBetweenBridge>();
 		for(GoInBetweenBridge brg:bridgesMap.values()){
@@ -156,22 +228,19 @@ public class BDGraph extends MultiGraph{
 	}
 	
 	public void outputFASTA(String fileName) throws IOException {
-		SequenceOutputStream out = SequenceOutputStream.makeOutputStream(fileName);
-		
-		for(Node node:this) {
-			Sequence seq=(Sequence) node.getAttribute("seq");
-//			if( (node.getDegree()==0 && (seq.length() < SimpleBinner.ANCHOR_CTG_LEN)) 
-//				|| node.getNumber("cov") < 10.0 )	//not display <10% abundance pops
-//				continue;
-			seq.writeFasta(out);
+		try(RecordWriter writer = new RecordWriter(fileName, OUTPUT_THREADS)){
+			writer.write(nodes()::iterator, node -> ((AbstractSequence) node.getAttribute("seq")).length()*61/60+64,
+					(node, out) -> {
+						AbstractSequence seq=(AbstractSequence) node.getAttribute("seq");
+//						if( (node.getDegree()==0 && (seq.length() < SimpleBinner.ANCHOR_CTG_LEN)) 
+//							|| node.getNumber("cov") < 10.0 )	//not display <10% abundance pops
+//							continue;
+						seq.writeFasta(out);
+					});
 		}
-		
-		out.close();
 	}
 	
 	public void outputGFA(String fileName) throws IOException {
-	    PrintWriter printWriter = new PrintWriter(new FileWriter(fileName));
-	    
 	    //Differentiate composite edges and normal edges
 	    List<Edge> compositeEdges = new ArrayList<Edge>(),
 	    			normalEdges = new ArrayList<Edge>();
@@ -183,41 +252,51 @@ public class BDGraph extends MultiGraph{
 	    					}
 	    );
 	    
-	    Set<String> addedNodes = new HashSet<String>();
-	    //Print S (Segment)
-	    for(Node node:this){
-	    	Sequence seq=(Sequence) node.getAttribute("seq");
-	    	int kmer_count=(int)(GraphUtil.getRealCoverage(node.getNumber("cov"))*(BDGraph.ILLUMINA_READ_LENGTH-BDGraph.getKmerSize()+1)/BDGraph.ILLUMINA_READ_LENGTH);
-	    	printWriter.printf("S\t%s\t%s\tKC:i:%d\n", node.getId(), seq.toString(),kmer_count);
-	    	addedNodes.add(node.getId());
-	    }	    
+	    //S (Segment): the nodes, then the nodes only found in the paths of composite edges
+	    List<Node> segments = nodes().collect(Collectors.toCollection(ArrayList::new));
+	    Set<String> addedNodes = segments.stream().map(Node::getId).collect(Collectors.toCollection(HashSet::new));
 	    for(Edge e:compositeEdges){
 	    	BDPath p = (BDPath)e.getAttribute("path");
-	    	p.nodes().filter(n->!addedNodes.contains(n.getId()))
-    				.forEach(n->{
-    			    	Sequence seq=(Sequence) n.getAttribute("seq");
-    			    	int kmer_count=(int)(GraphUtil.getRealCoverage(n.getNumber("cov"))*(BDGraph.ILLUMINA_READ_LENGTH-BDGraph.getKmerSize()+1)/BDGraph.ILLUMINA_READ_LENGTH);
-    			    	printWriter.printf("S\t%s\t%s\tKC:i:%d\n", n.getId(), seq.toString(),kmer_count);
-    			    	addedNodes.add(n.getId());
-	    			});
+	    	p.nodes().filter(n->addedNodes.add(n.getId())).forEach(segments::add);
 	    }
 	    
-	    //Print L (Link)
-	    for(Edge e:normalEdges){
-	    	printWriter.printf("L\t%s\t%s\t%s\t%s\t%dM\n", 
-	    						e.getNode0().getId(), 
-	    						((BDEdge)e).getDir0()?"+":"-",
-								e.getNode1().getId(), 
-	    						((BDEdge)e).getDir1()?"-":"+",
-								BDGraph.getKmerSize());
-	    }
-	    //Print P (Path)
-	    for(Edge e:compositeEdges){
-	    	BDPath p = (BDPath)e.getAttribute("path");	    	
-	    	printWriter.printf("P\t[%s]\t%s\t%s\n", p.getEndingID(), p.getId(), String.join(",", Collections.nCopies(p.size(), "*")));
+	    try(RecordWriter writer = new RecordWriter(fileName, OUTPUT_THREADS)){
+	    	writer.write(segments, n -> ((AbstractSequence) n.getAttribute("seq")).length()+n.getId().length()+32,
+	    			(n, out) -> {
+	    				AbstractSequence seq=(AbstractSequence) n.getAttribute("seq");
+	    				int kmer_count=(int)(GraphUtil.getRealCoverage(n.getNumber("cov"))*(BDGraph.ILLUMINA_READ_LENGTH-BDGraph.getKmerSize()+1)/BDGraph.ILLUMINA_READ_LENGTH);
+	    				out.print("S\t");
+	    				out.print(n.getId());
+	    				out.print('\t');
+	    				seq.writeStream(out);
+	    				out.print("\tKC:i:");
+	    				out.print(kmer_count);
+	    				out.print('\n');
+	    			});
+	    	//L (Link)
+	    	writer.write(normalEdges, e -> 64, 
+	    			(e, out) -> {
+	    				out.print("L\t");
+	    				out.print(e.getNode0().getId());
+	    				out.print(((BDEdge)e).getDir0()?"\t+\t":"\t-\t");
+	    				out.print(e.getNode1().getId());
+	    				out.print(((BDEdge)e).getDir1()?"\t-\t":"\t+\t");
+	    				out.print(BDGraph.getKmerSize());
+	    				out.print("M\n");
+	    			});
+	    	//P (Path)
+	    	writer.write(compositeEdges, e -> 256, 
+	    			(e, out) -> {
+	    				BDPath p = (BDPath)e.getAttribute("path");
+	    				out.print("P\t[");
+	    				out.print(p.getEndingID());
+	    				out.print("]\t");
+	    				out.print(p.getId());
+	    				out.print('\t');
+	    				out.print(String.join(",", Collections.nCopies(p.size(), "*")));
+	    				out.print('\n');
+	    			});
 	    }
-	    
-	    printWriter.close();
 	}
     
 	
@@ -234,12 +313,12 @@ public class BDGraph extends MultiGraph{
 
     
     // when this unique node actually contained by a bridge
-    synchronized public void updateBridgesMap(Node unqNode, GoInBetweenBridge bidirectedBridge){
+    public void updateBridgesMap(Node unqNode, GoInBetweenBridge bidirectedBridge){
     	bridgesMap.put(unqNode.getId()+"o", bidirectedBridge);
     	bridgesMap.put(unqNode.getId()+"i", bidirectedBridge);
     }
     // when there is new unique bridge 
-    synchronized protected void updateBridgesMap(GoInBetweenBridge bidirectedBridge) {
+    protected void updateBridgesMap(GoInBetweenBridge bidirectedBridge) {
     	if(bidirectedBridge==null || bidirectedBridge.pBridge==null)
     		return;
 
@@ -252,25 +331,11 @@ public class BDGraph extends MultiGraph{
 			GoInBetweenBridge 	brg0=bridgesMap.get(end0),		
 								brg1=bridgesMap.get(end1);
 			GoInBetweenBridge ultimateBridge=bidirectedBridge;
-			if(brg0!=null&&brg0!=bidirectedBridge) {
-				if(brg0.getCompletionLevel()>bidirectedBridge.getCompletionLevel()) {
-					brg0.merge(bidirectedBridge,true);
-					ultimateBridge=brg0;
-				}else {
-					bidirectedBridge.merge(brg0,true);
-					ultimateBridge=bidirectedBridge;
-				}
-			}
+			if(brg0!=null&&brg0!=bidirectedBridge)
+				ultimateBridge=mergeBridges(brg0, bidirectedBridge);
 			
-			if(brg1!=null&&brg1!=bidirectedBridge) {
-				if(brg1.getCompletionLevel()>bidirectedBridge.getCompletionLevel()) {
-					brg1.merge(bidirectedBridge,true);
-					ultimateBridge=brg1;
-				}else {
-					bidirectedBridge.merge(brg1,true);
-					ultimateBridge=bidirectedBridge;
-				}
-			}
+			if(brg1!=null&&brg1!=bidirectedBridge)
+				ultimateBridge=mergeBridges(brg1, bidirectedBridge);
 			
 			bridgesMap.put(end0, ultimateBridge);
     		bridgesMap.put(end1, ultimateBridge);
@@ -280,8 +345,41 @@ public class BDGraph extends MultiGraph{
     	
     }
     
+    /*
+     * Merge 2 bridges sharing an anchor into the more complete one (the bridge itself if equal). Both bridges are locked,
+     * in a fixed order so 2 threads merging the same pair can't deadlock. No bridge must be locked by the caller.
+     */
+    private static final Object MERGE_TIE_LOCK = new Object();
+    private GoInBetweenBridge mergeBridges(GoInBetweenBridge other, GoInBetweenBridge bridge) {
+    	int h0=System.identityHashCode(other), h1=System.identityHashCode(bridge);
+    	if(h0==h1) {
+    		synchronized(MERGE_TIE_LOCK) {
+    			synchronized(other) {
+    				synchronized(bridge) {
+    					return mergeLockedBridges(other, bridge);
+    				}
+    			}
+    		}
+    	}
+    	Object first=h0<h1?other:bridge, second=h0<h1?bridge:other;
+    	synchronized(first) {
+    		synchronized(second) {
+    			return mergeLockedBridges(other, bridge);
+    		}
+    	}
+    }
+    private GoInBetweenBridge mergeLockedBridges(GoInBetweenBridge other, GoInBetweenBridge bridge) {
+		if(other.getCompletionLevel()>bridge.getCompletionLevel()) {
+			other.merge(bridge,true);
+			return other;
+		}else {
+			bridge.merge(other,true);
+			return bridge;
+		}
+    }
+    
     //when there is a path that could represent a bridge (half or full)
-    synchronized protected void updateBridgesMap(BDPath path){
+    protected void updateBridgesMap(BDPath path){
     	if(path==null || path.size() < 2)
     		return;
     	try{
@@ -303,7 +401,7 @@ public class BDGraph extends MultiGraph{
     }
     
     //Return bridge in the map (if any) that share the same bases (unique end) 
-    synchronized public GoInBetweenBridge getBridgeFromMap(AlignedRead algRead){
+    public GoInBetweenBridge getBridgeFromMap(AlignedRead algRead){
     	GoInBetweenBridge retval = null, tmp = null;
     	if(algRead!=null){
 	    	Node 	startNode=algRead.getFirstAlignment().node,
@@ -378,7 +476,7 @@ public class BDGraph extends MultiGraph{
     	initGraphComponents();
     }
     
-    synchronized ArrayList<BDPath> DFSAllPaths(Alignment from, Alignment to, boolean force){
+    ArrayList<SharedPath> DFSAllPaths(Alignment from, Alignment to, boolean force){
     	assert from.readID==to.readID && to.compareTo(from)>=0:"Illegal alignment pair to find path!"; 	
     	int distance=to.readAlignmentStart()-from.readAlignmentEnd();
     	BDNode srcNode = from.node,
@@ -387,114 +485,120 @@ public class BDGraph extends MultiGraph{
     	return DFSAllPaths(srcNode, dstNode, srcDir, dstDir, distance, force);
     }
     
-	synchronized ArrayList<BDPath> DFSAllPaths(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance, boolean force)
+	ArrayList<SharedPath> DFSAllPaths(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance, boolean force)
 	{
     	if(distance>BDGraph.D_LIMIT && !force)
     		return null;
     	if(HybridAssembler.VERBOSE)
     		LOG.info("Looking for DFS path between {}{} to {}{} with distance={}",srcNode.getId(), srcDir?"o":"i", dstNode.getId(), dstDir?"o":"i" ,distance);
-		ArrayList<BDPath> possiblePaths = new ArrayList<BDPath>(), 
-									retval=new ArrayList<BDPath>();
-		//1. First build shortest tree from dstNode 		
-		HashMap<String,Integer> shortestMap = getShortestTreeFromNode(dstNode, dstDir, distance);
-		BDPath path = new BDPath(srcNode);
-
-		//2. DFS from srcNode with the distance info above
-		BDNodeState curNodeState = new BDNodeState(srcNode, !srcDir); // first node is special
-		if(shortestMap.containsKey(curNodeState.toString())) {
-			
-			Stack<List<Edge>> stack = new Stack<>();
-			List<Edge> curList = (curNodeState.getDir()?curNodeState.getNode().enteringEdges():curNodeState.getNode().leavingEdges()).collect(Collectors.toList());
-			stack.push(curList);
+		ArrayList<SharedPath> possiblePaths = new ArrayList<SharedPath>();
+		//1. First get the shortest tree from dstNode (no other tree is built on this thread until the DFS is done)
+		if(HybridAssembler.VERBOSE)
+    		LOG.info("Building shortest tree for " + dstNode.getId() + " with distance=" + distance);
+		ShortestTree shortestTree = core.trees.get(core, GraphCore.state(dstNode, dstDir), distance);
+		SharedPath path = new SharedPath(srcNode);
+
+		/*
+		 * 2. DFS from srcNode with the distance info above, keeping only the MAX_DFS_PATHS best hits so far
+		 * (by deviation, then the latest found first). A branch ending at a node with remaining distance R can't give
+		 * a deviation below max(0, shortest distance from the node to dstNode - R): it is skipped if that can't make
+		 * it to the result, i.e. beyond the tolerance, the current K-th hit or the relative tolerance of the best hit.
+		 * S_LIMIT counts the hits reached, i.e. not the ones of the skipped branches: the search stops later than when
+		 * every hit was counted, with a best hit at least as good.
+		 */
+		TreeMap<Long, SharedPath> ranked = new TreeMap<>(); //key: deviation<<32 | (MAX_VALUE - hit number)
+		double relTolerance = Math.abs(distance+getKmerSize())*R_TOL;
+		int srcState = GraphCore.state(srcNode, !srcDir); // first node is special
+		if(shortestTree.contains(srcState)) {
+			//the DFS stack: path, state expanded at each depth, next neighbor to try and bound for the neighbors
+			SharedPath[] paths = new SharedPath[16];
+			int[] states = new int[16], nexts = new int[16], limits = new int[16];
+			int depth = 0;
+			paths[0] = path;
+			states[0] = srcState^1;
 			
-			int shortestDist2Dest = shortestMap.get(curNodeState.toString());
+			int shortestDist2Dest = shortestTree.get(srcState);
 			int tolerance = A_TOL, 
-				delta;
-			BDEdge curEdge = null;
+				remain, delta, bound, hits = 0;
 			if(HybridAssembler.VERBOSE)
-	    		LOG.info("Found " + curNodeState.toString() + " with shortest distance=" + shortestDist2Dest);
+	    		LOG.info("Found " + srcNode.getId() + (srcDir?"i":"o") + " with shortest distance=" + shortestDist2Dest);
 			
 			while(true) {
-//				System.out.println("\nCurrent stack: ");
-//				for(List<Edge> l:stack) {
-//					System.out.print("[");
-//					for(Edge e:l)
-//							System.out.printf("%s; ", e.getId());
-//					System.out.println("]");
-//				}
-//				System.out.println("Current path: " + path.getId());
-//				System.out.println("Current distance: " + distance);
-
-				curList=stack.peek();
+				int curState = states[depth], i = nexts[depth];
+				int[] nextStates = core.nextStates(curState);
+				int degree = core.degree(curState);
+				//neighbors of the first node are not filtered
+				while(i < degree && depth > 0 && shortestTree.get(nextStates[i]) >= limits[depth])
+					i++;
 				
-				if(curList.isEmpty()) {
-					if(path.size() <= 1)
+				if(i >= degree) {
+					if(depth == 0)
 						break;
-					stack.pop();
-//					System.out.print("removing edge " + path.peekEdge().getId());
-					distance += (int)path.peekNode().getNumber("len") + ((BDEdge) path.popEdge()).getLength();
-//					System.out.println(" -> distance = " + distance);
-				}else {
-					curEdge=(BDEdge) curList.remove(0);
-					BDNode from = (BDNode) path.peekNode(),
-									to = (BDNode) curEdge.getOpposite(from);
-					boolean dir = curEdge.getDir(to);
-
-					AtomicInteger limit = new AtomicInteger(distance + tolerance);
-			    	stack.push(
-			    			(curEdge.getDir(to)?to.enteringEdges():to.leavingEdges())
-			    			.filter(e->{
-			    				BDNode n=(BDNode) e.getOpposite(to);
-			    				BDNodeState ns = new BDNodeState(n, ((BDEdge) e).getDir(n));
-			    				
-			    				return shortestMap.containsKey(ns.toString()) && shortestMap.get(ns.toString()) < limit.get();
-			    			})
-			    			.collect(Collectors.toList())			    			
-			    			);
-			    	
-					path.add(curEdge);
-
-					delta=Math.abs(distance-curEdge.getLength());
-					//note that traversing direction (true: template, false: reverse complement) of destination node is opposite its defined direction (true: outward, false:inward) 
-					if(to==dstNode && dir==dstDir && delta < tolerance){ 
-//					if(to==dstNode && dir==dstDir){ 
-
-				    	BDPath 	tmpPath=new BDPath(path);
+					distance += core.length(paths[depth].getLastNode()) + paths[depth].getLastEdge().getLength();
+					depth--;
+					continue;
+				}
+				nexts[depth] = i+1;
+				
+				int toState = nextStates[i]; //the state of "to" as reached, its edges are from toState^1
+				BDEdge curEdge = core.edges(curState)[i];
+				BDNode to = core.getNodeOfState(toState);
+				boolean dir = GraphCore.dir(toState);
+				
+				remain = distance - core.length(to) - curEdge.getLength();
+				bound = shortestTree.get(toState);
+				if(bound == ShortestTree.NONE)
+					continue;
+				bound = Math.max(0, bound - remain);
+				if(bound >= tolerance
+					|| (ranked.size() >= MAX_DFS_PATHS && bound > (int)(ranked.lastKey()>>32))
+					|| (!ranked.isEmpty() && bound > (ranked.firstKey()>>32) + relTolerance))
+					continue;
+				
+				if(++depth == states.length) {
+					paths = Arrays.copyOf(paths, depth*2);
+					states = Arrays.copyOf(states, depth*2);
+					nexts = Arrays.copyOf(nexts, depth*2);
+					limits = Arrays.copyOf(limits, depth*2);
+				}
+				states[depth] = toState^1;
+				nexts[depth] = 0;
+				limits[depth] = distance + tolerance;
+				paths[depth] = paths[depth-1].add(curEdge);
+
+				delta=Math.abs(distance-curEdge.getLength());
+				//note that traversing direction (true: template, false: reverse complement) of destination node is opposite its defined direction (true: outward, false:inward) 
+				if(to==dstNode && dir==dstDir && delta < tolerance){ 
+					hits++;
+					if(ranked.size() < MAX_DFS_PATHS || delta <= (int)(ranked.lastKey()>>32)) {
+				    	SharedPath tmpPath=paths[depth].copy(); //prefix shared with the other hits
 				    	tmpPath.setDeviation(delta);
-				    	
-				    	//insert to the list with sorting
-				    	if(possiblePaths.isEmpty())
-				    		possiblePaths.add(tmpPath);
-				    	else{
-				    		int idx=0;
-				    		while(idx<possiblePaths.size() && delta>possiblePaths.get(idx++).getDeviation());
-				    		possiblePaths.add(idx-1,tmpPath);
-				    	}
-						
-//						System.out.println("Hit added: "+path.getId()+"(candidate deviation: "+delta + "; depth: " + path.size()+")");
-						
-						if(possiblePaths.size() > S_LIMIT) //not go too far
-							break;
+				    	ranked.put((long)delta<<32 | (Integer.MAX_VALUE-hits), tmpPath);
+				    	if(ranked.size() > MAX_DFS_PATHS)
+				    		ranked.pollLastEntry();
 					}
+//					System.out.println("Hit added: "+path.getId()+"(candidate deviation: "+delta + "; depth: " + path.size()+")");
 					
-					distance -= (int)to.getNumber("len") + curEdge.getLength();
-//					System.out.println("adding edge: " + curEdge.getId() + " length=" + (int)to.getNumber("len") +" -> distance=" + distance);
-
-					
+					if(hits > S_LIMIT) //not go too far (only the hits of the branches not skipped)
+						break;
 				}
 				
+				distance = remain;
 			}
+			//back to the gap between the 2 nodes
+			for(;depth > 0;depth--)
+				distance += core.length(paths[depth].getLastNode()) + paths[depth].getLastEdge().getLength();
 		} 
 		
 		
-		if(possiblePaths.isEmpty()){
+		if(ranked.isEmpty()){
 			if(SimpleBinner.getBinIfUnique(srcNode)!=null && SimpleBinner.getBinIfUnique(dstNode)!=null && srcNode.getDegree() == 1 && dstNode.getDegree()==1 && force){
 				//save the corresponding content of long reads to this edge
 				//TODO: save nanopore reads into this pseudo edge to run consensus later
+				//force is only for the last attempt (HybridAssembler.postProcessGraph()), holding the write lock
 				BDEdge pseudoEdge = addEdge(srcNode, dstNode, srcDir, dstDir);
 				pseudoEdge.setAttribute("dist", distance);
-				path.add(pseudoEdge);
-				possiblePaths.add(path);
+				possiblePaths.add(path.add(pseudoEdge));
 				if(HybridAssembler.VERBOSE)
 		    		LOG.info("pseudo path from " + srcNode.getId() + " to " + dstNode.getId() + " distance=" + distance);
 				
@@ -504,75 +608,27 @@ public class BDGraph extends MultiGraph{
 
 		}
 		
-		double bestScore=possiblePaths.get(0).getDeviation();
-		int keepMax = MAX_DFS_PATHS;//only keep this many possible paths 
-		for(int i=0;i<possiblePaths.size();i++){
-			BDPath p = possiblePaths.get(i);
-			if(p.getDeviation()>bestScore+Math.abs(distance+getKmerSize())*R_TOL || i>=keepMax)
+		double bestScore=ranked.firstEntry().getValue().getDeviation();
+		for(SharedPath p:ranked.values()){
+			if(p.getDeviation()>bestScore+relTolerance)
 				break;
-			retval.add(p);
+			possiblePaths.add(p);
 			if(HybridAssembler.VERBOSE)
-	    		LOG.info("Hit added: "+p.getId()+"(candidate deviation: "+p.getDeviation() + "; depth: " + p.size()+")");
+	    		LOG.info("Hit added: "+p.getId()+"(candidate deviation: "+p.getDeviation() + "; depth: " + (p.getEdgeCount()+1)+")");
 		}
 		
-		//TODO: reduce the number of returned paths here (calculate edit distance with nanopore read: dynamic programming?)
-		return retval;
+		//the candidates are reduced further with the sequence of the reads, see GoInBetweenBridge.BridgeSegment.pruneBySequence()
+		return possiblePaths;
 	}    
     
     /*
-     * Get a map showing shortest distances from surrounding nodes to a *rootNode* expanding to a *direction*, within a *distance*
-     * based on Dijkstra algorithm
+     * Get the shortest distances from surrounding nodes to a *rootNode* expanding to a *direction*, within a *distance*
+     * based on Dijkstra algorithm. States (node, direction) are as in GraphCore, direction from the point of the rootNode.
      */
-    public HashMap<String, Integer> getShortestTreeFromNode(BDNode rootNode, boolean expDir, int distance){
-		PriorityQueue<BDNodeState> pq = new PriorityQueue<>();
-		HashMap<String,Integer> retval = new HashMap<>();
-		
-		int curDistance=(int) -rootNode.getNumber("len"), newDistance=0;
-		BDNodeState curND = new BDNodeState(rootNode, expDir, curDistance);
-		pq.add(curND);
-		
+    public ShortestTree getShortestTreeFromNode(BDNode rootNode, boolean expDir, int distance){
 		if(HybridAssembler.VERBOSE)
     		LOG.info("Building shortest tree for " + rootNode.getId() + " with distance=" + distance);
-		retval.put(curND.toString(), curDistance); // direction from the point of srcNode
-		while(!pq.isEmpty()) {
-//			System.out.println("Current queue: ");
-//			for(BDNodeVecState n:pq) {
-//				System.out.printf("%s:%d\t", n.toString(), n.getWeight());
-//			}
-//			System.out.println();
-			curND=pq.poll();
-			curDistance=curND.getWeight();
-
-			Iterator<Edge> ite=curND.getDir()?curND.getNode().leavingEdges().iterator():curND.getNode().enteringEdges().iterator();
-			while(ite.hasNext()) {
-	    		BDEdge edge = (BDEdge) ite.next();
-	    		BDNode nextNode = (BDNode) edge.getOpposite(curND.getNode());
-	    		boolean direction =  !edge.getDir(nextNode);
-	    		newDistance=curDistance+edge.getLength()+(int)curND.getNode().getNumber("len");
-//	    		if(newDistance > distance+A_TOL)
-    			if(newDistance-distance > BDGraph.A_TOL && GraphUtil.approxCompare(newDistance, distance)>0)
-	    			continue;
-	    		
-	    		BDNodeState nextND = new BDNodeState(nextNode, direction, newDistance);
-	    		String key=nextND.toString();
-	    		if(retval.containsKey(key)) {
-	    			if(retval.get(key) > newDistance) {
-	    				//update the map
-	    				retval.put(key, newDistance);
-	    				//update the queue
-	    				pq.remove(nextND);
-	    				pq.add(nextND);
-	    			}
-	    		}else {
-	    			retval.put(key, newDistance);
-    				pq.add(nextND);
-	    		}
-
-			}
-			
-		}
-
-		return retval;
+		return core.trees.get(core, GraphCore.state(rootNode, expDir), distance).compact();
     }
     
     
@@ -580,7 +636,82 @@ public class BDGraph extends MultiGraph{
      * Find bridges based on list of Alignments.
      * Return list of bridges with endings as markers and alignments of non-markers in-between.
      */ 
-    synchronized protected List<BDPath> uniqueBridgesFinding(Sequence nnpRead, ArrayList<Alignment> alignments) {
+    protected List<BDPath> uniqueBridgesFinding(Sequence nnpRead, ArrayList<Alignment> alignments) {
+    	return uniqueBridgesFinding(getBuildingBlocks(()->nnpRead, alignments));
+    }
+    
+    /*
+     * Build/update bridges from the building blocks of a read (as returned by getBuildingBlocks()),
+     * in the order they appear on the read. Only takes the read lock of the graph, so reads can be processed
+     * concurrently (see IngestPipeline), the paths returned are to be reduced under the write lock.
+     */
+    protected List<BDPath> uniqueBridgesFinding(List<AlignedRead> buildingBlocks) {
+    	if(buildingBlocks==null)
+    		return null;
+    	
+ 		ArrayList<BDPath> retrievedPaths = new ArrayList<>();
+ 		graphLock.readLock().lock();
+ 		try {
+	 		for(AlignedRead block:buildingBlocks)
+	 			retrievedPaths.addAll(buildBridge(block, block.getBin()));
+ 		}finally {
+ 			graphLock.readLock().unlock();
+ 		}
+ 		
+ 		return retrievedPaths;
+    }
+    
+    /*
+     * Build the shortest trees the path search of these building blocks will ask for (see DFSAllPaths() and
+     * GoInBetweenBridge.BridgeSteps.connectBridgeSteps()) into the cache, from the unique ends of each block in both
+     * directions of the bridge. Called by the ingest workers under the read lock, so the Dijkstra searches are done
+     * there rather than by the committing thread. The trees reaching nodes changed in the meantime are dropped from
+     * the cache (see GraphCore), so the result is the same as without.
+     */
+    void prefetchShortestTrees(List<AlignedRead> buildingBlocks) {
+    	if(buildingBlocks==null || ShortestTreeCache.CAPACITY <= 0)
+    		return;
+    	for(AlignedRead block:buildingBlocks) {
+    		Alignment first=block.getFirstAlignment(), last=block.getLastAlignment();
+    		if(last==null || first.node.index < 0 || last.node.index < 0)
+    			continue;
+    		int distance=last.readAlignmentStart()-first.readAlignmentEnd();
+    		if(distance > D_LIMIT)
+    			continue;
+    		core.trees.get(core, GraphCore.state(last.node, !last.strand), distance);
+    		core.trees.get(core, GraphCore.state(first.node, first.strand), distance);
+    	}
+    }
+    
+    static int getLockStripe(Node node) {
+    	return (node.getId().hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+    /*
+     * Lock stripes of the unique anchors a building block may touch, sorted: its unique ends and the anchors of
+     * the bridges stored at them (both directions, for the reversed read).
+     */
+    int[] getLockStripes(AlignedRead read) {
+    	TreeSet<Integer> retval = new TreeSet<>();
+    	for(Alignment alg:Arrays.asList(read.getFirstAlignment(), read.getLastAlignment())) {
+    		if(SimpleBinner.getBinIfUnique(alg.node)==null)
+    			continue;
+    		retval.add(getLockStripe(alg.node));
+    		for(String key:Arrays.asList(alg.node.getId()+"o", alg.node.getId()+"i")) {
+    			GoInBetweenBridge brg=bridgesMap.get(key);
+    			if(brg!=null)
+    				brg.getAnchors().forEach(n->retval.add(getLockStripe(n)));
+    		}
+    	}
+    	return retval.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    /*
+     * Split the alignments of a read into building blocks for bridges: each block is ended by alignment(s) to
+     * unique node(s) of the same population bin. Only read the graph (binning of unique nodes), so it can be called
+     * concurrently under the read lock, e.g. from the ingest workers.
+     * The read sequence is given lazily: it is never decoded for reads that don't make any building block.
+     */
+    List<AlignedRead> getBuildingBlocks(Supplier<Sequence> nnpRead, ArrayList<Alignment> alignments) {
  		if(nnpRead==null || alignments.size()<=1)
  			return null;
  		
@@ -607,7 +738,7 @@ public class BDGraph extends MultiGraph{
  		if(rangeGroups.size() < 2)
  			return null;
 
- 		ArrayList<BDPath> retrievedPaths = new ArrayList<>();
+ 		List<AlignedRead> retval = new ArrayList<>();
 
  		List<Range> curRanges=rangeGroups.get(0);
  		AlignedRead	curBuildingBlocks; //building blocks for a bridge, taken from alignments with unique end(s)
@@ -631,7 +762,7 @@ public class BDGraph extends MultiGraph{
  			LOG.info("Step ranges: ");
  			String log="";
 	    	for(Range range:curRanges) { 
-	    		log+=(allAlignments.get(range).node.getId() + " "+ binner.getBinsOfNode(allAlignments.get(range).node) + ": " + range + "; ");	  
+	    		log+=(allAlignments.get(range).node.getId() + " "+ SimpleBinner.getBinIfUnique(allAlignments.get(range).node) + ": " + range + "; ");	  
 	    	}
 	    		LOG.info(log);
  		}
@@ -643,7 +774,7 @@ public class BDGraph extends MultiGraph{
  	 		if(HybridAssembler.VERBOSE) {
  	 			String log="";
  		    	for(Range range:curRanges) { 
- 		    		log+=(allAlignments.get(range).node.getId() + " "+ binner.getBinsOfNode(allAlignments.get(range).node) + ": " + range + "; ");	  
+ 		    		log+=(allAlignments.get(range).node.getId() + " "+ SimpleBinner.getBinIfUnique(allAlignments.get(range).node) + ": " + range + "; ");	  
  		    	}
  		    		LOG.info(log);
  	 		}
@@ -665,13 +796,9 @@ public class BDGraph extends MultiGraph{
     				continue;
     			
     			curBuildingBlocks.setEFlag(flag);
-    			//do smt here instead of storing it!!! Parameters: curBuildingBlocks + flag + curBin
-				//TODO: implement the bridge building here, EVERYTHING
-    			////////////////////////////////////////////////////////////////////////////////////
+    			curBuildingBlocks.setBin(curBin);
+    			retval.add(curBuildingBlocks);
     			
-    			retrievedPaths.addAll(buildBridge(curBuildingBlocks, curBin));
-    			   					
-    			////////////////////////////////////////////////////////////////////////////////////
     			//start new building block
 				curBuildingBlocks=new AlignedRead(nnpRead, curAlg);
 				flag=1;
@@ -684,14 +811,41 @@ public class BDGraph extends MultiGraph{
  	    
  	    if(curBuildingBlocks.alignments.size() > 1){
  	    	curBuildingBlocks.setEFlag(1);
- 	    	retrievedPaths.addAll(buildBridge(curBuildingBlocks, prevUnqBin));
+ 	    	curBuildingBlocks.setBin(prevUnqBin);
+ 	    	retval.add(curBuildingBlocks);
  	    }
 
- 	    return retrievedPaths;
+ 	    return retval;
  	}
   	
-    
+    /*
+     * Lock the stripes of the anchors of a building block, in order so there is no deadlock. The bridges found under
+     * the locks may have new anchors in the meantime: try again with those until all are covered.
+     * Anchors found later on (new transformed ends) are not locked, the monitors of the bridges are enough for them.
+     */
     private List<BDPath> buildBridge(AlignedRead read, PopBin bin){
+    	int[] stripes=getLockStripes(read), locked;
+    	do {
+    		locked=stripes;
+    		for(int s:locked)
+    			bridgeLocks[s].lock();
+    		stripes=IntStream.concat(Arrays.stream(locked), Arrays.stream(getLockStripes(read))).distinct().sorted().toArray();
+    		if(stripes.length > locked.length)
+    			unlockStripes(locked);
+    	}while(stripes.length > locked.length);
+    	
+    	try {
+    		return buildBridgeUnderLocks(read, bin);
+    	}finally {
+    		unlockStripes(locked);
+    	}
+    }
+    private void unlockStripes(int[] stripes) {
+    	for(int i=stripes.length-1;i>=0;i--)
+    		bridgeLocks[stripes[i]].unlock();
+    }
+    
+    private List<BDPath> buildBridgeUnderLocks(AlignedRead read, PopBin bin){
     	List<BDPath> retval=new ArrayList<BDPath>();
 		GoInBetweenBridge 	storedBridge=getBridgeFromMap(read);
 		if(HybridAssembler.VERBOSE) 
@@ -712,12 +866,14 @@ public class BDGraph extends MultiGraph{
 				
 				//scan for transformed unique nodes
 				boolean extend=false;
-				if(storedBridge.getCompletionLevel()==1){
-					if(storedBridge.scanForAnEnd(false)){
-						if(HybridAssembler.VERBOSE) 
-							LOG.info("FOUND NEW TRANSFORMED END: " + storedBridge.steps.end.getNode().getId());
-						extend=storedBridge.steps.connectBridgeSteps(false);
-					}					
+				synchronized(storedBridge) {
+					if(storedBridge.getCompletionLevel()==1){
+						if(storedBridge.scanForAnEnd(false)){
+							if(HybridAssembler.VERBOSE) 
+								LOG.info("FOUND NEW TRANSFORMED END: " + storedBridge.steps.end.getNode().getId());
+							extend=storedBridge.steps.connectBridgeSteps(false);
+						}					
+					}
 				}
 				if(storedBridge.getCompletionLevel()==4 || (state&0b01)>0 || extend)
 					retval.addAll(storedBridge.scanForNewUniquePaths());
@@ -769,7 +925,15 @@ public class BDGraph extends MultiGraph{
     	//do nothing if the path has only one node
     	if(path==null||path.getEdgeCount()<1)
     		return false;
-    	else if(HybridAssembler.VERBOSE) 
+    	graphLock.writeLock().lock();
+    	try {
+    		return reduceUniquePathUnderLock(path);
+    	}finally {
+    		graphLock.writeLock().unlock();
+    	}
+    }
+    private boolean reduceUniquePathUnderLock(BDPath path){
+    	if(HybridAssembler.VERBOSE) 
 			LOG.info("Reducing path: " + path.getId());
     	//loop over the edges of path (like spelling())
     	BDNode 	startNode = (BDNode) path.getRoot(),
@@ -779,8 +943,6 @@ public class BDGraph extends MultiGraph{
     			endDir=((BDEdge) path.peekEdge()).getDir(endNode);
 
     	Set<Edge> 	potentialRemovedEdges = binner.walkAlongUniquePath(path);
-		HashMap<PopBin, Integer> oneBin = new HashMap<>();
-		oneBin.put(path.getConsensusUniqueBinOfPath(), 1);
     	
     	if(potentialRemovedEdges!=null && potentialRemovedEdges.size()>1){
 	    	//remove appropriate edges
@@ -807,7 +969,7 @@ public class BDGraph extends MultiGraph{
 //				reducedEdge.setAttribute("ui.class", "marked");
 //				reducedEdge.addAttribute("layout.weight", 10);
 				reducedEdge.setAttribute("path", path);
-				binner.edge2BinMap.put(reducedEdge, oneBin);
+				binner.setBinOfEdge(reducedEdge, path.getConsensusUniqueBinOfPath());
 //				updateGraphMap(reducedEdge, path);
 			}
 			if(HybridAssembler.VERBOSE)
@@ -838,7 +1000,7 @@ public class BDGraph extends MultiGraph{
 
     }
     //return path in the graph that contain only unique nodes
-    synchronized protected BDPath getLongestLinearPathFromNode(BDNode startNode, boolean direction){
+    protected BDPath getLongestLinearPathFromNode(BDNode startNode, boolean direction){
 //    	assert (direction?startNode.getOutDegree()<=1:startNode.getInDegree()<=1):" Node " + startNode.getId() + "has more than one possible extending way!";
     	BDPath retval = new BDPath(startNode);
     	BDNode currentNode = startNode;
@@ -856,7 +1018,7 @@ public class BDGraph extends MultiGraph{
     
 	//Only call for the final reduce path with 2 unique ends: if path containing other unique nodes than 2 ends then we have list of paths to reduce
     //exclude already-reduced path (by looking for corresponding reduce edge)
-	synchronized public ArrayList<BDPath> chopPathAtAnchors(BDPath path){
+	public ArrayList<BDPath> chopPathAtAnchors(BDPath path){
 		ArrayList<BDPath> retval=new ArrayList<>();
 		BDPath curPath = new BDPath(path.getRoot(), path.getConsensusUniqueBinOfPath());
 		BDNode curNode = (BDNode) path.getRoot(), nextNode=null;
@@ -916,7 +1078,6 @@ public class BDGraph extends MultiGraph{
 		numOfCircularCtgs=0;
 		maxl=0;
 		int [] lengths = new int[numOfCtgs];
-		double sum = 0;		
     	for (Node node : this) {
     		/*
     		 * Re-calculate stats
@@ -928,13 +1089,21 @@ public class BDGraph extends MultiGraph{
 				numOfCircularCtgs++;
 			
 			lengths[count++]=nlen; 
-			sum+=nlen;	
     	}
     	
-    	/*
-    	 * Calculate N50, N75
-    	 */
+    	int[] nxx=getN50N75(lengths);
+		n50=nxx[0];
+		n75=nxx[1];
+    }
+    
+    //N50 and N75 of contig lengths (sorted here), 0 if none
+    static int[] getN50N75(int[] lengths) {
 		Arrays.sort(lengths);
+		if(lengths.length==0)
+			return new int[] {0, 0};
+		double sum = 0;
+		for(int len:lengths)
+			sum+=len;
 
 		int i50 = lengths.length,
 			i75 = lengths.length;
@@ -948,8 +1117,7 @@ public class BDGraph extends MultiGraph{
 				break;
 			contains += lengths[i75];
 		}
-		n50=lengths[i50];
-		n75=lengths[i75];
+		return new int[] {lengths[i50], lengths[i75]};
     }
     
     private void initGraphComponents() {	
@@ -964,7 +1132,7 @@ public class BDGraph extends MultiGraph{
     		/*
     		 * Re-assign colors based on coverage/length
     		 */
-    		Sequence seq = (Sequence) node.getAttribute("seq");
+    		AbstractSequence seq = (AbstractSequence) node.getAttribute("seq");
     		double lengthScale = 1+(Math.log10(seq.length())-2)/3.5; //100->330,000
           
 			if(lengthScale<1) lengthScale=1;
@@ -7,9 +7,20 @@ import org.graphstream.graph.implementations.MultiNode;
 public class BDNode extends MultiNode {
 
 //    private static final Logger LOG = LoggerFactory.getLogger(BDNode.class);
+	int index=-1; //in BDGraph.core, -1 if not in the graph
+	int binRow=-1; //in SimpleBinner.nodeBins, -1 if never binned
+	
 	protected BDNode(AbstractGraph graph, String id) {
 		super(graph, id);
 	}
+	
+	//keep the int-indexed core of the graph in sync
+	@Override
+	protected void attributeChanged(AttributeChangeEvent event, String attribute, Object oldValue, Object newValue) {
+		super.attributeChanged(event, attribute, oldValue, newValue);
+		if(index >= 0 && (attribute.equals("len") || attribute.equals("cov")))
+			((BDGraph) getGraph()).core.update(this);
+	}
 
 	// *** Helpers ***
 	@Override
@@ -1,8 +1,12 @@
 package org.rtassembly.npgraph;
 
+import japsa.seq.AbstractSequence;
 import japsa.seq.Alphabet;
+import japsa.seq.PackedSequence;
+import japsa.seq.RopeSequence;
 import japsa.seq.Sequence;
 import japsa.seq.SequenceBuilder;
+import japsa.seq.SequenceView;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -142,18 +146,23 @@ public class BDPath extends Path{
 		
 		return retval;
 	}
-	public Sequence spelling(){
+	/*
+	 * Sequence of the path as a rope of views over the sequences of the nodes (reverse complemented, trimmed),
+	 * so nothing is copied until it's written out.
+	 */
+	public AbstractSequence spelling(){
 		BDPath realPath=getPrimitivePath();
 		
 		BDNode curNode = (BDNode) realPath.getRoot();
-		Sequence curSeq = (Sequence) curNode.getAttribute("seq");
+		AbstractSequence curSeq = (AbstractSequence) curNode.getAttribute("seq");
 		if(realPath.getEdgeCount()==0)
 			return curSeq;
 		
-		SequenceBuilder seq = new SequenceBuilder(Alphabet.DNA5(), 1024*1024, toString());
+		//same alphabet as the nodes (DNA16 from FASTG, DNA5 from GFA), RopeSequence.append() doesn't mix them
+		RopeSequence seq = new RopeSequence(curSeq.alphabet(), toString());
 		seq.setDesc(realPath.toString());
 		boolean curDir=((BDEdge) realPath.getEdgePath().get(0)).getDir(curNode);
-		curSeq = curDir?curSeq:Alphabet.DNA.complement(curSeq);
+		curSeq = curDir?curSeq:SequenceView.reverseComplement(curSeq);
 		//If path is circular: don't need to duplicate the closing node
 		if(realPath.getRoot() != realPath.peekNode())
 			seq.append(curSeq);
@@ -161,19 +170,18 @@ public class BDPath extends Path{
 		for(Edge e:realPath.getEdgePath()){
 			nextNode=(BDNode) e.getOpposite(curNode);
 
-			curSeq= (Sequence) nextNode.getAttribute("seq");
+			curSeq= (AbstractSequence) nextNode.getAttribute("seq");
 			curDir=!((BDEdge) e).getDir(nextNode);
-			curSeq = curDir?curSeq:Alphabet.DNA.complement(curSeq);
+			curSeq = curDir?curSeq:SequenceView.reverseComplement(curSeq);
 			
 
 			int overlap=((BDEdge) e).getLength();
 			//if length of edge > 0: should add NNNN...NN to seq (in case there are gaps in NGS assembly graph)
 			if(overlap < 0)
-				seq.append(curSeq.subSequence(-overlap, curSeq.length())); 
+				seq.append(SequenceView.subSequence(curSeq, -overlap, curSeq.length())); 
 			else {
-				String filler=new String(new char[overlap]).replace("\0", "N");
-				Sequence fillerSeq=new Sequence(Alphabet.DNA5(), filler, "gap");
-				seq.append(fillerSeq.concatenate(curSeq));				
+				seq.appendRun(Alphabet.DNA.N, overlap);
+				seq.append(curSeq);				
 				if(HybridAssembler.VERBOSE)
 					LOG.error("Edge {} has length={} > 0: filled with Ns", e.getId(), overlap);
 
@@ -182,7 +190,53 @@ public class BDPath extends Path{
 			curNode=nextNode;
 			
 		}
-	 return seq.toSequence();
+	 return seq;
+	}
+	/*
+	 * Part [from, to) of spelling(), without building the whole sequence (e.g. the long unique contigs at the ends)
+	 */
+	public Sequence spelling(int from, int to){
+		BDPath realPath=getPrimitivePath();
+		BDNode curNode = (BDNode) realPath.getRoot();
+		Alphabet alphabet = ((AbstractSequence) curNode.getAttribute("seq")).alphabet();
+		SequenceBuilder seq = new SequenceBuilder(alphabet, Math.max(to-from, 16), toString());
+		boolean curDir = realPath.getEdgeCount()==0 || ((BDEdge) realPath.getEdgePath().get(0)).getDir(curNode);
+		int pos = 0;
+		//as spelling(): the closing node of a circular path is not duplicated
+		if(realPath.getEdgeCount()==0 || realPath.getRoot() != realPath.peekNode())
+			pos = appendPart(seq, (AbstractSequence) curNode.getAttribute("seq"), curDir, 0, 0, from, to);
+		for(Edge e:realPath.getEdgePath()){
+			if(pos >= to)
+				break;
+			curNode=(BDNode) e.getOpposite(curNode);
+			curDir=!((BDEdge) e).getDir(curNode);
+			int overlap=((BDEdge) e).getLength();
+			//gap filled with Ns
+			for(;overlap > 0;overlap--,pos++)
+				if(pos >= from && pos < to)
+					seq.append((byte) alphabet.char2int('N'));
+			pos = appendPart(seq, (AbstractSequence) curNode.getAttribute("seq"), curDir, -overlap, pos, from, to);
+		}
+		return seq.toSequence();
+	}
+	//Append the bases of a node (reverse complemented if !dir) from offset that fall within [from, to) of the spelling,
+	//pos being the position of the base at offset. Return the position after the node.
+	private static int appendPart(SequenceBuilder seq, AbstractSequence nodeSeq, boolean dir, int offset, int pos, int from, int to){
+		int len=nodeSeq.length(),
+			start=Math.max(offset, offset+from-pos),
+			end=Math.min(len, offset+to-pos);
+		if(start >= end)
+			return pos+len-offset;
+		if(nodeSeq instanceof PackedSequence) {
+			//a word at a time
+			PackedSequence packed=(PackedSequence) nodeSeq;
+			seq.append(dir ? packed.subSequence(start, end) : packed.subSequence(len-end, len-start).reverseComplement());
+		}else {
+			Alphabet.DNA dna=(Alphabet.DNA) nodeSeq.alphabet();
+			for(int i=start;i<end;i++)
+				seq.append(dir ? nodeSeq.getBase(i) : (byte) dna.complement(nodeSeq.getBase(len-1-i)));
+		}
+		return pos+len-offset;
 	}
 	 /*
 	  * Add a path to the current path. The path to be added must start with the last node
@@ -299,7 +353,7 @@ public class BDPath extends Path{
 		int len=0;
 		double res=0;
 		for(Node n:getNodePath()){
-			Sequence seq = (Sequence) n.getAttribute("seq");
+			AbstractSequence seq = (AbstractSequence) n.getAttribute("seq");
 			len+=(n==getRoot())?seq.length():seq.length()-BDGraph.getKmerSize();
 			res+=seq.length()*n.getNumber("cov");
 		}
@@ -0,0 +1,121 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * Multiplicities of the population bins for the nodes (or the edges) of SimpleBinner: a dense rows x bins matrix of
+ * small counts, with a row per element (given on first assignment, never reused, see SimpleBinner.rowOf()) and the
+ * column of a bin being its position in SimpleBinner.binList (PopBin.index).
+ * A row is either unknown (no binning information, all counts 0) or known, possibly with all counts 0.
+ * Counts are never negative: results of the arithmetic are clamped to 0, as with the maps used before.
+ */
+class BinMatrix<T> {
+	private short[] counts = new short[0];
+	private int bins=0, rows=0;
+	private final BitSet known = new BitSet();
+	private final ArrayList<T> elements = new ArrayList<>();
+
+	//copy of the counts, sharing the elements
+	BinMatrix<T> copy() {
+		BinMatrix<T> retval = new BinMatrix<>();
+		retval.counts = Arrays.copyOf(counts, rows*bins);
+		retval.bins = bins;
+		retval.rows = rows;
+		retval.known.or(known);
+		retval.elements.addAll(elements);
+		return retval;
+	}
+
+	int addRow(T element) {
+		if((rows+1)*bins > counts.length)
+			counts = Arrays.copyOf(counts, Math.max(16*bins, 2*counts.length));
+		elements.add(element);
+		return rows++;
+	}
+	T getElement(int row) {
+		return elements.get(row);
+	}
+	//change the number of bins: all rows become unknown
+	void setBinCount(int bins) {
+		this.bins=bins;
+		counts = new short[Math.max(rows, 16)*bins];
+		known.clear();
+	}
+	int getBinCount() {
+		return bins;
+	}
+
+	boolean isKnown(int row) {
+		return row>=0 && known.get(row);
+	}
+	//next known row from a row (inclusive), -1 if none
+	int nextKnown(int row) {
+		return known.nextSetBit(row);
+	}
+	int knownCount() {
+		return known.cardinality();
+	}
+
+	int get(int row, int bin) {
+		return counts[row*bins+bin];
+	}
+	int total(int row) {
+		int retval=0;
+		for(int i=row*bins;i<(row+1)*bins;i++)
+			retval+=counts[i];
+		return retval;
+	}
+	//the only bin of a row with a total count of 1, -1 otherwise
+	int onlyBin(int row) {
+		int retval=-1;
+		for(int i=0;i<bins;i++) {
+			int c=counts[row*bins+i];
+			if(c==0)
+				continue;
+			if(c>1 || retval>=0)
+				return -1;
+			retval=i;
+		}
+		return retval;
+	}
+
+	//row = values (clamped to [0, Short.MAX_VALUE]), known
+	void set(int row, int[] values) {
+		for(int i=0;i<bins;i++)
+			counts[row*bins+i]=(short) Math.min(Math.max(values[i], 0), Short.MAX_VALUE);
+		known.set(row);
+	}
+	//row = 1 of a bin, known
+	void setSingle(int row, int bin) {
+		Arrays.fill(counts, row*bins, (row+1)*bins, (short)0);
+		counts[row*bins+bin]=1;
+		known.set(row);
+	}
+	//one occurrence less of a bin in a row
+	void decrement(int row, int bin) {
+		if(counts[row*bins+bin] > 0)
+			counts[row*bins+bin]--;
+	}
+	void remove(int row) {
+		Arrays.fill(counts, row*bins, (row+1)*bins, (short)0);
+		known.clear(row);
+	}
+
+	//values += row
+	void addTo(int row, int[] values) {
+		for(int i=0;i<bins;i++)
+			values[i]+=counts[row*bins+i];
+	}
+	//values -= row
+	void subtractFrom(int row, int[] values) {
+		for(int i=0;i<bins;i++)
+			values[i]-=counts[row*bins+i];
+	}
+	//values = row
+	void copyTo(int row, int[] values) {
+		for(int i=0;i<bins;i++)
+			values[i]=counts[row*bins+i];
+	}
+}
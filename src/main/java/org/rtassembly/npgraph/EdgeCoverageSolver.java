@@ -0,0 +1,153 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Edge coverages for GraphUtil.coverageOptimizer(): the quadratic program
+ * 		minimize (1/2)x'Px + q'x + r, with P = sum over the sides s of the nodes of len*c_s*c_s', q = -sum of cov*len*c_s
+ * (c_s counting the edges of side s, see the original dense formulation) is solved as P x = -q by conjugate gradient,
+ * from the current coverages. P is never formed: P*v = C'(len*(C*v)) with C the sides x edges matrix in CSR form.
+ * The connected components are independent systems, solved in parallel.
+ */
+class EdgeCoverageSolver {
+	private static final Logger LOG = LoggerFactory.getLogger(EdgeCoverageSolver.class);
+	static volatile double TOLERANCE=1.E-8; //on the relative residual
+	static volatile int MAX_ITERATIONS=10000;
+
+	private static final class Component{
+		final List<Edge> edges=new ArrayList<>();
+		final List<Node> nodes=new ArrayList<>();
+		double[] solution;
+		int iterations=0;
+	}
+
+	static void solve(BDGraph graph) {
+		//1. connected components (union-find on the element indices)
+		int[] parent=new int[graph.getNodeCount()];
+		for(int i=0;i<parent.length;i++)
+			parent[i]=i;
+		graph.edges().forEach(e->{
+			int r0=find(parent, e.getNode0().getIndex()), r1=find(parent, e.getNode1().getIndex());
+			if(r0!=r1)
+				parent[Math.max(r0, r1)]=Math.min(r0, r1);
+		});
+		Component[] byRoot=new Component[parent.length];
+		List<Component> components=new ArrayList<>();
+		int[] local=new int[graph.getEdgeCount()]; //index of an edge in its component
+		for(Node n:graph) {
+			if(n.getDegree()==0)
+				continue;
+			int root=find(parent, n.getIndex());
+			if(byRoot[root]==null)
+				components.add(byRoot[root]=new Component());
+			byRoot[root].nodes.add(n);
+		}
+		graph.edges().forEach(e->{
+			Component c=byRoot[find(parent, e.getNode0().getIndex())];
+			local[e.getIndex()]=c.edges.size();
+			c.edges.add(e);
+		});
+
+		//2. solve (read-only on the graph)
+		components.parallelStream().forEach(c->solve(c, local));
+
+		//3. update
+		int iterations=0;
+		for(Component c:components) {
+			for(int i=0;i<c.edges.size();i++)
+				c.edges.get(i).setAttribute("cov", c.solution[i]);
+			iterations=Math.max(iterations, c.iterations);
+		}
+		if(HybridAssembler.VERBOSE)
+			LOG.info("Edge coverages of {} components estimated in at most {} CG iterations", components.size(), iterations);
+	}
+
+	private static int find(int[] parent, int i) {
+		while(parent[i]!=i)
+			i=parent[i]=parent[parent[i]];
+		return i;
+	}
+
+	private static void solve(Component c, int[] local) {
+		int n=c.edges.size();
+		//CSR of C: an in and an out side per node, an entry per occurrence of an edge
+		int[] rowPtr=new int[2*c.nodes.size()+1];
+		int[] cols=new int[4*n];
+		double[] weights=new double[2*c.nodes.size()];
+		double[] b=new double[n], x=new double[n];
+		int rows=0, nnz=0;
+		for(Node node:c.nodes) {
+			double cov=node.getNumber("cov");
+			int len=(int)node.getNumber("len");
+			for(int side=0;side<2;side++) {
+				Iterator<Edge> ite=side==0?node.enteringEdges().iterator():node.leavingEdges().iterator();
+				while(ite.hasNext()) {
+					if(nnz==cols.length)
+						cols=Arrays.copyOf(cols, nnz*2);
+					int col=local[ite.next().getIndex()];
+					cols[nnz++]=col;
+					b[col]+=cov*len;
+				}
+				weights[rows++]=len;
+				rowPtr[rows]=nnz;
+			}
+		}
+		for(int i=0;i<n;i++) {
+			double cov=c.edges.get(i).getNumber("cov");
+			x[i]=Double.isNaN(cov)?0:cov;
+		}
+
+		//CG on P x = b
+		double[] r=new double[n], p=new double[n], ap=new double[n];
+		multiply(rowPtr, cols, weights, rows, x, ap);
+		for(int i=0;i<n;i++)
+			p[i]=r[i]=b[i]-ap[i];
+		double rr=dot(r, r), threshold=TOLERANCE*TOLERANCE*dot(b, b);
+		int maxIterations=Math.min(MAX_ITERATIONS, 2*n+10);
+		while(rr > threshold && c.iterations < maxIterations) {
+			c.iterations++;
+			multiply(rowPtr, cols, weights, rows, p, ap);
+			double pap=dot(p, ap);
+			if(pap <= 0)
+				break;
+			double alpha=rr/pap;
+			for(int i=0;i<n;i++) {
+				x[i]+=alpha*p[i];
+				r[i]-=alpha*ap[i];
+			}
+			double rrNew=dot(r, r), beta=rrNew/rr;
+			for(int i=0;i<n;i++)
+				p[i]=r[i]+beta*p[i];
+			rr=rrNew;
+		}
+		c.solution=x;
+	}
+
+	//out = C'(weights*(C*v))
+	private static void multiply(int[] rowPtr, int[] cols, double[] weights, int rows, double[] v, double[] out) {
+		Arrays.fill(out, 0);
+		for(int row=0;row<rows;row++) {
+			double s=0;
+			for(int k=rowPtr[row];k<rowPtr[row+1];k++)
+				s+=v[cols[k]];
+			s*=weights[row];
+			for(int k=rowPtr[row];k<rowPtr[row+1];k++)
+				out[cols[k]]+=s;
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double retval=0;
+		for(int i=0;i<a.length;i++)
+			retval+=a[i]*b[i];
+		return retval;
+	}
+}
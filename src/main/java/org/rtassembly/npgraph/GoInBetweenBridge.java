@@ -2,11 +2,13 @@ package org.rtassembly.npgraph;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
 
+import japsa.seq.EditDistance;
+import japsa.seq.Sequence;
+
 import org.graphstream.graph.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,8 +61,22 @@ public class GoInBetweenBridge {
 		this(graph, b);
 		steps=new BridgeSteps(bb);
 	}
+	/*
+	 * The state of a bridge is guarded by its monitor, so bridges can be built concurrently (see BDGraph.buildBridge()).
+	 * Merging 2 bridges locks both, see BDGraph.mergeBridges().
+	 */
+	
+	//anchor nodes, for the lock striping of BDGraph
+	synchronized List<Node> getAnchors() {
+		List<Node> retval=new ArrayList<>();
+		if(pBridge!=null) {
+			if(pBridge.getNode0()!=null) retval.add(pBridge.getNode0());
+			if(pBridge.getNode1()!=null) retval.add(pBridge.getNode1());
+		}
+		return retval;
+	}
 
-	public int getNumberOfAnchors() {
+	synchronized public int getNumberOfAnchors() {
 		int retval=0;
 		if(pBridge!=null) {
 			if(pBridge.getNode0()!=null) retval++;
@@ -69,7 +85,7 @@ public class GoInBetweenBridge {
 		return retval;
 	}
 	
-	public BDNodeVecState getLastExtendedTip() {
+	synchronized public BDNodeVecState getLastExtendedTip() {
 		BDNodeVecState retval= null;
 		if(steps!=null) {
 			retval=steps.start;
@@ -83,7 +99,7 @@ public class GoInBetweenBridge {
 	 * 0: nothing, 1: one anchor, 2: two anchors determined, 3: bridge connected, 4: bridge completed
 	 */
 	
-	public int getCompletionLevel() {
+	synchronized public int getCompletionLevel() {
 		int retval=getNumberOfAnchors();
 		if(retval==2 && segments!=null && !segments.isEmpty()) {
 			boolean isComplete=true, isConnected=true;
@@ -105,7 +121,7 @@ public class GoInBetweenBridge {
 							
 	//Merge 2 bridge (must share at least one same unique end-point) together
 	//Return true if merging make the bridge reaching new anchor
-	byte merge(GoInBetweenBridge qBridge, boolean toConnect) {
+	synchronized byte merge(GoInBetweenBridge qBridge, boolean toConnect) {
 		byte retval=0b00; //unchanged state
 
 		if(qBridge==null || qBridge.getCompletionLevel()==0 || getCompletionLevel()==4)
@@ -187,7 +203,7 @@ public class GoInBetweenBridge {
 
 	//return true if there is change in the number of anchor from the updated bridge
 
-	byte merge(AlignedRead read, boolean toConnect) {
+	synchronized byte merge(AlignedRead read, boolean toConnect) {
 		byte retval=0b00; //unchanged state
 		if(read==null || read.getAlignmentRecords().size() < 2 || getCompletionLevel()==4)
 			return retval;
@@ -223,6 +239,12 @@ public class GoInBetweenBridge {
 			return retval;
 		}
 		
+		//drop the candidate paths that are too far from the read sequence before voting
+		if(segments!=null)
+			for(BridgeSegment seg:segments)
+				if(seg.pruneBySequence(read) > 0 && seg.isUnique())
+					retval=0b01;
+		
 		Alignment start=read.getFirstAlignment();
 		BDNodeVecState 	current=null;
 		int lastIdx=0, numOfAnchorsBefore=getNumberOfAnchors();
@@ -297,7 +319,7 @@ public class GoInBetweenBridge {
 
 	}
 	
-	public String getEndingsID() {
+	synchronized public String getEndingsID() {
 		if(pBridge==null)
 			return "-,-";
 		else
@@ -305,7 +327,7 @@ public class GoInBetweenBridge {
 	}
 	
 
-	public String getAllPossiblePaths() {
+	synchronized public String getAllPossiblePaths() {
 		if(segments==null)
 			return "{none}";
 		
@@ -315,7 +337,7 @@ public class GoInBetweenBridge {
 			if(seg.getNumberOfPaths()==0)
 				retval += "()";
 			else
-				for(BDPath path:seg.connectedPaths)
+				for(SharedPath path:seg.connectedPaths)
 					retval+="( "+path.getId()+ " : vote=" + path.getVote() + " deviation=" + path.getDeviation() + " )";
 			retval+="\n";
 		}
@@ -323,16 +345,16 @@ public class GoInBetweenBridge {
 		return retval;
 	}
 	
-	public String getAllNodeVector(){
+	synchronized public String getAllNodeVector(){
 		if(steps==null)
 			return "empty list of steps";
 		return steps.toString();
 	}
 
-	public BDPath getBestPath(Node startFrom, Node endAt) { //the markers must be (transformed) unique
+	synchronized public BDPath getBestPath(Node startFrom, Node endAt) { //the markers must be (transformed) unique
 		if(HybridAssembler.VERBOSE)
 			LOG.info("Finding best path from " + startFrom.getId() + " to " + endAt.getId() + " among: \n" + getAllPossiblePaths());
-		BDPath best=null,retval=null;
+		SharedPath best=null,retval=null;
 		if(segments==null || segments.isEmpty())
 			return null;
 		
@@ -350,7 +372,7 @@ public class GoInBetweenBridge {
 			
 			if(seg.getNumberOfPaths()>0){
 				if(seg.getNumberOfPaths()>1)
-					seg.connectedPaths.sort(Comparator.comparing(BDPath::getVote, Comparator.reverseOrder()).thenComparing(BDPath::getDeviation));	
+					seg.connectedPaths.sort(Comparator.comparing(SharedPath::getVote, Comparator.reverseOrder()).thenComparing(SharedPath::getDeviation));	
 				
 				best=seg.connectedPaths.get(0);
 				if(retval==null)
@@ -365,12 +387,13 @@ public class GoInBetweenBridge {
 				break;
 		}
 		
-		if(retval!=null)
-			retval.setConsensusUniqueBinOfPath(bin);
-		return retval;
+		if(retval==null)
+			return null;
+		retval.setConsensusUniqueBinOfPath(bin);
+		return retval.toBDPath();
 	}
 	
-	public int countPathsBetween(Node startFrom, Node endAt){ //the markers must be (transformed) unique
+	synchronized public int countPathsBetween(Node startFrom, Node endAt){ //the markers must be (transformed) unique
 		int retval=0;
 		boolean found=false;
 		for(BridgeSegment seg:segments) {
@@ -396,13 +419,13 @@ public class GoInBetweenBridge {
 	
 	//TODO: combination of getBestPath() + countPathsBeteen() + path.chopAtAnchors()
 	//return new unique path to reduce in a building bridge
-	public List<BDPath> scanForNewUniquePaths(){
+	synchronized public List<BDPath> scanForNewUniquePaths(){
 		if(segments==null || segments.isEmpty())
 			return null;
 		if(HybridAssembler.VERBOSE)
 			LOG.info("Scanning on bridge with segments:\n" + getAllPossiblePaths());
 		List<BDPath> retval = new ArrayList<>();
-		BDPath curPath=null;
+		SharedPath curPath=null;
 		SimpleBinner binner=graph.binner;
 		PopBin sbin=null;
 		for(BridgeSegment seg:segments){
@@ -413,7 +436,7 @@ public class GoInBetweenBridge {
 				if(sbin!=null && sbin.isCloseTo(bin)){
 					if(curPath!=null){ 
 //						System.out.println("Tony Tony Chopper: " + curPath.getId());
-						graph.chopPathAtAnchors(curPath).stream().forEach(p->retval.add(p));
+						graph.chopPathAtAnchors(curPath.toBDPath()).stream().forEach(p->retval.add(p));
 					}
 					
 					curPath=seg.connectedPaths.get(0);
@@ -430,7 +453,7 @@ public class GoInBetweenBridge {
 		if(curPath!=null && curPath.getEdgeCount()>0) {
 			if(HybridAssembler.VERBOSE)
 				LOG.info("Tony Tony Chopper: " + curPath.getId());
-			graph.chopPathAtAnchors(curPath).stream().forEach(p->retval.add(p));
+			graph.chopPathAtAnchors(curPath.toBDPath()).stream().forEach(p->retval.add(p));
 		}
 		
 		return retval;
@@ -438,7 +461,7 @@ public class GoInBetweenBridge {
 	
 	//Try to look for an ending unique node of a unidentifiable bridge
 	//by using isUniqueNow()
-	public boolean scanForAnEnd(boolean force){
+	synchronized public boolean scanForAnEnd(boolean force){
 		if(steps==null)
 			return false;
 		Iterator<BDNodeVecState> ite = steps.nodes.descendingIterator();
@@ -469,7 +492,7 @@ public class GoInBetweenBridge {
 	 ************************************************************************************************/
 	class BridgeSegment{
 //		ArrayList<Sequence> nnpReads; // to store nanopore data if needed
-		ArrayList<BDPath> connectedPaths;
+		ArrayList<SharedPath> connectedPaths; //candidates, turned into BDPath only when reduced
 		BDEdgePrototype pSegment;
 //		ScaffoldVector startV, endV; // from bridge anchor (always +) to this segment's end
 		BDNodeVecState startNV, endNV;
@@ -503,7 +526,7 @@ public class GoInBetweenBridge {
 			try {
 				pSegment=new BDEdgePrototype(path);
 				connectedPaths=new ArrayList<>();
-				connectedPaths.add(path);
+				connectedPaths.add(SharedPath.of(path));
 				
 				//only if path cover the whole bridge (1-segment bridge)
 				int dist=(int) (path.getLength()
@@ -525,7 +548,7 @@ public class GoInBetweenBridge {
 			retval.startNV=new BDNodeVecState(pSegment.getNode1(), ScaffoldVector.composition(getEndVector(), ScaffoldVector.reverse(brgVector)));
 			retval.endNV=new BDNodeVecState(pSegment.getNode0(), ScaffoldVector.composition(getStartVector(), ScaffoldVector.reverse(brgVector)));
 			retval.connectedPaths=new ArrayList<>();
-			for(BDPath p:connectedPaths)
+			for(SharedPath p:connectedPaths)
 				retval.connectedPaths.add(p.reverse());
 			return retval;
 		}
@@ -541,12 +564,12 @@ public class GoInBetweenBridge {
 			if(!isConnected())
 				return retval;
 			
-			List<BDPath> tobeRemoved=new ArrayList<>();
+			List<SharedPath> tobeRemoved=new ArrayList<>();
 			if(nv.compareTo(startNV)*nv.compareTo(endNV)<=0) {
 				retval=0;
 				ScaffoldVector start2nv=ScaffoldVector.composition(nv.getVector(), ScaffoldVector.reverse(getStartVector()));
 				int d=start2nv.distance((BDNode) pSegment.getNode0(), nv.getNode());
-				for(BDPath p:connectedPaths) {
+				for(SharedPath p:connectedPaths) {
 					if(p.checkDistanceConsistency(pSegment.getNode0(), nv.getNode(), start2nv.direction>0, d) >= 0) {
 						p.upVote(1);
 						if(p.getVote() > bestElections)
@@ -566,6 +589,71 @@ public class GoInBetweenBridge {
 			
 			return retval;
 		}
+		private static final int NOT_SCORED=Integer.MIN_VALUE;
+		/*
+		 * Score the candidate paths against the part of the read between the 2 ends of this segment (banded edit distance),
+		 * remove the ones beyond the read error rate or much further from the read than the best one.
+		 * Paths too long to be scored are left to the other reads.
+		 * Return the number of paths removed.
+		 */
+		int pruneBySequence(AlignedRead read) {
+			if(getNumberOfPaths()<=1 || pSegment.getNode0()==pSegment.getNode1())
+				return 0;
+			//the alignments of the 2 ends, in the direction of this segment
+			Alignment from=null, to=null;
+			for(Alignment alg:read.getAlignmentRecords()) {
+				if(alg.node==pSegment.getNode0() && alg.strand==pSegment.getDir0())
+					from=alg;
+				else if(from!=null && alg.node==pSegment.getNode1() && alg.strand!=pSegment.getDir1()) {
+					to=alg;
+					break;
+				}
+			}
+			if(to==null)
+				return 0;
+			
+			int gapStart=from.readAlignmentEnd(), gapEnd=to.readAlignmentStart()-1,
+				len0=(int) from.node.getNumber("len"), len1=(int) to.node.getNumber("len");
+			//same part on the spelling of the paths: from the end of the alignment on the first node to the start of the one on the last node
+			int pathStart=from.strand?from.refEnd:len0-from.refStart+1,
+				pathTail=len1-(to.strand?to.refStart-1:len1-to.refEnd);
+			if(gapEnd < gapStart || gapEnd-gapStart > BDGraph.D_LIMIT)
+				return 0;
+			Sequence readSeq=read.getReadSequence();
+			if(readSeq==null)
+				return 0;
+			
+			//-1: beyond the band, NOT_SCORED: too long to be scored, such paths are kept
+			byte[] readBases=readSeq.toBytes();
+			int[] distances=new int[connectedPaths.size()];
+			int best=-1;
+			for(int i=0;i<distances.length;i++) {
+				SharedPath p=connectedPaths.get(i);
+				int pathEnd=(int) p.getLength()-pathTail;
+				if(pathEnd-pathStart > BDGraph.D_LIMIT+BDGraph.A_TOL) {
+					distances[i]=NOT_SCORED;
+					continue;
+				}
+				Sequence pathSeq=p.spelling(pathStart, Math.max(pathStart, pathEnd));
+				int k=(int) (BDGraph.R_TOL*Math.max(gapEnd-gapStart, pathSeq.length()))+BDGraph.getKmerSize();
+				distances[i]=EditDistance.banded(readBases, gapStart, gapEnd, pathSeq.toBytes(), 0, pathSeq.length(), k);
+				if(distances[i]>=0 && (best<0 || distances[i]<best))
+					best=distances[i];
+			}
+			if(best<0)
+				return 0;
+			
+			List<SharedPath> tobeRemoved=new ArrayList<>();
+			int margin=(int) (BDGraph.R_TOL*best)+BDGraph.getKmerSize();
+			for(int i=0;i<distances.length;i++)
+				if(distances[i]==-1 || distances[i]>best+margin)
+					tobeRemoved.add(connectedPaths.get(i));
+			connectedPaths.removeAll(tobeRemoved);
+			if(HybridAssembler.VERBOSE && !tobeRemoved.isEmpty())
+				LOG.info("Segment {}: {} candidate paths removed by read sequence (best edit distance {} over {}bp)", getId(), tobeRemoved.size(), best, gapEnd-gapStart);
+			return tobeRemoved.size();
+		}
+		
 		int getNumberOfPaths(){
 			if(connectedPaths==null)
 				return 0;
@@ -740,16 +828,16 @@ public class GoInBetweenBridge {
 			//First build shortest tree from the end
 			//TODO: optimize finding path by using this list
 			int distance=ScaffoldVector.composition(endAt.getVector(), ScaffoldVector.reverse(startFrom.getVector())).distance(startFrom.getNode(), endAt.getNode());
-			HashMap<String,Integer> shortestMapFromEnd = graph.getShortestTreeFromNode(	endAt.getNode(), 
-																						endAt.getDirection(pBridge.getDir0()), 
-																						distance);
+			ShortestTree shortestTreeFromEnd = graph.getShortestTreeFromNode(	endAt.getNode(), 
+																			endAt.getDirection(pBridge.getDir0()), 
+																			distance);
 
 			
-			String key=startFrom.getNode().getId()+(pBridge.getDir0()?"i":"o");
+			boolean startDir=!pBridge.getDir0();
 			if(startFrom.getNode()!=pBridge.getNode0())
-				key=startFrom.getNode().getId()+(startFrom.getDirection(pBridge.getDir0())?"o":"i");
+				startDir=startFrom.getDirection(pBridge.getDir0());
 			
-			if(!shortestMapFromEnd.containsKey(key)){ //note the trick: direction BEFORE the path started
+			if(!shortestTreeFromEnd.contains(startFrom.getNode(), startDir)){ //note the trick: direction BEFORE the path started
 				if(HybridAssembler.VERBOSE)
 					LOG.info("Shortest tree couldn't reach to the other end: ");
 
@@ -764,7 +852,7 @@ public class GoInBetweenBridge {
 
 				
 			}else if(HybridAssembler.VERBOSE)
-				LOG.info("Shortest tree contain the other end: {}={}", key, shortestMapFromEnd.get(key));
+				LOG.info("Shortest tree contain the other end: {}{}={}", startFrom.getNode().getId(), startDir?"o":"i", shortestTreeFromEnd.get(GraphCore.state(startFrom.getNode(), startDir)));
 			
 			
 			Iterator<BDNodeVecState> iterator = nodes.iterator();
@@ -780,9 +868,8 @@ public class GoInBetweenBridge {
 						prev=current;
 					continue;
 				}
-				key=current.getNode().getId() + (current.getDirection(pBridge.getDir0())?"o":"i");
 				//need a quality-checking here before including into a segment step
-				if(	(current==endAt || shortestMapFromEnd.containsKey(current.getNode().getId() + (current.getDirection(pBridge.getDir0())?"o":"i")) )
+				if(	(current==endAt || shortestTreeFromEnd.contains(current.getNode(), current.getDirection(pBridge.getDir0())) )
 					&& graph.binner.checkIfBinContainingNode(bin, current.getNode())
 					){			 
 					if(current.qc() || current==endAt){
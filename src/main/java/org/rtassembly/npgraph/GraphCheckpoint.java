@@ -0,0 +1,617 @@
+package org.rtassembly.npgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.rtassembly.npgraph.GoInBetweenBridge.BridgeSegment;
+import org.rtassembly.npgraph.GoInBetweenBridge.BridgeSteps;
+
+/*
+ * Binary snapshot of a running assembly, to resume it without replaying the reads already consumed:
+ * graph topology (nodes left, edges with their reduced paths), binning maps, bridges and the number of reads, plus the
+ * files of a watched input folder whose reads were all consumed (see WatchFolderInputStream).
+ * The snapshot is restored on top of the same assembly graph freshly loaded from file.
+ *
+ * Edges, paths and node vectors are written once into tables and referred to by index,
+ * so objects shared between bridges, paths and the binner are still shared after restoring.
+ */
+public class GraphCheckpoint {
+	private static final Logger LOG = LoggerFactory.getLogger(GraphCheckpoint.class);
+	private static final int MAGIC=0x4e504743, VERSION=2; //"NPGC", version 1 without the consumed files
+
+	/*
+	 * State of the assembly as copied by capture() while holding the graph lock, to be encoded later (encode()) by
+	 * another thread while the ingest goes on. The parts changed by the ingest (bins, node attributes, binning maps,
+	 * bridges) are copied, the rest is shared as is: edges, and the paths of the reduced edges and of the candidates,
+	 * never change once made.
+	 */
+	static final class Snapshot {
+		private long readsConsumed;
+		Map<String, Long> consumedFiles = Collections.emptyMap();
+		private List<PopBin> binList;
+		private int leastBin;
+		private String[] nodeIDs;
+		private double[] nodeCovs;
+		private int[] nodeBins;
+		private Set<Edge> graphEdges;
+		private BinMatrix<Node> nodeBinning;
+		private BinMatrix<Edge> edgeBinning;
+		private BitSet unresolvedEdges;
+		private List<GoInBetweenBridge> bridges;
+		private List<String> bridgeKeys;
+		private int[] bridgeOfKeys;
+
+		byte[] encode() throws IOException {
+			return GraphCheckpoint.encode(this);
+		}
+	}
+
+	/*
+	 * Copy the current state of the graph. Must be called while holding the graph lock, encoding it into bytes
+	 * and writing them to disk (the slow parts) are left to Snapshot.encode() and write().
+	 */
+	static Snapshot capture(BDGraph graph, long readsConsumed) {
+		Snapshot retval = new Snapshot();
+		SimpleBinner binner = graph.binner;
+		retval.readsConsumed = readsConsumed;
+
+		retval.binList = new ArrayList<>();
+		for(PopBin b:binner.binList) {
+			PopBin copy = new PopBin(b.binID);
+			copy.index = b.index;
+			copy.estCov = b.estCov;
+			copy.estLen = b.estLen;
+			copy.coreNodes.addAll(b.coreNodes);
+			retval.binList.add(copy);
+		}
+		retval.leastBin = binner.leastBin==null?0:binner.leastBin.binID;
+
+		int nNodes = graph.getNodeCount(), i = 0;
+		retval.nodeIDs = new String[nNodes];
+		retval.nodeCovs = new double[nNodes];
+		retval.nodeBins = new int[nNodes];
+		for(Node n:graph.nodes().collect(Collectors.toList())) {
+			PopBin bin = SimpleBinner.getBinIfUnique(n);
+			retval.nodeIDs[i] = n.getId();
+			retval.nodeCovs[i] = n.getNumber("cov");
+			retval.nodeBins[i++] = bin==null?0:bin.binID;
+		}
+		retval.graphEdges = Collections.newSetFromMap(new IdentityHashMap<>());
+		graph.edges().forEach(retval.graphEdges::add);
+		retval.nodeBinning = binner.nodeBins.copy();
+		retval.edgeBinning = binner.edgeBins.copy();
+		retval.unresolvedEdges = (BitSet) binner.unresolvedEdges.clone();
+
+		//the same bridge can be stored under 2 keys
+		Map<GoInBetweenBridge, Integer> bridgeIndex = new IdentityHashMap<>();
+		retval.bridges = new ArrayList<>();
+		retval.bridgeKeys = new ArrayList<>();
+		List<Integer> bridgeOfKeys = new ArrayList<>();
+		for(Map.Entry<String, GoInBetweenBridge> entry:graph.getBridgesMap().entrySet()) {
+			Integer index = bridgeIndex.get(entry.getValue());
+			if(index==null) {
+				bridgeIndex.put(entry.getValue(), index=retval.bridges.size());
+				retval.bridges.add(copy(entry.getValue()));
+			}
+			retval.bridgeKeys.add(entry.getKey());
+			bridgeOfKeys.add(index);
+		}
+		retval.bridgeOfKeys = bridgeOfKeys.stream().mapToInt(Integer::intValue).toArray();
+		return retval;
+	}
+
+	/*
+	 * Detached copy of a bridge for the snapshot: its node vectors (copied once, their identity is kept as in
+	 * writeBridge()), the ends and the candidate paths of its segments.
+	 */
+	private static GoInBetweenBridge copy(GoInBetweenBridge brg) {
+		GoInBetweenBridge retval = new GoInBetweenBridge(brg.graph, brg.bin);
+		synchronized(brg) {
+			if(brg.pBridge!=null) {
+				retval.pBridge = new BDEdgePrototype(brg.pBridge.n0.getNode(), brg.pBridge.n0.getDir());
+				if(brg.pBridge.n1!=null)
+					retval.pBridge.n1 = new BDNodeState(brg.pBridge.n1.getNode(), brg.pBridge.n1.getDir());
+			}
+			Map<BDNodeVecState, BDNodeVecState> nvs = new IdentityHashMap<>();
+			if(brg.steps!=null) {
+				retval.steps = retval.new BridgeSteps();
+				for(BDNodeVecState nv:brg.steps.nodes)
+					retval.steps.nodes.add(copy(nv, nvs));
+				retval.steps.start = copy(brg.steps.start, nvs);
+				retval.steps.end = copy(brg.steps.end, nvs);
+			}
+			if(brg.segments!=null) {
+				retval.segments = new ArrayList<>();
+				for(BridgeSegment seg:brg.segments) {
+					BridgeSegment segCopy = retval.new BridgeSegment();
+					if(seg.pSegment!=null) {
+						segCopy.pSegment = new BDEdgePrototype(seg.pSegment.n0.getNode(), seg.pSegment.n0.getDir());
+						if(seg.pSegment.n1!=null)
+							segCopy.pSegment.n1 = new BDNodeState(seg.pSegment.n1.getNode(), seg.pSegment.n1.getDir());
+					}
+					segCopy.startNV = copy(seg.startNV, nvs);
+					segCopy.endNV = copy(seg.endNV, nvs);
+					segCopy.bestElections = seg.bestElections;
+					if(seg.connectedPaths!=null) {
+						segCopy.connectedPaths = new ArrayList<>();
+						for(SharedPath p:seg.connectedPaths)
+							segCopy.connectedPaths.add(p.copy());
+					}
+					retval.segments.add(segCopy);
+				}
+			}
+		}
+		return retval;
+	}
+	private static BDNodeVecState copy(BDNodeVecState nv, Map<BDNodeVecState, BDNodeVecState> nvs) {
+		if(nv==null)
+			return null;
+		BDNodeVecState retval = nvs.get(nv);
+		if(retval==null)
+			nvs.put(nv, retval=new BDNodeVecState(nv.getNode(), new ScaffoldVector(nv.getVector().magnitude, nv.getVector().direction), nv.nodeCover));
+		return retval;
+	}
+
+	private static byte[] encode(Snapshot snapshot) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1<<20);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(snapshot.readsConsumed);
+		out.writeInt(snapshot.consumedFiles.size());
+		for(Map.Entry<String, Long> file:snapshot.consumedFiles.entrySet()) {
+			out.writeUTF(file.getKey());
+			out.writeLong(file.getValue());
+		}
+
+		//population bins
+		out.writeInt(snapshot.binList.size());
+		for(PopBin b:snapshot.binList) {
+			out.writeInt(b.binID);
+			out.writeDouble(b.estCov);
+			out.writeLong(b.estLen);
+			out.writeInt(b.coreNodes.size());
+			for(Node n:b.coreNodes)
+				out.writeUTF(n.getId());
+		}
+		out.writeInt(snapshot.leastBin);
+
+		//nodes left in the graph
+		out.writeInt(snapshot.nodeIDs.length);
+		for(int i=0;i<snapshot.nodeIDs.length;i++) {
+			out.writeUTF(snapshot.nodeIDs[i]);
+			out.writeDouble(snapshot.nodeCovs[i]);
+			out.writeInt(snapshot.nodeBins[i]);
+		}
+
+		//tables of edges (in the graph or removed but still referred to) and paths
+		Map<Edge, Integer> edges = new IdentityHashMap<>();
+		List<Edge> edgeList = new ArrayList<>();
+		Map<BDPath, Integer> paths = new IdentityHashMap<>();
+		List<BDPath> pathList = new ArrayList<>();
+		BinMatrix<Node> nodeBins = snapshot.nodeBinning;
+		BinMatrix<Edge> edgeBins = snapshot.edgeBinning;
+
+		snapshot.graphEdges.forEach(e->index(e, edges, edgeList, paths, pathList));
+		for(int row=edgeBins.nextKnown(0);row>=0;row=edgeBins.nextKnown(row+1))
+			index(edgeBins.getElement(row), edges, edgeList, paths, pathList);
+		for(int row=snapshot.unresolvedEdges.nextSetBit(0);row>=0;row=snapshot.unresolvedEdges.nextSetBit(row+1))
+			index(edgeBins.getElement(row), edges, edgeList, paths, pathList);
+		Map<SharedPath, BDPath> candidates = new IdentityHashMap<>(); //candidate paths of the segments are saved as BDPath
+		for(GoInBetweenBridge brg:snapshot.bridges) {
+			if(brg.segments!=null)
+				for(BridgeSegment seg:brg.segments)
+					if(seg.connectedPaths!=null)
+						for(SharedPath p:seg.connectedPaths) {
+							BDPath path = p.toBDPath();
+							candidates.put(p, path);
+							index(path, edges, edgeList, paths, pathList);
+						}
+		}
+
+		out.writeInt(edgeList.size());
+		for(Edge e:edgeList) {
+			BDEdge edge = (BDEdge) e;
+			out.writeUTF(edge.getNode0().getId());
+			out.writeUTF(edge.getNode1().getId());
+			out.writeBoolean(edge.getDir0());
+			out.writeBoolean(edge.getDir1());
+			out.writeBoolean(snapshot.graphEdges.contains(edge));
+			out.writeBoolean(edge.hasAttribute("dist"));
+			if(edge.hasAttribute("dist"))
+				out.writeInt((int) edge.getNumber("dist"));
+		}
+		out.writeInt(pathList.size());
+		for(BDPath p:pathList) {
+			out.writeUTF(p.getRoot().getId());
+			out.writeInt(p.getVote());
+			out.writeInt(p.getDeviation());
+			writeBin(out, p.getConsensusUniqueBinOfPath());
+			out.writeInt(p.getEdgeCount());
+			for(Edge e:p.getEdgePath())
+				out.writeInt(edges.get(e));
+		}
+		//reduced edges
+		for(Edge e:edgeList)
+			out.writeInt(e.hasAttribute("path")?paths.get(e.getAttribute("path")):-1);
+
+		//binning maps
+		out.writeInt(nodeBins.knownCount());
+		for(int row=nodeBins.nextKnown(0);row>=0;row=nodeBins.nextKnown(row+1)) {
+			out.writeUTF(nodeBins.getElement(row).getId());
+			writeBinCounts(out, nodeBins, row, snapshot.binList);
+		}
+		out.writeInt(edgeBins.knownCount());
+		for(int row=edgeBins.nextKnown(0);row>=0;row=edgeBins.nextKnown(row+1)) {
+			out.writeInt(edges.get(edgeBins.getElement(row)));
+			writeBinCounts(out, edgeBins, row, snapshot.binList);
+		}
+		out.writeInt(snapshot.unresolvedEdges.cardinality());
+		for(int row=snapshot.unresolvedEdges.nextSetBit(0);row>=0;row=snapshot.unresolvedEdges.nextSetBit(row+1))
+			out.writeInt(edges.get(edgeBins.getElement(row)));
+
+		//bridges
+		out.writeInt(snapshot.bridges.size());
+		for(GoInBetweenBridge brg:snapshot.bridges)
+			writeBridge(out, brg, paths, candidates);
+		out.writeInt(snapshot.bridgeKeys.size());
+		for(int i=0;i<snapshot.bridgeKeys.size();i++) {
+			out.writeUTF(snapshot.bridgeKeys.get(i));
+			out.writeInt(snapshot.bridgeOfKeys[i]);
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Write a snapshot to file (compressed). The old checkpoint is only replaced once the new one is complete.
+	 */
+	static void write(byte[] snapshot, String fileName) throws IOException {
+		File tmp = new File(fileName + ".tmp");
+		try(OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))){
+			out.write(snapshot);
+		}
+		Files.move(tmp.toPath(), new File(fileName).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	 * Restore a checkpoint on the graph loaded from the original assembly (with the same binning).
+	 * Return the number of reads consumed when the checkpoint was taken, the files consumed then are added to
+	 * consumedFiles if given.
+	 */
+	static long restore(BDGraph graph, String fileName, Map<String, Long> consumedFiles) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(fileName))))){
+			int version;
+			if(in.readInt()!=MAGIC || (version=in.readInt()) < 1 || version > VERSION)
+				throw new IOException("Invalid checkpoint file " + fileName);
+			long readsConsumed = in.readLong();
+			int nFiles = version > 1 ? in.readInt() : 0;
+			for(int i=0;i<nFiles;i++) {
+				String file = in.readUTF();
+				long reads = in.readLong();
+				if(consumedFiles!=null)
+					consumedFiles.put(file, reads);
+			}
+			SimpleBinner binner = graph.binner;
+
+			HashMap<Integer, PopBin> bins = new HashMap<>();
+			ArrayList<PopBin> binList = new ArrayList<>();
+			int nBins = in.readInt();
+			for(int i=0;i<nBins;i++) {
+				PopBin b = new PopBin(in.readInt());
+				b.estCov = in.readDouble();
+				b.estLen = in.readLong();
+				int nCores = in.readInt();
+				for(int j=0;j<nCores;j++) {
+					Node n = getNode(graph, in.readUTF());
+					b.coreNodes.add(n);
+					b.coreNodeSet.add(n);
+				}
+				bins.put(b.binID, b);
+				binList.add(b);
+				PopBin.lastID = Math.max(PopBin.lastID, b.binID+1);
+			}
+			binner.setBinList(binList); //also clears the binning of the nodes and edges
+			binner.leastBin = readBin(in, bins);
+
+			//nodes: restore coverage and uniqueness. The ones removed since loading can still be referred to
+			//(e.g. by the binning maps) so they are dropped at the end
+			HashMap<String, Double> covs = new HashMap<>();
+			HashMap<String, PopBin> uniques = new HashMap<>();
+			int nNodes = in.readInt();
+			for(int i=0;i<nNodes;i++) {
+				String id = in.readUTF();
+				covs.put(id, in.readDouble());
+				uniques.put(id, readBin(in, bins));
+			}
+			for(Edge e:graph.edges().collect(Collectors.toList()))
+				graph.removeEdge(e);
+			for(Node n:graph.nodes().collect(Collectors.toList())) {
+				if(!covs.containsKey(n.getId()))
+					continue;
+				n.setAttribute("cov", covs.get(n.getId()));
+				if(uniques.get(n.getId())!=null)
+					n.setAttribute("unique", uniques.get(n.getId()));
+				else
+					n.removeAttribute("unique");
+			}
+
+			//edges: the ones still in the graph are added back, the others are detached (only referred to by paths)
+			int nEdges = in.readInt();
+			BDEdge[] edges = new BDEdge[nEdges];
+			for(int i=0;i<nEdges;i++) {
+				BDNode 	n0 = getNode(graph, in.readUTF()),
+						n1 = getNode(graph, in.readUTF());
+				boolean dir0 = in.readBoolean(), dir1 = in.readBoolean();
+				edges[i] = in.readBoolean() ? graph.addEdge(n0, n1, dir0, dir1) : new BDEdge(n0, n1, dir0, dir1);
+				if(in.readBoolean())
+					edges[i].setAttribute("dist", in.readInt());
+			}
+			int nPaths = in.readInt();
+			BDPath[] paths = new BDPath[nPaths];
+			for(int i=0;i<nPaths;i++) {
+				BDNode root = getNode(graph, in.readUTF());
+				int vote = in.readInt(), deviation = in.readInt();
+				paths[i] = new BDPath(root, readBin(in, bins));
+				paths[i].upVote(vote);
+				paths[i].setDeviation(deviation);
+				int length = in.readInt();
+				for(int j=0;j<length;j++)
+					paths[i].add(edges[in.readInt()]);
+			}
+			for(int i=0;i<nEdges;i++) {
+				int p = in.readInt();
+				if(p>=0)
+					edges[i].setAttribute("path", paths[p]);
+			}
+
+			int nNodeBins = in.readInt();
+			for(int i=0;i<nNodeBins;i++) {
+				Node n = getNode(graph, in.readUTF());
+				binner.nodeBins.set(binner.rowOf(n), readBinCounts(in, bins, binList.size()));
+			}
+			int nEdgeBins = in.readInt();
+			for(int i=0;i<nEdgeBins;i++) {
+				Edge e = edges[in.readInt()];
+				binner.edgeBins.set(binner.rowOf(e), readBinCounts(in, bins, binList.size()));
+			}
+			binner.unresolvedEdges.clear();
+			int nUnresolved = in.readInt();
+			for(int i=0;i<nUnresolved;i++)
+				binner.unresolvedEdges.set(binner.rowOf(edges[in.readInt()]));
+
+			int nBridges = in.readInt();
+			GoInBetweenBridge[] bridges = new GoInBetweenBridge[nBridges];
+			for(int i=0;i<nBridges;i++)
+				bridges[i] = readBridge(in, graph, bins, paths);
+			graph.getBridgesMap().clear();
+			int nKeys = in.readInt();
+			for(int i=0;i<nKeys;i++) {
+				String key = in.readUTF();
+				graph.getBridgesMap().put(key, bridges[in.readInt()]);
+			}
+			for(Node n:graph.nodes().collect(Collectors.toList()))
+				if(!covs.containsKey(n.getId()))
+					graph.removeNode(n);
+
+			LOG.info("Restored checkpoint {}: {} reads consumed, {} nodes, {} edges, {} bridges", fileName, readsConsumed, graph.getNodeCount(), graph.getEdgeCount(), nBridges);
+			return readsConsumed;
+		}
+	}
+
+	static long restore(BDGraph graph, String fileName) throws IOException {
+		return restore(graph, fileName, null);
+	}
+
+	private static void index(Edge e, Map<Edge, Integer> edges, List<Edge> edgeList, Map<BDPath, Integer> paths, List<BDPath> pathList) {
+		if(edges.containsKey(e))
+			return;
+		edges.put(e, edgeList.size());
+		edgeList.add(e);
+		if(e.hasAttribute("path"))
+			index((BDPath) e.getAttribute("path"), edges, edgeList, paths, pathList);
+	}
+	private static void index(BDPath p, Map<Edge, Integer> edges, List<Edge> edgeList, Map<BDPath, Integer> paths, List<BDPath> pathList) {
+		if(paths.containsKey(p))
+			return;
+		paths.put(p, pathList.size());
+		pathList.add(p);
+		for(Edge e:p.getEdgePath())
+			index(e, edges, edgeList, paths, pathList);
+	}
+
+	private static BDNode getNode(BDGraph graph, String id) throws IOException {
+		BDNode node = (BDNode) graph.getNode(id);
+		if(node==null)
+			throw new IOException("Node " + id + " from the checkpoint not found in the graph!");
+		return node;
+	}
+
+	private static void writeBin(DataOutputStream out, PopBin bin) throws IOException {
+		out.writeInt(bin==null?0:bin.binID);
+	}
+	private static PopBin readBin(DataInputStream in, HashMap<Integer, PopBin> bins) throws IOException {
+		return bins.get(in.readInt());
+	}
+
+	//bins with a positive count of a row
+	private static void writeBinCounts(DataOutputStream out, BinMatrix<?> matrix, int row, List<PopBin> binList) throws IOException {
+		int size = 0;
+		for(int i=0;i<matrix.getBinCount();i++)
+			if(matrix.get(row, i) > 0)
+				size++;
+		out.writeInt(size);
+		for(int i=0;i<matrix.getBinCount();i++)
+			if(matrix.get(row, i) > 0) {
+				writeBin(out, binList.get(i));
+				out.writeInt(matrix.get(row, i));
+			}
+	}
+	private static int[] readBinCounts(DataInputStream in, HashMap<Integer, PopBin> bins, int binCount) throws IOException {
+		int[] retval = new int[binCount];
+		int size = in.readInt();
+		for(int i=0;i<size;i++) {
+			PopBin b = readBin(in, bins);
+			retval[b.index] = in.readInt();
+		}
+		return retval;
+	}
+
+	private static void writeNodeState(DataOutputStream out, BDNodeState ns) throws IOException {
+		out.writeBoolean(ns!=null);
+		if(ns!=null) {
+			out.writeUTF(ns.getNode().getId());
+			out.writeBoolean(ns.getDir());
+		}
+	}
+	private static BDNodeState readNodeState(DataInputStream in, BDGraph graph) throws IOException {
+		if(!in.readBoolean())
+			return null;
+		return new BDNodeState(getNode(graph, in.readUTF()), in.readBoolean());
+	}
+
+	/*
+	 * Node vectors of a bridge (its steps and the ends of its segments) are written once in a table:
+	 * the bridge relies on their identity (e.g. the last extended tip within the steps).
+	 */
+	private static void writeBridge(DataOutputStream out, GoInBetweenBridge brg, Map<BDPath, Integer> paths, Map<SharedPath, BDPath> candidates) throws IOException {
+		writeBin(out, brg.bin);
+		out.writeBoolean(brg.pBridge!=null);
+		if(brg.pBridge!=null) {
+			writeNodeState(out, brg.pBridge.n0);
+			writeNodeState(out, brg.pBridge.n1);
+		}
+
+		Map<BDNodeVecState, Integer> nvs = new IdentityHashMap<>();
+		List<BDNodeVecState> nvList = new ArrayList<>();
+		if(brg.steps!=null) {
+			brg.steps.nodes.forEach(nv->index(nv, nvs, nvList));
+			index(brg.steps.start, nvs, nvList);
+			index(brg.steps.end, nvs, nvList);
+		}
+		if(brg.segments!=null)
+			for(BridgeSegment seg:brg.segments) {
+				index(seg.startNV, nvs, nvList);
+				index(seg.endNV, nvs, nvList);
+			}
+		out.writeInt(nvList.size());
+		for(BDNodeVecState nv:nvList) {
+			out.writeUTF(nv.getNode().getId());
+			out.writeInt(nv.getVector().magnitude);
+			out.writeInt(nv.getVector().direction);
+			out.writeInt(nv.nodeCover);
+		}
+
+		out.writeBoolean(brg.steps!=null);
+		if(brg.steps!=null) {
+			out.writeInt(brg.steps.nodes.size());
+			for(BDNodeVecState nv:brg.steps.nodes)
+				out.writeInt(nvs.get(nv));
+			out.writeInt(brg.steps.start==null?-1:nvs.get(brg.steps.start));
+			out.writeInt(brg.steps.end==null?-1:nvs.get(brg.steps.end));
+		}
+
+		out.writeInt(brg.segments==null?-1:brg.segments.size());
+		if(brg.segments!=null)
+			for(BridgeSegment seg:brg.segments) {
+				out.writeBoolean(seg.pSegment!=null);
+				if(seg.pSegment!=null) {
+					writeNodeState(out, seg.pSegment.n0);
+					writeNodeState(out, seg.pSegment.n1);
+				}
+				out.writeInt(seg.startNV==null?-1:nvs.get(seg.startNV));
+				out.writeInt(seg.endNV==null?-1:nvs.get(seg.endNV));
+				out.writeInt(seg.bestElections);
+				out.writeInt(seg.connectedPaths==null?-1:seg.connectedPaths.size());
+				if(seg.connectedPaths!=null)
+					for(SharedPath p:seg.connectedPaths)
+						out.writeInt(paths.get(candidates.get(p)));
+			}
+	}
+	private static void index(BDNodeVecState nv, Map<BDNodeVecState, Integer> nvs, List<BDNodeVecState> nvList) {
+		if(nv==null || nvs.containsKey(nv))
+			return;
+		nvs.put(nv, nvList.size());
+		nvList.add(nv);
+	}
+
+	private static GoInBetweenBridge readBridge(DataInputStream in, BDGraph graph, HashMap<Integer, PopBin> bins, BDPath[] paths) throws IOException {
+		GoInBetweenBridge brg = new GoInBetweenBridge(graph, readBin(in, bins));
+		if(in.readBoolean()) {
+			BDNodeState n0 = readNodeState(in, graph), n1 = readNodeState(in, graph);
+			brg.pBridge = new BDEdgePrototype(n0.getNode(), n0.getDir());
+			brg.pBridge.n1 = n1;
+		}
+
+		int nNVs = in.readInt();
+		BDNodeVecState[] nvs = new BDNodeVecState[nNVs];
+		for(int i=0;i<nNVs;i++)
+			nvs[i] = new BDNodeVecState(getNode(graph, in.readUTF()), new ScaffoldVector(in.readInt(), in.readInt()), in.readInt());
+
+		if(in.readBoolean()) {
+			BridgeSteps steps = brg.new BridgeSteps();
+			int size = in.readInt();
+			TreeSet<BDNodeVecState> nodes = steps.nodes;
+			for(int i=0;i<size;i++)
+				nodes.add(nvs[in.readInt()]);
+			int start = in.readInt(), end = in.readInt();
+			steps.start = start<0?null:nvs[start];
+			steps.end = end<0?null:nvs[end];
+			brg.steps = steps;
+		}
+
+		int nSegs = in.readInt();
+		if(nSegs>=0) {
+			brg.segments = new ArrayList<>();
+			for(int i=0;i<nSegs;i++) {
+				BridgeSegment seg = brg.new BridgeSegment();
+				if(in.readBoolean()) {
+					BDNodeState n0 = readNodeState(in, graph), n1 = readNodeState(in, graph);
+					seg.pSegment = new BDEdgePrototype(n0.getNode(), n0.getDir());
+					seg.pSegment.n1 = n1;
+				}
+				int start = in.readInt(), end = in.readInt();
+				seg.startNV = start<0?null:nvs[start];
+				seg.endNV = end<0?null:nvs[end];
+				seg.bestElections = in.readInt();
+				int nPaths = in.readInt();
+				if(nPaths>=0) {
+					seg.connectedPaths = new ArrayList<>();
+					for(int j=0;j<nPaths;j++)
+						seg.connectedPaths.add(SharedPath.of(paths[in.readInt()]));
+				}
+				brg.segments.add(seg);
+			}
+		}
+		return brg;
+	}
+}
@@ -0,0 +1,170 @@
+package org.rtassembly.npgraph;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.graphstream.graph.Edge;
+
+/*
+ * Int-indexed mirror of the bidirected graph for the path finding algorithms, so they don't go through
+ * GraphStream streams and attribute maps in the hot path. Kept in sync by BDGraph (node/edge callbacks)
+ * and BDNode/BDEdge (attribute changes), GraphStream stays the storage of the graph.
+ *
+ * Each node has an index (never reused) and 2 states (sides): state(node, dir) = index<<1 | dir.
+ * The adjacency of a state lists the edges leaving (dir=true) or entering (dir=false) the node, in the same order
+ * as GraphStream, each with the state (opposite, edge.getDir(opposite)) and the edge length.
+ * The adjacency of a state is rebuilt lazily after the edges of its node changed, as an immutable object so concurrent
+ * readers (bridges built under the read lock of BDGraph) are safe: they may rebuild it twice but never see a partial one.
+ * Changes are made under the write lock of BDGraph.
+ */
+class GraphCore {
+	private static final int[] EMPTY_STATES = new int[0];
+	private static final BDEdge[] EMPTY_EDGES = new BDEdge[0];
+	private static final Adjacency EMPTY = new Adjacency(EMPTY_STATES, EMPTY_STATES, EMPTY_EDGES, 0);
+
+	//cache of the shortest trees, invalidated here when the graph changes
+	ShortestTreeCache trees = new ShortestTreeCache();
+
+	private BDNode[] nodes = new BDNode[1024];
+	int[] len = new int[1024];
+	double[] cov = new double[1024];
+	private int size = 0;
+
+	//per state, null if to be rebuilt
+	private Adjacency[] adjacencies = new Adjacency[2048];
+
+	private static final class Adjacency{
+		final int[] states, lengths;
+		final BDEdge[] edges;
+		final int degree;
+		Adjacency(int[] states, int[] lengths, BDEdge[] edges, int degree){
+			this.states=states;
+			this.lengths=lengths;
+			this.edges=edges;
+			this.degree=degree;
+		}
+	}
+
+	static int state(BDNode node, boolean dir) {
+		return node.index<<1 | (dir?1:0);
+	}
+	static int index(int state) {
+		return state>>>1;
+	}
+	static boolean dir(int state) {
+		return (state&1)==1;
+	}
+
+	//upper bound of node indices (including the removed ones)
+	int size() {
+		return size;
+	}
+	BDNode getNode(int index) {
+		return nodes[index];
+	}
+	BDNode getNodeOfState(int state) {
+		return nodes[state>>>1];
+	}
+
+	void add(BDNode node) {
+		if(size==nodes.length) {
+			int capacity = size*2;
+			nodes = Arrays.copyOf(nodes, capacity);
+			len = Arrays.copyOf(len, capacity);
+			cov = Arrays.copyOf(cov, capacity);
+			adjacencies = Arrays.copyOf(adjacencies, capacity*2);
+		}
+		node.index = size;
+		nodes[size] = node;
+		update(node);
+		adjacencies[size<<1] = adjacencies[size<<1|1] = null;
+		size++;
+	}
+
+	void remove(BDNode node) {
+		if(node.index < 0 || nodes[node.index]!=node)
+			return;
+		trees.invalidate(node);
+		int i = node.index;
+		nodes[i] = null;
+		adjacencies[i<<1] = adjacencies[i<<1|1] = EMPTY;
+		node.index = -1;
+	}
+
+	void clear() {
+		for(int i=0;i<size;i++)
+			if(nodes[i]!=null)
+				remove(nodes[i]);
+		size = 0;
+		trees.clear();
+	}
+
+	//node attributes changed
+	void update(BDNode node) {
+		if(node.index < 0)
+			return;
+		int length = (int) node.getNumber("len");
+		if(length!=len[node.index])
+			trees.invalidate(node);
+		len[node.index] = length;
+		cov[node.index] = node.getNumber("cov");
+	}
+
+	//edges of the node changed
+	void touch(BDNode node) {
+		if(node!=null && node.index >= 0 && nodes[node.index]==node) {
+			adjacencies[node.index<<1] = adjacencies[node.index<<1|1] = null;
+			trees.invalidate(node);
+		}
+	}
+
+	int length(BDNode node) {
+		return len[node.index];
+	}
+
+	/*
+	 * Adjacency of a state: the first degree(state) entries are valid
+	 */
+	int degree(int state) {
+		return adjacency(state).degree;
+	}
+	int[] nextStates(int state) {
+		return adjacency(state).states;
+	}
+	int[] edgeLengths(int state) {
+		return adjacency(state).lengths;
+	}
+	BDEdge[] edges(int state) {
+		return adjacency(state).edges;
+	}
+
+	private Adjacency adjacency(int state) {
+		Adjacency retval = adjacencies[state];
+		if(retval==null)
+			adjacencies[state] = retval = build(state);
+		return retval;
+	}
+
+	private Adjacency build(int state) {
+		BDNode node = nodes[state>>>1];
+		int count = dir(state) ? node.getOutDegree() : node.getInDegree();
+		int[] states = count==0 ? EMPTY_STATES : new int[count],
+				lengths = count==0 ? EMPTY_STATES : new int[count];
+		BDEdge[] edges = count==0 ? EMPTY_EDGES : new BDEdge[count];
+		int n = 0;
+		Iterator<Edge> ite = dir(state) ? node.leavingEdges().iterator() : node.enteringEdges().iterator();
+		while(ite.hasNext()) {
+			BDEdge e = (BDEdge) ite.next();
+			BDNode opposite = (BDNode) e.getOpposite(node);
+			if(n==edges.length) {
+				states = Arrays.copyOf(states, n*2+1);
+				lengths = Arrays.copyOf(lengths, n*2+1);
+				edges = Arrays.copyOf(edges, n*2+1);
+			}
+			states[n] = state(opposite, e.getDir(opposite));
+			lengths[n] = e.getLength();
+			edges[n++] = e;
+		}
+		return new Adjacency(states, lengths, edges, n);
+	}
+}
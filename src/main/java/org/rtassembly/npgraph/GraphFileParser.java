@@ -0,0 +1,333 @@
+package org.rtassembly.npgraph;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import japsa.seq.Alphabet;
+import japsa.seq.PackedSequence;
+
+/*
+ * Parser of the assembly graph files for GraphUtil.loadFromGFA() and GraphUtil.loadFromFASTG().
+ * The file is memory-mapped and split at record boundaries (lines for GFA, '>' for FASTG) into chunks of about
+ * CHUNK_SIZE bytes, parsed on a pool of threads into arrays of segments and links (bases decoded straight from
+ * the mapped bytes into 2-bit packed sequences). The chunks are returned in the order of the file, so the graph can be built in one pass
+ * the same way the line by line parsing did.
+ */
+class GraphFileParser {
+	static volatile long CHUNK_SIZE=1<<26;
+	private static final int WINDOW=1<<20; //to look for the boundaries of the chunks
+
+	/*
+	 * Records of a chunk, in the order of the file.
+	 * Segments: GFA S lines or FASTG records (forward=false for the reverse complement ones, without sequence).
+	 * Links: GFA L lines or the neighbours of the FASTG records, those of segment i ending at linkEnd[i].
+	 */
+	static final class Chunk{
+		int segmentCount=0, linkCount=0;
+		String[] segmentIds=new String[64], segmentNames=new String[64];
+		PackedSequence[] sequences=new PackedSequence[64];
+		double[] covs=new double[64];
+		boolean[] forward=new boolean[64];
+		int[] linkEnd=new int[64];
+
+		String[] linkFrom=new String[64], linkTo=new String[64];
+		boolean[] dir0=new boolean[64], dir1=new boolean[64];
+
+		List<String> paths=new ArrayList<>(); //GFA P lines (the path field)
+		int shortestLen=Integer.MAX_VALUE; //overlap of the GFA links, length of the FASTG sequences
+
+		private void addSegment(String id, String name, PackedSequence seq, double cov, boolean fwd) {
+			if(segmentCount==segmentIds.length) {
+				int capacity=segmentCount*2;
+				segmentIds=Arrays.copyOf(segmentIds, capacity);
+				segmentNames=Arrays.copyOf(segmentNames, capacity);
+				sequences=Arrays.copyOf(sequences, capacity);
+				covs=Arrays.copyOf(covs, capacity);
+				forward=Arrays.copyOf(forward, capacity);
+				linkEnd=Arrays.copyOf(linkEnd, capacity);
+			}
+			segmentIds[segmentCount]=id;
+			segmentNames[segmentCount]=name;
+			sequences[segmentCount]=seq;
+			covs[segmentCount]=cov;
+			forward[segmentCount]=fwd;
+			linkEnd[segmentCount++]=linkCount;
+		}
+		private void addLink(String from, String to, boolean d0, boolean d1) {
+			if(linkCount==linkFrom.length) {
+				int capacity=linkCount*2;
+				linkFrom=Arrays.copyOf(linkFrom, capacity);
+				linkTo=Arrays.copyOf(linkTo, capacity);
+				dir0=Arrays.copyOf(dir0, capacity);
+				dir1=Arrays.copyOf(dir1, capacity);
+			}
+			linkFrom[linkCount]=from;
+			linkTo[linkCount]=to;
+			dir0[linkCount]=d0;
+			dir1[linkCount++]=d1;
+		}
+	}
+
+	static List<Chunk> parseGFA(String fileName, int threads) throws IOException{
+		return parse(fileName, threads, false);
+	}
+	static List<Chunk> parseFASTG(String fileName, int threads) throws IOException{
+		return parse(fileName, threads, true);
+	}
+
+	private static List<Chunk> parse(String fileName, int threads, boolean fastg) throws IOException{
+		try(RandomAccessFile file=new RandomAccessFile(fileName, "r")){
+			FileChannel channel=file.getChannel();
+			long size=channel.size();
+			List<long[]> ranges=new ArrayList<>();
+			long start=0;
+			while(start < size) {
+				long end=start+CHUNK_SIZE >= size ? size : boundary(channel, start+CHUNK_SIZE, fastg);
+				if(end-start > Integer.MAX_VALUE)
+					throw new IOException("Record too long to be mapped around offset " + start + " of " + fileName);
+				ranges.add(new long[] {start, end});
+				start=end;
+			}
+
+			List<Chunk> retval=new ArrayList<>(ranges.size());
+			if(threads <= 1 || ranges.size() <= 1) {
+				for(long[] range:ranges)
+					retval.add(parse(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1]-range[0]), fastg));
+				return retval;
+			}
+
+			ExecutorService parsers=Executors.newFixedThreadPool(Math.min(threads, ranges.size()));
+			try {
+				List<Future<Chunk>> chunks=new ArrayList<>(ranges.size());
+				for(long[] range:ranges)
+					chunks.add(parsers.submit(()->parse(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1]-range[0]), fastg)));
+				for(Future<Chunk> chunk:chunks)
+					retval.add(chunk.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while loading " + fileName);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if(e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			} finally {
+				parsers.shutdownNow();
+			}
+			return retval;
+		}
+	}
+
+	//the first record starting at or after pos: after a new line (GFA) or at a '>' (FASTG)
+	private static long boundary(FileChannel channel, long pos, boolean fastg) throws IOException{
+		long size=channel.size();
+		long from=fastg ? pos : pos-1;
+		while(from < size) {
+			int len=(int) Math.min(WINDOW, size-from);
+			MappedByteBuffer window=channel.map(FileChannel.MapMode.READ_ONLY, from, len);
+			for(int i=0;i<len;i++) {
+				byte b=window.get(i);
+				if(fastg && b=='>')
+					return from+i;
+				if(!fastg && b=='\n')
+					return from+i+1;
+			}
+			from+=len;
+		}
+		return size;
+	}
+
+	private static Chunk parse(MappedByteBuffer buf, boolean fastg) {
+		Chunk chunk=new Chunk();
+		if(fastg)
+			parseFASTG(buf, chunk);
+		else
+			parseGFA(buf, chunk);
+		return chunk;
+	}
+
+	/*
+	 * Same fields as line.split("\\s"): a field between every 2 white spaces
+	 */
+	private static void parseGFA(MappedByteBuffer buf, Chunk chunk) {
+		byte[] codes=codes(Alphabet.DNA5()), bases=new byte[1024];
+		int limit=buf.limit(), pos=0;
+		int[] fields=new int[16]; //start, end of the fields
+		while(pos < limit) {
+			int eol=pos;
+			while(eol < limit && buf.get(eol)!='\n')
+				eol++;
+			int end=eol;
+			if(end > pos && buf.get(end-1)=='\r')
+				end--;
+			int lineStart=pos;
+			pos=eol+1;
+			if(end==lineStart || buf.get(lineStart)=='#')
+				continue;
+
+			int count=0;
+			for(int i=lineStart, s=lineStart;i<=end;i++) {
+				if(i==end || isSpace(buf.get(i))) {
+					if(2*count+1 >= fields.length)
+						fields=Arrays.copyOf(fields, fields.length*2);
+					fields[2*count]=s;
+					fields[2*count+1]=i;
+					count++;
+					s=i+1;
+				}
+			}
+			String type=string(buf, fields[0], fields[1]).toUpperCase().trim();
+			if((type.equals("S") && count < 4) || (type.equals("L") && count < 6))
+				throw new IllegalStateException("Missing fields in GFA line: " + string(buf, lineStart, end));
+			switch (type) {
+			case "H"://header
+				break;
+			case "C"://containment
+				break;
+			case "S"://segment
+				String nodeID=string(buf, fields[2], fields[3]).trim(),
+						optField=string(buf, fields[6], fields[7]).trim();
+				String[] toks=optField.split(":");
+				assert toks[0].equals("KC")&&toks[1].equals("i"):"Invalid k-mer count field!";
+
+				int length=fields[5]-fields[4];
+				if(bases.length < length)
+					bases=new byte[Math.max(length, bases.length*2)];
+				for(int i=0;i<length;i++)
+					bases[i]=codes[buf.get(fields[4]+i)&0xff];
+				//here is the kmer count
+				chunk.addSegment(nodeID, "Contig_"+nodeID, new PackedSequence(Alphabet.DNA5(), bases, 0, length, nodeID), Integer.parseInt(toks[2]), true);
+				break;
+			case "L"://links
+				chunk.addLink(string(buf, fields[2], fields[3]), string(buf, fields[6], fields[7]),
+						isChar(buf, fields[4], fields[5], '+'), !isChar(buf, fields[8], fields[9], '+'));
+				//just do it simple for now when the last field of Links line is xxM (kmer=xx)
+				for(int i=fields[10];i<fields[11];i++) {
+					byte c=buf.get(i);
+					if(c >= '0' && c <= '9')
+						continue;
+					chunk.shortestLen=Math.min(chunk.shortestLen, Integer.parseInt(string(buf, fields[10], i)));
+					break;
+				}
+				break;
+			case "P"://path
+				if(count>3) {
+					String path=string(buf, fields[4], fields[5]);
+					if(path.contains(","))
+						chunk.paths.add(path);
+				}
+				break;
+
+			default:throw new IllegalStateException("Unrecognized GFA field: " + type);
+			}
+		}
+	}
+
+	/*
+	 * Header: >EDGE_X_length_Y_cov_Z[']:EDGE_U_..['],...;
+	 */
+	private static void parseFASTG(MappedByteBuffer buf, Chunk chunk) {
+		Alphabet alphabet=Alphabet.DNA();
+		byte[] bases=new byte[1024];
+		int limit=buf.limit(), pos=0;
+		while(pos < limit) {
+			if(buf.get(pos)!='>')
+				throw new RuntimeException("> is expected at the start of a FASTG record, found " + (char) buf.get(pos));
+			int eol=++pos;
+			while(eol < limit && buf.get(eol)!='\n' && buf.get(eol)!='\r')
+				eol++;
+			String header=string(buf, pos, eol).trim(), desc=null;
+			String[] headerToks=header.split("\\s",2);
+			if(headerToks.length >= 2) {
+				header=headerToks[0];
+				desc=headerToks[1];
+			}
+			//the sequence: valid symbols up to the next record
+			int seqEnd=eol, length=0;
+			for(;seqEnd < limit;seqEnd++) {
+				byte b=buf.get(seqEnd);
+				if(b=='>')
+					break;
+				byte nucleotide=alphabet.byte2index(b);
+				if(nucleotide >= 0)
+					length++;
+				else if(nucleotide==-1)
+					throw new RuntimeException("Unexecpected character '" + (char) b + "' for dna {" + alphabet + "} in FASTG record " + header);
+			}
+			chunk.shortestLen=Math.min(chunk.shortestLen, length);
+
+			String[] adjList=header.split(":");
+			boolean dir0=adjList[0].indexOf('\'') < 0;
+			String name=clean(adjList[0]); //EDGE_X_length_Y_cov_Z
+			String[] nameToks=name.split("_");
+			PackedSequence seq=null;
+			double cov=0;
+			if(dir0) {
+				if(bases.length < length)
+					bases=new byte[Math.max(length, bases.length*2)];
+				for(int i=eol, j=0;i<seqEnd;i++) {
+					byte nucleotide=alphabet.byte2index(buf.get(i));
+					if(nucleotide >= 0)
+						bases[j++]=nucleotide;
+				}
+				seq=new PackedSequence(alphabet, bases, 0, length, name);
+				if(desc!=null)
+					seq.setDesc(desc);
+				cov=Double.parseDouble(nameToks[5]);
+			}
+			if(adjList.length > 1) {
+				for(String neighbor:adjList[1].split(",")) {
+					// note that the direction is read reversely in the dest node
+					boolean dir1=neighbor.indexOf('\'') >= 0;
+					chunk.addLink(nameToks[1], clean(neighbor).split("_")[1], dir0, dir1);
+				}
+			}
+			chunk.addSegment(nameToks[1], name, seq, cov, dir0);
+			pos=seqEnd;
+		}
+	}
+
+	//same as replaceAll("[^a-zA-Z0-9_.]", "").trim()
+	private static String clean(String s) {
+		StringBuilder retval=new StringBuilder(s.length());
+		for(int i=0;i<s.length();i++) {
+			char c=s.charAt(i);
+			if((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='_' || c=='.')
+				retval.append(c);
+		}
+		return retval.toString();
+	}
+
+	//Alphabet.char2int() of every byte
+	private static byte[] codes(Alphabet alphabet) {
+		byte[] retval=new byte[256];
+		for(int i=0;i<256;i++)
+			retval[i]=(byte) alphabet.char2int((char) i);
+		return retval;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b==' ' || b=='\t' || b=='\n' || b==0x0B || b=='\f' || b=='\r';
+	}
+	private static boolean isChar(MappedByteBuffer buf, int start, int end, char c) {
+		return end-start==1 && buf.get(start)==c;
+	}
+	private static String string(MappedByteBuffer buf, int start, int end) {
+		byte[] bytes=new byte[end-start];
+		for(int i=0;i<bytes.length;i++)
+			bytes[i]=buf.get(start+i);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -5,11 +5,12 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.commons.io.FilenameUtils;
 import org.graphstream.graph.Edge;
@@ -18,14 +19,7 @@ import org.graphstream.graph.implementations.AbstractNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.joptimizer.functions.PDQuadraticMultivariateRealFunction;
-import com.joptimizer.optimizers.NewtonUnconstrained;
-import com.joptimizer.optimizers.OptimizationRequest;
-
-import japsa.seq.Alphabet;
-import japsa.seq.FastaReader;
-import japsa.seq.Sequence;
-import japsa.seq.SequenceReader;
+import japsa.seq.AbstractSequence;
 
 public class GraphUtil {
 
@@ -37,60 +31,33 @@ public class GraphUtil {
 	public static volatile double DISTANCE_THRES=3.0; //i like number 3
     
     public static void loadFromFASTG(String graphFileName, String binFileName, BDGraph graph, boolean spadesBridging) throws IOException{
+    	loadFromFASTG(graphFileName, binFileName, graph, spadesBridging, 1);
+    }
+    public static void loadFromFASTG(String graphFileName, String binFileName, BDGraph graph, boolean spadesBridging, int threads) throws IOException{
         graph.setAutoCreate(true);
         graph.setStrict(false);
 		/*
-		 * 1. next iterate over again to read the connections
+		 * 1. parse the records (see GraphFileParser), then add the nodes and the connections in the order of the file
 		 */
-		SequenceReader reader = new FastaReader(graphFileName);
-		Sequence seq;
+		List<GraphFileParser.Chunk> chunks = GraphFileParser.parseFASTG(graphFileName, threads);
 		int shortestLen = 10000;
 		ArrayList<BDEdgePrototype> potentialEdgeSet = new ArrayList<BDEdgePrototype>();
-		while ((seq = reader.nextSequence(Alphabet.DNA())) != null){
-			if(seq.length()<shortestLen)
-				shortestLen=seq.length();
-			
-			String[] adjList = seq.getName().split(":");
-			String name = adjList[0];
-			
-			
-			boolean dir0=name.contains("'")?false:true;
-			
-			name=name.replaceAll("[^a-zA-Z0-9_.]", "").trim(); //EDGE_X_length_Y_cov_Z
-			
-			String nodeID = name.split("_")[1];
-			BDNode node = (BDNode) graph.addNode(nodeID); //or get the existing node prototype created below (to set the attributes)
-			node.setAttribute("name", name);
-			
-			if(dir0){
-				seq.setName(name);
-				node.setAttribute("seq", seq);
-				node.setAttribute("len", seq.length());
-
-				double cov = Double.parseDouble(name.split("_")[5]);
-				
-				node.setAttribute("cov", cov);
-
-			}
-			if (adjList.length > 1){
-				String[] nbList = adjList[1].split(",");
-				for(int i=0; i < nbList.length; i++){
-					String neighbor = nbList[i];
-					// note that the direction is read reversely in the dest node
-					boolean dir1=neighbor.contains("'")?true:false;
-					neighbor=neighbor.replaceAll("[^a-zA-Z0-9_.]", "").trim();
-					
-					String neighborID = neighbor.split("_")[1];
-					BDNode nbr = (BDNode) graph.addNode(neighborID); //just need a prototype, attributes can be set later...
-
-					potentialEdgeSet.add(new BDEdgePrototype(node,nbr,dir0,dir1)); //edges' prototype
-					
+		for(GraphFileParser.Chunk chunk:chunks){
+			shortestLen=Math.min(shortestLen, chunk.shortestLen);
+			for(int i=0, j=0; i < chunk.segmentCount; i++){
+				BDNode node = (BDNode) graph.addNode(chunk.segmentIds[i]); //or get the existing node prototype created below (to set the attributes)
+				node.setAttribute("name", chunk.segmentNames[i]);
+				if(chunk.forward[i]){
+					node.setAttribute("seq", chunk.sequences[i]);
+					node.setAttribute("len", chunk.sequences[i].length());
+					node.setAttribute("cov", chunk.covs[i]);
+				}
+				for(; j < chunk.linkEnd[i]; j++){
+					BDNode nbr = (BDNode) graph.addNode(chunk.linkTo[j]); //just need a prototype, attributes can be set later...
+					potentialEdgeSet.add(new BDEdgePrototype(node,nbr,chunk.dir0[j],chunk.dir1[j])); //edges' prototype
 				}
 			}
-			
 		}
-
-		reader.close();
 		
 		for(BDEdgePrototype ec:potentialEdgeSet) {
 			try {
@@ -140,7 +107,7 @@ public class GraphUtil {
 		//Celera Astats = A(delta,r,1)
 		
 		for (Node node:graph) {
-			Sequence nseq = (Sequence) node.getAttribute("seq");
+			AbstractSequence nseq = (AbstractSequence) node.getAttribute("seq");
 			double astats=-1;
 
 //			int estcov=(int) Math.round(node.getNumber("cov")/BDGraph.RCOV);
@@ -219,82 +186,43 @@ public class GraphUtil {
     
     
     public static void loadFromGFA(String graphFile, String binFileName, BDGraph graph, boolean spadesBridging) throws IOException{
+    	loadFromGFA(graphFile, binFileName, graph, spadesBridging, 1);
+    }
+    public static void loadFromGFA(String graphFile, String binFileName, BDGraph graph, boolean spadesBridging, int threads) throws IOException{
         graph.setAutoCreate(true);
         graph.setStrict(false);
 		/*
-		 * 1. next iterate over again to read the connections
+		 * 1. parse the records (see GraphFileParser), then add the segments and the links in the order of the file
 		 */
-        BufferedReader reader = new BufferedReader(new FileReader(graphFile));
-        String line=null;
-		Sequence seq;
+		List<GraphFileParser.Chunk> chunks = GraphFileParser.parseGFA(graphFile, threads);
 		int shortestLen = 10000;
 		
-		ArrayList<BDPath> spadesPaths = new ArrayList<>();
-		while ((line=reader.readLine()) != null){
-			String[] gfaFields = line.split("\\s");
-			String type = gfaFields[0];
-			switch (type.toUpperCase().trim()) {
-			case "#"://comments
-				break;
-			case "H"://header
-				break;
-			case "C"://containment
-				break;
-			case "S"://segment
-				String 	nodeID=gfaFields[1].trim(),
-						optField=gfaFields[3].trim();
-				String[] toks=optField.split(":");
-				assert toks[0].equals("KC")&&toks[1].equals("i"):"Invalid k-mer count field!";
-				
-				seq = new Sequence(Alphabet.DNA5(), gfaFields[2], nodeID);
-				AbstractNode node = (AbstractNode) graph.addNode(nodeID); //or get the existing node prototype created below (to set the attributes)
-				node.setAttribute("name", "Contig_"+nodeID);
-				node.setAttribute("seq", seq);
-				node.setAttribute("len", seq.length());
-				
-				//here is the kmer coverage
-				node.setAttribute("cov", Integer.parseInt(toks[2]));
-	
-				
-				break;
-			case "L"://links
-				BDNode 	n0=(BDNode) graph.getNode(gfaFields[1]),
-								n1=(BDNode) graph.getNode(gfaFields[3]);
-				boolean dir0=gfaFields[2].equals("+")?true:false,
-						dir1=gfaFields[4].equals("+")?false:true;
-				BDEdge e = graph.addEdge(n0, n1, dir0, dir1);
-				
-				//just do it simple for now when the last field of Links line is xxM (kmer=xx)
-				String cigar=gfaFields[5];
-				for(int i=0; i < cigar.length();i++) {
-					char c = cigar.charAt(i);
-					if(c >= '0' && c <= '9')
-						continue;
-					else {
-						int len = Integer.parseInt(cigar.substring(0, i));
-						if(shortestLen > len)
-							shortestLen=len;
-						break;
-					}
-				}
-									
-				break;
-			case "P"://path
-				if(spadesBridging){
-					if(gfaFields.length>3 && gfaFields[2].contains(",")) {
-						spadesPaths.add(new BDPath(graph, gfaFields[2]));
-					}
-				}
-				break;
-
-				default:throw new IllegalStateException("Unrecognized GFA field: " + type.toUpperCase().trim());
+		for(GraphFileParser.Chunk chunk:chunks){
+			for(int i=0; i < chunk.segmentCount; i++){
+				AbstractNode node = (AbstractNode) graph.addNode(chunk.segmentIds[i]);
+				node.setAttribute("name", chunk.segmentNames[i]);
+				node.setAttribute("seq", chunk.sequences[i]);
+				node.setAttribute("len", chunk.sequences[i].length());
+				//here is the kmer count
+				node.setAttribute("cov", chunk.covs[i]);
 			}
-			
+		}
+		for(GraphFileParser.Chunk chunk:chunks){
+			shortestLen=Math.min(shortestLen, chunk.shortestLen);
+			for(int j=0; j < chunk.linkCount; j++){
+				BDNode 	n0=(BDNode) graph.getNode(chunk.linkFrom[j]),
+						n1=(BDNode) graph.getNode(chunk.linkTo[j]);
+				graph.addEdge(n0, n1, chunk.dir0[j], chunk.dir1[j]);
+			}
+		}
 		
+		ArrayList<BDPath> spadesPaths = new ArrayList<>();
+		if(spadesBridging){
+			for(GraphFileParser.Chunk chunk:chunks)
+				for(String path:chunk.paths)
+					spadesPaths.add(new BDPath(graph, path));
 		}
 
-		reader.close();
-
 		//rough estimation of kmer used
 		if((shortestLen-1) < BDGraph.getKmerSize()){
 			BDGraph.setKmerSize(shortestLen-1);
@@ -331,7 +259,7 @@ public class GraphUtil {
 		 * Recalculated by Cx, contig_len, read_len, RCOV (average read coverage over the genome)
 		 */
 		for (Node node:graph) {
-			Sequence nseq = (Sequence) node.getAttribute("seq");
+			AbstractSequence nseq = (AbstractSequence) node.getAttribute("seq");
 			double astats = nseq.length()*BDGraph.RCOV/BDGraph.ILLUMINA_READ_LENGTH
 							-Math.log(2)*node.getNumber("cov")*nseq.length()/BDGraph.ILLUMINA_READ_LENGTH;
 			astats*=Math.log10(Math.E);
@@ -367,207 +295,144 @@ public class GraphUtil {
     }
     
     
+	public static volatile int DESCENT_CHUNK=4096; //edges per task of gradientDescent()
+	/*
+	 * Jacobi iterations on the edges' coverage then the nodes' coverage, over arrays indexed by the GraphStream
+	 * indices of the elements (the sides of a node are the entering/leaving edges, in CSR form). The edges' steps
+	 * are computed then applied in parallel chunks of DESCENT_CHUNK edges on the fork-join pool, in the same order
+	 * of summation as the original per-edge iterators, so the result doesn't depend on the number of threads.
+	 */
 	public static void gradientDescent(BDGraph graph) {
 		int 	maxIterations=21, 
 				eIteCount=0, nIteCount=0;
 		double epsilon=.01;
+		
+		int nodeCount=graph.getNodeCount(), edgeCount=graph.getEdgeCount();
+		Node[] nodes=new Node[nodeCount];
+		Edge[] edges=new Edge[edgeCount];
+		double[] nodeLen=new double[nodeCount], nodeCov=new double[nodeCount],
+				edgeCov=new double[edgeCount], steps=new double[edgeCount];
+		graph.nodes().forEach(n->{
+			nodes[n.getIndex()]=n;
+			nodeLen[n.getIndex()]=n.getNumber("len");
+			nodeCov[n.getIndex()]=n.getNumber("cov");
+		});
+		//the 2 sides of the edges: node<<1 | (1 if leaving)
+		int[] side0=new int[edgeCount], side1=new int[edgeCount];
+		graph.edges().forEach(e->{
+			edges[e.getIndex()]=e;
+			edgeCov[e.getIndex()]=e.getNumber("cov");
+			side0[e.getIndex()]=e.getNode0().getIndex()<<1 | (((BDEdge) e).getDir0()?1:0);
+			side1[e.getIndex()]=e.getNode1().getIndex()<<1 | (((BDEdge) e).getDir1()?1:0);
+		});
+		//edges of the sides, with the opposite nodes
+		int[] sideStart=new int[2*nodeCount+1];
+		int[] sideEdges=new int[2*edgeCount], sideOpposites=new int[2*edgeCount];
+		int entries=0;
+		for(int i=0;i<nodeCount;i++) {
+			for(int dir=0;dir<2;dir++) {
+				Iterator<Edge> ite=dir==1?nodes[i].leavingEdges().iterator():nodes[i].enteringEdges().iterator();
+				while(ite.hasNext()) {
+					Edge e=ite.next();
+					if(entries==sideEdges.length) {
+						sideEdges=Arrays.copyOf(sideEdges, entries*2);
+						sideOpposites=Arrays.copyOf(sideOpposites, entries*2);
+					}
+					sideEdges[entries]=e.getIndex();
+					sideOpposites[entries++]=e.getOpposite(nodes[i]).getIndex();
+				}
+				sideStart[(i<<1|dir)+1]=entries;
+			}
+		}
+		final int[] sEdges=sideEdges, sOpposites=sideOpposites;
+		int chunks=(edgeCount+DESCENT_CHUNK-1)/DESCENT_CHUNK;
+		double[] residuals=new double[chunks];
+		
 		while(true) {
 			nIteCount++;
 			eIteCount=0;
 			//1. Updating edges' coverage			
 			while(true) {
 				eIteCount++;
-				HashMap<String,Double> stepMap = new HashMap<>();
-				Iterator<Edge> edgesIterator=graph.edges().iterator();
-				while(edgesIterator.hasNext()) {
-					Edge e = edgesIterator.next();
-//					System.out.println("Working on edge "+e.getId());
-		    		BDNode n0 = (BDNode) e.getNode0(), n1=(BDNode) e.getNode1();
-		    		boolean dir0 = ((BDEdge) e).getDir0(), dir1 = ((BDEdge) e).getDir1();
-		    		Iterator<Edge> 	ite0 = dir0?n0.leavingEdges().iterator():n0.enteringEdges().iterator(),
-		    						ite1 = dir1?n1.leavingEdges().iterator():n1.enteringEdges().iterator();
-		    		double sum0=0, sum1=0, tmp;
-		    		int deg0=0, deg1=0;
-		    		while(ite0.hasNext()) {
-		    			Edge e0=ite0.next();
-		    			tmp=e0.getNumber("cov");
-		    			sum0+=Double.isNaN(tmp)?1.0:tmp;
-		    			deg0++;
-//		    			System.out.printf("\tedge %s cov=%.2f sum0=%.2f\n",e0.getId(),tmp,sum0);
-		    		}
-		    		while(ite1.hasNext()) {
-		    			Edge e1=ite1.next();
-		    			tmp=e1.getNumber("cov");		    			
-		    			sum1+=Double.isNaN(tmp)?1.0:tmp;
-		    			deg1++;
-//		    			System.out.printf("\tedge %s cov=%.2f sum1=%.2f\n",e1.getId(),tmp,sum1);
-
-		    		}	    		
-		    		//gamma_ij=1/*(len_i+len_j) -> failed!
-		    		//gamma_ij=1/2*(len_i+len_j) -> small enough! (explanation???)
-		    		double value=.5*(n0.getNumber("len")*(sum0-n0.getNumber("cov"))/(deg0*deg0) + n1.getNumber("len")*(sum1-n1.getNumber("cov"))/(deg1*deg1))/(n0.getNumber("len")+n1.getNumber("len"));
-//		    		System.out.println("=> step="+value);
-		    		stepMap.put(e.getId(), value);
-				}
-				boolean isConverged=true, isZero=false;
-				
-				edgesIterator=graph.edges().iterator();
-				while(edgesIterator.hasNext()) {
-					Edge e = edgesIterator.next();
-					double delta=stepMap.get(e.getId()),
-							curCov=Double.isNaN(e.getNumber("cov"))?1.0:e.getNumber("cov");
-					if(Math.abs(delta/curCov) > epsilon) {
-						isConverged=false;
+				IntStream.range(0, chunks).parallel().forEach(c->{
+					for(int e=c*DESCENT_CHUNK;e<Math.min(edgeCount, (c+1)*DESCENT_CHUNK);e++) {
+						int s0=side0[e], s1=side1[e], n0=s0>>>1, n1=s1>>>1;
+						double sum0=0, sum1=0, tmp;
+						int deg0=sideStart[s0+1]-sideStart[s0], deg1=sideStart[s1+1]-sideStart[s1];
+						for(int k=sideStart[s0];k<sideStart[s0+1];k++) {
+							tmp=edgeCov[sEdges[k]];
+							sum0+=Double.isNaN(tmp)?1.0:tmp;
+						}
+						for(int k=sideStart[s1];k<sideStart[s1+1];k++) {
+							tmp=edgeCov[sEdges[k]];
+							sum1+=Double.isNaN(tmp)?1.0:tmp;
+						}
+						//gamma_ij=1/*(len_i+len_j) -> failed!
+						//gamma_ij=1/2*(len_i+len_j) -> small enough! (explanation???)
+						steps[e]=.5*(nodeLen[n0]*(sum0-nodeCov[n0])/(deg0*deg0) + nodeLen[n1]*(sum1-nodeCov[n1])/(deg1*deg1))/(nodeLen[n0]+nodeLen[n1]);
 					}
-					
-					if(curCov<=delta) {
-						if(HybridAssembler.VERBOSE)							
-							LOG.warn("Edge " + e.getId() + " coverage is not positive : curCov=" + curCov + ", delta=" + delta);
-//						isZero=true;
-					}else
-						e.setAttribute("cov", curCov-delta);
-				}
-//				if(isZero)
-//					return;
-				if(isConverged || eIteCount >= maxIterations) {
-//					System.out.println("...edges coverage CONVERGED at iteration " + eIteCount + "th");
+				});
+				IntStream.range(0, chunks).parallel().forEach(c->{
+					double residual=0;
+					for(int e=c*DESCENT_CHUNK;e<Math.min(edgeCount, (c+1)*DESCENT_CHUNK);e++) {
+						double delta=steps[e],
+								curCov=Double.isNaN(edgeCov[e])?1.0:edgeCov[e];
+						if(Math.abs(delta/curCov) > residual)
+							residual=Math.abs(delta/curCov);
+						if(curCov<=delta) {
+							if(HybridAssembler.VERBOSE)							
+								LOG.warn("Edge " + edges[e].getId() + " coverage is not positive : curCov=" + curCov + ", delta=" + delta);
+						}else
+							edgeCov[e]=curCov-delta;
+					}
+					residuals[c]=residual;
+				});
+				double residual=0;
+				for(double r:residuals)
+					if(r > residual)
+						residual=r;
+				if(HybridAssembler.VERBOSE)
+					LOG.info("Coverage descent {}.{}: max relative edge step = {}", nIteCount, eIteCount, residual);
+				if(residual <= epsilon || eIteCount >= maxIterations)
 					break;
-				}
 			}
 			//2. Updating nodes' coverage: keep significant node info intact!
 			boolean isConverged=true;
-			for(Node n:graph) {
-//				if(n.getAttribute("marked") != null)//do smt???
-//					continue;
-				
-				Iterator<Edge> 	in=n.enteringEdges().iterator(),
-								out=n.leavingEdges().iterator();
+			for(int i=0;i<nodeCount;i++) {
 				long inWeight=0, outWeight=0;
 				double inCov=0, outCov=0;
-				while(in.hasNext()) {
-					Edge tmp=in.next();
-					inWeight+=tmp.getOpposite(n).getNumber("len");
-					inCov+=tmp.getNumber("cov");
+				for(int k=sideStart[i<<1];k<sideStart[i<<1|1];k++) {
+					inWeight+=nodeLen[sOpposites[k]];
+					inCov+=edgeCov[sEdges[k]];
 				}
-				while(out.hasNext()) {
-					Edge tmp=out.next();
-					outWeight+=tmp.getOpposite(n).getNumber("len");
-					outCov+=tmp.getNumber("cov");
+				for(int k=sideStart[i<<1|1];k<sideStart[(i<<1|1)+1];k++) {
+					outWeight+=nodeLen[sOpposites[k]];
+					outCov+=edgeCov[sEdges[k]];
 				}
 				double newCovEst=(inCov*inWeight+outCov*outWeight)/(inWeight+outWeight);
-				if(Math.abs(newCovEst-n.getNumber("cov"))/n.getNumber("cov") > epsilon)
+				if(Math.abs(newCovEst-nodeCov[i])/nodeCov[i] > epsilon)
 					isConverged=false;
-				n.setAttribute("cov", newCovEst);
+				nodeCov[i]=newCovEst;
 			}
 			if(isConverged || nIteCount >= maxIterations) {
-//				System.out.println("Node coverage CONVERGED at iteration " + nIteCount + "th");
-//				System.out.println("======================================================");
 				break;
 			}
 			
 		}
+		
+		for(int e=0;e<edgeCount;e++)
+			if(!Double.isNaN(edgeCov[e]) || edges[e].hasAttribute("cov"))
+				edges[e].setAttribute("cov", edgeCov[e]);
+		for(int i=0;i<nodeCount;i++)
+			nodes[i].setAttribute("cov", nodeCov[i]);
 	}
 	
 	public static void coverageOptimizer(BDGraph graph) {
-		org.apache.log4j.BasicConfigurator.configure();
 		int nIteCount=0;
 		while(true) {
 			nIteCount++;
-			//1. Updating edges' coverage
-			ArrayList<Edge> edges = new ArrayList<Edge>(graph.edges().collect(Collectors.toList()));
-			int edgesNumber=edges.size();
-			HashMap<Edge,Integer> idToIndex = new HashMap<Edge,Integer>();
-			double[] init = new double[edgesNumber];
-			for(int i=0;i<edgesNumber;i++) {
-				idToIndex.put(edges.get(i), i);
-				init[i]=Double.isNaN(edges.get(i).getNumber("cov"))?0:edges.get(i).getNumber("cov");
-			}
-			
-			
-			/**	A minimization problem in the form of:
-			***	  minimize_{x} (1/2)x^{T}Px+q^{T}x+r  s.t. 
-			***	    Gx ≤ h 
-			***	    Ax = b,  
-			***	where P ∈ S+^{n} (symmetric nxn), G ∈ R^{mxn} and A ∈ R^{pxn}
-			***
-			***	is called a quadratic program (QP). In a quadratic program we minimize a (convex) quadratic objective function with affine constraint functions. Quadratic programs include linear program as a special case by taking P=0.
-			***/
-			//Objective function
-			double[][] PMatrix = new double[edgesNumber][edgesNumber];
-			double[] qVector = new double[edgesNumber];
-			double r = 0;
-			
-			//equalities
-			double[][] A = new double[graph.getNodeCount()][edgesNumber];
-			double[]  b = new double[graph.getNodeCount()];
-			int p=0;
-			
-		
-			for(Node node:graph) {
-				if(node.getDegree()==0)
-					continue;
-				double cov=node.getNumber("cov");
-				int len=(int)node.getNumber("len");
-				Iterator<Edge> 	in=node.enteringEdges().iterator(),
-								out=node.leavingEdges().iterator();
-				ArrayList<Integer> 	inIndices = new ArrayList<Integer>(), 
-									outIndices = new ArrayList<Integer>();
-				while(in.hasNext()) {
-					inIndices.add(idToIndex.get(in.next()));
-				}
-				while(out.hasNext()) {
-					outIndices.add(idToIndex.get(out.next()));
-				}
-				for(int i:inIndices) {
-					qVector[i]-=cov*len;
-					A[p][i]=1; 
-					for(int j:inIndices)
-						PMatrix[i][j]+=len;
-				}
-				for(int i:outIndices) {
-					qVector[i]-=cov*len;
-					A[p][i]=-1;
-					for(int j:outIndices)
-						PMatrix[i][j]+=len;
-				}
-				b[p]=0;
-				p++;
-				r+=len*cov*cov;
-			}
-			
-			PDQuadraticMultivariateRealFunction objectiveFunction = new PDQuadraticMultivariateRealFunction(PMatrix, qVector, r);
-			
-//			ConvexMultivariateRealFunction[] inequalities = new ConvexMultivariateRealFunction[p];
-//			for(int i=0;i<p;i++) {
-//				double[] tmp=new double[edgesNumber];
-//				tmp[i]=-1;
-//				inequalities[i] = new LinearMultivariateRealFunction(tmp, 0);
-//			}
-			
-			OptimizationRequest or = new OptimizationRequest();
-			or.setF0(objectiveFunction);
-			or.setInitialPoint(init);
-//			or.setFi(inequalities);
-//			or.setA(A);
-//			or.setB(b);
-//			or.setToleranceFeas(1.E-8);
-			or.setTolerance(1.E-8);
-			
-//			JOptimizer opt = new JOptimizer();
-			NewtonUnconstrained opt = new NewtonUnconstrained();
-			opt.setOptimizationRequest(or);
-			try {
-				opt.optimize();
-				double[] sol = opt.getOptimizationResponse().getSolution();
-				for(int i=0;i<edgesNumber;i++) {
-					edges.get(i).setAttribute("cov", sol[i]);
-				}
-				
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			
+			//1. Updating edges' coverage: least squares on the nodes' coverage (see EdgeCoverageSolver)
+			EdgeCoverageSolver.solve(graph);
 			
 			//2. Updating nodes' coverage
 			boolean isConverged=true;
@@ -2,36 +2,47 @@ package org.rtassembly.npgraph;
 
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import org.graphstream.algorithm.ConnectedComponents;
-import org.graphstream.algorithm.ConnectedComponents.ConnectedComponent;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.Node;
 
-import com.google.common.util.concurrent.AtomicDouble;
-
-import japsa.seq.Sequence;
+import japsa.seq.AbstractSequence;
 
 public class GraphWatcher {
 	BDGraph inputGraph, outputGraph;
-	ConnectedComponents rtComponents;
-	HashSet<BDEdge> cutEdges;
-	int numberOfComponents=0;
+	//contigs of the output by the ids of their nodes in the input graph: kept (with their sequence) until one of
+	//their nodes or its neighbors changes (see BDGraph.pollChangedNodes())
+	private HashMap<String, Contig> contigs = new HashMap<>();
+	private int nextContigId=0;
+	//print the stats at each update, not for the partitions of a partitioned assembly
+	private final boolean report;
+	//stats of the partitions (see aggregate()) until they are merged back: sequences, circular ones, N50, N75, longest
+	private int[] partitionStats=null;
+	
+	private static class Contig{
+		final Node outputNode;
+		final List<String> nodeIds;
+		Contig(Node outputNode, BDPath path){
+			this.outputNode=outputNode;
+			nodeIds=path.getNodePath().stream().map(Node::getId).distinct().collect(Collectors.toList());
+		}
+	}
 	
 	public GraphWatcher(BDGraph graph) {
+		this(graph, true);
+	}
+	GraphWatcher(BDGraph graph, boolean report) {
 		this.inputGraph=graph;
-		rtComponents = new ConnectedComponents();
-		rtComponents.init(graph);
-		rtComponents.setCutAttribute("cut");
-		numberOfComponents=rtComponents.getConnectedComponentsCount();
+		this.report=report;
+		inputGraph.watchChanges();
 	}
 
 	//Remove nodes with degree <=1 and length || cov low
@@ -51,173 +62,287 @@ public class GraphWatcher {
 		}
 	}
 
-	synchronized private void removeBadComponents() {
+	synchronized private void removeBadComponents(List<List<Node>> components) {
 		List<Node> 	removeNodes=new ArrayList<Node>();
 		
-		for (Iterator<ConnectedComponent> compIter = rtComponents.iterator(); compIter.hasNext(); ) {
-			ConnectedComponent comp = compIter.next();
-			AtomicDouble lengthWeightedCov = new AtomicDouble(0.0);
-			AtomicInteger length = new AtomicInteger(0);
-			comp.nodes().forEach(n->{
+		for (List<Node> comp:components) {
+			double lengthWeightedCov=0.0;
+			int length=0;
+			for(Node n:comp) {
 				int len = (int) (n.getNumber("len")-BDGraph.getKmerSize());
-				length.getAndAdd(len);
-				lengthWeightedCov.getAndAdd(n.getNumber("cov")*len);
-			});
-			double aveCov=lengthWeightedCov.get()/length.get();
-			if(GraphUtil.approxCompare(aveCov, inputGraph.binner.leastBin.estCov) < 0 || length.get() < SimpleBinner.ANCHOR_CTG_LEN)
-				comp.nodes().forEach(n->removeNodes.add(n));
+				length+=len;
+				lengthWeightedCov+=n.getNumber("cov")*len;
+			}
+			double aveCov=lengthWeightedCov/length;
+			if(GraphUtil.approxCompare(aveCov, inputGraph.binner.leastBin.estCov) < 0 || length < SimpleBinner.ANCHOR_CTG_LEN)
+				removeNodes.addAll(comp);
 				
 		}
 		//Remove abundant components here
 		removeNodes.stream().forEach(n->inputGraph.removeNode(n));
 	}
 	
+	//An edge at a side of a node with more than one edge: contigs end there
+	private static boolean isCut(Edge e) {
+		return isCutAt((BDEdge) e, (BDNode) e.getNode0()) || isCutAt((BDEdge) e, (BDNode) e.getNode1());
+	}
+	private static boolean isCutAt(BDEdge e, BDNode node) {
+		if(e.getNode0()==e.getNode1() && e.getDir0()!=e.getDir1()) //on both sides
+			return node.getInDegree()>=2 || node.getOutDegree()>=2;
+		return (e.getDir(node)?node.getOutDegree():node.getInDegree())>=2;
+	}
+	
+	/*
+	 * Connected components containing the given nodes, without the cut edges if linear (then each one is a contig)
+	 */
+	private List<List<Node>> getComponents(Collection<Node> seeds, boolean linear){
+		List<List<Node>> retval = new ArrayList<>();
+		Set<Node> visited = new HashSet<>();
+		ArrayDeque<Node> queue = new ArrayDeque<>();
+		for(Node seed:seeds) {
+			if(!visited.add(seed))
+				continue;
+			List<Node> comp = new ArrayList<>();
+			queue.add(seed);
+			while(!queue.isEmpty()) {
+				Node cur=queue.poll();
+				comp.add(cur);
+				cur.edges().filter(e->!linear || !isCut(e)).forEach(e->{
+					Node next=e.getOpposite(cur);
+					if(visited.add(next))
+						queue.add(next);
+				});
+			}
+			retval.add(comp);
+		}
+		return retval;
+	}
+	
+	//existing nodes among the ids (all nodes if null), with their neighbors if asked
+	private Set<Node> getNodes(Set<String> ids, boolean withNeighbors){
+		if(ids==null)
+			return inputGraph.nodes().collect(Collectors.toSet());
+		Set<Node> retval = new HashSet<>();
+		for(String id:ids) {
+			Node n = inputGraph.getNode(id);
+			if(n==null)
+				continue;
+			retval.add(n);
+			if(withNeighbors)
+				n.neighborNodes().forEach(retval::add);
+		}
+		return retval;
+	}
 	
 	/*
 	 * TODO: replace linearComponentsDecomposition() with this + real-time + threads...
 	 * Update the outputGraph to show statistics and current output
 	 * Should merge with updating the GUI (colors, labels...)???
+	 * Incremental: only the components with nodes changed since the last update are checked, and only the contigs
+	 * with changed nodes (or neighbors, whose cut edges may have changed) are walked and spelled again.
 	 */
 	synchronized void update(boolean lastTime) {
+		partitionStats=null;
+		Set<String> changed = inputGraph.pollChangedNodes();
 		//cleaning...
-		removeBadComponents();
+		removeBadComponents(getComponents(getNodes(changed, false), false));
 //		if(last)
 //			cleanInsignificantNodes();
 		
-		cutEdges = new HashSet<BDEdge>();
-		//then set the cut edges: just for outputGraph stats (will reset after)
-		inputGraph.nodes()
-		.forEach(n->{
-			if(n.getInDegree()>=2)
-				n.enteringEdges().forEach(e->{if(lastTime) e.setAttribute("ui.hide");e.setAttribute("cut");cutEdges.add((BDEdge) e);});
-			if(n.getOutDegree()>=2)
-				n.leavingEdges().forEach(e->{if(lastTime) e.setAttribute("ui.hide");e.setAttribute("cut");cutEdges.add((BDEdge) e);});
-
-		});
-		
 		if(lastTime){
 			//TODO: only remove low cov edges+nodes
-			removeBadComponents();
+			removeBadComponents(getComponents(getNodes(null, false), true));
+			inputGraph.edges().filter(GraphWatcher::isCut).forEach(e->e.setAttribute("ui.hide"));
 		}
+		//including the nodes removed above
+		Set<String> removed = inputGraph.pollChangedNodes();
+		if(changed!=null && removed!=null)
+			changed.addAll(removed);
+		else
+			changed=null;
 		
-		outputGraph=new BDGraph();
-		BDPath repPath=null; //representative path of a component
-		System.out.println("+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
-		System.out.println("Current time: " + LocalTime.now());
-
-		for (Iterator<ConnectedComponent> compIter = rtComponents.iterator(); compIter.hasNext(); ) {
-			ConnectedComponent comp = compIter.next();
-//			System.out.printf("... id=%s edges=%d nodes=%d \n", comp.id, comp.getEdgeCount(), comp.getNodeCount());
-					
-			//Start analyzing significant components from here
-			//check comp: should be linear paths, should start with node+
-			 Node node = comp.nodes().toArray(Node[]::new)[0];
-			 repPath = new BDPath(node);
-			 boolean isCircular=false;
-			 
-			 if(comp.getEdgeCount()>=1){
-				 //extend to
-				 Node curNode=node;
-				 boolean curDir=true;
-				 List<Edge> ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-				 while(ways.size()==1){
-					 Edge edge = ways.get(0);
-					 repPath.add(edge);
-					 curNode=edge.getOpposite(curNode);
-					 
-					 if(curNode==node){//circular
-						 isCircular=true;
-						 break;
-					 }
-					 
-					 curDir=!((BDEdge) edge).getDir((BDNode)curNode);
-					 ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-
-				 }
-				 
-				 //if linear: reverse
-				 if(!isCircular){
-					 repPath=repPath.reverse();
-					 //extend in opposite direction
-					 curNode=node;
-					 curDir=false;
-					 ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-
-					 while(ways.size()==1){
-						 Edge edge = ways.get(0);
-						 repPath.add(edge);
-						 curNode=edge.getOpposite(curNode);
-						 curDir=!((BDEdge) edge).getDir((BDNode)curNode);
-						 ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!e.hasAttribute("cut")).collect(Collectors.toList());
-
-					 }
-				 }
-				 
-			 }
-			 //now we have repPath
-			 Sequence seq=repPath.spelling();
-			 double cov=GraphUtil.getRealCoverage(repPath.averageCov());
-			 Node n=outputGraph.addNode(Integer.toString(comp.id));
-			 seq.setName("Contig_"+comp.id+"_"+(isCircular?"circular":"linear")+"_length_"+seq.length()+"_cov_"+cov);
-			 n.setAttribute("seq", seq);
-			 n.setAttribute("len", seq.length());
-			 n.setAttribute("cov",cov);
-			 n.setAttribute("path", repPath);
-			 if(isCircular)
-				 n.setAttribute("circular");
-//			 System.out.println("\n" + seq.getName() + ":" + repPath.getId() + "\n=> "+ repPath.getPrimitivePath().getId());
-
+		Set<Node> seeds;
+		if(outputGraph==null || changed==null) {
+			outputGraph=new BDGraph();
+			contigs.clear();
+			seeds=getNodes(null, false);
+		}else {
+			seeds=getNodes(changed, true);
+			//drop the contigs to rebuild, their nodes are to be walked again
+			Set<String> ids = new HashSet<>(changed);
+			seeds.forEach(n->ids.add(n.getId()));
+			for(String id:ids) {
+				Contig ctg=contigs.get(id);
+				if(ctg==null)
+					continue;
+				for(String nodeId:ctg.nodeIds) {
+					contigs.remove(nodeId);
+					Node n=inputGraph.getNode(nodeId);
+					if(n!=null)
+						seeds.add(n);
+				}
+				outputGraph.removeNode(ctg.outputNode);
+			}
+		}
+		
+		List<Contig> newContigs = new ArrayList<>();
+		for(List<Node> comp:getComponents(seeds, true)) {
+			Contig ctg=buildContig(comp);
+			for(String id:ctg.nodeIds)
+				contigs.put(id, ctg);
+			newContigs.add(ctg);
 		}
 
-
-		//now set the edge of outputGraph based on the cut edges
+		//now set the edges of outputGraph based on the cut edges of the new contigs
+		Set<Edge> cutEdges = new HashSet<>();
+		for(Contig ctg:newContigs)
+			for(String id:ctg.nodeIds)
+				inputGraph.getNode(id).edges().filter(GraphWatcher::isCut).forEach(cutEdges::add);
 		for(Edge e:cutEdges) {
 			Node n0=e.getNode0(), n1=e.getNode1();
 			//get corresponding grouped nodes in outputGraph
-			ConnectedComponent 	comp0=rtComponents.getConnectedComponentOf(n0),
-								comp1=rtComponents.getConnectedComponentOf(n1);
+			Contig 	comp0=contigs.get(n0.getId()),
+					comp1=contigs.get(n1.getId());
 			if(comp0==null || comp1==null)
 				continue;
-			Node 	nn0=outputGraph.getNode(Integer.toString(comp0.id)),
-					nn1=outputGraph.getNode(Integer.toString(comp1.id));
-			if(nn0!=null && nn1!=null) {
-				boolean dir0=((BDEdge)e).getDir((BDNode)n0),
-						dir1=((BDEdge)e).getDir((BDNode)n1);
-				if(((BDPath)nn0.getAttribute("path")).getNodeCount()>1) 
-					dir0=(n0==((BDPath)nn0.getAttribute("path")).peekNode())?true:false;
-				
-				if(((BDPath)nn1.getAttribute("path")).getNodeCount()>1) 
-					dir1=(n1==((BDPath)nn1.getAttribute("path")).getRoot())?false:true;	
-				
+			Node 	nn0=comp0.outputNode,
+					nn1=comp1.outputNode;
+			boolean dir0=((BDEdge)e).getDir((BDNode)n0),
+					dir1=((BDEdge)e).getDir((BDNode)n1);
+			if(((BDPath)nn0.getAttribute("path")).getNodeCount()>1) 
+				dir0=(n0==((BDPath)nn0.getAttribute("path")).peekNode())?true:false;
+			
+			if(((BDPath)nn1.getAttribute("path")).getNodeCount()>1) 
+				dir1=(n1==((BDPath)nn1.getAttribute("path")).getRoot())?false:true;	
+			
+			if(outputGraph.getEdge(BDEdge.createID((BDNode)nn0, (BDNode)nn1, dir0, dir1))==null)
 				outputGraph.addEdge((BDNode)nn0, (BDNode)nn1 , dir0, dir1);
-//				Edge newEdge=outputGraph.addEdge((BDNode)nn0, (BDNode)nn1 , dir0, dir1);
-//				System.out.printf("Cut edge %s == New edge %s (%s=%s and %s=%s)\n", e.getId(), newEdge.getId(), 
-//							nn0.getId(),((BDPath)nn0.getAttribute("path")).getId(),  
-//							nn1.getId(),((BDPath)nn1.getAttribute("path")).getId());
-			}
 		}
 		outputGraph.updateStats();
-		System.out.printf("Output stats: %d sequences (%d circular) N50=%d N75=%d Max=%d\n", getNumberOfSequences(), getNumberOfCircularSequences(), getN50(), getN75(), getLongestContig());
-		
-		//reset the cutting attributes
-//		inputGraph.edges().filter(e->e.hasAttribute("cut")).forEach(e->{e.removeAttribute("cut"); e.removeAttribute("ui.hide");});
-		inputGraph.edges().filter(e->e.hasAttribute("cut")).forEach(e->{e.removeAttribute("cut");});
+		if(report) {
+			System.out.println("+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+			System.out.println("Current time: " + LocalTime.now());
+			System.out.printf("Output stats: %d sequences (%d circular) N50=%d N75=%d Max=%d (%d contigs rebuilt)\n", getNumberOfSequences(), getNumberOfCircularSequences(), getN50(), getN75(), getLongestContig(), newContigs.size());
+		}
+	}
+	
+	/*
+	 * Stats of a partitioned assembly (see PartitionedAssembly): over the contigs of all the partitions, whose watchers
+	 * must have been updated once. Reported as by update() until the partitions are merged back into the input graph.
+	 */
+	synchronized void aggregate(List<GraphWatcher> partitions) {
+		List<int[]> lengths = new ArrayList<>();
+		int count=0, circular=0;
+		for(GraphWatcher p:partitions) {
+			int[] partLengths=p.getContigLengths();
+			lengths.add(partLengths);
+			count+=partLengths.length;
+			circular+=p.getNumberOfCircularSequences();
+		}
+		int[] all = new int[count];
+		count=0;
+		for(int[] partLengths:lengths) {
+			System.arraycopy(partLengths, 0, all, count, partLengths.length);
+			count+=partLengths.length;
+		}
+		int[] nxx = BDGraph.getN50N75(all);
+		partitionStats = new int[] {all.length, circular, nxx[0], nxx[1], all.length==0?0:all[all.length-1]};
+		if(report) {
+			System.out.println("+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+			System.out.println("Current time: " + LocalTime.now());
+			System.out.printf("Output stats: %d sequences (%d circular) N50=%d N75=%d Max=%d (%d partitions)\n", getNumberOfSequences(), getNumberOfCircularSequences(), getN50(), getN75(), getLongestContig(), partitions.size());
+		}
+	}
+	synchronized int[] getContigLengths() {
+		if(outputGraph==null)
+			return new int[0];
+		return outputGraph.nodes().mapToInt(n->(int) n.getNumber("len")).toArray();
+	}
+	
+	//walk along a linear component (no cut edge inside) and spell it
+	private Contig buildContig(List<Node> comp) {
+		//check comp: should be linear paths, should start with node+
+		Node node = comp.get(0);
+		BDPath repPath = new BDPath(node); //representative path of a component
+		boolean isCircular=false;
+		 
+		if(comp.size()>1 || node.getDegree()>0){
+			//extend to
+			Node curNode=node;
+			boolean curDir=true;
+			List<Edge> ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!isCut(e)).collect(Collectors.toList());
+			while(ways.size()==1){
+				Edge edge = ways.get(0);
+				repPath.add(edge);
+				curNode=edge.getOpposite(curNode);
+				 
+				if(curNode==node){//circular
+					isCircular=true;
+					break;
+				}
+				 
+				curDir=!((BDEdge) edge).getDir((BDNode)curNode);
+				ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!isCut(e)).collect(Collectors.toList());
 
+			}
+			 
+			//if linear: reverse
+			if(!isCircular){
+				repPath=repPath.reverse();
+				//extend in opposite direction
+				curNode=node;
+				curDir=false;
+				ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!isCut(e)).collect(Collectors.toList());
+
+				while(ways.size()==1){
+					Edge edge = ways.get(0);
+					repPath.add(edge);
+					curNode=edge.getOpposite(curNode);
+					curDir=!((BDEdge) edge).getDir((BDNode)curNode);
+					ways = (curDir?curNode.leavingEdges():curNode.enteringEdges()).filter(e->!isCut(e)).collect(Collectors.toList());
+
+				}
+			}
+			 
+		}
+		//now we have repPath
+		int id=nextContigId++;
+		AbstractSequence seq=repPath.spelling();
+		double cov=GraphUtil.getRealCoverage(repPath.averageCov());
+		Node n=outputGraph.addNode(Integer.toString(id));
+		seq.setName("Contig_"+id+"_"+(isCircular?"circular":"linear")+"_length_"+seq.length()+"_cov_"+cov);
+		n.setAttribute("seq", seq);
+		n.setAttribute("len", seq.length());
+		n.setAttribute("cov",cov);
+		n.setAttribute("path", repPath);
+		if(isCircular)
+			n.setAttribute("circular");
+		return new Contig(n, repPath);
 	}
 	
 	synchronized public int getN50() {
+		if(partitionStats!=null)
+			return partitionStats[2];
 		return outputGraph==null?inputGraph.n50:outputGraph.n50;
 	}
 	synchronized public int getN75() {
+		if(partitionStats!=null)
+			return partitionStats[3];
 		return outputGraph==null?inputGraph.n75:outputGraph.n75;
 	}
 	synchronized public int getLongestContig() {
+		if(partitionStats!=null)
+			return partitionStats[4];
 		return outputGraph==null?inputGraph.maxl:outputGraph.maxl;
 	}
 	synchronized public int getNumberOfSequences() {
+		if(partitionStats!=null)
+			return partitionStats[0];
 		return outputGraph==null?inputGraph.numOfCtgs:outputGraph.numOfCtgs;
 	}
 	synchronized public int getNumberOfCircularSequences() {
+		if(partitionStats!=null)
+			return partitionStats[1];
 		return outputGraph==null?inputGraph.numOfCircularCtgs:outputGraph.numOfCircularCtgs;
 	}
 	synchronized public void outputGFA(String fileName) throws IOException{
@@ -3,18 +3,30 @@ package org.rtassembly.npgraph;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamInputResource;
@@ -24,6 +36,7 @@ import htsjdk.samtools.ValidationStringency;
 import japsa.seq.Alphabet;
 import japsa.seq.Sequence;
 import japsa.seq.SequenceReader;
+import japsa.util.HTSUtilities;
 import javafx.beans.property.StringProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.BooleanProperty;
@@ -45,8 +58,30 @@ public class HybridAssembler {
 							longReadsInputFormat;
 	
 	Process alignmentProcess = null;
+	MinimizerMapper mapper = null;
 	private boolean stop=false;
+	private int numberOfThreads=1;
+	private boolean unordered=false; //bridges of the pipelined ingest built concurrently, see IngestPipeline
+	private boolean compressOutput=false; //final assembly written in BGZF (.gz)
+	private boolean partitioned=false; //connected components assembled independently, see PartitionedAssembly
+	PartitionedAssembly partitions = null;
+	private boolean useReadStore=false; //bases of the pending reads kept on disk, see ReadStore
+	ReadStore readStore = null;
 	private String errorLog="";
+	//checkpointing: number of reads consumed (including the ones without building blocks) and to skip when resuming
+	private boolean resume=false;
+	private int checkpointInterval=0; //seconds, 0 to disable
+	private long readsConsumed=0, readsToSkip=0, nextCheckpoint=0;
+	private ExecutorService checkpointWriter = null;
+	private Future<?> pendingCheckpoint = null;
+	//recording of the alignments for replaying
+	private String journalFile="";
+	//long-read input from a folder of chunk files written during the run
+	private int watchTimeout=600; //seconds
+	//files of the folder whose reads were all consumed by the checkpoint resumed from, left out by the internal mapper
+	private LinkedHashMap<String, Long> consumedFiles = new LinkedHashMap<>();
+	private WatchFolderInputStream watchFolder = null;
+	private AlignmentJournal.Writer journal = null;
 	//Getters and Setters
 	//==============================================================================================//
 	public void setReady(boolean isReady) {ready=isReady;}
@@ -112,6 +147,34 @@ public class HybridAssembler {
 	public final String getLongReadsInputFormat() {return longReadsInputFormat.get();}
 	public StringProperty longReadsInputFormatProperty() {return longReadsInputFormat;}
 	
+	public final void setNumberOfThreads(int threads) {numberOfThreads=threads;}
+	public final int getNumberOfThreads() {return numberOfThreads;}
+	
+	public final void setUnordered(boolean unordered) {this.unordered=unordered;}
+	public final boolean getUnordered() {return unordered;}
+	
+	public final void setCompressOutput(boolean compress) {compressOutput=compress;}
+	public final boolean getCompressOutput() {return compressOutput;}
+	
+	public final void setPartitioned(boolean partitioned) {this.partitioned=partitioned;}
+	public final boolean getPartitioned() {return partitioned;}
+	public final void setReadStore(boolean useReadStore) {this.useReadStore=useReadStore;}
+	public final boolean getReadStore() {return useReadStore;}
+	
+	public final void setResume(boolean resume) {this.resume=resume;}
+	public final boolean getResume() {return resume;}
+	
+	public final void setCheckpointInterval(int seconds) {checkpointInterval=seconds;}
+	public final int getCheckpointInterval() {return checkpointInterval;}
+	public final String getCheckpointFile() {return getPrefix()+"/npgraph.ckpt";}
+	
+	public final void setJournalFile(String fileName) {journalFile=fileName;}
+	public final String getJournalFile() {return journalFile;}
+	
+	public final void setWatchTimeout(int seconds) {watchTimeout=seconds;}
+	public final int getWatchTimeout() {return watchTimeout;}
+	public final boolean isWatchFolder() {return new File(getLongReadsInput()).isDirectory();}
+	
 	public synchronized void setStopSignal(boolean stop) {this.stop=stop;}
 	public synchronized boolean getStopSignal() {return stop;}
 	//===============================================================================================//
@@ -172,13 +235,15 @@ public class HybridAssembler {
 					setLongReadsInputFormat("fasta/fastq");
 				else if(fn.endsWith(".sam") || fn.endsWith(".bam")) 
 					setLongReadsInputFormat("sam/bam");		
+				else if(isWatchFolder())
+					setLongReadsInputFormat("fasta/fastq");
     		}	 
         );
         
         longReadsInputFormat.addListener((observable, oldValue, newValue) -> 
 			{
 				String oldFile=getLongReadsInput().toLowerCase();
-				if(oldFile.equals("-"))
+				if(oldFile.equals("-") || isWatchFolder())
 					return;
 				if(	newValue.equals("fasta/fastq") 
 							&& !oldFile.endsWith(".fasta") && !oldFile.endsWith(".fa") && !oldFile.endsWith("fna")
@@ -201,6 +266,8 @@ public class HybridAssembler {
 					setAlignerOpts("-t4 -k15 -w5");
 				else if (aligner.toLowerCase().equals("bwa"))
 					setAlignerOpts("-t4 -k11 -W20 -r10 -A1 -B1 -O1 -E1 -L0 -a -Y");			
+				else if (aligner.toLowerCase().equals("internal"))
+					setAlignerOpts("-k15 -w10");
 			}	 
 
         );
@@ -239,8 +306,12 @@ public class HybridAssembler {
 			setErrorLog("Please specify a correct format of long read data (FASTA/FASTQ or BAM/SAM)!");
 			return false;
 		}
-		if(!getLongReadsInput().equals("-") && !checkFile(getLongReadsInput()))
+		if(!getLongReadsInput().equals("-") && !isWatchFolder() && !checkFile(getLongReadsInput()))
 			return false;
+		if(isWatchFolder() && !getLongReadsInputFormat().equals("fasta/fastq")) {
+			setErrorLog("Only FASTA/FASTQ files can be read from a folder!");
+			return false;
+		}
 		
 		if(!checkFolder(getPrefix()))
 			return false;
@@ -254,6 +325,16 @@ public class HybridAssembler {
 		
 		//if long reads data not given in SAM/BAM, need to invoke minimap2
         if(getLongReadsInputFormat().toLowerCase().startsWith("fast")) {
+        	//the internal mapper index the graph in memory, no need for the FASTA file and external binary
+        	if(getAligner().equals("internal")) {
+        		try {
+        			mapper = new MinimizerMapper(simGraph, getAlignerOpts());
+        		}catch(IllegalArgumentException e) {
+        			setErrorLog("Issue when indexing the pre-assemblies: \n" + e.getMessage());
+        			return false;
+        		}
+        		return true;
+        	}
         	File indexFile=null;
         	ArrayList<String> idxCmd = new ArrayList<>();
         	idxCmd.add(getFullPathOfAligner());
@@ -272,7 +353,7 @@ public class HybridAssembler {
 				idxCmd.add("index");
 
         	}else {
-        		setErrorLog("Invalide aligner! Set to BWA or minimap2 please!");
+        		setErrorLog("Invalide aligner! Set to BWA, minimap2 or internal please!");
         		return false;
         	}
 			idxCmd.add(getPrefix()+"/assembly_graph.fasta");
@@ -308,9 +389,9 @@ public class HybridAssembler {
 		//try to read input file
 		try {
 			if(getShortReadsInputFormat().toLowerCase().equals("gfa")) 
-				GraphUtil.loadFromGFA(getShortReadsInput(), getBinReadsInput(), simGraph, getUseSPAdesPath());
+				GraphUtil.loadFromGFA(getShortReadsInput(), getBinReadsInput(), simGraph, getUseSPAdesPath(), getNumberOfThreads());
 			else if(getShortReadsInputFormat().toLowerCase().equals("fastg"))
-				GraphUtil.loadFromFASTG(getShortReadsInput(), getBinReadsInput(), simGraph, getUseSPAdesPath());
+				GraphUtil.loadFromFASTG(getShortReadsInput(), getBinReadsInput(), simGraph, getUseSPAdesPath(), getNumberOfThreads());
 			else 				
 				throw new IOException("Assembly graph file must have .gfa or .fastg extension!");
 			
@@ -321,6 +402,17 @@ public class HybridAssembler {
 		
 		
 		simGraph.updateStats();
+		if(getResume()) {
+			if(new File(getCheckpointFile()).isFile()) {
+				try {
+					readsConsumed = readsToSkip = GraphCheckpoint.restore(simGraph, getCheckpointFile(), consumedFiles);
+				}catch(IOException e) {
+					setErrorLog("Issue when restoring the checkpoint: \n" + e.getMessage());
+					return false;
+				}
+			}else
+				LOG.warn("No checkpoint {} found, start from the beginning!", getCheckpointFile());
+		}
 		observer = new GraphWatcher(simGraph);
 		return true;
 	}
@@ -334,7 +426,60 @@ public class HybridAssembler {
 			throws IOException, InterruptedException{
 
 		LOG.info("Scaffolding ready at {}", new Date());
+		if(readsToSkip > 0)
+			LOG.info("Resuming: skip {} reads already consumed", readsToSkip);
+		if(getPartitioned()) {
+			if(getNumberOfThreads() > 1)
+				partitions = new PartitionedAssembly(this, getNumberOfThreads());
+			else
+				LOG.warn("Partitioned assembly needs more than 1 thread, the graph is assembled as a whole!");
+		}
+		//the original graph is only updated at the end of a partitioned assembly
+		if(getCheckpointInterval() > 0 && partitions!=null)
+			LOG.warn("No checkpoint taken during a partitioned assembly!");
+		else if(getCheckpointInterval() > 0) {
+			checkpointWriter = Executors.newSingleThreadExecutor();
+			nextCheckpoint = System.currentTimeMillis() + getCheckpointInterval()*1000L;
+		}
+		if(getJournalFile()!=null && !getJournalFile().isEmpty())
+			journal = new AlignmentJournal.Writer(getJournalFile());
+		if(getReadStore())
+			readStore = new ReadStore(getPrefix()+"/npgraph_reads.store");
 
+		if (mapper != null && getLongReadsInputFormat().startsWith("fast")){
+			LOG.info("Starting alignment by the internal mapper at {}", new Date());
+			SequenceReader seqReader;
+			if(isWatchFolder()) {
+				//every read of the files is counted here, so the consumed files can be left out instead of skipped
+				watchFolder = new WatchFolderInputStream(new File(getLongReadsInput()), this, getWatchTimeout(), consumedFiles);
+				for(long reads:consumedFiles.values())
+					readsToSkip -= reads;
+				if(!consumedFiles.isEmpty())
+					LOG.info("Resuming: {} files of {} already consumed", consumedFiles.size(), getLongReadsInput());
+				seqReader = SequenceReader.getReader(watchFolder);
+			}else
+				seqReader = SequenceReader.getReader(getLongReadsInput());
+			if(seqReader==null)
+				throw new IOException("Unknown format of long-read data " + getLongReadsInput());
+			
+			if(getNumberOfThreads() > 1) {
+				LOG.info("Pipelined ingest with {} worker threads", getNumberOfThreads());
+				new IngestPipeline(this, getNumberOfThreads()).run(seqReader);
+			}else {
+				Sequence read;
+				while(!getStopSignal() && (read=seqReader.nextSequence(Alphabet.DNA5()))!=null) {
+					if(skipRead())
+						continue;
+					ArrayList<Alignment> alignments = mapRead(read);
+					final Sequence nnpRead=read;
+					processRead(()->nnpRead, alignments);
+				}
+			}
+			seqReader.close();
+			finishIngest();
+			return;
+		}
+		
 		SamReaderFactory.setDefaultValidationStringency(ValidationStringency.SILENT);
 		SamReader reader = null;
 
@@ -353,14 +498,14 @@ public class HybridAssembler {
 				command.addAll(Arrays.asList(getAlignerOpts().split("\\s")));
 				command.add("-K20000");
 				command.add(getPrefix()+"/assembly_graph.mmi");
-				command.add(getLongReadsInput());
+				command.add(isWatchFolder()?"-":getLongReadsInput());
 			}
 			else if(getAligner().equals("bwa")) {
 				command.add("mem");
 				command.addAll(Arrays.asList(getAlignerOpts().split("\\s")));
 				command.add("-K20000");
 				command.add(getPrefix()+"/assembly_graph.fasta");
-				command.add(getLongReadsInput());
+				command.add(isWatchFolder()?"-":getLongReadsInput());
 			}
 			
 			if ("-".equals(getLongReadsInput())){
@@ -373,73 +518,422 @@ public class HybridAssembler {
 			alignmentProcess  = pb.redirectError(ProcessBuilder.Redirect.to(new File(getPrefix()+"/alignment.log"))).start();
 
 			LOG.info("{} started!", getAligner());			
+			if(isWatchFolder())
+				feedAligner(new WatchFolderInputStream(new File(getLongReadsInput()), this, getWatchTimeout()));
 
 			reader = SamReaderFactory.makeDefault().open(SamInputResource.of(alignmentProcess.getInputStream()));
 
 		}
+		//resolve the references by index from the header: no name parsing per record
+		BDNode[] refNodes = HTSUtilities.referenceTable(reader.getFileHeader(), this::getNodeOfReference, BDNode[]::new);
+		if(refNodes.length==0)
+			LOG.warn("No reference sequence (@SQ) found from the SAM header!");
 		SAMRecordIterator iter = reader.iterator();
+		
+		if(getNumberOfThreads() > 1) {
+			LOG.info("Pipelined ingest with {} worker threads", getNumberOfThreads());
+			new IngestPipeline(this, getNumberOfThreads()).run(iter, refNodes);
+		}else {
+			ArrayList<SAMRecord> samList =  new ArrayList<SAMRecord>();// alignment records of the same read;	
+			SAMRecord rec=null;
+			while (iter.hasNext()) {
+				if(getStopSignal())
+					break;
+				
+				rec = nextRecord(iter);
+				if(rec==null)
+					continue;
+				
+				if (!samList.isEmpty() && !samList.get(0).getReadName().equals(rec.getReadName())) {	
+					if(!skipRead())
+						processRead(getReadSequence(samList), getAlignments(samList, refNodes));
+					samList = new ArrayList<SAMRecord>();
+				}	
+				samList.add(rec); 
+			}// while
+			if(!samList.isEmpty() && !getStopSignal() && !skipRead())
+				processRead(getReadSequence(samList), getAlignments(samList, refNodes));
+		}
+		iter.close();
+		reader.close();
 
-		String readID = "";
-		Sequence nnpRead = null;
-		ArrayList<Alignment> samList =  new ArrayList<Alignment>();// alignment record of the same read;	
+		terminateAlignmentProcess();	
+		finishIngest();
+
+	}
+	
+	/*
+	 * Stream the reads to the aligner's stdin from another thread, so the aligner keeps running between the files
+	 */
+	private void feedAligner(final InputStream reads) {
+		Thread feeder = new Thread(()->{
+			byte[] buffer = new byte[1<<16];
+			try(InputStream in = reads; OutputStream out = alignmentProcess.getOutputStream()){
+				int n;
+				while((n=in.read(buffer)) > 0)
+					out.write(buffer, 0, n);
+			}catch(IOException e) {
+				if(!getStopSignal())
+					LOG.warn("Failed to feed the reads to {}: {}", getAligner(), e.getMessage());
+			}
+		}, "npgraph-feed");
+		feeder.setDaemon(true);
+		feeder.start();
+	}
+	
+	/*
+	 * Return next SAM record that worth to consider (mapped with good quality), null otherwise
+	 */
+	SAMRecord nextRecord(SAMRecordIterator iter) {
 		SAMRecord rec=null;
-		while (iter.hasNext()) {
-			if(getStopSignal())
-				break;
-			
-			try {
-				rec = iter.next();
-			}catch(Exception e) {
-				if(HybridAssembler.VERBOSE) {
-					LOG.warn("Ignore one faulty SAM record: \n {}", e.getMessage());
-					e.printStackTrace();
-				}
-					
-				continue;
+		try {
+			rec = iter.next();
+		}catch(Exception e) {
+			if(HybridAssembler.VERBOSE) {
+				LOG.warn("Ignore one faulty SAM record: \n {}", e.getMessage());
+				e.printStackTrace();
 			}
-			
-			if (rec.getReadUnmappedFlag())
-				continue;
-			
-			if (rec.getMappingQuality() < Alignment.MIN_QUAL)
+			return null;
+		}
+		
+		if (rec.getReadUnmappedFlag() || rec.getMappingQuality() < Alignment.MIN_QUAL)
+			return null;
+		
+		return rec;
+	}
+	
+	/*
+	 * Node of a reference name from the SAM header: either the node ID or SPAdes-like name (NODE_<ID>_...)
+	 */
+	BDNode getNodeOfReference(String refName) {
+		String[] toks = refName.split("_");
+		String refID = toks.length > 1 ? toks[1]:refName;
+		BDNode node = (BDNode) simGraph.getNode(refID);
+		if (node==null && HybridAssembler.VERBOSE)
+			LOG.warn("Node {} not found from the graph!", refID);
+		return node;
+	}
+	
+	/*
+	 * Convert SAM records of the same read to alignments on the graph, refNodes are indexed by the records' reference index.
+	 * Don't touch the graph so can be called from the ingest workers.
+	 */
+	ArrayList<Alignment> getAlignments(List<SAMRecord> samList, BDNode[] refNodes){
+		ArrayList<Alignment> retval = new ArrayList<Alignment>();
+		String readID = null;
+		for(SAMRecord rec:samList) {
+			int refIndex = rec.getReferenceIndex();
+			BDNode node = (refIndex >= 0 && refIndex < refNodes.length) ? refNodes[refIndex] : null;
+			if (node==null)
 				continue;
-			
-			String refName = rec.getReferenceName();
-			String refID = refName.split("_").length > 1 ? refName.split("_")[1]:refName;
-			
-			if (simGraph.getNode(refID)==null) {
-				if(HybridAssembler.VERBOSE)
-					LOG.warn("Node {} not found from the graph!", refID);
+			Alignment alg = new Alignment(rec, node);
+			//share the same name among the records of a read
+			if(readID==null)
+				readID = alg.readID;
+			alg.readID = readID;
+			retval.add(alg);
+		}
+		return retval;
+	}
+	
+	/*
+	 * The read bases are decoded only when a building block asks for the sequence (AlignedRead.getReadSequence()),
+	 * once for all the blocks of the read. The bases are taken from a primary record if possible, then from any record
+	 * that is not hard clipped. Reads without such a record (e.g. SEQ is '*') are given without bases.
+	 */
+	Supplier<Sequence> getReadSequence(List<SAMRecord> samList) {
+		SAMRecord rec = null;
+		for(SAMRecord r:samList) {
+			if(r.getReadBases()==null || r.getReadBases().length==0 || isHardClipped(r))
 				continue;
+			if(rec==null || !(r.getNotPrimaryAlignmentFlag() || r.getSupplementaryAlignmentFlag())) {
+				rec = r;
+				if(!(r.getNotPrimaryAlignmentFlag() || r.getSupplementaryAlignmentFlag()))
+					break;
 			}
-			Alignment myRec = new Alignment(rec, (BDNode) simGraph.getNode(refID)); 
-
-			//////////////////////////////////////////////////////////////////
-			
-			if (!readID.equals("") && !readID.equals(myRec.readID)) {	
-				synchronized(simGraph) {
-					List<BDPath> paths=simGraph.uniqueBridgesFinding(nnpRead, samList);
-					if(paths!=null){	
-						for(BDPath path:paths) 
-						{
-							//path here is already unique! (2 unique ending nodes)
-					    	if(simGraph.reduceUniquePath(path)) {
-					    		observer.update(false);					    		
-					    	}
-						}
+		}
+		if(rec==null)
+			return new ReadBases(null, samList.isEmpty() ? null : "R" + samList.get(0).getReadName(), false);
+		return new ReadBases(rec.getReadBases(), "R" + rec.getReadName(), rec.getReadNegativeStrandFlag());
+	}
+	private static boolean isHardClipped(SAMRecord rec) {
+		if(rec.getCigar()==null)
+			return false;
+		for(CigarElement e:rec.getCigar().getCigarElements())
+			if(e.getOperator()==CigarOperator.H)
+				return true;
+		return false;
+	}
+	
+	/*
+	 * Bases of a SAM record, decoded on the first call then kept for the other building blocks of the read.
+	 * SEQ of a record on the reverse strand is the reverse complement of the read.
+	 */
+	static final class ReadBases implements Supplier<Sequence> {
+		private byte[] bases;
+		private final String name;
+		private final boolean reverse;
+		private Sequence read = null;
+		
+		ReadBases(byte[] bases, String name, boolean reverse){
+			this.bases = bases;
+			this.name = name;
+			this.reverse = reverse;
+		}
+		
+		@Override
+		public synchronized Sequence get() {
+			if(read==null && bases!=null) {
+				Alphabet.DNA5 alphabet = Alphabet.DNA5.INSTANCE;
+				read = new Sequence(alphabet, bases.length, name);
+				for(int i=0;i<bases.length;i++) {
+					int symbol = alphabet.char2int((char) bases[i]);
+					if(reverse)
+						read.setSymbol(bases.length-1-i, alphabet.complement(symbol));
+					else
+						read.setSymbol(i, symbol);
+				}
+				bases = null;
+			}
+			return read;
+		}
+	}
+	
+	/*
+	 * With a read store, the bases of a read about to wait in a queue are written there, the queue then only keeps
+	 * its handle. Return the supplier of the read to use from now on.
+	 */
+	Supplier<Sequence> keepRead(Supplier<Sequence> read) {
+		if(readStore==null || read instanceof ReadStore.Handle)
+			return read;
+		Sequence seq = read.get();
+		if(seq==null)
+			return read;
+		try {
+			return readStore.supplier(readStore.put(seq));
+		} catch (IOException e) {
+			LOG.warn("Failed to store read {}, kept in memory: {}", seq.getName(), e.getMessage());
+			return read;
+		}
+	}
+	
+	/*
+	 * Same for a read whose building blocks are made already: they then only keep its handle.
+	 * The reads without any block are never stored.
+	 */
+	Supplier<Sequence> keepRead(Supplier<Sequence> read, List<AlignedRead> buildingBlocks) {
+		if(buildingBlocks==null || buildingBlocks.isEmpty())
+			return read;
+		Supplier<Sequence> retval = keepRead(read);
+		if(retval != read)
+			for(AlignedRead block:buildingBlocks)
+				block.setReadSupplier(retval);
+		return retval;
+	}
+	
+	/*
+	 * Map a read to the graph with the internal mapper. Only read the index so can be called from the ingest workers.
+	 */
+	ArrayList<Alignment> mapRead(Sequence read){
+		ArrayList<Alignment> retval = mapper.map(read);
+		read.setName("R" + read.getName());
+		return retval;
+	}
+	
+	/*
+	 * Serial ingest of a read: drop the alignments to nodes no longer in the graph then commit its building blocks.
+	 * The read is committed right away so it's not moved to the read store.
+	 */
+	void processRead(Supplier<Sequence> read, ArrayList<Alignment> alignments) {
+		recordAlignments(alignments);
+		if(partitions!=null) {
+			partitions.submit(read, alignments);
+			return;
+		}
+		removeStaleAlignments(alignments);
+		processRead(simGraph.getBuildingBlocks(read, alignments));
+	}
+	
+	//write the alignments of a read to the journal if recording, in the order of reads
+	void recordAlignments(List<Alignment> alignments) {
+		if(journal==null)
+			return;
+		try {
+			journal.write(alignments);
+		} catch (IOException e) {
+			LOG.warn("Failed to write to the alignment journal, stop recording: {}", e.getMessage());
+			closeJournal();
+		}
+	}
+	
+	private void closeJournal() {
+		if(journal==null)
+			return;
+		try {
+			journal.close();
+		} catch (IOException e) {
+			LOG.warn("Failed to close the alignment journal: {}", e.getMessage());
+		}
+		journal = null;
+	}
+	
+	//all the reads are committed: the bases are no longer needed
+	private void closeReadStore() {
+		if(readStore==null)
+			return;
+		try {
+			readStore.close();
+		} catch (IOException e) {
+			LOG.warn("Failed to close the read store: {}", e.getMessage());
+		}
+		readStore = null;
+	}
+	
+	/*
+	 * Replay the alignments recorded in a journal (see setJournalFile()) into the graph: as fast as possible
+	 * or at the pace they were recorded. Used to benchmark the bridging without the aligner and I/O.
+	 */
+	public void replay(String journalFile, boolean pace) throws IOException, InterruptedException {
+		List<AlignmentJournal.ReadGroup> groups = AlignmentJournal.readAll(journalFile, simGraph);
+		LOG.info("Replaying {} reads from {} at {}", groups.size(), journalFile, new Date());
+		
+		long start = System.nanoTime(), count = 0;
+		for(AlignmentJournal.ReadGroup group:groups) {
+			if(getStopSignal())
+				break;
+			if(pace) {
+				long wait = group.time - (System.nanoTime()-start)/1000000;
+				if(wait > 0)
+					Thread.sleep(wait);
+			}
+			//the read bases are not recorded
+			processRead(()->null, group.alignments);
+			count++;
+		}
+		double seconds = (System.nanoTime()-start)/1e9;
+		LOG.info("Replayed {} reads in {}s ({} reads/s)", count, String.format("%.3f", seconds), String.format("%.1f", count/seconds));
+	}
+	
+	/*
+	 * The reference table and the mapper index are built once: remove alignments to nodes removed from the graph since then.
+	 */
+	boolean removeStaleAlignments(List<Alignment> alignments) {
+		return alignments.removeIf(alg->simGraph.getNode(alg.node.getId())!=alg.node);
+	}
+	
+	/*
+	 * Commit the building blocks of a read to the graph: build/update bridges then reduce the resolved paths.
+	 * Must be called in the order of reads to keep the result deterministic.
+	 */
+	void processRead(List<AlignedRead> buildingBlocks) {
+		processReads(Collections.singletonList(buildingBlocks), null);
+	}
+	
+	/*
+	 * Commit a batch of reads: the bridges are built concurrently by the executor if given (the reads should not
+	 * share any anchor, see BDGraph.getLockStripes()), then the resolved paths are reduced in the order of reads
+	 * under the write lock. The batch is consumed as a whole for the checkpoints.
+	 */
+	void processReads(List<List<AlignedRead>> reads, ExecutorService executor) {
+		List<List<BDPath>> paths=new ArrayList<>();
+		if(executor==null || reads.size() < 2) {
+			for(List<AlignedRead> buildingBlocks:reads)
+				paths.add(buildingBlocks==null || buildingBlocks.isEmpty() ? null : simGraph.uniqueBridgesFinding(buildingBlocks));
+		}else {
+			List<Future<List<BDPath>>> futures=new ArrayList<>();
+			for(List<AlignedRead> buildingBlocks:reads)
+				futures.add(buildingBlocks==null || buildingBlocks.isEmpty() ? null : executor.submit(()->simGraph.uniqueBridgesFinding(buildingBlocks)));
+			for(Future<List<BDPath>> future:futures) {
+				try {
+					paths.add(future==null ? null : future.get());
+				} catch (InterruptedException | ExecutionException e) {
+					LOG.warn("Ignore one faulty read: \n {}", e.getMessage());
+					if(HybridAssembler.VERBOSE)
+						e.printStackTrace();
+					paths.add(null);
+				}
+			}
+		}
+		
+		simGraph.graphLock.writeLock().lock();
+		try {
+			synchronized(simGraph) {
+				readsConsumed+=reads.size();
+				for(List<BDPath> readPaths:paths) {
+					if(readPaths==null)
+						continue;
+					for(BDPath path:readPaths) 
+					{
+						//path here is already unique! (2 unique ending nodes)
+				    	if(simGraph.reduceUniquePath(path)) {
+				    		observer.update(false);					    		
+				    	}
 					}
 				}
-				samList = new ArrayList<Alignment>();
-				nnpRead = new Sequence(Alphabet.DNA5(), rec.getReadString(), "R" + readID);
-			}	
-			readID = myRec.readID;
-			samList.add(myRec); 
-		}// while
-		iter.close();
-		reader.close();
-
-		terminateAlignmentProcess();	
-
+				checkpoint(false);
+			}
+		}finally {
+			simGraph.graphLock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * When resuming, the first reads were already consumed by the checkpoint. Called by the reading thread, in the order of reads.
+	 */
+	boolean skipRead() {
+		if(readsToSkip <= 0)
+			return false;
+		readsToSkip--;
+		return true;
+	}
+	
+	/*
+	 * Take a checkpoint if it's time (or forced): the state is copied while holding the graph lock, encoding, compressing
+	 * and writing the file is done by another thread. Skipped if the last one is still being written.
+	 */
+	private void checkpoint(boolean force) {
+		if(checkpointWriter==null)
+			return;
+		long now = System.currentTimeMillis();
+		if(!force && (now < nextCheckpoint || (pendingCheckpoint!=null && !pendingCheckpoint.isDone())))
+			return;
+		nextCheckpoint = now + getCheckpointInterval()*1000L;
+		final GraphCheckpoint.Snapshot snapshot;
+		simGraph.graphLock.writeLock().lock();
+		try {
+			synchronized(simGraph) {
+				snapshot = GraphCheckpoint.capture(simGraph, readsConsumed);
+				if(watchFolder!=null)
+					snapshot.consumedFiles = watchFolder.getConsumedFiles(readsConsumed);
+			}
+		}finally {
+			simGraph.graphLock.writeLock().unlock();
+		}
+		if(HybridAssembler.VERBOSE)
+			LOG.info("Checkpoint after {} reads captured in {}ms", readsConsumed, System.currentTimeMillis()-now);
+		final String fileName = getCheckpointFile();
+		pendingCheckpoint = checkpointWriter.submit(()->{
+			try {
+				GraphCheckpoint.write(snapshot.encode(), fileName);
+			} catch (IOException e) {
+				LOG.warn("Failed to write checkpoint {}: {}", fileName, e.getMessage());
+			}
+		});
+	}
+	
+	//end of the ingest: close the journal, take the last checkpoint and wait for it to be written
+	private void finishIngest() throws InterruptedException {
+		if(partitions!=null)
+			partitions.finish();
+		closeJournal();
+		closeReadStore();
+		LOG.info("Shortest tree cache: {}", simGraph.core.trees);
+		if(checkpointWriter==null)
+			return;
+		checkpoint(true);
+		checkpointWriter.shutdown();
+		checkpointWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		checkpointWriter = null;
 	}
 	
 	public void terminateAlignmentProcess() {
@@ -449,32 +943,48 @@ public class HybridAssembler {
 	}
 	
 	public void postProcessGraph() throws IOException{
+		if(partitions!=null) {
+			partitions.merge();
+			partitions = null;
+		}else {
+			//the last attempt may add pseudo edges (see BDGraph.DFSAllPaths())
+			simGraph.graphLock.writeLock().lock();
+			try {
+				connectUnsolvedBridges(simGraph);
+			}finally {
+				simGraph.graphLock.writeLock().unlock();
+			}
+		}
+		
+        //update for the last time
+        observer.update(true);
+		String ext=getCompressOutput()?".gz":"";
+		observer.outputFASTA(getPrefix()+"/npgraph_assembly.fasta"+ext);
+		observer.outputGFA(getPrefix()+"/npgraph_assembly.gfa"+ext);
+
+	}
+	
+	void connectUnsolvedBridges(BDGraph graph) {
 		//Take the current best path among the candidate of a bridge and connect the bridge(greedy)
-		for(GoInBetweenBridge brg:simGraph.getUnsolvedBridges()){
+		for(GoInBetweenBridge brg:graph.getUnsolvedBridges()){
 			if(HybridAssembler.VERBOSE)
 				LOG.info("Last attempt on incomplete bridge {} : anchors={} \n {}", brg.getEndingsID(), brg.getNumberOfAnchors(), brg.getAllPossiblePaths());
 			
 			if(brg.getCompletionLevel()>=3) 
-				simGraph.chopPathAtAnchors(brg.getBestPath(brg.pBridge.getNode0(),brg.pBridge.getNode1())).stream().forEach(p->simGraph.reduceUniquePath(p));
+				graph.chopPathAtAnchors(brg.getBestPath(brg.pBridge.getNode0(),brg.pBridge.getNode1())).stream().forEach(p->graph.reduceUniquePath(p));
 			else{
 				brg.scanForAnEnd(true);
 				//selective connecting
 				brg.steps.connectBridgeSteps(true);
 				//return appropriate path
 				if(brg.segments!=null)
-					simGraph.chopPathAtAnchors(brg.getBestPath(brg.steps.start.getNode(),brg.steps.end.getNode())).stream().forEach(p->simGraph.reduceUniquePath(p));
+					graph.chopPathAtAnchors(brg.getBestPath(brg.steps.start.getNode(),brg.steps.end.getNode())).stream().forEach(p->graph.reduceUniquePath(p));
 				else if(HybridAssembler.VERBOSE)
 					LOG.info("Last attempt failed");
 			}
 
 
 		}
-		
-        //update for the last time
-        observer.update(true);
-		observer.outputFASTA(getPrefix()+"/npgraph_assembly.fasta");
-		observer.outputGFA(getPrefix()+"/npgraph_assembly.gfa");
-
 	}
 	
 
@@ -0,0 +1,270 @@
+package org.rtassembly.npgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+import japsa.seq.SequenceReader;
+
+/*
+ * Staged ingest of the long-read alignments, used by HybridAssembler.assembly() when more than 1 thread is given:
+ * 1. decoding and grouping SAM records of the same read, or reading the sequences for the internal mapper (calling thread)
+ * 2. a pool of workers converting the records into alignments (or mapping the reads), splitting them into bridge building blocks
+ * and building the shortest trees of the path search for them (see BDGraph.prefetchShortestTrees()), under the read lock of the graph
+ * 3. a single committing thread that builds the bridges and reduces the graph in the original order of the reads,
+ * so the assembly is the same as the serial one.
+ * With HybridAssembler.getUnordered(), the committing thread gathers consecutive reads without any shared anchor
+ * (lock stripes of BDGraph) into batches, whose bridges are built concurrently before the reductions in order.
+ * Faster, but a read doesn't see the reductions of the previous reads of its batch, so the assembly may differ.
+ * With a partitioned assembly (HybridAssembler.getPartitioned()), the committing thread only routes the reads to the
+ * partitions (PartitionedAssembly), which make the building blocks and commit them concurrently.
+ */
+class IngestPipeline {
+	private static final Logger LOG = LoggerFactory.getLogger(IngestPipeline.class);
+	private static final Future<ReadTask> END_OF_READS = CompletableFuture.completedFuture(null);
+
+	HybridAssembler assembler;
+	BDGraph graph;
+	int numOfThreads;
+	
+	private ExecutorService workers;
+	//futures are queued in the order of reads, bounded to keep memory low when the committing stage is behind
+	private BlockingQueue<Future<ReadTask>> pendingReads;
+	private Thread committer;
+	//what stopped the committing thread, rethrown to the reading thread
+	private volatile Throwable failure = null;
+	//unordered commit: bridges of the batch built by a pool of their own
+	private ExecutorService bridgers;
+	private List<List<AlignedRead>> batch = new ArrayList<>();
+	private BitSet batchStripes = new BitSet(BDGraph.LOCK_STRIPES);
+
+	IngestPipeline(HybridAssembler assembler, int numOfThreads){
+		this.assembler=assembler;
+		this.graph=assembler.simGraph;
+		this.numOfThreads=numOfThreads;
+	}
+	
+	//Result of the worker stage for a read
+	static class ReadTask{
+		Supplier<Sequence> read;
+		ArrayList<Alignment> alignments;
+		List<AlignedRead> buildingBlocks;
+	}
+
+	//refNodes: table of nodes by reference index of the SAM header, so the workers don't touch the graph storage
+	void run(SAMRecordIterator iter, BDNode[] refNodes) throws InterruptedException {
+		start();
+		try {
+			ArrayList<SAMRecord> samList = new ArrayList<SAMRecord>();// alignment records of the same read;
+			SAMRecord rec=null;
+			while (iter.hasNext()) {
+				if(assembler.getStopSignal())
+					break;
+
+				rec = assembler.nextRecord(iter);
+				if(rec==null)
+					continue;
+
+				if (!samList.isEmpty() && !samList.get(0).getReadName().equals(rec.getReadName())) {
+					if(!assembler.skipRead())
+						submit(samList, refNodes);
+					samList = new ArrayList<SAMRecord>();
+				}
+				samList.add(rec);
+			}
+			if(!samList.isEmpty() && !assembler.getStopSignal() && !assembler.skipRead())
+				submit(samList, refNodes);
+		}finally {
+			finish();
+		}
+	}
+	
+	//Same with the internal mapper: the workers also do the mapping of the reads
+	void run(SequenceReader reader) throws InterruptedException, IOException {
+		start();
+		try {
+			Sequence read;
+			while(!assembler.getStopSignal() && (read=reader.nextSequence(Alphabet.DNA5()))!=null) {
+				if(assembler.skipRead())
+					continue;
+				final Sequence nnpRead=read;
+				enqueue(workers.submit(()->{
+					ReadTask task = new ReadTask();
+					task.alignments = assembler.mapRead(nnpRead);
+					task.read = ()->nnpRead;
+					prepare(task);
+					return task;
+				}));
+			}
+		}finally {
+			finish();
+		}
+	}
+
+	private void start() {
+		workers = Executors.newFixedThreadPool(numOfThreads);
+		pendingReads = new ArrayBlockingQueue<>(64*numOfThreads);
+		if(assembler.getUnordered())
+			bridgers = Executors.newFixedThreadPool(numOfThreads);
+		failure = null;
+		committer = new Thread(()->{
+			try {
+				while(true) {
+					Future<ReadTask> next;
+					try {
+						next = pendingReads.take();
+						if(next==END_OF_READS)
+							break;
+						commit(next.get());
+						//don't hold a batch while waiting for the next read
+						next = pendingReads.peek();
+						if(next==null || next==END_OF_READS || !next.isDone())
+							flush();
+					} catch (InterruptedException e) {
+						LOG.warn("Committing stage interrupted!");
+						break;
+					} catch (ExecutionException e) {
+						LOG.warn("Ignore one faulty read: \n {}", e.getCause().getMessage());
+						if(HybridAssembler.VERBOSE)
+							e.printStackTrace();
+						//still counted as consumed for the checkpoints
+						commit(null);
+					}
+				}
+				flush();
+			} catch (Throwable e) {
+				LOG.error("Committing stage failed: {}", e.toString());
+				failure = e;
+			}
+		}, "npgraph-commit");
+		committer.start();
+	}
+	
+	private void finish() throws InterruptedException {
+		try {
+			enqueue(END_OF_READS);
+			committer.join();
+		}finally {
+			//the reads left in the queue are dropped if the committing thread died
+			if(failure!=null)
+				workers.shutdownNow();
+			else
+				workers.shutdown();
+			if(bridgers!=null)
+				bridgers.shutdown();
+		}
+		checkFailure();
+	}
+	
+	/*
+	 * Queue a read for the committing thread, waiting for room as long as the thread is alive:
+	 * its failure is rethrown here, so the reading thread doesn't block on a queue nobody takes from.
+	 */
+	private void enqueue(Future<ReadTask> read) throws InterruptedException {
+		while(!pendingReads.offer(read, 100, TimeUnit.MILLISECONDS)) {
+			if(!committer.isAlive())
+				break;
+		}
+		checkFailure();
+		if(!committer.isAlive() && read!=END_OF_READS)
+			throw new IllegalStateException("Committing stage stopped before the end of the reads!");
+	}
+	private void checkFailure() {
+		if(failure!=null)
+			throw new IllegalStateException("Committing stage failed: " + failure, failure);
+	}
+
+	private void submit(final List<SAMRecord> samList, final BDNode[] refNodes) throws InterruptedException{
+		enqueue(workers.submit(()->{
+			ReadTask task = new ReadTask();
+			task.alignments = assembler.getAlignments(samList, refNodes);
+			if(task.alignments.size() <= 1)
+				return task;
+			task.read = assembler.getReadSequence(samList);
+			prepare(task);
+			return task;
+		}));
+	}
+	
+	/*
+	 * Worker side of the bridging: building blocks of a read and the shortest trees to look for paths between their anchors.
+	 * Under the read lock, so the graph isn't reduced by the committing thread meanwhile. The read is then moved to
+	 * the read store if any.
+	 */
+	private void prepare(ReadTask task) {
+		if(assembler.partitions!=null)
+			return;
+		graph.graphLock.readLock().lock();
+		try {
+			task.buildingBlocks = graph.getBuildingBlocks(task.read, task.alignments);
+			graph.prefetchShortestTrees(task.buildingBlocks);
+		}finally {
+			graph.graphLock.readLock().unlock();
+		}
+		task.read = assembler.keepRead(task.read, task.buildingBlocks);
+	}
+	
+	private void commit(ReadTask task) {
+		//partitioned assembly: the building blocks are made by the partitions, on their copy of the graph
+		if(assembler.partitions!=null) {
+			if(task!=null)
+				assembler.processRead(task.read, task.alignments);
+			return;
+		}
+		if(task!=null)
+			assembler.recordAlignments(task.alignments);
+		List<AlignedRead> buildingBlocks = null;
+		if(task!=null && task.buildingBlocks!=null) {
+			//only reads the graph, as prepare()
+			graph.graphLock.readLock().lock();
+			try {
+				//nodes removed from the graph in the meantime would have been ignored by the serial ingest
+				if(assembler.removeStaleAlignments(task.alignments))
+					task.buildingBlocks = graph.getBuildingBlocks(task.read, task.alignments);
+			}finally {
+				graph.graphLock.readLock().unlock();
+			}
+			buildingBlocks = task.buildingBlocks;
+		}
+		if(bridgers==null) {
+			assembler.processRead(buildingBlocks);
+			return;
+		}
+		
+		//a read sharing an anchor with the batch waits for the next one (the graph is only changed between batches)
+		BitSet stripes = new BitSet(BDGraph.LOCK_STRIPES);
+		if(buildingBlocks!=null)
+			for(AlignedRead block:buildingBlocks)
+				for(int s:graph.getLockStripes(block))
+					stripes.set(s);
+		if(stripes.intersects(batchStripes) || batch.size() >= 4*numOfThreads)
+			flush();
+		batch.add(buildingBlocks);
+		batchStripes.or(stripes);
+	}
+	
+	private void flush() {
+		if(batch.isEmpty())
+			return;
+		assembler.processReads(batch, bridgers);
+		batch = new ArrayList<>();
+		batchStripes.clear();
+	}
+}
@@ -0,0 +1,286 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Sequence;
+
+/*
+ * In-process mapper of long reads to the nodes of the assembly graph (--aligner=internal).
+ * Minimizers of the node sequences are indexed once, reads are mapped by chaining the minimizer hits
+ * (same idea as minimap2 but without base-level alignment) and reported straight as Alignment objects.
+ * The index is read-only after construction so map() can be called from many threads.
+ */
+public class MinimizerMapper {
+	private static final Logger LOG = LoggerFactory.getLogger(MinimizerMapper.class);
+
+	public static int MAX_OCC=200; //minimizers occurring more than this in the graph are ignored (repeats)
+	public static int MAX_GAP=5000; //max distance between 2 consecutive hits of a chain
+	public static int BAND_WIDTH=500; //max difference of read and reference distances of 2 consecutive hits
+	public static int MIN_CHAIN_SCORE=40, MIN_CHAIN_HITS=3;
+	static final int MAX_ITER=50; //number of previous hits to look at when chaining
+
+	int k=15, w=10;
+
+	BDNode[] nodes;
+	//index entries sorted by (hash<<32 | entry order), and their positions on the graph: nodeIndex<<32 | position<<1 | strand
+	long[] keys, values;
+
+	//Options in the same form as minimap2, e.g. "-k15 -w10"
+	public MinimizerMapper(BDGraph graph, String opts) {
+		Matcher matcher=Pattern.compile("-([kw])\\s*(\\d+)").matcher(opts==null?"":opts);
+		while(matcher.find()) {
+			if(matcher.group(1).equals("k"))
+				k=Integer.parseInt(matcher.group(2));
+			else
+				w=Integer.parseInt(matcher.group(2));
+		}
+		//hash values must fit in 30 bits for the packed index
+		if(k < 5 || k > 15 || w < 1)
+			throw new IllegalArgumentException("Invalid minimizer setting k=" + k + " w=" + w + " (k must be in [5,15])");
+
+		nodes=graph.nodes().map(n->(BDNode) n).toArray(BDNode[]::new);
+		Sketch all=new Sketch();
+		for(int i=0;i<nodes.length;i++) {
+			Sketch sk=sketch((AbstractSequence) nodes[i].getAttribute("seq"));
+			for(int j=0;j<sk.size;j++)
+				all.add(sk.hashes[j], ((long)i<<32) | sk.values[j]);
+		}
+
+		keys=new long[all.size];
+		for(int i=0;i<all.size;i++)
+			keys[i]=(all.hashes[i]<<32) | i;
+		Arrays.sort(keys);
+		values=new long[all.size];
+		for(int i=0;i<all.size;i++)
+			values[i]=all.values[(int) keys[i]];
+
+		LOG.info("Indexed {} minimizers (k={}, w={}) from {} nodes", all.size, k, w, nodes.length);
+	}
+
+	/*
+	 * Map a read to the graph nodes. Secondary hits are reported with prime=false,
+	 * hits with mapping quality lower than Alignment.MIN_QUAL are dropped.
+	 */
+	public ArrayList<Alignment> map(Sequence read){
+		ArrayList<Alignment> retval=new ArrayList<Alignment>();
+		int readLength=read.length();
+		Sketch sk=sketch(read);
+
+		ArrayList<Anchor> anchors=new ArrayList<Anchor>();
+		for(int i=0;i<sk.size;i++) {
+			int from=lowerBound(sk.hashes[i]<<32), to=lowerBound((sk.hashes[i]+1)<<32);
+			if(to-from > MAX_OCC)
+				continue;
+			int qPos=(int) (sk.values[i]>>>1);
+			for(int j=from;j<to;j++) {
+				boolean rev=(sk.values[i]&1) != (values[j]&1);
+				//on the reverse strand, use the position on the reverse complement read so both coordinates increase along a chain
+				anchors.add(new Anchor((int) (values[j]>>>32), rev, (int) ((values[j]&0xffffffffL)>>>1), rev?readLength-qPos-k:qPos));
+			}
+		}
+		if(anchors.isEmpty())
+			return retval;
+		anchors.sort(Comparator.comparingInt((Anchor a)->a.node).thenComparing(a->a.rev).thenComparingInt(a->a.rPos).thenComparingInt(a->a.qPos));
+
+		ArrayList<Chain> chains=chain(anchors);
+		chains.sort((c1,c2)->c2.score-c1.score);
+		//a chain is secondary if it overlaps more than half of a better primary chain on the read
+		ArrayList<Chain> primaries=new ArrayList<Chain>();
+		for(Chain c:chains) {
+			c.readStart=c.rev?readLength-c.qEnd:c.qStart;
+			c.readEnd=c.rev?readLength-c.qStart:c.qEnd;
+			for(Chain p:primaries) {
+				int overlap=Math.min(c.readEnd, p.readEnd) - Math.max(c.readStart, p.readStart);
+				if(overlap > .5*Math.min(c.readEnd-c.readStart, p.readEnd-p.readStart)) {
+					c.prime=false;
+					p.subScore=Math.max(p.subScore, c.score);
+					break;
+				}
+			}
+			if(c.prime)
+				primaries.add(c);
+		}
+
+		for(Chain c:chains) {
+			int quality=c.prime?c.getMappingQuality():0;
+			if(quality < Alignment.MIN_QUAL)
+				continue;
+			retval.add(new Alignment(read.getName(), readLength, c.readStart, c.readEnd, nodes[c.node], c.rStart, c.rEnd, !c.rev, c.prime, quality));
+		}
+		return retval;
+	}
+
+	/*
+	 * Co-linear chaining of the anchors (sorted by node, strand, then positions) by dynamic programming,
+	 * chains are then extracted greedily from the best scores, each anchor used once.
+	 */
+	private ArrayList<Chain> chain(List<Anchor> anchors) {
+		ArrayList<Chain> retval=new ArrayList<Chain>();
+		int n=anchors.size();
+		int[] f=new int[n], p=new int[n];
+		boolean[] used=new boolean[n];
+		int groupStart=0;
+		for(int i=0;i<=n;i++) {
+			if(i<n && (i==0 || (anchors.get(i).node==anchors.get(i-1).node && anchors.get(i).rev==anchors.get(i-1).rev)))
+				continue;
+			//anchors [groupStart,i) are on the same node and strand
+			long[] order=new long[i-groupStart];
+			for(int a=groupStart;a<i;a++) {
+				Anchor ai=anchors.get(a);
+				f[a]=k;
+				p[a]=-1;
+				for(int b=a-1;b>=Math.max(groupStart, a-MAX_ITER);b--) {
+					Anchor bi=anchors.get(b);
+					int dr=ai.rPos-bi.rPos, dq=ai.qPos-bi.qPos;
+					if(dr > MAX_GAP)
+						break;
+					if(dr <= 0 || dq <= 0 || dq > MAX_GAP)
+						continue;
+					int dd=Math.abs(dr-dq);
+					if(dd > BAND_WIDTH)
+						continue;
+					int cost=dd==0?0:(int) (.01*k*dd + .5*Math.log(dd)/Math.log(2));
+					int score=f[b] + Math.min(k, Math.min(dr, dq)) - cost;
+					if(score > f[a]) {
+						f[a]=score;
+						p[a]=b;
+					}
+				}
+				order[a-groupStart]=((long)f[a]<<32) | a;
+			}
+			Arrays.sort(order);
+			for(int o=order.length-1;o>=0;o--) {
+				int end=(int) order[o], start=end, hits=0, b=end;
+				if(used[end])
+					continue;
+				while(b>=0 && !used[b]) {
+					used[b]=true;
+					start=b;
+					hits++;
+					b=p[b];
+				}
+				int score=f[end] - (b>=0?f[b]:0);
+				if(score < MIN_CHAIN_SCORE || hits < MIN_CHAIN_HITS)
+					continue;
+				Anchor s=anchors.get(start), e=anchors.get(end);
+				retval.add(new Chain(s.node, s.rev, s.qPos, e.qPos+k, s.rPos, e.rPos+k, score, hits));
+			}
+			groupStart=i;
+		}
+		return retval;
+	}
+
+	private int lowerBound(long key) {
+		int lo=0, hi=keys.length;
+		while(lo < hi) {
+			int mid=(lo+hi)>>>1;
+			if(keys[mid] < key)
+				lo=mid+1;
+			else
+				hi=mid;
+		}
+		return lo;
+	}
+
+	/*
+	 * (w,k)-minimizers of the canonical k-mers of a sequence. Values are position<<1 | strand (1 if the reverse
+	 * complement k-mer is the smaller one). Ambiguous bases break the k-mers, palindromic k-mers are skipped.
+	 */
+	Sketch sketch(AbstractSequence seq) {
+		Sketch retval=new Sketch();
+		long mask=(1L<<2*k)-1, fwd=0, rev=0;
+		int shift=2*(k-1), len=0, count=0, lastPos=-1;
+		long[] winHashes=new long[w], winValues=new long[w];
+		for(int i=0;i<seq.length();i++) {
+			int c=seq.symbolAt(i);
+			if(c < 0 || c > 3) {
+				len=count=0;
+				continue;
+			}
+			fwd=((fwd<<2) | c) & mask;
+			rev=(rev>>>2) | ((long)(3-c)<<shift);
+			if(++len < k || fwd==rev)
+				continue;
+			int strand=fwd < rev?0:1;
+			winHashes[count%w]=hash(strand==0?fwd:rev, mask);
+			winValues[count%w]=((long)(i-k+1)<<1) | strand;
+			if(++count < w)
+				continue;
+			int min=0;
+			for(int j=1;j<w;j++)
+				if(winHashes[j] < winHashes[min])
+					min=j;
+			if(winValues[min]>>>1 != lastPos) {
+				lastPos=(int) (winValues[min]>>>1);
+				retval.add(winHashes[min], winValues[min]);
+			}
+		}
+		return retval;
+	}
+
+	//invertible integer hash, keeping the 2k bits of the k-mer
+	static long hash(long key, long mask) {
+		key = (~key + (key << 21)) & mask;
+		key = key ^ key >>> 24;
+		key = ((key + (key << 3)) + (key << 8)) & mask;
+		key = key ^ key >>> 14;
+		key = ((key + (key << 2)) + (key << 4)) & mask;
+		key = key ^ key >>> 28;
+		key = (key + (key << 31)) & mask;
+		return key;
+	}
+
+	static class Sketch{
+		long[] hashes=new long[1024], values=new long[1024];
+		int size=0;
+		void add(long hash, long value) {
+			if(size==hashes.length) {
+				hashes=Arrays.copyOf(hashes, size*2);
+				values=Arrays.copyOf(values, size*2);
+			}
+			hashes[size]=hash;
+			values[size++]=value;
+		}
+	}
+
+	static class Anchor{
+		int node, rPos, qPos;
+		boolean rev;
+		Anchor(int node, boolean rev, int rPos, int qPos){
+			this.node=node;
+			this.rev=rev;
+			this.rPos=rPos;
+			this.qPos=qPos;
+		}
+	}
+
+	static class Chain{
+		int node, qStart, qEnd, rStart, rEnd, score, hits, subScore=0;
+		int readStart, readEnd; //on the forward read
+		boolean rev, prime=true;
+		Chain(int node, boolean rev, int qStart, int qEnd, int rStart, int rEnd, int score, int hits){
+			this.node=node;
+			this.rev=rev;
+			this.qStart=qStart;
+			this.qEnd=qEnd;
+			this.rStart=rStart;
+			this.rEnd=rEnd;
+			this.score=score;
+			this.hits=hits;
+		}
+		//same estimation as minimap2
+		int getMappingQuality() {
+			double mapq=40*(1 - (double)subScore/score)*Math.min(1, hits/10.0)*Math.log(score);
+			return (int) Math.max(0, Math.min(Alignment.GOOD_QUAL, mapq));
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Element;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.AbstractNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import japsa.seq.Sequence;
+
+/*
+ * Assembly of the graph split by connected components (see HybridAssembler.setPartitioned()), for metagenomes where
+ * most components are independent. Each partition gets a copy of its components in a BDGraph of its own (bridges,
+ * locks, binning, GraphWatcher) and a thread committing its reads in order, so the partitions run concurrently.
+ * The components are spread over the partitions by length, the longest first to the lightest partition.
+ * A read goes to the partition of its first useful alignment, its alignments to other partitions are dropped: there is
+ * no bridge (nor pseudo edge) between components of different partitions, so the assembly may differ from the one of
+ * the whole graph, but it doesn't depend on the timing of the threads.
+ * The watchers of the partitions don't report, their stats are aggregated into the observer of the assembler.
+ * The original graph is left untouched until merge() puts the assembly of the partitions back for the outputs.
+ */
+class PartitionedAssembly {
+	private static final Logger LOG = LoggerFactory.getLogger(PartitionedAssembly.class);
+	private static final Runnable END_OF_READS = ()->{};
+
+	HybridAssembler assembler;
+	BDGraph graph;
+	private Partition[] partitions;
+	private List<GraphWatcher> watchers = new ArrayList<>();
+	//partition of the nodes of the original graph and their copy there, by index in GraphCore
+	private int[] partitionOf;
+	private BDNode[] copyOf;
+
+	private class Partition{
+		final int id;
+		final BDGraph graph;
+		GraphWatcher observer;
+		long length=0;
+		//bounded, so the reading stage waits for a partition that is behind
+		final BlockingQueue<Runnable> pendingReads = new ArrayBlockingQueue<>(64);
+		Thread committer;
+		//what stopped the committing thread, rethrown by submit() and finish()
+		volatile Throwable failure=null;
+
+		Partition(int id){
+			this.id=id;
+			graph=new BDGraph("partition-"+id);
+			graph.binner=new SimpleBinner(graph);
+			graph.binner.setBinList(PartitionedAssembly.this.graph.binner.binList);
+			graph.binner.leastBin=PartitionedAssembly.this.graph.binner.leastBin;
+		}
+
+		void start() {
+			observer=new GraphWatcher(graph, false);
+			//so there are contigs to aggregate before the first reduction
+			observer.update(false);
+			committer=new Thread(()->{
+				try {
+					while(true) {
+						Runnable next;
+						try {
+							next=pendingReads.take();
+						} catch (InterruptedException e) {
+							LOG.warn("Committing stage of partition {} interrupted!", id);
+							break;
+						}
+						if(next==END_OF_READS)
+							break;
+						next.run();
+					}
+				}catch(Throwable e) {
+					failure=e;
+					LOG.error("Committing stage of partition {} failed: {}", id, e.toString());
+				}
+			}, "npgraph-partition-"+id);
+			committer.start();
+		}
+
+		//queue a task, not waiting forever on a committing thread that stopped
+		void enqueue(Runnable task) throws InterruptedException {
+			while(committer.isAlive() && !pendingReads.offer(task, 100, TimeUnit.MILLISECONDS));
+		}
+		void checkFailure() {
+			if(failure!=null)
+				throw new IllegalStateException("Committing stage of partition "+id+" failed", failure);
+		}
+
+		//same as HybridAssembler.processRead() on the copy of the graph
+		void process(Supplier<Sequence> read, ArrayList<Alignment> alignments) {
+			if(assembler.getStopSignal())
+				return;
+			try {
+				alignments.removeIf(alg->graph.getNode(alg.node.getId())!=alg.node);
+				List<BDPath> paths=graph.uniqueBridgesFinding(graph.getBuildingBlocks(read, alignments));
+				if(paths==null || paths.isEmpty())
+					return;
+				boolean reduced=false;
+				graph.graphLock.writeLock().lock();
+				try {
+					synchronized(graph) {
+						for(BDPath path:paths)
+							if(graph.reduceUniquePath(path)) {
+								observer.update(false);
+								reduced=true;
+							}
+					}
+				}finally {
+					graph.graphLock.writeLock().unlock();
+				}
+				if(reduced && assembler.observer!=null)
+					assembler.observer.aggregate(watchers);
+			}catch(RuntimeException e) {
+				LOG.warn("Ignore one faulty read in partition {}: \n {}", id, e.getMessage());
+				if(HybridAssembler.VERBOSE)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	PartitionedAssembly(HybridAssembler assembler, int numOfPartitions){
+		this.assembler=assembler;
+		this.graph=assembler.simGraph;
+
+		//connected components, in the order of the graph
+		int size=graph.core.size();
+		partitionOf=new int[size];
+		copyOf=new BDNode[size];
+		Arrays.fill(partitionOf, -1);
+		List<List<Node>> components=new ArrayList<>();
+		List<Long> lengths=new ArrayList<>();
+		boolean[] visited=new boolean[size];
+		ArrayDeque<Node> queue=new ArrayDeque<>();
+		for(Node seed:graph) {
+			if(visited[((BDNode) seed).index])
+				continue;
+			visited[((BDNode) seed).index]=true;
+			List<Node> comp=new ArrayList<>();
+			long length=0;
+			queue.add(seed);
+			while(!queue.isEmpty()) {
+				Node cur=queue.poll();
+				comp.add(cur);
+				length+=(long) cur.getNumber("len");
+				cur.neighborNodes().forEach(n->{
+					if(!visited[((BDNode) n).index]) {
+						visited[((BDNode) n).index]=true;
+						queue.add(n);
+					}
+				});
+			}
+			components.add(comp);
+			lengths.add(length);
+		}
+
+		//longest components first, each one to the lightest partition
+		partitions=new Partition[Math.max(1, Math.min(numOfPartitions, components.size()))];
+		for(int i=0;i<partitions.length;i++)
+			partitions[i]=new Partition(i);
+		Integer[] order=new Integer[components.size()];
+		for(int i=0;i<order.length;i++)
+			order[i]=i;
+		Arrays.sort(order, (a,b)->Long.compare(lengths.get(b), lengths.get(a)));
+		for(int c:order) {
+			Partition lightest=partitions[0];
+			for(Partition p:partitions)
+				if(p.length < lightest.length)
+					lightest=p;
+			lightest.length+=lengths.get(c);
+			for(Node n:components.get(c))
+				partitionOf[((BDNode) n).index]=lightest.id;
+		}
+
+		//copies, in the order of the original graph
+		for(Partition p:partitions) {
+			List<Node> nodes=graph.nodes().filter(n->partitionOf[((BDNode) n).index]==p.id).collect(Collectors.toList());
+			List<Edge> edges=graph.edges().filter(e->partitionOf[((BDNode) e.getNode0()).index]==p.id).collect(Collectors.toList());
+			copy(graph, nodes, edges, p.graph);
+			for(Node n:nodes)
+				copyOf[((BDNode) n).index]=(BDNode) p.graph.getNode(n.getId());
+			p.start();
+			watchers.add(p.observer);
+			LOG.info("Partition {}: {} nodes, {} edges, {}bp", p.id, p.graph.getNodeCount(), p.graph.getEdgeCount(), p.length);
+		}
+		LOG.info("{} connected components assembled in {} partitions", components.size(), partitions.length);
+	}
+
+	/*
+	 * Send a read to its partition, in the order of reads. Its alignments are moved to the copies of their nodes.
+	 * A read that may make building blocks (2 alignments or more) waits in the queue of the partition
+	 * from the read store, if any.
+	 */
+	void submit(Supplier<Sequence> read, ArrayList<Alignment> alignments) {
+		Partition part=null;
+		for(Alignment alg:alignments) {
+			int index=alg.node.index;
+			if(alg.useful && index>=0 && index<partitionOf.length && partitionOf[index]>=0) {
+				part=partitions[partitionOf[index]];
+				break;
+			}
+		}
+		if(part==null)
+			return;
+		ArrayList<Alignment> partAlignments=new ArrayList<>();
+		for(Alignment alg:alignments) {
+			int index=alg.node.index;
+			if(index>=0 && index<partitionOf.length && partitionOf[index]==part.id) {
+				alg.node=copyOf[index];
+				partAlignments.add(alg);
+			}
+		}
+		final Partition target=part;
+		final Supplier<Sequence> pending=partAlignments.size() > 1 ? assembler.keepRead(read) : read;
+		try {
+			target.enqueue(()->target.process(pending, partAlignments));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while sending a read to partition {}", target.id);
+		}
+		if(target.failure!=null) {
+			//the assembly stops there: don't leave the other committing threads waiting for reads
+			for(Partition p:partitions)
+				p.committer.interrupt();
+			target.checkFailure();
+		}
+	}
+
+	//wait for the partitions to commit all their reads, rethrow the failure of any of them
+	void finish() throws InterruptedException {
+		for(Partition p:partitions)
+			p.enqueue(END_OF_READS);
+		for(Partition p:partitions)
+			p.committer.join();
+		for(Partition p:partitions)
+			p.checkFailure();
+	}
+
+	/*
+	 * Last attempt on the incomplete bridges of the partitions (concurrently), then replace the nodes and edges of the
+	 * original graph by the ones of the partitions.
+	 */
+	void merge() {
+		Arrays.stream(partitions).parallel().forEach(p->{
+			p.graph.graphLock.writeLock().lock();
+			try {
+				assembler.connectUnsolvedBridges(p.graph);
+			}finally {
+				p.graph.graphLock.writeLock().unlock();
+			}
+		});
+
+		graph.graphLock.writeLock().lock();
+		try {
+			for(Node n:graph.nodes().collect(Collectors.toList()))
+				graph.removeNode(n);
+			for(Partition p:partitions)
+				copy(p.graph, p.graph.nodes().collect(Collectors.toList()), p.graph.edges().collect(Collectors.toList()), graph);
+		}finally {
+			graph.graphLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Copy nodes then edges from a graph into another one, with their attributes and binning. The paths of the composite
+	 * edges are copied too (remap()) once all the edges are in.
+	 */
+	private static void copy(BDGraph from, List<Node> nodes, List<Edge> edges, BDGraph to) {
+		Map<Object, Object> copies=new IdentityHashMap<>();
+		int[] counts=new int[from.binner.binList.size()];
+		for(Node n:nodes) {
+			BDNode copy=(BDNode) to.addNode(n.getId());
+			copyAttributes(n, copy, to, copies);
+			int row=((BDNode) n).binRow;
+			if(from.binner.nodeBins.isKnown(row)) {
+				from.binner.nodeBins.copyTo(row, counts);
+				to.binner.nodeBins.set(to.binner.rowOf(copy), counts);
+			}
+		}
+		List<BDEdge> added=new ArrayList<>();
+		for(Edge e:edges) {
+			BDEdge edge=(BDEdge) e,
+					copy=to.addEdge((AbstractNode) to.getNode(edge.getNode0().getId()), (AbstractNode) to.getNode(edge.getNode1().getId()),
+										edge.getDir0(), edge.getDir1());
+			edge.attributeKeys().filter(key->!key.equals("path")).forEach(key->copy.setAttribute(key, edge.getAttribute(key)));
+			int row=edge.binRow;
+			if(from.binner.edgeBins.isKnown(row)) {
+				from.binner.edgeBins.copyTo(row, counts);
+				to.binner.edgeBins.set(to.binner.rowOf(copy), counts);
+			}
+			if(row>=0 && from.binner.unresolvedEdges.get(row))
+				to.binner.unresolvedEdges.set(to.binner.rowOf(copy));
+			added.add(copy);
+			copies.put(edge, copy);
+		}
+		for(int i=0;i<edges.size();i++)
+			if(edges.get(i).hasAttribute("path") && !added.get(i).hasAttribute("path"))
+				added.get(i).setAttribute("path", remap((BDPath) edges.get(i).getAttribute("path"), to, copies));
+	}
+
+	private static void copyAttributes(Element from, Element to, BDGraph target, Map<Object, Object> copies) {
+		from.attributeKeys().forEach(key->{
+			Object value=from.getAttribute(key);
+			to.setAttribute(key, value instanceof BDPath ? remap((BDPath) value, target, copies) : value);
+		});
+	}
+
+	/*
+	 * Same path in another graph: nodes and edges found there by id, the others (no longer in the graph, only referred
+	 * to by paths) as they are for the nodes, as detached copies between the nodes found for the edges.
+	 */
+	private static BDPath remap(BDPath path, BDGraph target, Map<Object, Object> copies) {
+		BDPath retval=(BDPath) copies.get(path);
+		if(retval!=null)
+			return retval;
+		retval=new BDPath(remap(path.getRoot(), target), path.getConsensusUniqueBinOfPath());
+		for(Edge e:path.getEdgePath())
+			retval.add(remap((BDEdge) e, target, copies));
+		retval.setDeviation(path.getDeviation());
+		retval.upVote(path.getVote());
+		copies.put(path, retval);
+		return retval;
+	}
+	private static Node remap(Node node, BDGraph target) {
+		Node retval=target.getNode(node.getId());
+		return retval!=null ? retval : node;
+	}
+	private static BDEdge remap(BDEdge edge, BDGraph target, Map<Object, Object> copies) {
+		BDEdge retval=(BDEdge) copies.get(edge);
+		if(retval!=null) {
+			//an edge of the graph, whose own path may not be copied yet
+			if(edge.hasAttribute("path") && !retval.hasAttribute("path"))
+				retval.setAttribute("path", remap((BDPath) edge.getAttribute("path"), target, copies));
+			return retval;
+		}
+		retval=new BDEdge((AbstractNode) remap(edge.getNode0(), target), (AbstractNode) remap(edge.getNode1(), target), edge.getDir0(), edge.getDir1());
+		copyAttributes(edge, retval, target, copies);
+		copies.put(edge, retval);
+		return retval;
+	}
+}
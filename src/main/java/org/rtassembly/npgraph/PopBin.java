@@ -2,33 +2,38 @@ package org.rtassembly.npgraph;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.graphstream.graph.Node;
 
 public class PopBin{
 	static int lastID=1;
 	int binID;
+	int index=-1; //position in SimpleBinner.binList, column of the bin in SimpleBinner.nodeBins/edgeBins
 	double estCov; //or range???
 	long estLen; //bad
 	ArrayList<Node> coreNodes;
+	HashSet<Node> coreNodeSet; //same as coreNodes, for the membership tests of big bins
 	private static DecimalFormat df2 = new DecimalFormat(".##");
 	
 	public PopBin() {
 		binID=lastID++;
 		coreNodes = new ArrayList<Node>();
+		coreNodeSet = new HashSet<Node>();
 	
 	}
 	//this constructor for reading from file with assigned binID
 	public PopBin(int binID) {
 		this.binID=binID;
 		coreNodes = new ArrayList<Node>();
+		coreNodeSet = new HashSet<Node>();
 
 	}
 	public int getId() {
 		return binID;
 	}
 	public void addCoreNode(Node node) {
-		if(!coreNodes.isEmpty() && coreNodes.contains(node))
+		if(!coreNodeSet.add(node))
 			return;
 		
 		coreNodes.add(node);
@@ -37,7 +42,8 @@ public class PopBin{
 		
 	}
 	public void removeCoreNode(Node node) {
-		if(coreNodes.remove(node)) {
+		if(coreNodeSet.remove(node)) {
+			coreNodes.remove(node);
 			estCov=(estCov*estLen-node.getNumber("cov")*node.getNumber("len"))/(-node.getNumber("len")+estLen);
 			estLen-=node.getNumber("len");
 		}else {
@@ -0,0 +1,190 @@
+package org.rtassembly.npgraph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+
+/*
+ * Append-only store of the read bases (see HybridAssembler.setReadStore()), so the reads waiting in the ingest queues
+ * only hold a handle (the offset of the read in the file) instead of the bases: the sequence is fetched back only when
+ * a building block asks for it (AlignedRead.getReadSequence()), from a small LRU cache or else from the file.
+ * Only the reads that make (or may make) building blocks are written, by the pipelined or partitioned ingest
+ * (see HybridAssembler.keepRead()), each once. The serial ingest commits each read right away so doesn't use it.
+ * Each record is: length of the name, name, number of bases, bases (DNA5 symbols).
+ * The file is memory-mapped by chunks once they are full, the records of the last chunk are read from the channel.
+ * A record that doesn't fit in the rest of a chunk starts the next one, so only the records larger than a chunk
+ * straddle chunks (these are read from the channel too).
+ */
+class ReadStore implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(ReadStore.class);
+	static final int CHUNK_SIZE=1<<26; //64MB
+	static volatile long CACHE_BASES=50_000_000; //bases of the decoded reads kept in heap
+
+	private final File file;
+	private final FileChannel channel;
+	private final int chunkSize;
+	private long size=0, cachedBases=0;
+	private int count=0;
+	private boolean closed=false;
+	private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+	//in the order of access, the least recently used first
+	private final LinkedHashMap<Long, Sequence> cache = new LinkedHashMap<Long, Sequence>(16, 0.75f, true);
+
+	ReadStore(String fileName) throws IOException {
+		this(fileName, CHUNK_SIZE);
+	}
+	@SuppressWarnings("resource")
+	ReadStore(String fileName, int chunkSize) throws IOException {
+		file=new File(fileName);
+		channel=new RandomAccessFile(file, "rw").getChannel();
+		channel.truncate(0);
+		this.chunkSize=chunkSize;
+	}
+
+	/*
+	 * Append the bases of a read (as in SAM, or symbols of DNA5). Return its handle.
+	 */
+	synchronized long put(String readID, byte[] bases, boolean symbols) throws IOException {
+		if(closed)
+			throw new IOException("Read store " + file + " is closed");
+		byte[] name=readID.getBytes(StandardCharsets.UTF_8);
+		int length=8+name.length+bases.length;
+		//start a new chunk rather than straddling 2 of them
+		long room=chunkSize - size%chunkSize;
+		if(length > room && room < chunkSize)
+			size+=room;
+		ByteBuffer buf=ByteBuffer.allocate(length);
+		buf.putInt(name.length).put(name).putInt(bases.length);
+		Alphabet alphabet=Alphabet.DNA5();
+		for(byte b:bases)
+			buf.put(symbols ? b : (byte) alphabet.char2int((char) b));
+		buf.flip();
+		long pos=size;
+		while(buf.hasRemaining())
+			pos+=channel.write(buf, pos);
+		long retval=size;
+		size=pos;
+		count++;
+		return retval;
+	}
+	long put(Sequence read) throws IOException {
+		return put(read.getName(), read.toBytes(), true);
+	}
+
+	//the sequence of a handle, null if it can't be read back (e.g. once the store is closed)
+	synchronized Sequence get(long handle) {
+		if(closed)
+			return null;
+		Sequence retval=cache.get(handle);
+		if(retval!=null)
+			return retval;
+		try {
+			ByteBuffer buf=record(handle);
+			byte[] name=new byte[buf.getInt()];
+			buf.get(name);
+			byte[] bases=new byte[buf.getInt()];
+			buf.get(bases);
+			retval=new Sequence(Alphabet.DNA5(), bases, new String(name, StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			LOG.warn("Failed to read back a read from {}: {}", file, e.getMessage());
+			return null;
+		}
+		cachedBases+=retval.length();
+		cache.put(handle, retval);
+		//the least recently used reads are dropped, but the one just read
+		Iterator<Sequence> ite=cache.values().iterator();
+		while(cachedBases > CACHE_BASES && cache.size() > 1) {
+			cachedBases-=ite.next().length();
+			ite.remove();
+		}
+		return retval;
+	}
+	synchronized long getCachedBases() {
+		return cachedBases;
+	}
+	synchronized int getReadCount() {
+		return count;
+	}
+
+	/*
+	 * Supplier of a read in the store: only the handle is kept
+	 */
+	class Handle implements Supplier<Sequence>{
+		final long handle;
+		Handle(long handle){
+			this.handle=handle;
+		}
+		@Override
+		public Sequence get() {
+			return ReadStore.this.get(handle);
+		}
+	}
+	Supplier<Sequence> supplier(long handle) {
+		return new Handle(handle);
+	}
+
+	//the record from its start
+	private ByteBuffer record(long handle) throws IOException {
+		int chunk=(int) (handle/chunkSize), offset=(int) (handle%chunkSize);
+		if((long) (chunk+1)*chunkSize <= size) {
+			while(chunks.size() <= chunk)
+				chunks.add(null);
+			MappedByteBuffer map=chunks.get(chunk);
+			if(map==null)
+				chunks.set(chunk, map=channel.map(FileChannel.MapMode.READ_ONLY, (long) chunk*chunkSize, chunkSize));
+			int nameLength=map.getInt(offset);
+			if(8L+nameLength+map.getInt(offset+4+nameLength) <= chunkSize-offset) {
+				ByteBuffer retval=map.duplicate();
+				retval.position(offset);
+				return retval;
+			}
+		}
+		//last chunk, or a record larger than a chunk
+		ByteBuffer header=ByteBuffer.allocate(4);
+		readFully(header, handle);
+		int nameLength=header.getInt(0);
+		header.clear();
+		readFully(header, handle+4+nameLength);
+		ByteBuffer retval=ByteBuffer.allocate(8+nameLength+header.getInt(0));
+		readFully(retval, handle);
+		retval.flip();
+		return retval;
+	}
+	private void readFully(ByteBuffer buf, long pos) throws IOException {
+		while(buf.hasRemaining()) {
+			int n=channel.read(buf, pos);
+			if(n<0)
+				throw new IOException("unexpected end of file at " + pos);
+			pos+=n;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed)
+			return;
+		LOG.info("Read store {}: {} reads, {}MB", file, count, size>>20);
+		closed=true;
+		cache.clear();
+		cachedBases=0;
+		chunks.clear();
+		channel.close();
+		if(!file.delete())
+			LOG.warn("Failed to delete the read store {}", file);
+	}
+}
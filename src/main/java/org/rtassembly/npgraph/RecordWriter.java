@@ -0,0 +1,106 @@
+package org.rtassembly.npgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import japsa.seq.SequenceOutputStream;
+
+/*
+ * Writer of the records (FASTA, GFA lines) of the graph outputs (see BDGraph.outputFASTA(), BDGraph.outputGFA()).
+ * With more than 1 thread, the records are cut into chunks of about CHUNK_SIZE bytes, each formatted into its own
+ * buffer by a pool of threads, and the buffers are written to the file in the order of the records. At most 2 chunks
+ * per thread are pending, so the memory stays bounded whatever the size of the graph.
+ * A file name ending with .gz is written in BGZF (blocked gzip, still readable by gunzip).
+ */
+class RecordWriter implements AutoCloseable {
+	static volatile int CHUNK_SIZE=1<<22;
+
+	interface Formatter<T>{
+		void format(T record, SequenceOutputStream out) throws IOException;
+	}
+
+	private final SequenceOutputStream out;
+	private final int threads;
+	private ExecutorService formatters=null;
+
+	RecordWriter(String fileName, int threads) throws IOException{
+		out = new SequenceOutputStream(fileName.endsWith(".gz") ?
+				new BlockCompressedOutputStream(new File(fileName)) : new FileOutputStream(fileName));
+		this.threads=threads;
+	}
+
+	/*
+	 * Write the records in order. size gives an estimate of the number of bytes of a record, to cut the chunks.
+	 */
+	<T> void write(Iterable<T> records, ToLongFunction<T> size, Formatter<T> formatter) throws IOException{
+		if(threads <= 1) {
+			for(T record:records)
+				formatter.format(record, out);
+			return;
+		}
+		if(formatters==null)
+			formatters = Executors.newFixedThreadPool(threads);
+
+		ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+		List<T> chunk = new ArrayList<>();
+		long chunkSize=0;
+		for(T record:records) {
+			chunk.add(record);
+			chunkSize+=size.applyAsLong(record);
+			if(chunkSize >= CHUNK_SIZE) {
+				pending.add(submit(chunk, chunkSize, formatter));
+				chunk = new ArrayList<>();
+				chunkSize=0;
+				while(pending.size() > 2*threads)
+					drain(pending.poll());
+			}
+		}
+		if(!chunk.isEmpty())
+			pending.add(submit(chunk, chunkSize, formatter));
+		while(!pending.isEmpty())
+			drain(pending.poll());
+	}
+
+	private <T> Future<ByteArrayOutputStream> submit(List<T> chunk, long chunkSize, Formatter<T> formatter){
+		return formatters.submit(()->{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(chunkSize+1024, Integer.MAX_VALUE-8));
+			SequenceOutputStream chunkOut = new SequenceOutputStream(bytes);
+			for(T record:chunk)
+				formatter.format(record, chunkOut);
+			chunkOut.flush();
+			return bytes;
+		});
+	}
+
+	private void drain(Future<ByteArrayOutputStream> next) throws IOException{
+		try {
+			next.get().writeTo(out);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing the output");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException{
+		if(formatters!=null)
+			formatters.shutdownNow();
+		out.close();
+	}
+}
@@ -0,0 +1,280 @@
+package org.rtassembly.npgraph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import japsa.seq.Sequence;
+
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Immutable path for the candidate paths of the bridge segments (see BDGraph.DFSAllPaths()). A path is its last edge
+ * plus a link to its prefix, so the hundreds of hits of a DFS share their common prefixes and extending a path is O(1).
+ * reverse() is a view over the same links. Vote, deviation and bin are per candidate, as in BDPath.
+ * A path is only turned into a BDPath (toBDPath()) when it is reduced.
+ */
+public class SharedPath {
+	private static final Logger LOG = LoggerFactory.getLogger(SharedPath.class);
+
+	//the path from root to node
+	private static final class Link{
+		final Link prefix;
+		final BDEdge edge;
+		final BDNode root, node;
+		final int size; //number of edges
+		final long len;
+		BDEdge[] edges; //lazy, in the order from root
+		Link(BDNode root){
+			prefix=null;
+			edge=null;
+			this.root=this.node=root;
+			size=0;
+			len=(long) root.getNumber("len");
+		}
+		Link(Link prefix, BDEdge edge){
+			this.prefix=prefix;
+			this.edge=edge;
+			root=prefix.root;
+			node=(BDNode) edge.getOpposite(prefix.node);
+			size=prefix.size+1;
+			len=prefix.len+((long)node.getNumber("len"))+edge.getLength();
+		}
+		synchronized BDEdge[] edges() {
+			if(edges==null) {
+				BDEdge[] tmp=new BDEdge[size];
+				for(Link l=this;l.prefix!=null;l=l.prefix)
+					tmp[l.size-1]=l.edge;
+				edges=tmp;
+			}
+			return edges;
+		}
+	}
+
+	private final Link link;
+	private final boolean reversed; //the path is read from link.node to link.root
+	private int deviation, vote=0;
+	private PopBin uniqueBin;
+	private String id=null;
+
+	public SharedPath(BDNode root){
+		this(root, SimpleBinner.getBinIfUnique(root));
+	}
+	public SharedPath(BDNode root, PopBin bin){
+		this(new Link(root), false, bin);
+	}
+	private SharedPath(Link link, boolean reversed, PopBin bin){
+		this.link=link;
+		this.reversed=reversed;
+		uniqueBin=bin;
+	}
+
+	public static SharedPath of(BDPath p){
+		Link l=new Link(p.getFirstNode());
+		for(Edge e:p.getEdgePath())
+			l=new Link(l, (BDEdge) e);
+		SharedPath retval=new SharedPath(l, false, p.getConsensusUniqueBinOfPath());
+		retval.deviation=p.getDeviation();
+		retval.vote=p.getVote();
+		return retval;
+	}
+
+	//same candidate (vote, deviation, bin) on the same links
+	public SharedPath copy(){
+		SharedPath retval=new SharedPath(link, reversed, uniqueBin);
+		retval.deviation=deviation;
+		retval.vote=vote;
+		retval.id=id;
+		return retval;
+	}
+
+	//links in the order of this path
+	private Link forward(){
+		if(!reversed)
+			return link;
+		Link retval=new Link(link.node);
+		BDEdge[] edges=link.edges();
+		for(int i=edges.length-1;i>=0;i--)
+			retval=new Link(retval, edges[i]);
+		return retval;
+	}
+
+	//New path with an edge leaving the last node. Vote and deviation are not carried over, as in BDPath.add().
+	public SharedPath add(BDEdge edge){
+		return new SharedPath(new Link(forward(), edge), false, uniqueBin);
+	}
+
+	public SharedPath reverse(){
+		SharedPath retval=new SharedPath(link, !reversed, uniqueBin);
+		retval.vote=vote;
+		return retval;
+	}
+
+	public BDNode getFirstNode(){return reversed?link.node:link.root;}
+	public BDNode getLastNode(){return reversed?link.root:link.node;}
+	public int getEdgeCount(){return link.size;}
+	public long getLength(){return link.len;}
+	public BDEdge getLastEdge(){
+		if(link.size==0)
+			return null;
+		return reversed?link.edges()[0]:link.edge;
+	}
+
+	public List<BDEdge> getEdgePath(){
+		BDEdge[] edges=link.edges();
+		if(!reversed)
+			return Collections.unmodifiableList(Arrays.asList(edges));
+		return new AbstractList<BDEdge>() {
+			@Override
+			public BDEdge get(int index) {
+				return edges[edges.length-1-index];
+			}
+			@Override
+			public int size() {
+				return edges.length;
+			}
+		};
+	}
+
+	//Same as BDPath.getId()
+	public String getId(){
+		if(id!=null)
+			return id;
+		BDNode curNode = getFirstNode();
+		if(link.size<1)
+			return id=curNode.getId();
+
+		List<BDEdge> edges=getEdgePath();
+		StringBuilder retval=new StringBuilder(curNode.getId());
+		retval.append(edges.get(0).getDir(curNode)?"+":"-");
+		for(BDEdge e:edges){
+			curNode=(BDNode) e.getOpposite(curNode);
+			retval.append(",").append(curNode.getId());
+			retval.append(e.getDir(curNode)?"-":"+"); //note that curNode is target node
+		}
+		return id=retval.toString().trim();
+	}
+
+	public String toString(){
+		return "path:(" + getId() + ")";
+	}
+
+	/*
+	 * Add a path to the current path, as BDPath.join(): the path to be added must start with the last node
+	 * of the current path. Return null if the joining is not valid.
+	 */
+	public SharedPath join(SharedPath newPath){
+		if(newPath==null || newPath.getEdgeCount() < 1){
+			return copy();
+		}else if(getEdgeCount() < 1 && getFirstNode() == newPath.getFirstNode())
+			return newPath.copy();
+
+		if(newPath.getFirstNode() != getLastNode()){
+			if(HybridAssembler.VERBOSE)
+				LOG.error("Cannot join path {} to path {} with disagreed first node: {} != {}", newPath.getId(), getId(), newPath.getFirstNode().getId() ,getLastNode().getId());
+			return null;
+		}
+		if(newPath.getEdgePath().get(0).getDir(newPath.getFirstNode())
+			== getLastEdge().getDir(getLastNode())){
+			if(HybridAssembler.VERBOSE)
+				LOG.error("Conflict direction from the first node " + newPath.getFirstNode().getId());
+			return null;
+		}
+		Link l=forward();
+		for(BDEdge e:newPath.getEdgePath())
+			l=new Link(l, e);
+		SharedPath retval=new SharedPath(l, false, uniqueBin);
+		retval.deviation=deviation;
+		retval.vote=vote;
+		deviation+=newPath.deviation;
+		return retval;
+	}
+
+	//see BDPath.spelling(from, to)
+	public Sequence spelling(int from, int to){
+		return toBDPath().spelling(from, to);
+	}
+
+	public BDPath toBDPath(){
+		BDPath retval=new BDPath(getFirstNode(), uniqueBin);
+		for(BDEdge e:getEdgePath())
+			retval.add(e);
+		retval.setDeviation(deviation);
+		retval.upVote(vote);
+		return retval;
+	}
+
+	public int getDeviation(){
+		return deviation;
+	}
+	public void setDeviation(int deviation){
+		this.deviation=deviation;
+	}
+	public void upVote(int score) {
+		vote+=score;
+	}
+	public void downVote(int score){
+		vote-=score;
+	}
+	public int getVote() {
+		return vote;
+	}
+	public void setConsensusUniqueBinOfPath(PopBin bin){
+		uniqueBin=bin;
+	}
+	public PopBin getConsensusUniqueBinOfPath(){
+		return uniqueBin;
+	}
+
+	/*
+	 * Check if a node (to) have a distance to an end (from) that similar to a
+	 * predefined value (distance), as BDPath.checkDistanceConsistency()
+	 */
+	public int checkDistanceConsistency(Node from, Node to, boolean direction, int distance){
+		int retval=-1;
+		boolean dirOfFrom, dirOfTo;
+		SharedPath ref=null;
+
+		if(from==getFirstNode()){
+			ref=this;
+		}else if(from==getLastNode()){
+			ref=this.reverse();
+		}else{
+			if(HybridAssembler.VERBOSE)
+				LOG.warn("Node {} couldn't be found as one of the end node in path {}!", from.getId(), getId());
+			return retval;
+		}
+		int curDistance=0;
+		List<BDEdge> edges=ref.getEdgePath();
+		dirOfFrom = edges.get(0).getDir((BDNode) from);
+
+		BDNode curNode=(BDNode) from;
+		for(BDEdge e:edges){
+			curNode=(BDNode) e.getOpposite(curNode);
+			curDistance+=e.getLength();
+			if(curNode==to){
+				if(Math.abs(curDistance-distance) < BDGraph.A_TOL || GraphUtil.approxCompare(curDistance, distance)==0){
+					dirOfTo=!e.getDir(curNode);
+					if((dirOfFrom == dirOfTo) == direction) {
+						if(HybridAssembler.VERBOSE)
+							LOG.info("|-> agree distance between node {}, node {}: {} and given distance {}",
+								from.getId(), to.getId(), curDistance, distance);
+						if(retval<0 || retval > Math.abs(curDistance-distance))
+							retval=Math.abs(curDistance-distance);
+					}
+					else if(HybridAssembler.VERBOSE)
+						LOG.info("!-> inconsistence direction between node {}:{}, node {}:{} and given direction {}",
+								from.getId(), dirOfFrom?"+":"-", to.getId(), dirOfTo?"+":"-", direction);
+				}else if(HybridAssembler.VERBOSE)
+					LOG.info("!-> inconsistence distance between node {}, node {}: {} and given distance {}",
+							from.getId(), to.getId(), curDistance, distance);
+			}
+			curDistance+=curNode.getNumber("len");
+		}
+		return retval;
+	}
+}
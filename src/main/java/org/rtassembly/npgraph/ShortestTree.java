@@ -0,0 +1,230 @@
+package org.rtassembly.npgraph;
+
+import java.util.Arrays;
+
+/*
+ * Shortest distances from the states (node, direction) of GraphCore to a root state, within a bound
+ * (see BDGraph.getShortestTreeFromNode()).
+ *
+ * compute() runs Dijkstra with an indexed binary heap on a per-thread workspace: the arrays are reused between calls
+ * and only the entries stamped with the current epoch are valid, so nothing is cleared or allocated per call.
+ * The result is only valid until the next compute() on the same thread, compact() makes an immutable copy of it.
+ */
+abstract class ShortestTree {
+	static final int NONE=Integer.MAX_VALUE;
+	private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+	//distance of a state, NONE if not reached
+	abstract int get(int state);
+	//number of states reached
+	abstract int size();
+	abstract ShortestTree compact();
+
+	boolean contains(int state) {
+		return get(state)!=NONE;
+	}
+	boolean contains(BDNode node, boolean dir) {
+		return node.index >= 0 && contains(GraphCore.state(node, dir));
+	}
+
+	/*
+	 * A state at newDistance is too far for a tree within distance. Monotonic in both: a tree built for a longer distance
+	 * contains the one for a shorter distance, with the same distances (see bounded()).
+	 */
+	static boolean outOfReach(int newDistance, int distance) {
+		return newDistance-distance > BDGraph.A_TOL && GraphUtil.approxCompare(newDistance, distance)>0;
+	}
+
+	//View of this tree (built for a longer distance) within a shorter distance
+	ShortestTree bounded(int rootState, int distance) {
+		return new Bounded(this, rootState, distance);
+	}
+
+	static ShortestTree compute(GraphCore core, BDNode root, boolean dir, int distance) {
+		return compute(core, GraphCore.state(root, dir), distance);
+	}
+	static ShortestTree compute(GraphCore core, int rootState, int distance) {
+		return WORKSPACE.get().run(core, rootState, distance);
+	}
+
+	/*
+	 * Per-thread arrays indexed by state
+	 */
+	static final class Workspace extends ShortestTree{
+		private int[] dist=new int[0], stamp=new int[0], heapPos=new int[0]; //heapPos: 1-based position in the heap, 0 if not in
+		private int[] heap=new int[0], reached=new int[0];
+		private int epoch=0, heapSize=0, count=0;
+
+		private ShortestTree run(GraphCore core, int rootState, int distance) {
+			int capacity=core.size()*2;
+			if(dist.length < capacity) {
+				capacity=Math.max(capacity, dist.length*3/2);
+				dist=new int[capacity];
+				stamp=new int[capacity];
+				heapPos=new int[capacity];
+				heap=new int[capacity];
+				reached=new int[capacity];
+				epoch=0;
+			}
+			if(++epoch==0) {
+				Arrays.fill(stamp, 0);
+				epoch=1;
+			}
+			heapSize=count=0;
+
+			reach(rootState, -core.len[GraphCore.index(rootState)]);
+			//label-correcting like the original: a state improved after being polled is queued again
+			while(heapSize > 0) {
+				int cur=poll(), curDistance=dist[cur],
+					curLength=core.len[GraphCore.index(cur)],
+					degree=core.degree(cur);
+				int[] nextStates=core.nextStates(cur), edgeLengths=core.edgeLengths(cur);
+				for(int i=0;i<degree;i++) {
+					int next=nextStates[i]^1, //direction from the point of the root
+						newDistance=curDistance+edgeLengths[i]+curLength;
+					if(outOfReach(newDistance, distance))
+						continue;
+					if(stamp[next]!=epoch)
+						reach(next, newDistance);
+					else if(dist[next] > newDistance) {
+						dist[next]=newDistance;
+						if(heapPos[next] > 0)
+							siftUp(heapPos[next]-1);
+						else
+							push(next);
+					}
+				}
+			}
+			return this;
+		}
+
+		private void reach(int state, int distance) {
+			stamp[state]=epoch;
+			dist[state]=distance;
+			heapPos[state]=0;
+			reached[count++]=state;
+			push(state);
+		}
+
+		@Override
+		int get(int state) {
+			return state < stamp.length && stamp[state]==epoch ? dist[state] : NONE;
+		}
+		@Override
+		int size() {
+			return count;
+		}
+		@Override
+		ShortestTree compact() {
+			int[] states=Arrays.copyOf(reached, count);
+			Arrays.sort(states);
+			int[] distances=new int[count];
+			for(int i=0;i<count;i++)
+				distances[i]=dist[states[i]];
+			return new Compact(states, distances);
+		}
+
+		// *** indexed binary heap of states by distance ***
+		private void push(int state) {
+			heap[heapSize]=state;
+			heapPos[state]=++heapSize;
+			siftUp(heapSize-1);
+		}
+		private int poll() {
+			int top=heap[0];
+			heapPos[top]=0;
+			if(--heapSize > 0) {
+				heap[0]=heap[heapSize];
+				heapPos[heap[0]]=1;
+				siftDown(0);
+			}
+			return top;
+		}
+		private void siftUp(int i) {
+			int state=heap[i];
+			while(i > 0) {
+				int parent=(i-1)>>>1;
+				if(dist[heap[parent]] <= dist[state])
+					break;
+				heap[i]=heap[parent];
+				heapPos[heap[i]]=i+1;
+				i=parent;
+			}
+			heap[i]=state;
+			heapPos[state]=i+1;
+		}
+		private void siftDown(int i) {
+			int state=heap[i];
+			while(true) {
+				int child=2*i+1;
+				if(child >= heapSize)
+					break;
+				if(child+1 < heapSize && dist[heap[child+1]] < dist[heap[child]])
+					child++;
+				if(dist[heap[child]] >= dist[state])
+					break;
+				heap[i]=heap[child];
+				heapPos[heap[i]]=i+1;
+				i=child;
+			}
+			heap[i]=state;
+			heapPos[state]=i+1;
+		}
+	}
+
+	static final class Bounded extends ShortestTree{
+		private final ShortestTree tree;
+		private final int rootState, distance;
+		Bounded(ShortestTree tree, int rootState, int distance){
+			this.tree=tree;
+			this.rootState=rootState;
+			this.distance=distance;
+		}
+		@Override
+		int get(int state) {
+			int retval=tree.get(state);
+			//the root is always in
+			return retval==NONE || (state!=rootState && outOfReach(retval, distance)) ? NONE : retval;
+		}
+		@Override
+		int size() {
+			return ((Compact) compact()).states.length;
+		}
+		@Override
+		ShortestTree compact() {
+			Compact all=(Compact) tree.compact();
+			int count=0;
+			int[] states=new int[all.states.length], distances=new int[all.states.length];
+			for(int i=0;i<all.states.length;i++)
+				if(get(all.states[i])!=NONE) {
+					states[count]=all.states[i];
+					distances[count++]=all.distances[i];
+				}
+			return new Compact(Arrays.copyOf(states, count), Arrays.copyOf(distances, count));
+		}
+	}
+
+	/*
+	 * Immutable copy: states sorted for binary search
+	 */
+	static final class Compact extends ShortestTree{
+		private final int[] states, distances;
+		Compact(int[] states, int[] distances){
+			this.states=states;
+			this.distances=distances;
+		}
+		@Override
+		int get(int state) {
+			int i=Arrays.binarySearch(states, state);
+			return i < 0 ? NONE : distances[i];
+		}
+		@Override
+		int size() {
+			return states.length;
+		}
+		@Override
+		ShortestTree compact() {
+			return this;
+		}
+	}
+}
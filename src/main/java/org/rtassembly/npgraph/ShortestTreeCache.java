@@ -0,0 +1,89 @@
+package org.rtassembly.npgraph;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * LRU cache of the shortest trees for the path finding: the same unique anchors show up in thousands of reads.
+ * Trees are keyed by root state and distance bucket, built for the upper bound of the bucket then narrowed down
+ * to the distance asked (ShortestTree.bounded()), which gives the same tree as building it for that distance.
+ * A tree is invalidated when the edges or the length of a node within its reach change (see GraphCore).
+ */
+class ShortestTreeCache {
+	public static volatile int 	CAPACITY=256, //number of trees kept, 0 to disable the cache
+								BUCKET=500; //distances are rounded up to a multiple of this
+
+	private LinkedHashMap<Long, ShortestTree> trees = new LinkedHashMap<Long, ShortestTree>(64, .75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, ShortestTree> eldest) {
+			if(size() > CAPACITY) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	};
+	private long hits=0, misses=0, invalidations=0, evictions=0;
+
+	/*
+	 * Shortest tree to a root state within a distance. Without cache, the result is only valid until the next tree
+	 * is built on the same thread (see ShortestTree.compute()).
+	 * A missing tree is built outside of the lock, so concurrent bridges don't wait for each other: the graph
+	 * doesn't change meanwhile (read lock of BDGraph), at worst the same tree is built twice.
+	 */
+	ShortestTree get(GraphCore core, int rootState, int distance) {
+		if(CAPACITY <= 0)
+			return ShortestTree.compute(core, rootState, distance);
+
+		int bucket = Math.floorDiv(distance, BUCKET) + 1;
+		long key = (long)rootState<<32 | (bucket & 0xffffffffL);
+		ShortestTree tree;
+		synchronized(this) {
+			tree = trees.get(key);
+			if(tree!=null)
+				hits++;
+			else
+				misses++;
+		}
+		if(tree==null) {
+			tree = ShortestTree.compute(core, rootState, bucket*BUCKET).compact();
+			synchronized(this) {
+				trees.put(key, tree);
+			}
+		}
+		return tree.bounded(rootState, distance);
+	}
+
+	//drop the trees reaching a node
+	synchronized void invalidate(BDNode node) {
+		if(trees.isEmpty() || node.index < 0)
+			return;
+		int s0 = GraphCore.state(node, false), s1 = s0|1;
+		Iterator<ShortestTree> ite = trees.values().iterator();
+		while(ite.hasNext()) {
+			ShortestTree tree = ite.next();
+			if(tree.contains(s0) || tree.contains(s1)) {
+				ite.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	synchronized void clear() {
+		trees.clear();
+	}
+
+	synchronized long getHits() {return hits;}
+	synchronized long getMisses() {return misses;}
+	synchronized long getInvalidations() {return invalidations;}
+	synchronized long getEvictions() {return evictions;}
+
+	@Override
+	synchronized public String toString() {
+		long total = hits+misses;
+		return String.format("%d trees (capacity %d), %d hits / %d lookups (%.1f%%), %d invalidated, %d evicted",
+				trees.size(), CAPACITY, hits, total, total==0?0:100.0*hits/total, invalidations, evictions);
+	}
+}
@@ -4,25 +4,20 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.apache.commons.math3.ml.clustering.Cluster;
-import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
-import org.apache.commons.math3.ml.clustering.DoublePoint;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Sets;
-
 public class SimpleBinner {
     private static final Logger LOG = LoggerFactory.getLogger(SimpleBinner.class);
 	public static volatile int 	UNIQUE_CTG_LEN=10000,
@@ -32,16 +27,20 @@ public class SimpleBinner {
 	BDGraph graph;
 	ArrayList<PopBin> binList;
 	PopBin leastBin;
-	HashMap<Edge, HashMap<PopBin,Integer>> edge2BinMap;
-	HashMap<Node, HashMap<PopBin, Integer>> node2BinMap;
-	ArrayList<Edge> unresolvedEdges;
+	//multiplicities of the bins (columns) of the nodes and edges (rows, see rowOf())
+	BinMatrix<Node> nodeBins;
+	BinMatrix<Edge> edgeBins;
+	BitSet unresolvedEdges; //rows of edgeBins
+	private int[] binCounts; //scratch row for the arithmetic on the bins
 	public SimpleBinner(BDGraph graph){
 		this.graph = graph;
 		binList = new ArrayList<PopBin>();
 		leastBin = null;
-		edge2BinMap = new HashMap<Edge, HashMap<PopBin,Integer>>();
-		node2BinMap = new HashMap<Node, HashMap<PopBin, Integer>>();
-		unresolvedEdges = new ArrayList<Edge>(graph.edges().collect(Collectors.toList()));
+		nodeBins = new BinMatrix<Node>();
+		edgeBins = new BinMatrix<Edge>();
+		unresolvedEdges = new BitSet();
+		graph.edges().forEach(e->unresolvedEdges.set(rowOf(e)));
+		setBinList(binList);
 	}
 
 	public SimpleBinner(BDGraph graph, String binFileName, String gformat) {
@@ -56,87 +55,101 @@ public class SimpleBinner {
 	}
 
 
+	/*
+	 * Bins are indexed by their position in binList: all binning information of the nodes and edges is reset.
+	 */
+	void setBinList(ArrayList<PopBin> binList) {
+		this.binList = binList;
+		for(int i=0;i<binList.size();i++)
+			binList.get(i).index=i;
+		nodeBins.setBinCount(binList.size());
+		edgeBins.setBinCount(binList.size());
+		binCounts = new int[binList.size()];
+	}
+	//row of an element in nodeBins/edgeBins, given on first use
+	int rowOf(Node node) {
+		BDNode n = (BDNode) node;
+		if(n.binRow < 0)
+			n.binRow = nodeBins.addRow(node);
+		return n.binRow;
+	}
+	int rowOf(Edge edge) {
+		BDEdge e = (BDEdge) edge;
+		if(e.binRow < 0)
+			e.binRow = edgeBins.addRow(edge);
+		return e.binRow;
+	}
+	private boolean isBinned(Node node) {
+		return nodeBins.isKnown(((BDNode) node).binRow);
+	}
+	private boolean isBinned(Edge edge) {
+		return edgeBins.isKnown(((BDEdge) edge).binRow);
+	}
+	private void unbin(Node node) {
+		if(isBinned(node))
+			nodeBins.remove(((BDNode) node).binRow);
+	}
+	//set the edge as unique of a bin, e.g. a reduced edge
+	void setBinOfEdge(Edge edge, PopBin bin) {
+		edgeBins.setSingle(rowOf(edge), bin.index);
+	}
+
 	/*
 	 * When a node bin is set, traverse the graph to assign edges if possible
 	 */
 	private void exploringFromNode(Node node){
-		HashMap<PopBin, Integer> nbins = node2BinMap.get(node);
-		if(nbins == null || nbins.isEmpty())
+		if(!isBinned(node) || nodeBins.total(((BDNode) node).binRow)==0)
 			return;
 		
-		ArrayList<Edge> unknownLeavingEdges = new ArrayList<>(),
-						unknownEnteringEdges = new ArrayList<>();
-		HashMap<PopBin,Integer> 	leavingEdgeBinCount=new HashMap<PopBin,Integer>(),
-									enteringEdgeBinCount=new HashMap<PopBin,Integer>(),
-									induceEdgeBin=new HashMap<PopBin, Integer>();
 		// Leaving edges
-		node.leavingEdges().forEach(e -> 
-		{
-			HashMap<PopBin, Integer> ebins = edge2BinMap.get(e); 
-			if(ebins == null || ebins.size()==0)
-				unknownLeavingEdges.add(e);
-			else{
-				for(PopBin b:ebins.keySet()) {
-					leavingEdgeBinCount.put(b, ebins.get(b)+ (leavingEdgeBinCount.get(b)==null?0:leavingEdgeBinCount.get(b)));
-				}
-			}
-		});
-		if(unknownLeavingEdges.size()==1){
-			Edge e = unknownLeavingEdges.get(0);
-			induceEdgeBin=substract(nbins, leavingEdgeBinCount);
-			if(induceEdgeBin.values().stream().mapToInt(Integer::intValue).sum() > 0){
-				edge2BinMap.put(e, induceEdgeBin);
-				if(HybridAssembler.VERBOSE)
-					LOG.info("From node {}{} firing edge {}{}",node.getId(),getBinsOfNode(node), e.getId(), getBinsOfEdge(e));
-				exploringFromEdge(e);
-			}
-		}
-
+		exploringFromNode(node, node.leavingEdges().iterator());
 		// Entering edges
-		node.enteringEdges().forEach(e -> 
-		{
-			HashMap<PopBin, Integer> ebins = edge2BinMap.get(e); 
-			if(ebins == null || ebins.size()==0)
-				unknownEnteringEdges.add(e);
-			else{
-				for(PopBin b:ebins.keySet()) {
-					enteringEdgeBinCount.put(b, ebins.get(b)+ (enteringEdgeBinCount.get(b)==null?0:enteringEdgeBinCount.get(b)));
-				}
-			}
-		});
-		if(unknownEnteringEdges.size()==1){
-			Edge e = unknownEnteringEdges.get(0);
-			induceEdgeBin=substract(nbins, enteringEdgeBinCount);
-			if(induceEdgeBin.values().stream().mapToInt(Integer::intValue).sum() > 0){
-				edge2BinMap.put(e, induceEdgeBin);
-				if(HybridAssembler.VERBOSE)
-					LOG.info("From node {}{} firing edge {}{}\n",node.getId(),getBinsOfNode(node), e.getId(), getBinsOfEdge(e));
-				exploringFromEdge(e);
-			}
+		exploringFromNode(node, node.enteringEdges().iterator());
+	}
+	//if only one edge of a side is unknown, it takes the bins of the node minus the ones of the other edges
+	private void exploringFromNode(Node node, Iterator<Edge> edges) {
+		Edge unknown = null;
+		int unknownCount = 0;
+		nodeBins.copyTo(((BDNode) node).binRow, binCounts);
+		while(edges.hasNext()) {
+			Edge e = edges.next();
+			int row = ((BDEdge) e).binRow;
+			if(!edgeBins.isKnown(row) || edgeBins.total(row)==0) {
+				unknown = e;
+				unknownCount++;
+			}else
+				edgeBins.subtractFrom(row, binCounts);
+		}
+		if(unknownCount==1 && Arrays.stream(binCounts).filter(c->c>0).sum() > 0){
+			edgeBins.set(rowOf(unknown), binCounts);
+			if(HybridAssembler.VERBOSE)
+				LOG.info("From node {}{} firing edge {}{}",node.getId(),getBinsOfNode(node), unknown.getId(), getBinsOfEdge(unknown));
+			exploringFromEdge(unknown);
 		}
-		
 	}
 	/*
 	 * When an edge bin is set, traverse the graph to assign nodes if possible
 	 */
 	private void exploringFromEdge(Edge edge){
-		if(!edge2BinMap.containsKey(edge))
+		if(!isBinned(edge))
 			return;
-		unresolvedEdges.remove(edge);
-		Node 	n0 = edge.getNode0(),
-				n1 = edge.getNode1();
+		unresolvedEdges.clear(((BDEdge) edge).binRow);
 		if(HybridAssembler.VERBOSE)
 			LOG.info("From edge {}{}: ", edge.getId(), getBinsOfEdge(edge));
-		if(!node2BinMap.containsKey(n0)){
-			boolean dir0 = ((BDEdge)edge).getDir0();
-			Stream<Edge> edgeSet0 = dir0?n0.leavingEdges():n0.enteringEdges();		
-			
-			ArrayList<Edge> edgeList0 = (ArrayList<Edge>) edgeSet0.collect(Collectors.toList());
-			HashMap<PopBin,Integer> binCounts0 = new HashMap<PopBin,Integer>();
+		exploringFromEdge(edge.getNode0(), ((BDEdge)edge).getDir0());
+		//TODO: check consistent here also
+		exploringFromEdge(edge.getNode1(), ((BDEdge)edge).getDir1());
+	}
+	//complete a node with the bins of the edges of one side if they're all known and agree with its coverage
+	private void exploringFromEdge(Node node, boolean dir) {
+		if(!isBinned(node)){
+			Iterator<Edge> edges = dir?node.leavingEdges().iterator():node.enteringEdges().iterator();
+			Arrays.fill(binCounts, 0);
 			boolean fully = true;
-			for(Edge e:edgeList0){
-				if(edge2BinMap.containsKey(e)){
-					binCounts0=sum(binCounts0, edge2BinMap.get(e));
+			while(edges.hasNext()){
+				Edge e = edges.next();
+				if(isBinned(e)){
+					edgeBins.addTo(((BDEdge) e).binRow, binCounts);
 				}else{
 					fully = false;
 					break;
@@ -144,88 +157,21 @@ public class SimpleBinner {
 			}
 			//check if the total cov of inferred pop bins agree with its original coverage or not
 			double covSum=0.0;
-			for(PopBin b:binCounts0.keySet()){
-				covSum+=binCounts0.get(b)*b.estCov;
+			for(int i=0;i<binCounts.length;i++){
+				covSum+=binCounts[i]*binList.get(i).estCov;
 			}
-			if(fully && GraphUtil.approxCompare(covSum, n0.getNumber("cov"))==0){
-				node2BinMap.put(n0, binCounts0);
+			if(fully && GraphUtil.approxCompare(covSum, node.getNumber("cov"))==0){
+				nodeBins.set(rowOf(node), binCounts);
 				if(HybridAssembler.VERBOSE)
-					LOG.info("completing node {}{}", n0.getId(),getBinsOfNode(n0));
-				exploringFromNode(n0);
+					LOG.info("completing node {}{}", node.getId(),getBinsOfNode(node));
+				exploringFromNode(node);
 			}else if(HybridAssembler.VERBOSE)
-				LOG.info("skip node {}{}", n0.getId(),getBinsOfNode(n0));
+				LOG.info("skip node {}{}", node.getId(),getBinsOfNode(node));
 		}else{
 			if(HybridAssembler.VERBOSE)
-				LOG.info("firing node {}{}", n0.getId(),getBinsOfNode(n0));
-			exploringFromNode(n0);
+				LOG.info("firing node {}{}", node.getId(),getBinsOfNode(node));
+			exploringFromNode(node);
 		}
-		
-		if(!node2BinMap.containsKey(n1)){
-			boolean dir1 = ((BDEdge)edge).getDir1();
-			Stream<Edge> edgeSet1 = dir1?n1.leavingEdges():n1.enteringEdges();
-			
-			ArrayList<Edge> edgeList1 = (ArrayList<Edge>) edgeSet1.collect(Collectors.toList());
-			HashMap<PopBin,Integer> binCounts1 = new HashMap<PopBin,Integer>();
-			boolean fully = true;
-			for(Edge e:edgeList1){
-				if(edge2BinMap.containsKey(e)){
-					binCounts1=sum(binCounts1, edge2BinMap.get(e));
-				}else{
-					fully = false;
-//					LOG.info("...node " + n1.getId() + " not yet fully solved at: " + e.getId());
-					break;
-				}
-			}
-			//check if the total cov of inferred pop bins agree with its original coverage or not
-			double covSum=0.0;
-			for(PopBin b:binCounts1.keySet()){
-				covSum+=binCounts1.get(b)*b.estCov;
-			}
-			
-			if(fully && GraphUtil.approxCompare(covSum, n1.getNumber("cov"))==0){				
-				node2BinMap.put(n1, binCounts1);
-				if(HybridAssembler.VERBOSE)
-					LOG.info("completing node {}{}", n1.getId(),getBinsOfNode(n1));
-				exploringFromNode(n1);
-			}else if(HybridAssembler.VERBOSE)
-				LOG.info("skip node {}{}", n1.getId(),getBinsOfNode(n1));
-			
-		}else{ 
-			//TODO: check consistent here also
-			if(HybridAssembler.VERBOSE)
-				LOG.info("firing node {}{}", n1.getId(),getBinsOfNode(n1));
-			exploringFromNode(n1);
-		}
-	}
-	
-	private static HashMap<PopBin, Integer> substract(HashMap<PopBin, Integer> minuend, HashMap<PopBin, Integer> subtrahend){
-		HashMap<PopBin, Integer> difference = new HashMap<PopBin, Integer>();
-		for(PopBin b:minuend.keySet()){
-			int _minuend = minuend.get(b),
-				_diff = _minuend - (subtrahend.containsKey(b)?subtrahend.get(b):0);	
-			if(_diff > 0)
-				difference.put(b, _diff);
-//			else
-//				difference.put(b, 0);
-		}
-		
-		return difference;
-	}
-	
-	private static HashMap<PopBin, Integer> sum(HashMap<PopBin, Integer> augend, HashMap<PopBin, Integer> addend){
-		if(augend==null||addend==null)
-			return null;
-//		if(augend==null) return addend;
-//		if(addend==null) return augend;
-		
-		HashMap<PopBin, Integer> retval = new HashMap<PopBin, Integer>();
-		for(PopBin b:Sets.union(augend.keySet(), addend.keySet())){
-			int re=(augend.containsKey(b)?augend.get(b):0) + (addend.containsKey(b)?addend.get(b):0);
-			if(re>0)
-			retval.put(b, re);
-		}
-		
-		return retval;
 	}
 	
 	private PopBin scanAndGuess(double cov) {
@@ -248,41 +194,63 @@ public class SimpleBinner {
 		return target;
 	}
 
-	//A simple clustering with DBSCAN. used internal
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+	/*
+	 * A simple clustering of the long unique nodes by coverage, used internal. Same clusters as DBSCAN with
+	 * eps=GraphUtil.DISTANCE_THRES and minPts=0 on GraphUtil.metric(): the metric only grows with the gap between
+	 * 2 coverages, so a cluster is a run of the sorted coverages without gap > eps, found with one sweep.
+	 * Clusters come in the order of their first node (as DBSCAN), nodes in the order of the graph.
+	 */
 	private void nodesClustering() {
 		binList = new ArrayList<PopBin>();
-		List<DoublePoint> points = new ArrayList<DoublePoint>();
+		List<Node> points = new ArrayList<Node>();
 		
 		for(Node n:graph) {
 			if(	n.getNumber("len") >= UNIQUE_CTG_LEN 
 				&& Math.max(n.getInDegree(), n.getOutDegree()) <= 1
 				){
-				points.add(new DoublePoint(new double[]{n.getNumber("cov"), new Double(n.getId())}));
+				points.add(n);
 			}
 		}
-		DBSCANClusterer dbscan = new DBSCANClusterer(GraphUtil.DISTANCE_THRES, 0, (a,b)->GraphUtil.metric(a[0], b[0]));
-
-		List<Cluster<DoublePoint>> cluster = dbscan.cluster(points);
-		for(Cluster<DoublePoint> c:cluster) {
-			PopBin bin=new PopBin();
-			for(DoublePoint p:c.getPoints()) {
-				Node tmp = graph.getNode(((int)p.getPoint()[1])+"");
-				bin.addCoreNode(tmp);
-				HashMap<PopBin, Integer> entry = new HashMap<PopBin, Integer>();
-				entry.put(bin, 1);
-				node2BinMap.put(tmp, entry);
-				
-			}
-			if(bin.getCoreNodes().size() > 0){
+		int size=points.size();
+		double[] covs=new double[size];
+		for(int i=0;i<size;i++)
+			covs[i]=points.get(i).getNumber("cov");
+		
+		//sweep over the sorted coverages (those without a valid distance, e.g. 0, are left alone).
+		//Equal coverages always fall in the same cluster, so a node finds its cluster by its coverage.
+		double[] sorted=covs.clone();
+		Arrays.sort(sorted);
+		int[] sortedCluster=new int[size], cluster=new int[size];
+		int clusterCount=0;
+		for(int k=0;k<size;k++) {
+			if(k > 0 && GraphUtil.metric(sorted[k-1], sorted[k]) <= GraphUtil.DISTANCE_THRES)
+				sortedCluster[k]=sortedCluster[k-1];
+			else
+				sortedCluster[k]=clusterCount++;
+		}
+		for(int i=0;i<size;i++) {
+			if(!(GraphUtil.metric(covs[i], covs[i]) <= GraphUtil.DISTANCE_THRES))
+				cluster[i]=clusterCount++;
+			else
+				cluster[i]=sortedCluster[Arrays.binarySearch(sorted, covs[i])];
+		}
+		
+		PopBin[] bins=new PopBin[clusterCount];
+		for(int i=0;i<size;i++) {
+			PopBin bin=bins[cluster[i]];
+			if(bin==null) {
+				bin=bins[cluster[i]]=new PopBin();
 				binList.add(bin);
 			}
-			
+			bin.addCoreNode(points.get(i));
+		}
+		setBinList(binList);
+		for(int i=0;i<size;i++)
+			nodeBins.setSingle(rowOf(points.get(i)), bins[cluster[i]].index);
+		for(PopBin bin:binList)
 			if(leastBin==null || bin.estCov<leastBin.estCov)
 				leastBin=bin;
 
-		}
-
 	}
 	
 	//read binning file from metaBAT
@@ -317,6 +285,7 @@ public class SimpleBinner {
 		
 		binList.stream().forEach(b->{if(leastBin==null || leastBin.estCov>b.estCov) leastBin=b;});
 		binReader.close();
+		setBinList(binList);
 		
 	}
 	
@@ -350,9 +319,12 @@ public class SimpleBinner {
 		//if big node have more than 1 edge going in/out and the edges have significant less coverage (.5+.5)
 		//then it is due to sequencing error and this node should be unique!!!
 		HashMap<PopBin, ArrayList<Edge>> highlyPossibleEdges = new HashMap<PopBin, ArrayList<Edge>>();
-		unresolvedEdges.sort((a,b)->Double.compare(a.getNumber("cov"),b.getNumber("cov")));
+		ArrayList<Edge> unresolvedList = new ArrayList<Edge>();
+		for(int row=unresolvedEdges.nextSetBit(0); row>=0; row=unresolvedEdges.nextSetBit(row+1))
+			unresolvedList.add(edgeBins.getElement(row));
+		unresolvedList.sort((a,b)->Double.compare(a.getNumber("cov"),b.getNumber("cov")));
 
-		for(Edge e:unresolvedEdges){
+		for(Edge e:unresolvedList){
 				if(HybridAssembler.VERBOSE) 
 					LOG.info("...scanning edge " + e.getId() + "cov=" + e.getNumber("cov") + ":");
 				PopBin tmp = scanAndGuess(e.getNumber("cov"));
@@ -364,12 +336,10 @@ public class SimpleBinner {
 					//FIXME: get more unique node (sequencing error make unique node has >2 degree). Below doesn't complete 2 Shigella genomes		
 					if(tmp==leastBin && GraphUtil.approxCompare(e.getNumber("cov"), leastBin.estCov) < 0){
 						Node n0=e.getNode0(), n1=e.getNode1();
-						HashMap<PopBin, Integer> unitBinMap = new HashMap<>();
-						unitBinMap.put(leastBin, 1);
 						
 						if(n0.getNumber("len") > UNIQUE_CTG_LEN && getBinIfUnique(n0)==null){
 							n0.setAttribute("unique", leastBin);
-							node2BinMap.put(n0, unitBinMap);
+							nodeBins.setSingle(rowOf(n0), leastBin.index);
 							if(HybridAssembler.VERBOSE) 
 								LOG.info("node {} is unique but have degree={}, length={}", n0.getId(), n0.getDegree(), (int)n0.getNumber("len"));
 							continue;
@@ -377,7 +347,7 @@ public class SimpleBinner {
 						
 						if(n1.getNumber("len") > UNIQUE_CTG_LEN && getBinIfUnique(n1)==null){
 							n1.setAttribute("unique", leastBin);
-							node2BinMap.put(n1, unitBinMap);
+							nodeBins.setSingle(rowOf(n1), leastBin.index);
 							if(HybridAssembler.VERBOSE) 
 								LOG.info("node {} is unique but have degree={}, length={}", n1.getId(), n1.getDegree(), (int)n1.getNumber("len"));
 							continue;
@@ -397,7 +367,7 @@ public class SimpleBinner {
 
 		while(!unresolvedEdges.isEmpty()) {
 			if(HybridAssembler.VERBOSE) 
-				LOG.info("Starting assigning " + unresolvedEdges.size() + " unresolved edges");
+				LOG.info("Starting assigning " + unresolvedEdges.cardinality() + " unresolved edges");
 			//sort the unresolved edges based on abundance and guess until all gone...
 			if(!highlyPossibleEdges.keySet().isEmpty()){
 				for(PopBin b:binList){
@@ -406,10 +376,8 @@ public class SimpleBinner {
 							Edge guess = highlyPossibleEdges.get(b).remove(0);
 							if(HybridAssembler.VERBOSE) 
 								LOG.info("...assigning " + guess.getId());
-							if(unresolvedEdges.contains(guess)){
-								HashMap<PopBin, Integer> bc = new HashMap<>();
-								bc.put(b, 1);
-								edge2BinMap.put(guess, bc);
+							if(unresolvedEdges.get(rowOf(guess))){
+								edgeBins.setSingle(rowOf(guess), b.index);
 								if(HybridAssembler.VERBOSE) 
 									LOG.info(": start explore");
 								exploringFromEdge(guess);
@@ -432,17 +400,15 @@ public class SimpleBinner {
 		
 		//3.3 Assign unique nodes here: need more tricks
 		for(Node node:graph) {
-			if(	node2BinMap.containsKey(node) && node.getNumber("len") > ANCHOR_CTG_LEN ){ 
+			if(	isBinned(node) && node.getNumber("len") > ANCHOR_CTG_LEN ){ 
+				int row = rowOf(node);
 				if(Math.max(node.getInDegree(), node.getOutDegree()) <= 1){ //not true if e.g. sequencing errors inside unique contig
-					HashMap<PopBin, Integer> bc = node2BinMap.get(node);
-					ArrayList<PopBin> counts = new ArrayList<PopBin>(bc.keySet());
-	//				if(counts.size()==1 && bc.get(counts.get(0))==1){ //and should check for any conflict???
-					int totOcc = bc.values().stream().mapToInt(Integer::intValue).sum();
-					if(totOcc==1) //and should check for any conflict???
-						node.setAttribute("unique", counts.get(0));
+					int bin = nodeBins.onlyBin(row);
+					if(bin>=0) //and should check for any conflict???
+						node.setAttribute("unique", binList.get(bin));
 				} else{ // REMOVE NODES WITH MULTIPLICITY > 3 SINCE THEY'RE NOT SO CONFIDENT 
-					if(node2BinMap.get(node).values().stream().mapToInt(Integer::intValue).sum() > 3)
-						node2BinMap.remove(node);
+					if(nodeBins.total(row) > 3)
+						nodeBins.remove(row);
 				}
 			}
 		}
@@ -453,8 +419,8 @@ public class SimpleBinner {
 	 ************** Utility functions *********************
 	 *****************************************************/
 	public boolean checkIfBinContainingNode(PopBin bin, Node node){
-		if(node2BinMap.containsKey(node)){
-			return node2BinMap.get(node).containsKey(bin) && node2BinMap.get(node).get(bin) > 0;
+		if(isBinned(node)){
+			return bin.index >= 0 && nodeBins.get(((BDNode) node).binRow, bin.index) > 0;
 		}else
 			return GraphUtil.approxCompare(bin.estCov, node.getNumber("cov"))>=0;
 	}
@@ -466,10 +432,10 @@ public class SimpleBinner {
 	//also take into account nodes that transformed to unique after reduced
 	public PopBin getBinIfUniqueNow(Node node){
 		PopBin retval=getBinIfUnique(node);
-		if(retval==null && node.getNumber("len") > TRANSFORMED_ANCHOR_CTG_LEN && node2BinMap.containsKey(node)){
-			HashMap<PopBin, Integer> bc = node2BinMap.get(node);
-			if(bc.values().stream().mapToInt(Integer::intValue).sum() == 1){
-				retval=Iterables.getOnlyElement(bc.keySet());
+		if(retval==null && node.getNumber("len") > TRANSFORMED_ANCHOR_CTG_LEN && isBinned(node)){
+			int bin = nodeBins.onlyBin(((BDNode) node).binRow);
+			if(bin >= 0){
+				retval=binList.get(bin);
 			}
 		}
 		return retval;
@@ -480,8 +446,8 @@ public class SimpleBinner {
 		if(node.getInDegree()*node.getOutDegree()!=0 || SimpleBinner.getBinIfUnique(node)!=null) {
 			return false;
 		}
-		else if(node2BinMap.containsKey(node)) {
-			if(node2BinMap.get(node).values().stream().mapToInt(Integer::intValue).sum() != 0)
+		else if(isBinned(node)) {
+			if(nodeBins.total(((BDNode) node).binRow) != 0)
 				return false;
 		}
 		else if(GraphUtil.approxCompare(node.getNumber("cov"),leastBin.estCov)>=0) {
@@ -513,35 +479,29 @@ public class SimpleBinner {
 			if(HybridAssembler.VERBOSE) 
 				LOG.warn("Ignored: consensus bin must be one of the endings bin: Ignored!");
 			//clean from bin map here...
-			node2BinMap.remove(path.getRoot());
-			node2BinMap.remove(path.peekNode());
+			unbin(path.getRoot());
+			unbin(path.peekNode());
 			return null;
 		}else if(!uniqueBin.isCloseTo(startBin)){
 			if(HybridAssembler.VERBOSE) 
 				LOG.warn("Ignored: consensus bin {} doesn't agree with one of the endings bin {} at node {}", uniqueBin, startBin, path.getRoot());
-			node2BinMap.remove(path.getRoot());
+			unbin(path.getRoot());
 			//clean from bin map here...
 			return null;
 		}else if(!uniqueBin.isCloseTo(endBin)){
 			if(HybridAssembler.VERBOSE) 
 				LOG.warn("Ignored: consensus bin {} doesn't agree with one of the endings bin {} at node {}", uniqueBin, endBin, path.peekNode());
-			node2BinMap.remove(path.peekNode());
+			unbin(path.peekNode());
 			//clean from bin map here...
 			return null;
 		}
 		PopBin other=(uniqueBin==startBin?endBin:startBin);
-		HashMap<PopBin, Integer> 	oneBin=new HashMap<>(),
-									otherBin=new HashMap<>();
-		oneBin.put(uniqueBin, 1);
-		otherBin.put(other, 1);
 		
 		Set<Edge> retval = new HashSet<Edge>();	
 		double aveCov=uniqueBin.estCov;
 	
 		for(Edge ep:path.getEdgePath()){
 			nextNode=ep.getOpposite(curNode);
-			HashMap<PopBin, Integer> edgeBinsCount, bcMinusOne=null,  
-										nodeBinsCount;	
 			//remove faulty edge of unique nodes (that has degree=3)
 			if(getBinIfUnique(curNode)!=null || getBinIfUniqueNow(curNode)!=null){
 //				if(curNode.getNumber("len") > UNIQUE_CTG_LEN){
@@ -563,16 +523,14 @@ public class SimpleBinner {
 //			if(getUniqueBin(ep.getNode0())!=null || getUniqueBin(ep.getNode1())!=null)
 //				retval.add((BDEdge)ep);
 				
-			if(edge2BinMap.containsKey(ep)) {
-				edgeBinsCount=edge2BinMap.get(ep);
-				if(edgeBinsCount.containsKey(uniqueBin)) {
-					bcMinusOne=substract(edgeBinsCount, oneBin);
-					edge2BinMap.replace(ep, bcMinusOne);
+			if(isBinned(ep)) {
+				int row=rowOf(ep);
+				if(edgeBins.get(row, uniqueBin.index) > 0) {
+					edgeBins.decrement(row, uniqueBin.index);
 
-				}else if(edgeBinsCount.containsKey(other)){
+				}else if(edgeBins.get(row, other.index) > 0){
 				//E.g. b2 vs b1 =>  b2==b1							//...
-					bcMinusOne=substract(edgeBinsCount, otherBin);
-					edge2BinMap.replace(ep, bcMinusOne);				
+					edgeBins.decrement(row, other.index);
 
 				}else if(HybridAssembler.VERBOSE) 
 					LOG.warn("...not found appropriate binning information on path {}, at edge {}: {}", path.getId(), ep.getId(), getBinsOfEdge(ep));
@@ -593,18 +551,14 @@ public class SimpleBinner {
 //			if(ep.getNumber("cov") <= BPOP*0.5  && !edge2BinMap.containsKey(ep)) //plasmid coverage is different!!!
 //				retval.add((BDEdge) ep);
 			
-			bcMinusOne=null;
 			if(curNode!=path.getRoot() && curNode!=path.peekNode()) {
-				if(node2BinMap.containsKey(curNode)) {
-					if(node2BinMap.get(curNode).containsKey(uniqueBin)) {
-						nodeBinsCount=node2BinMap.get(curNode);
-						bcMinusOne=substract(nodeBinsCount, oneBin);
-						node2BinMap.replace(curNode, bcMinusOne);
+				if(isBinned(curNode)) {
+					int row=rowOf(curNode);
+					if(nodeBins.get(row, uniqueBin.index) > 0) {
+						nodeBins.decrement(row, uniqueBin.index);
 
-					}else if(node2BinMap.get(curNode).containsKey(other)) {
-						nodeBinsCount=node2BinMap.get(curNode);
-						bcMinusOne=substract(nodeBinsCount, otherBin);
-						node2BinMap.replace(curNode, bcMinusOne);
+					}else if(nodeBins.get(row, other.index) > 0) {
+						nodeBins.decrement(row, other.index);
 //						if(!bcMinusOne.isEmpty()) {
 //							node2BinMap.replace(curNode, bcMinusOne);
 //						}
@@ -662,28 +616,20 @@ public class SimpleBinner {
 //	}
 	
 	public String getBinsOfNode(Node node) {
-		String retval="[";
-		HashMap<PopBin, Integer> binCount=node2BinMap.get(node);
-		if(binCount==null)
-			retval+="unknown";
-		else {
-			for(PopBin b:binCount.keySet()) {
-				int count=binCount.get(b);
-				retval+=b.getId()+":"+count+"; ";
-			}
-		}
-		retval+="]";
-		return retval;
+		return getBins(nodeBins, ((BDNode) node).binRow);
 	}
 	public String getBinsOfEdge(Edge edge) {
+		return getBins(edgeBins, ((BDEdge) edge).binRow);
+	}
+	private String getBins(BinMatrix<?> matrix, int row) {
 		String retval="[";
-		HashMap<PopBin, Integer> binCount=edge2BinMap.get(edge);
-		if(binCount==null)
+		if(!matrix.isKnown(row))
 			retval+="unknown";
 		else {
-			for(PopBin b:binCount.keySet()) {
-				int count=binCount.get(b);
-				retval+=b.getId()+":"+count+"; ";
+			for(int i=0;i<matrix.getBinCount();i++) {
+				int count=matrix.get(row, i);
+				if(count>0)
+					retval+=binList.get(i).getId()+":"+count+"; ";
 			}
 		}
 		retval+="]";
@@ -710,15 +656,11 @@ public class SimpleBinner {
 			while(ite.hasNext()) {
 				Edge e = ite.next();
 				System.out.println("Edge "+e.getId() + " cov=" + e.getNumber("cov") );
-				HashMap<PopBin,Integer> tmp = binner.edge2BinMap.get(e);
-				if(tmp==null) {
+				if(!binner.isBinned(e)) {
 					System.out.println("...has not yet assigned!");
 					continue;
 				}
-				for(PopBin b:tmp.keySet()) {
-					System.out.printf(" bin %d : %d, ", b.binID, tmp.get(b));
-				}
-				System.out.println();
+				System.out.println(" bins " + binner.getBinsOfEdge(e));
 			}
 		}
 	}
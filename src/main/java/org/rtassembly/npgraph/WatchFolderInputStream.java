@@ -0,0 +1,202 @@
+package org.rtassembly.npgraph;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Long-read input from a folder written by the sequencer over the run (e.g. MinKNOW fastq_pass/):
+ * the FASTQ/FASTA chunk files (possibly gzipped) are streamed one after another as a single uncompressed stream,
+ * and new files are picked up while reading. A file is only taken when its size is stable between two scans.
+ * The stream ends when the assembler is stopped or when no new file shows up within the timeout.
+ * The reads of each file are counted, so a resumed run can leave out the files whose reads were all consumed
+ * by the checkpoint (see getConsumedFiles()) instead of reading them again.
+ */
+class WatchFolderInputStream extends InputStream {
+	private static final Logger LOG = LoggerFactory.getLogger(WatchFolderInputStream.class);
+	public static int POLL_INTERVAL=2000; //ms between 2 scans of the folder
+
+	private File folder;
+	private HybridAssembler assembler;
+	private long timeout; //ms, 0 to wait until stopped
+
+	private Set<String> seen = new HashSet<>(); //files queued or consumed
+	private LinkedHashMap<String, Long> consumed = new LinkedHashMap<>(); //files streamed entirely and their number of reads
+	private HashMap<String, Long> lastSizes = new HashMap<>(); //size of the files not yet taken at the last scan
+	private Deque<File> queue = new ArrayDeque<>();
+	private long lastNewFile;
+
+	private InputStream current = null;
+	private File currentFile = null;
+	private int lastByte = '\n';
+	//counting the reads of the current file: its first byte ('>' or '@'), lines (FASTQ) or headers (FASTA) so far
+	private int firstByte = -1;
+	private long lines = 0, headers = 0;
+
+	/*
+	 * skipFiles: files consumed by a previous run (see getConsumedFiles()), they are left out.
+	 */
+	WatchFolderInputStream(File folder, HybridAssembler assembler, int timeoutSeconds, Map<String, Long> skipFiles){
+		this.folder = folder;
+		this.assembler = assembler;
+		this.timeout = timeoutSeconds*1000L;
+		lastNewFile = System.currentTimeMillis();
+		seen.addAll(skipFiles.keySet());
+		consumed.putAll(skipFiles);
+	}
+	WatchFolderInputStream(File folder, HybridAssembler assembler, int timeoutSeconds){
+		this(folder, assembler, timeoutSeconds, new LinkedHashMap<>());
+	}
+
+	static boolean isSequenceFile(String name) {
+		name = name.toLowerCase();
+		if(name.endsWith(".gz"))
+			name = name.substring(0, name.length()-3);
+		return name.endsWith(".fastq") || name.endsWith(".fq") || name.endsWith(".fasta") || name.endsWith(".fa") || name.endsWith(".fna");
+	}
+
+	/*
+	 * Files streamed entirely so far (in order) with their number of reads, as long as all their reads are within
+	 * the first readsConsumed reads of the stream.
+	 */
+	synchronized LinkedHashMap<String, Long> getConsumedFiles(long readsConsumed){
+		LinkedHashMap<String, Long> retval = new LinkedHashMap<>();
+		long reads = 0;
+		for(Map.Entry<String, Long> file:consumed.entrySet()) {
+			reads += file.getValue();
+			if(reads > readsConsumed)
+				break;
+			retval.put(file.getKey(), file.getValue());
+		}
+		return retval;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1)==-1 ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len==0)
+			return 0;
+		while(true) {
+			if(current==null && !nextFile())
+				return -1;
+			int n = current.read(b, off, len);
+			if(n > 0) {
+				count(b, off, n);
+				lastByte = b[off+n-1];
+				return n;
+			}
+			closeCurrent();
+			//don't glue the last record of a file to the first one of the next
+			if(lastByte!='\n') {
+				lastByte = b[off] = '\n';
+				return 1;
+			}
+		}
+	}
+
+	private void count(byte[] b, int off, int n) {
+		int last = lastByte;
+		if(firstByte < 0)
+			firstByte = b[off];
+		for(int i=off;i<off+n;i++) {
+			if(b[i]=='\n')
+				lines++;
+			else if(b[i]=='>' && last=='\n')
+				headers++;
+			last = b[i];
+		}
+	}
+
+	private void closeCurrent() throws IOException {
+		current.close();
+		current = null;
+		if(lastByte!='\n')
+			lines++;
+		//FASTQ records on 4 lines (as written by the sequencer)
+		long reads = firstByte=='@' ? lines/4 : headers;
+		firstByte = -1;
+		lines = headers = 0;
+		synchronized(this) {
+			consumed.put(currentFile.getName(), reads);
+		}
+		LOG.info("Long-read file {} consumed: {} reads ({} files so far)", currentFile.getName(), reads, consumed.size());
+	}
+
+	//Open the next file to stream, waiting for one if needed. Return false if the stream is over.
+	private boolean nextFile() throws IOException {
+		while(queue.isEmpty()) {
+			if(assembler.getStopSignal())
+				return false;
+			scan();
+			if(!queue.isEmpty())
+				break;
+			if(timeout > 0 && System.currentTimeMillis()-lastNewFile > timeout) {
+				LOG.info("No new long-read file in {} for {}s, end of the input", folder, timeout/1000);
+				return false;
+			}
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		currentFile = queue.poll();
+		InputStream in = new BufferedInputStream(new FileInputStream(currentFile), 1<<16);
+		current = currentFile.getName().toLowerCase().endsWith(".gz") ? new GZIPInputStream(in, 1<<16) : in;
+		return true;
+	}
+
+	//Queue the new files, in the order they were written
+	private void scan() {
+		File[] files = folder.listFiles((dir, name)->isSequenceFile(name) && !seen.contains(name));
+		if(files==null || files.length==0)
+			return;
+		ArrayList<File> ready = new ArrayList<>();
+		for(File f:files) {
+			long size = f.length();
+			Long lastSize = lastSizes.put(f.getName(), size);
+			if(lastSize!=null && lastSize==size && size > 0)
+				ready.add(f);
+		}
+		if(ready.isEmpty())
+			return;
+		ready.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+		for(File f:ready) {
+			seen.add(f.getName());
+			lastSizes.remove(f.getName());
+			queue.add(f);
+		}
+		lastNewFile = System.currentTimeMillis();
+		if(HybridAssembler.VERBOSE)
+			LOG.info("New long-read files in {}: {}", folder, Arrays.toString(ready.stream().map(File::getName).toArray()));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(current!=null)
+			current.close();
+		current = null;
+	}
+}
@@ -34,7 +34,8 @@
 
 package org.rtassembly.scaffold;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
@@ -61,7 +62,8 @@ public class AlignmentRecord implements Comparable<AlignmentRecord> {
 	public boolean useful = false;
 	//SAMRecord mySam;
 	
-	ArrayList<CigarElement> alignmentCigars = new ArrayList<CigarElement>();
+	//the elements of the record's own Cigar, not copied
+	List<CigarElement> alignmentCigars = Collections.emptyList();
 	
 
 	//public int readLeft, readRight, readAlign, refLeft, refRight, refAlign;
@@ -99,11 +101,11 @@ public class AlignmentRecord implements Comparable<AlignmentRecord> {
 		refEnd = sam.getAlignmentEnd();
 		
 		Cigar cigar = sam.getCigar();			
+		alignmentCigars = cigar.getCigarElements();
 		boolean enterAlignment = false;						
 		//////////////////////////////////////////////////////////////////////////////////
 
-		for (final CigarElement e : cigar.getCigarElements()) {
-			alignmentCigars.add(e);
+		for (final CigarElement e : alignmentCigars) {
 			final int  length = e.getLength();
 			switch (e.getOperator()) {
 			case H :
@@ -164,7 +166,7 @@ public class AlignmentRecord implements Comparable<AlignmentRecord> {
 	public int getScore() {
 		return score;
 	}
-	public ArrayList<CigarElement> getCigars(){
+	public List<CigarElement> getCigars(){
 		return alignmentCigars;
 	}
 	public int readAlignmentStart(){
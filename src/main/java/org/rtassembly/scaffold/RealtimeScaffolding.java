@@ -140,6 +140,7 @@ public class RealtimeScaffolding {
 			reader = SamReaderFactory.makeDefault().open(SamInputResource.of(bwaProcess.getInputStream()));
 
 		}
+		Contig[] refContigs = graph.getReferenceTable(reader.getFileHeader());
 		SAMRecordIterator iter = reader.iterator();
 
 		String readID = "";
@@ -162,7 +163,10 @@ public class RealtimeScaffolding {
 				}
 				continue;		
 			}
-			myRec = new AlignmentRecord(rec, graph.contigs.get(rec.getReferenceIndex()));
+			Contig ctg = ScaffoldGraph.getContig(refContigs, rec);
+			if (ctg == null)
+				continue;
+			myRec = new AlignmentRecord(rec, ctg);
 //			System.out.println("Processing record of read " + rec.getReadName() + " and ref " + rec.getReferenceName() + (myRec.useful?": useful ":": useless ") + myRec);
 
 			if (readID.equals(myRec.readID)) {				
@@ -219,6 +223,7 @@ public class RealtimeScaffolding {
 		else
 			reader = SamReaderFactory.makeDefault().open(new File(bamFile));	
 
+		Contig[] refContigs = graph.getReferenceTable(reader.getFileHeader());
 		SAMRecordIterator iter = reader.iterator();
 
 		String readID = "";
@@ -241,7 +246,10 @@ public class RealtimeScaffolding {
 				}
 				continue;		
 			}
-			myRec = new AlignmentRecord(rec, graph.contigs.get(rec.getReferenceIndex()));
+			Contig ctg = ScaffoldGraph.getContig(refContigs, rec);
+			if (ctg == null)
+				continue;
+			myRec = new AlignmentRecord(rec, ctg);
 
 			if (readID.equals(myRec.readID)) {				
 
@@ -34,6 +34,7 @@
 
 package org.rtassembly.scaffold;
 
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamInputResource;
@@ -46,6 +47,7 @@ import japsa.seq.JapsaFeature;
 import japsa.seq.Sequence;
 import japsa.seq.SequenceOutputStream;
 import japsa.seq.SequenceReader;
+import japsa.util.HTSUtilities;
 import japsa.util.Logging;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -157,6 +159,40 @@ public abstract class ScaffoldGraph{
 
 	}//constructor
 
+	/**
+	 * Contigs indexed by the reference indices of a SAM header, so alignment records
+	 * are resolved by SAMRecord.getReferenceIndex() only. References are matched by name,
+	 * or, if none of the names matches, by their order in the header as the contigs were read. The references left
+	 * unresolved (null) are reported here once, their records are to be skipped.
+	 * @param header
+	 * @return
+	 */
+	public Contig[] getReferenceTable(SAMFileHeader header){
+		HashMap<String, Contig> contigsByName = new HashMap<String, Contig>();
+		for (Contig ctg:contigs)
+			contigsByName.put(ctg.getName(), ctg);
+		Contig[] table = HTSUtilities.referenceTable(header, contigsByName::get, Contig[]::new);
+		boolean byPosition = true;
+		for (Contig ctg:table)
+			if (ctg != null)
+				byPosition = false;
+		for (int i = 0; i < table.length; i++){
+			if (byPosition && i < contigs.size())
+				table[i] = contigs.get(i);
+			if (table[i] == null)
+				Logging.warn("Reference " + header.getSequenceDictionary().getSequence(i).getSequenceName() + " doesn't match any contig, its alignments are ignored!");
+		}
+		return table;
+	}
+
+	/**
+	 * Contig of an alignment record from a table made by getReferenceTable(), null if unresolved
+	 */
+	static Contig getContig(Contig[] refContigs, SAMRecord rec){
+		int index = rec.getReferenceIndex();
+		return (index >= 0 && index < refContigs.length) ? refContigs[index] : null;
+	}
+
 	public String getAssemblerName(){
 		if(assembler==0b01)
 			return new String("ABySS");
@@ -384,6 +420,7 @@ public abstract class ScaffoldGraph{
 		}
 
 
+		Contig[] refContigs = getReferenceTable(reader.getFileHeader());
 		SAMRecordIterator iter = reader.iterator();
 
 		String readID = "";
@@ -397,11 +434,9 @@ public abstract class ScaffoldGraph{
 			if (rec.getMappingQuality() < qual)
 				continue;
 			
-			Contig tmp = contigs.get(rec.getReferenceIndex());
-			if(tmp==null){
-				Logging.error("Contig " + rec.getReferenceIndex() + " doesn't exist!");
-				System.exit(1);
-			}
+			Contig tmp = getContig(refContigs, rec);
+			if(tmp==null)
+				continue;
 				
 			AlignmentRecord myRec = new AlignmentRecord(rec, tmp);
 			Arrays.fill(tmp.isMapped, myRec.refStart, myRec.refEnd, 1);
@@ -462,6 +497,7 @@ public abstract class ScaffoldGraph{
 		else
 			reader = SamReaderFactory.makeDefault().open(new File(bamFile));	
 
+		Contig[] refContigs = getReferenceTable(reader.getFileHeader());
 		SAMRecordIterator iter = reader.iterator();
 
 		String readID = "";
@@ -476,7 +512,10 @@ public abstract class ScaffoldGraph{
 			if (rec.getMappingQuality() < qual)
 				continue;
 
-			myRec = new AlignmentRecord(rec, contigs.get(rec.getReferenceIndex()));
+			Contig ctg = getContig(refContigs, rec);
+			if (ctg == null)
+				continue;
+			myRec = new AlignmentRecord(rec, ctg);
 
 
 			//////////////////////////////////////////////////////////////////
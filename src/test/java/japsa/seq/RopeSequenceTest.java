@@ -0,0 +1,85 @@
+package japsa.seq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/*
+ * Random ropes of views (sub-sequences, reverse complements, runs) against the same sequence built by copying
+ */
+public class RopeSequenceTest extends TestCase {
+
+	public void testRandomRopes() throws IOException {
+		Random random=new Random(17);
+		for(Alphabet alphabet:new Alphabet[] {Alphabet.DNA5(), Alphabet.DNA16()}) {
+			for(int round=0;round<50;round++) {
+				RopeSequence rope=new RopeSequence(alphabet, "rope");
+				SequenceBuilder expected=new SequenceBuilder(alphabet, 1024, "rope");
+				int segments=1+random.nextInt(20);
+				for(int s=0;s<segments;s++) {
+					AbstractSequence seg=randomSequence(alphabet, random, random.nextInt(200));
+					switch(random.nextInt(4)) {
+					case 0:
+						break;
+					case 1:
+						seg=SequenceView.reverseComplement(seg);
+						break;
+					case 2:
+						int from=seg.length()==0?0:random.nextInt(seg.length()), to=from+random.nextInt(seg.length()-from+1);
+						seg=SequenceView.subSequence(seg, from, to);
+						break;
+					default:
+						seg=SequenceView.run(alphabet, Alphabet.DNA.N, random.nextInt(30));
+					}
+					//a rope appended to a rope is flattened
+					if(random.nextInt(5)==0)
+						seg=new RopeSequence(alphabet).append(seg);
+					rope.append(seg);
+					for(int i=0;i<seg.length();i++)
+						expected.append((byte) seg.symbolAt(i));
+				}
+				assertEquals(expected.length(), rope.length());
+				for(int i=0;i<rope.length();i++)
+					assertEquals(expected.symbolAt(i), rope.symbolAt(i));
+				assertEquals(fasta(expected), fasta(rope));
+			}
+		}
+	}
+
+	public void testAlphabetsMustMatch() {
+		RopeSequence rope=new RopeSequence(Alphabet.DNA5());
+		try {
+			rope.append(new Sequence(Alphabet.DNA16(), 10));
+			fail("a DNA16 sequence appended to a DNA5 rope");
+		}catch(RuntimeException e) {
+			//expected
+		}
+	}
+
+	public void testOutOfBounds() {
+		RopeSequence rope=new RopeSequence(Alphabet.DNA5()).append(new Sequence(Alphabet.DNA5(), 5));
+		try {
+			rope.symbolAt(5);
+			fail("position past the end of the rope");
+		}catch(IndexOutOfBoundsException e) {
+			//expected
+		}
+	}
+
+	private static AbstractSequence randomSequence(Alphabet alphabet, Random random, int length) {
+		Sequence retval=new Sequence(alphabet, length);
+		for(int i=0;i<length;i++)
+			retval.setSymbol(i, random.nextInt(10)==0 ? Alphabet.DNA.N : random.nextInt(4));
+		return retval;
+	}
+
+	private static String fasta(AbstractSequence seq) throws IOException {
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		SequenceOutputStream out=new SequenceOutputStream(bytes);
+		seq.writeFasta(out);
+		out.close();
+		return bytes.toString();
+	}
+}
@@ -0,0 +1,73 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/*
+ * Recording and replaying the alignments of reads over the bubble of BubbleFixture. The replayed reads have no bases.
+ */
+public class AlignmentJournalTest extends TestCase {
+	private BubbleFixture bubble;
+
+	@Override
+	protected void setUp() throws Exception {
+		bubble=new BubbleFixture("journal");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		bubble.close();
+	}
+
+	public void testRoundTrip() throws IOException {
+		HybridAssembler assembler=bubble.assembler();
+		File journal=new File(bubble.dir, "reads.journal");
+		AlignmentJournal.Writer writer=new AlignmentJournal.Writer(journal.getPath());
+		List<ArrayList<Alignment>> reads=Arrays.asList(BubbleFixture.spanningRead(assembler.simGraph, "r0", true), BubbleFixture.spanningRead(assembler.simGraph, "r1", false));
+		for(ArrayList<Alignment> read:reads)
+			writer.write(read);
+		writer.close();
+
+		List<AlignmentJournal.ReadGroup> groups=AlignmentJournal.readAll(journal.getPath(), assembler.simGraph);
+		assertEquals(reads.size(), groups.size());
+		for(int i=0;i<reads.size();i++) {
+			assertEquals(reads.get(i).size(), groups.get(i).alignments.size());
+			for(int j=0;j<reads.get(i).size();j++) {
+				Alignment a=reads.get(i).get(j), b=groups.get(i).alignments.get(j);
+				assertEquals(a.readID, b.readID);
+				assertSame(a.node, b.node);
+				assertEquals(a.readStart, b.readStart);
+				assertEquals(a.readEnd, b.readEnd);
+				assertEquals(a.refStart, b.refStart);
+				assertEquals(a.refEnd, b.refEnd);
+				assertEquals(a.strand, b.strand);
+				assertEquals(a.useful, b.useful);
+				assertEquals(a.quality, b.quality);
+				assertEquals(a.score(), b.score());
+			}
+		}
+	}
+
+	//reads in both directions: the reversed ones are checked against the sequence of the candidate paths
+	public void testReplayReversedReads() throws IOException, InterruptedException {
+		HybridAssembler assembler=bubble.assembler();
+		BDGraph graph=assembler.simGraph;
+		assertNotNull(SimpleBinner.getBinIfUnique(graph.getNode("1")));
+		assertNotNull(SimpleBinner.getBinIfUnique(graph.getNode("4")));
+
+		File journal=new File(bubble.dir, "reads.journal");
+		AlignmentJournal.Writer writer=new AlignmentJournal.Writer(journal.getPath());
+		for(int i=0;i<6;i++)
+			writer.write(BubbleFixture.spanningRead(graph, "r"+i, i<2));
+		writer.close();
+
+		assembler.replay(journal.getPath(), false);
+		GoInBetweenBridge bridge=graph.getBridgesMap().get("1o");
+		assertNotNull(bridge);
+		assertEquals(2, bridge.getNumberOfAnchors());
+	}
+}
@@ -0,0 +1,187 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+
+import org.graphstream.graph.Edge;
+
+import junit.framework.TestCase;
+
+/*
+ * Candidate paths of BDGraph.DFSAllPaths(), against the search they replace (all hits in a sorted list, cut by
+ * S_LIMIT and MAX_DFS_PATHS) on a small graph with tied branches and a loop
+ */
+public class BDGraphTest extends TestCase {
+	private BubbleFixture fixture;
+	private int kmer, sLimit, maxPaths;
+	private BDGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		kmer=BDGraph.getKmerSize();
+		sLimit=BDGraph.S_LIMIT;
+		maxPaths=BDGraph.MAX_DFS_PATHS;
+		fixture=new BubbleFixture("dfs");
+		graph=graph();
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		BDGraph.setKmerSize(kmer);
+		BDGraph.S_LIMIT=sLimit;
+		BDGraph.MAX_DFS_PATHS=maxPaths;
+		fixture.close();
+	}
+
+	//1 -> 8 -> 2|3- (same length) -> 6 -> 4|5 -> 10 -> 9, with the loop 6 -> 7 -> 6
+	private BDGraph graph() throws IOException {
+		int[] lengths={0, BubbleFixture.LONG, 400, 400, 400, 430, 300, 250, BubbleFixture.MID, BubbleFixture.LONG, BubbleFixture.MID};
+		File gfa=new File(fixture.dir, "dfs.gfa");
+		Random random=new Random(17);
+		try(PrintWriter out=new PrintWriter(gfa)){
+			for(int i=1;i<lengths.length;i++) {
+				StringBuilder seq=new StringBuilder();
+				for(int j=0;j<lengths[i];j++)
+					seq.append("ACGT".charAt(random.nextInt(4)));
+				out.println("S\t"+i+"\t"+seq+"\tKC:i:"+(lengths[i]-BubbleFixture.K)*100);
+			}
+			for(String link:new String[] {"1 + 8 +", "8 + 2 +", "8 + 3 -", "2 + 6 +", "3 - 6 +", "6 + 4 +", "6 + 5 +",
+					"4 + 10 +", "5 + 10 +", "10 + 9 +", "6 + 7 +", "7 + 6 +"}) {
+				String[] l=link.split(" ");
+				out.println("L\t"+l[0]+"\t"+l[1]+"\t"+l[2]+"\t"+l[3]+"\t"+BubbleFixture.K+"M");
+			}
+		}
+		BDGraph retval=new BDGraph("gfa");
+		GraphUtil.loadFromGFA(gfa.getPath(), null, retval, false);
+		return retval;
+	}
+
+	//the former search: every hit of the DFS ranked by deviation (the latest first on ties), stopped after S_LIMIT hits
+	private List<String> oldDFSAllPaths(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance) {
+		if(distance>BDGraph.D_LIMIT)
+			return null;
+		ArrayList<BDPath> possiblePaths = new ArrayList<BDPath>();
+		GraphCore core=graph.core;
+		ShortestTree shortestTree = core.trees.get(core, GraphCore.state(dstNode, dstDir), distance);
+		BDPath path = new BDPath(srcNode);
+		double relTolerance = Math.abs(distance+BDGraph.getKmerSize())*BDGraph.R_TOL;
+		int srcState = GraphCore.state(srcNode, !srcDir);
+		if(shortestTree.contains(srcState)) {
+			Stack<List<Edge>> stack = new Stack<>();
+			stack.push(new ArrayList<>(Arrays.asList(core.edges(srcState^1)).subList(0, core.degree(srcState^1))));
+			while(true) {
+				List<Edge> curList=stack.peek();
+				if(curList.isEmpty()) {
+					if(path.size() <= 1)
+						break;
+					stack.pop();
+					distance += core.length((BDNode) path.peekNode()) + ((BDEdge) path.popEdge()).getLength();
+				}else {
+					BDEdge curEdge=(BDEdge) curList.remove(0);
+					BDNode to = (BDNode) curEdge.getOpposite(path.peekNode());
+					boolean dir = curEdge.getDir(to);
+					int limit = distance + BDGraph.A_TOL;
+					int toState = GraphCore.state(to, !dir), degree = core.degree(toState);
+					List<Edge> nextList = new ArrayList<>(degree);
+					for(int i=0;i<degree;i++)
+						if(shortestTree.get(core.nextStates(toState)[i]) < limit)
+							nextList.add(core.edges(toState)[i]);
+					stack.push(nextList);
+					path.add(curEdge);
+
+					int delta=Math.abs(distance-curEdge.getLength());
+					if(to==dstNode && dir==dstDir && delta < BDGraph.A_TOL){
+						BDPath tmpPath=new BDPath(path);
+						tmpPath.setDeviation(delta);
+						int idx=0;
+						while(idx<possiblePaths.size() && delta>possiblePaths.get(idx).getDeviation())
+							idx++;
+						possiblePaths.add(idx, tmpPath);
+						if(possiblePaths.size() > BDGraph.S_LIMIT)
+							break;
+					}
+					distance -= core.length(to) + curEdge.getLength();
+				}
+			}
+		}
+		if(possiblePaths.isEmpty())
+			return null;
+		List<String> retval=new ArrayList<>();
+		for(BDPath p:possiblePaths) {
+			if(p.getDeviation()>possiblePaths.get(0).getDeviation()+relTolerance || retval.size()>=BDGraph.MAX_DFS_PATHS)
+				break;
+			retval.add(p.getId()+":"+p.getDeviation());
+		}
+		return retval;
+	}
+
+	private List<String> dfsAllPaths(BDNode srcNode, BDNode dstNode, boolean srcDir, boolean dstDir, int distance) {
+		ArrayList<SharedPath> paths=graph.DFSAllPaths(srcNode, dstNode, srcDir, dstDir, distance, false);
+		if(paths==null)
+			return null;
+		List<String> retval=new ArrayList<>();
+		for(SharedPath p:paths)
+			retval.add(p.getId()+":"+p.getDeviation());
+		return retval;
+	}
+
+	//queries 1 -> 9 and back over the gaps of the loop taken 0 to 4 times
+	private int compare() {
+		BDNode n1=(BDNode) graph.getNode("1"), n9=(BDNode) graph.getNode("9");
+		int multiple=0;
+		for(int distance=-BubbleFixture.K;distance<2500;distance+=23) {
+			for(boolean forward:new boolean[] {true, false}) {
+				BDNode src=forward?n1:n9, dst=forward?n9:n1;
+				List<String> expected=oldDFSAllPaths(src, dst, forward, !forward, distance);
+				assertEquals(src.getId()+"->"+dst.getId()+" at "+distance, expected, dfsAllPaths(src, dst, forward, !forward, distance));
+				if(expected!=null && expected.size() > 1)
+					multiple++;
+			}
+		}
+		return multiple;
+	}
+
+	//same paths in the same order, ties included, whatever the number kept
+	public void testSameAsOldSearch() {
+		BDGraph.S_LIMIT=Integer.MAX_VALUE;
+		for(int maxPaths:new int[] {100, 3, 2, 1}) {
+			BDGraph.MAX_DFS_PATHS=maxPaths;
+			int multiple=compare();
+			if(maxPaths > 1)
+				assertTrue("only single hits with at most "+maxPaths+" paths", multiple > 10);
+		}
+		//the tied branches: 2+ and 3- with the same deviation, the latest found first
+		BDGraph.MAX_DFS_PATHS=100;
+		List<String> tied=dfsAllPaths((BDNode) graph.getNode("1"), (BDNode) graph.getNode("9"), true, false, 2*BubbleFixture.MID+400+300+400-6*BubbleFixture.K);
+		assertEquals(tied.toString(), tied.get(0).split(":")[1], tied.get(1).split(":")[1]);
+	}
+
+	/*
+	 * S_LIMIT counts the hits reached after pruning, so the search stops after more of the DFS than before: same paths
+	 * as long as no branch cut by the bounds holds a hit before the stop, and never a worse best path
+	 */
+	public void testSearchLimit() {
+		BDNode n1=(BDNode) graph.getNode("1"), n9=(BDNode) graph.getNode("9");
+		BDGraph.S_LIMIT=1;
+		int gap=2*BubbleFixture.MID+400+300+400-6*BubbleFixture.K;
+		assertEquals(oldDFSAllPaths(n1, n9, true, false, gap), dfsAllPaths(n1, n9, true, false, gap));
+		int better=0;
+		for(int distance=-BubbleFixture.K;distance<2500;distance+=23) {
+			List<String> expected=oldDFSAllPaths(n1, n9, true, false, distance), actual=dfsAllPaths(n1, n9, true, false, distance);
+			assertEquals("at "+distance, expected==null, actual==null);
+			if(expected==null)
+				continue;
+			int oldBest=Integer.parseInt(expected.get(0).split(":")[1]), best=Integer.parseInt(actual.get(0).split(":")[1]);
+			assertTrue("at "+distance+": "+expected+" "+actual, best <= oldBest);
+			if(best < oldBest)
+				better++;
+		}
+		//e.g. the branch 4 found after the stop of the old search
+		assertTrue(better > 0);
+	}
+}
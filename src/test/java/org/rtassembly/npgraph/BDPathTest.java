@@ -0,0 +1,118 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import japsa.seq.AbstractSequence;
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+import junit.framework.TestCase;
+
+/*
+ * Spelling of multi-node paths, from a FASTG graph (DNA16 node sequences) and a GFA graph (DNA5), and of a circular path
+ */
+public class BDPathTest extends TestCase {
+	private static final String SEQ1="ACGTACGTAAGGCCTTA", SEQ2="CTTAGGRTACCGT"; //overlap CTTA, IUPAC code in node 2
+	private int kmer, uniqueLen;
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		kmer=BDGraph.getKmerSize();
+		uniqueLen=SimpleBinner.UNIQUE_CTG_LEN;
+		SimpleBinner.UNIQUE_CTG_LEN=10; //so the tiny nodes are binned
+		dir=File.createTempFile("bdpath", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		BDGraph.setKmerSize(kmer);
+		SimpleBinner.UNIQUE_CTG_LEN=uniqueLen;
+		for(File f:dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	public void testSpellingFromFASTG() throws IOException {
+		File fastg=new File(dir, "assembly_graph.fastg");
+		try(PrintWriter out=new PrintWriter(fastg)){
+			out.println(">EDGE_1_length_17_cov_10.0:EDGE_2_length_13_cov_10.0;");
+			out.println(SEQ1);
+			out.println(">EDGE_1_length_17_cov_10.0';");
+			out.println(reverseComplement(SEQ1));
+			out.println(">EDGE_2_length_13_cov_10.0;");
+			out.println(SEQ2);
+			out.println(">EDGE_2_length_13_cov_10.0':EDGE_1_length_17_cov_10.0';");
+			out.println(reverseComplement(SEQ2));
+		}
+		BDGraph graph=new BDGraph("fastg");
+		GraphUtil.loadFromFASTG(fastg.getPath(), null, graph, false);
+		assertEquals(Alphabet.DNA16(), ((AbstractSequence) graph.getNode("1").getAttribute("seq")).alphabet());
+		checkSpelling(graph);
+	}
+
+	public void testSpellingFromGFA() throws IOException {
+		File gfa=new File(dir, "assembly_graph.gfa");
+		try(PrintWriter out=new PrintWriter(gfa)){
+			out.println("S\t1\t"+SEQ1+"\tKC:i:100");
+			out.println("S\t2\t"+SEQ2.replace('R', 'N')+"\tKC:i:100");
+			out.println("L\t1\t+\t2\t+\t4M");
+		}
+		BDGraph graph=new BDGraph("gfa");
+		GraphUtil.loadFromGFA(gfa.getPath(), null, graph, false);
+		assertEquals(Alphabet.DNA5(), ((AbstractSequence) graph.getNode("1").getAttribute("seq")).alphabet());
+		checkSpelling(graph);
+	}
+
+	private void checkSpelling(BDGraph graph) {
+		BDGraph.setKmerSize(4);
+		String seq2=((AbstractSequence) graph.getNode("2").getAttribute("seq")).toString(),
+				expected=SEQ1+seq2.substring(4);
+		BDPath path=new BDPath(graph, "1+,2+");
+		assertEquals(2, path.getNodeCount());
+
+		AbstractSequence spelling=path.spelling();
+		assertEquals(expected.length(), spelling.length());
+		assertEquals(expected, spelling.toString());
+		//reverse path: reverse complement of the A, C, G, T
+		assertEquals(reverseComplement(expected.substring(0, 17)), path.reverse().spelling().toString().substring(expected.length()-17));
+
+		for(int from=0;from<expected.length();from+=5)
+			for(int to=from;to<=expected.length();to+=3) {
+				Sequence part=path.spelling(from, to);
+				assertEquals(expected.substring(from, to), part.toString());
+			}
+	}
+
+	//circular path: the closing node is spelled once, at the end
+	public void testCircularSpelling() throws IOException {
+		String seq2="CTTAGGATACCACGT"; //overlap ACGT back to node 1
+		File gfa=new File(dir, "circular.gfa");
+		try(PrintWriter out=new PrintWriter(gfa)){
+			out.println("S\t1\t"+SEQ1+"\tKC:i:100");
+			out.println("S\t2\t"+seq2+"\tKC:i:100");
+			out.println("L\t1\t+\t2\t+\t4M");
+			out.println("L\t2\t+\t1\t+\t4M");
+		}
+		BDGraph graph=new BDGraph("gfa");
+		GraphUtil.loadFromGFA(gfa.getPath(), null, graph, false);
+		BDGraph.setKmerSize(4);
+		BDPath path=new BDPath(graph, "1+,2+,1+");
+		String expected=seq2.substring(4)+SEQ1.substring(4);
+		assertEquals(expected, path.spelling().toString());
+		for(int from=0;from<expected.length();from+=5)
+			for(int to=from;to<=expected.length();to+=3)
+				assertEquals(expected.substring(from, to), path.spelling(from, to).toString());
+	}
+
+	private static String reverseComplement(String seq) {
+		StringBuilder retval=new StringBuilder();
+		for(int i=seq.length()-1;i>=0;i--) {
+			char c=seq.charAt(i);
+			retval.append(c=='A'?'T':c=='C'?'G':c=='G'?'C':c=='T'?'A':c);
+		}
+		return retval.toString();
+	}
+}
@@ -0,0 +1,122 @@
+package org.rtassembly.npgraph;
+
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/*
+ * Shared set-up of the tests on a bubble: 1 -> 5 -> 2|3 -> 6 -> 4, with 1 and 4 unique, the branches at half
+ * the coverage of the rest. Files go to a temporary folder, deleted with the fixture.
+ */
+class BubbleFixture {
+	static final int LONG=2000, MID=200, SHORT=600, K=127;
+	//reads along the branch 2, in the direction of the graph or reverse complemented
+	static final String FORWARD="1+,5+,2+,6+,4+", REVERSE="4-,6-,2-,5-,1-";
+	final File dir;
+	private final int uniqueLen;
+
+	BubbleFixture(String prefix) throws IOException {
+		uniqueLen=SimpleBinner.UNIQUE_CTG_LEN;
+		SimpleBinner.UNIQUE_CTG_LEN=1000;
+		dir=File.createTempFile(prefix, "");
+		dir.delete();
+		dir.mkdirs();
+	}
+	void close() {
+		SimpleBinner.UNIQUE_CTG_LEN=uniqueLen;
+		delete(dir);
+	}
+	private static void delete(File file) {
+		File[] files=file.listFiles();
+		if(files!=null)
+			for(File f:files)
+				delete(f);
+		file.delete();
+	}
+
+	//GFA of the bubble
+	File gfa() throws IOException {
+		File retval=new File(dir, "bubble.gfa");
+		Random random=new Random(5);
+		int[] lengths={0, LONG, SHORT, SHORT, LONG, MID, MID};
+		try(PrintWriter out=new PrintWriter(retval)){
+			for(int i=1;i<lengths.length;i++) {
+				StringBuilder seq=new StringBuilder();
+				for(int j=0;j<lengths[i];j++)
+					seq.append("ACGT".charAt(random.nextInt(4)));
+				out.println("S\t"+i+"\t"+seq+"\tKC:i:"+(lengths[i]-K)*(i==2||i==3?50:100));
+			}
+			for(String link:new String[] {"1 5", "5 2", "5 3", "2 6", "3 6", "6 4"})
+				out.println("L\t"+link.split(" ")[0]+"\t+\t"+link.split(" ")[1]+"\t+\t"+K+"M");
+		}
+		return retval;
+	}
+
+	//assembler with the graph of a GFA file loaded
+	static HybridAssembler assembler(HybridAssembler assembler, File gfa) {
+		assembler.setShortReadsInput(gfa.getPath());
+		assembler.setShortReadsInputFormat("gfa");
+		assertTrue(assembler.getErrorLog(), assembler.prepareShortReadsProcess());
+		return assembler;
+	}
+	HybridAssembler assembler() throws IOException {
+		return assembler(new HybridAssembler(), gfa());
+	}
+
+	//long reads mapped by the internal mapper, the outputs in the folder of the fixture; to be prepared by the test
+	HybridAssembler mapReads(HybridAssembler assembler, File reads) {
+		assembler.setPrefix(dir.getPath());
+		assembler.setAligner("internal");
+		assembler.setLongReadsInput(reads.getPath());
+		assembler.setLongReadsInputFormat("fasta");
+		return assembler;
+	}
+
+	//spelling of paths of the graph of a GFA file
+	static String[] spellings(File gfa, String... paths) throws IOException {
+		BDGraph graph=new BDGraph("gfa");
+		GraphUtil.loadFromGFA(gfa.getPath(), null, graph, false);
+		String[] retval=new String[paths.length];
+		for(int i=0;i<paths.length;i++)
+			retval[i]=new BDPath(graph, paths[i]).spelling().toString();
+		return retval;
+	}
+	//FASTA of the reads "read"+from... along the spellings in turn
+	static File reads(File file, int from, int count, String... spellings) throws IOException {
+		try(PrintWriter out=new PrintWriter(file)){
+			for(int i=from;i<from+count;i++)
+				out.println(">read"+i+"\n"+spellings[(i-from)%spellings.length]);
+		}
+		return file;
+	}
+
+	//alignments of a read spanning 1 -> 4 through a branch, in the direction of the graph or reverse complemented
+	static ArrayList<Alignment> spanningRead(BDGraph graph, String readID, boolean forward) {
+		int length=2*LONG+2*MID+SHORT-4*K, start4=length-LONG+1;
+		BDNode n1=(BDNode) graph.getNode("1"), n4=(BDNode) graph.getNode("4");
+		Alignment a1, a4;
+		if(forward) {
+			a1=new Alignment(readID, 1, LONG, length, 1, LONG, true, true, n1);
+			a4=new Alignment(readID, 1, LONG, length, start4, length, true, true, n4);
+		}else {
+			a4=new Alignment(readID, 1, LONG, length, LONG, 1, false, true, n4);
+			a1=new Alignment(readID, 1, LONG, length, length, start4, false, true, n1);
+		}
+		for(Alignment alg:Arrays.asList(a1, a4)) {
+			alg.quality=Alignment.GOOD_QUAL;
+			alg.goodMargin=true;
+		}
+		return new ArrayList<>(forward ? Arrays.asList(a1, a4) : Arrays.asList(a4, a1));
+	}
+
+	static TreeSet<String> edges(BDGraph graph) {
+		return graph.edges().map(e->e.getId()).collect(Collectors.toCollection(TreeSet::new));
+	}
+}
@@ -0,0 +1,134 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+
+import junit.framework.TestCase;
+
+/*
+ * Edge coverages of GraphUtil.coverageOptimizer() against the dense quadratic program solved before (by a Newton
+ * step of joptimizer, exact on a positive definite quadratic, here P x = -q solved by LU)
+ */
+public class EdgeCoverageSolverTest extends TestCase {
+	private BubbleFixture fixture;
+
+	@Override
+	protected void setUp() throws Exception {
+		fixture=new BubbleFixture("coverage");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	//2 components: a bubble, and a repeat shared by 2 paths with a loop 6 -> 7 -> 6 after it
+	private BDGraph graph() throws IOException {
+		int[] lengths={BubbleFixture.LONG, BubbleFixture.SHORT, BubbleFixture.SHORT, BubbleFixture.LONG,
+				BubbleFixture.LONG, BubbleFixture.LONG, BubbleFixture.SHORT, BubbleFixture.MID, BubbleFixture.LONG};
+		File gfa=new File(fixture.dir, "components.gfa");
+		Random random=new Random(13);
+		try(PrintWriter out=new PrintWriter(gfa)){
+			for(int i=0;i<lengths.length;i++) {
+				StringBuilder seq=new StringBuilder();
+				for(int j=0;j<lengths[i];j++)
+					seq.append("ACGT".charAt(random.nextInt(4)));
+				out.println("S\t"+(i+1)+"\t"+seq+"\tKC:i:"+(lengths[i]-BubbleFixture.K)*100);
+			}
+			for(String link:new String[] {"1 2", "1 3", "2 4", "3 4", "5 7", "6 7", "7 8", "8 7", "7 9"})
+				out.println("L\t"+link.split(" ")[0]+"\t+\t"+link.split(" ")[1]+"\t+\t"+BubbleFixture.K+"M");
+		}
+		BDGraph retval=BubbleFixture.assembler(new HybridAssembler(), gfa).simGraph;
+		//noisy coverages, and starting points of the edges
+		for(Node n:retval)
+			n.setAttribute("cov", 20+200*random.nextDouble());
+		retval.edges().forEach(e->e.setAttribute("cov", 100*random.nextDouble()));
+		return retval;
+	}
+
+	//the former step 1 of coverageOptimizer(): same objective function, minimized by a dense solve
+	private static void denseEdgeCoverages(BDGraph graph) {
+		ArrayList<Edge> edges = new ArrayList<Edge>(graph.edges().collect(Collectors.toList()));
+		int edgesNumber=edges.size();
+		HashMap<Edge,Integer> idToIndex = new HashMap<Edge,Integer>();
+		for(int i=0;i<edgesNumber;i++)
+			idToIndex.put(edges.get(i), i);
+		double[][] PMatrix = new double[edgesNumber][edgesNumber];
+		double[] qVector = new double[edgesNumber];
+		for(Node node:graph) {
+			if(node.getDegree()==0)
+				continue;
+			double cov=node.getNumber("cov");
+			int len=(int)node.getNumber("len");
+			for(int side=0;side<2;side++) {
+				Iterator<Edge> ite=side==0?node.enteringEdges().iterator():node.leavingEdges().iterator();
+				ArrayList<Integer> indices = new ArrayList<Integer>();
+				while(ite.hasNext())
+					indices.add(idToIndex.get(ite.next()));
+				for(int i:indices) {
+					qVector[i]-=cov*len;
+					for(int j:indices)
+						PMatrix[i][j]+=len;
+				}
+			}
+		}
+		double[] sol=new LUDecomposition(new Array2DRowRealMatrix(PMatrix)).getSolver()
+				.solve(new ArrayRealVector(qVector).mapMultiply(-1)).toArray();
+		for(int i=0;i<edgesNumber;i++)
+			edges.get(i).setAttribute("cov", sol[i]);
+	}
+
+	private static void assertSameCoverages(BDGraph expected, BDGraph actual) {
+		expected.edges().forEach(e->{
+			double cov=e.getNumber("cov");
+			assertEquals(e.getId(), cov, actual.getEdge(e.getId()).getNumber("cov"), 1.E-6*Math.abs(cov));
+		});
+		for(Node n:expected) {
+			double cov=n.getNumber("cov");
+			assertEquals(n.getId(), cov, actual.getNode(n.getId()).getNumber("cov"), 1.E-6*Math.abs(cov));
+		}
+	}
+
+	//one solve, whatever the starting coverages of the edges
+	public void testSameAsDenseQP() throws IOException {
+		BDGraph expected=graph(), actual=graph();
+		actual.edges().forEach(e->e.setAttribute("cov", Double.NaN));
+		denseEdgeCoverages(expected);
+		EdgeCoverageSolver.solve(actual);
+		assertSameCoverages(expected, actual);
+	}
+
+	//the iterations of coverageOptimizer() over the nodes' coverage
+	public void testSameAsDenseOptimizer() throws IOException {
+		BDGraph expected=graph(), actual=graph();
+		for(int ite=0;ite<10;ite++) {
+			denseEdgeCoverages(expected);
+			for(Node n:expected) {
+				double inCov=0, outCov=0;
+				long inWeight=0, outWeight=0;
+				for(Edge e:n.enteringEdges().collect(Collectors.toList())) {
+					inWeight+=e.getOpposite(n).getNumber("len");
+					inCov+=e.getNumber("cov");
+				}
+				for(Edge e:n.leavingEdges().collect(Collectors.toList())) {
+					outWeight+=e.getOpposite(n).getNumber("len");
+					outCov+=e.getNumber("cov");
+				}
+				n.setAttribute("cov", (inCov*inWeight+outCov*outWeight)/(inWeight+outWeight));
+			}
+		}
+		GraphUtil.coverageOptimizer(actual);
+		assertSameCoverages(expected, actual);
+	}
+}
@@ -0,0 +1,63 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/*
+ * Checkpoints of an assembly in progress on the bubble of BubbleFixture: a bridge 1 -> 4 with 2 candidate paths
+ */
+public class GraphCheckpointTest extends TestCase {
+	private BubbleFixture bubble;
+
+	@Override
+	protected void setUp() throws Exception {
+		bubble=new BubbleFixture("checkpoint");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		bubble.close();
+	}
+
+	//reads without bases: the candidate paths of the bridge can't be told apart
+	private static void addReads(BDGraph graph, int count) {
+		for(int i=0;i<count;i++)
+			graph.uniqueBridgesFinding(graph.getBuildingBlocks(()->null, BubbleFixture.spanningRead(graph, "r"+i, i%2==0)));
+	}
+
+	//the snapshot is copied under the lock then encoded later: the changes made in between are not in it
+	public void testSnapshotIsDetached() throws IOException {
+		BDGraph graph=bubble.assembler().simGraph;
+		addReads(graph, 3);
+		GoInBetweenBridge bridge=graph.getBridgesMap().get("1o");
+		assertEquals(2, bridge.segments.get(0).getNumberOfPaths());
+		TreeSet<String> edges=BubbleFixture.edges(graph);
+		int cover=bridge.steps.end.nodeCover;
+
+		GraphCheckpoint.Snapshot snapshot=GraphCheckpoint.capture(graph, 3);
+		byte[] bytes=snapshot.encode();
+		//votes of the candidates, then a reduction
+		bridge.segments.get(0).connectedPaths.get(0).upVote(5);
+		bridge.steps.end.nodeCover++;
+		assertTrue(graph.reduceUniquePath(new BDPath(graph, "1+,5+,2+,6+,4+")));
+		assertFalse(edges.equals(BubbleFixture.edges(graph)));
+		assertTrue(Arrays.equals(bytes, snapshot.encode()));
+
+		File file=new File(bubble.dir, "npgraph.checkpoint");
+		GraphCheckpoint.write(bytes, file.getPath());
+		BDGraph restored=bubble.assembler().simGraph;
+		assertEquals(3, GraphCheckpoint.restore(restored, file.getPath()));
+		assertEquals(edges, BubbleFixture.edges(restored));
+		GoInBetweenBridge restoredBridge=restored.getBridgesMap().get("1o");
+		assertNotNull(restoredBridge);
+		assertSame(restoredBridge, restored.getBridgesMap().get("4i"));
+		assertEquals(2, restoredBridge.getNumberOfAnchors());
+		assertEquals(cover, restoredBridge.steps.end.nodeCover);
+		assertEquals(2, restoredBridge.segments.get(0).getNumberOfPaths());
+		for(SharedPath p:restoredBridge.segments.get(0).connectedPaths)
+			assertEquals(0, p.getVote());
+	}
+}
@@ -0,0 +1,81 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/*
+ * Pipelined ingest (more than 1 thread) of reads spelled from the bubble of BubbleFixture, mapped by the internal mapper
+ */
+public class IngestPipelineTest extends TestCase {
+	private BubbleFixture bubble;
+
+	@Override
+	protected void setUp() throws Exception {
+		bubble=new BubbleFixture("ingest");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		bubble.close();
+	}
+
+	//reads along 1 -> 5 -> 2 -> 6 -> 4, every other one reverse complemented
+	private File reads(int count) throws IOException {
+		return BubbleFixture.reads(new File(bubble.dir, "reads.fasta"), 0, count,
+				BubbleFixture.spellings(bubble.gfa(), BubbleFixture.FORWARD, BubbleFixture.REVERSE));
+	}
+
+	private HybridAssembler prepare(HybridAssembler assembler, File reads, int threads) throws IOException {
+		bubble.mapReads(BubbleFixture.assembler(assembler, bubble.gfa()), reads);
+		assembler.setNumberOfThreads(threads);
+		assertTrue(assembler.getErrorLog(), assembler.prepareLongReadsProcess());
+		return assembler;
+	}
+
+	//the committing thread reduces the graph in the order of reads, as the serial ingest
+	public void testSameAsSerial() throws IOException, InterruptedException {
+		File reads=reads(20);
+		HybridAssembler serial=prepare(new HybridAssembler(), reads, 1);
+		TreeSet<String> before=BubbleFixture.edges(serial.simGraph);
+		serial.assembly();
+		assertFalse("the bubble should be resolved", before.equals(BubbleFixture.edges(serial.simGraph)));
+
+		HybridAssembler pipelined=prepare(new HybridAssembler(), reads, 3);
+		pipelined.assembly();
+		assertEquals(BubbleFixture.edges(serial.simGraph), BubbleFixture.edges(pipelined.simGraph));
+
+		//the bases fetched back from the read store
+		HybridAssembler stored=prepare(new HybridAssembler(), reads, 3);
+		stored.setReadStore(true);
+		stored.assembly();
+		assertEquals(BubbleFixture.edges(serial.simGraph), BubbleFixture.edges(stored.simGraph));
+		assertNull(stored.readStore);
+	}
+
+	//the reading thread doesn't wait forever for a committing thread that died, more reads than the queue can hold
+	public void testCommitterFailure() throws Exception {
+		final HybridAssembler assembler=prepare(new HybridAssembler() {
+			@Override
+			void processRead(List<AlignedRead> buildingBlocks) {
+				throw new AssertionError("committing failed");
+			}
+		}, reads(300), 2);
+
+		final Throwable[] thrown=new Throwable[1];
+		Thread reading=new Thread(()->{
+			try {
+				assembler.assembly();
+			} catch (Throwable e) {
+				thrown[0]=e;
+			}
+		});
+		reading.start();
+		reading.join(30000);
+		assertFalse("the ingest hangs", reading.isAlive());
+		assertTrue(String.valueOf(thrown[0]), thrown[0] instanceof IllegalStateException);
+		assertTrue(thrown[0].getCause() instanceof AssertionError);
+	}
+}
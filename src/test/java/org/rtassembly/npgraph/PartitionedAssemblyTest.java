@@ -0,0 +1,144 @@
+package org.rtassembly.npgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import japsa.seq.Sequence;
+import junit.framework.TestCase;
+
+/*
+ * Partitioned assembly of 2 copies of the bubble of BubbleFixture (nodes 1..6 and 11..16), one per partition
+ */
+public class PartitionedAssemblyTest extends TestCase {
+	private BubbleFixture bubble;
+
+	@Override
+	protected void setUp() throws Exception {
+		bubble=new BubbleFixture("partitioned");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		bubble.close();
+	}
+
+	//the bubble and a copy of it with the node ids shifted by 10, the sequences reversed so the reads map to one of them
+	private File bubbles() throws IOException {
+		List<String> lines=Files.readAllLines(bubble.gfa().toPath());
+		File retval=new File(bubble.dir, "bubbles.gfa");
+		try(PrintWriter out=new PrintWriter(retval)){
+			for(String line:lines)
+				out.println(line);
+			for(String line:lines) {
+				String[] fields=line.split("\t");
+				fields[1]="1"+fields[1];
+				if(fields[0].equals("L"))
+					fields[3]="1"+fields[3];
+				else
+					fields[2]=new StringBuilder(fields[2]).reverse().toString();
+				out.println(String.join("\t", fields));
+			}
+		}
+		return retval;
+	}
+
+	//reads along both bubbles in turn, through the branch 2 (12)
+	private HybridAssembler prepare(HybridAssembler assembler, int count) throws IOException {
+		File gfa=bubbles();
+		File reads=BubbleFixture.reads(new File(bubble.dir, "reads.fasta"), 0, count,
+				BubbleFixture.spellings(gfa, BubbleFixture.FORWARD, "11+,15+,12+,16+,14+"));
+		bubble.mapReads(BubbleFixture.assembler(assembler, gfa), reads);
+		assembler.setNumberOfThreads(2);
+		assembler.setPartitioned(true);
+		assertTrue(assembler.getErrorLog(), assembler.prepareLongReadsProcess());
+		return assembler;
+	}
+
+	//the stats of the partitions are reported by the observer of the assembler, only once for all of them
+	public void testStatsAggregated() throws IOException, InterruptedException {
+		HybridAssembler assembler=prepare(new HybridAssembler(), 20);
+		PrintStream stdout=System.out;
+		ByteArrayOutputStream captured=new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured, true));
+		try {
+			assembler.assembly();
+		}finally {
+			System.setOut(stdout);
+		}
+		String output=captured.toString();
+		assertTrue(output, output.contains("(2 partitions)"));
+		assertFalse(output, output.contains("contigs rebuilt"));
+		//both bubbles resolved: contigs longer than the 2 unique nodes together
+		int longest=assembler.observer.getLongestContig();
+		assertTrue(String.valueOf(longest), longest > 2*BubbleFixture.LONG);
+		assertEquals(longest, assembler.observer.getN50());
+		assertTrue(assembler.observer.getNumberOfSequences() >= 2);
+
+		//same once merged back into the graph
+		assembler.postProcessGraph();
+		assertEquals(longest, assembler.observer.getLongestContig());
+	}
+
+	//the reads are moved to the read store before waiting in the queue of their partition, not by the partitions
+	public void testReadsStoredBeforeQueued() throws IOException, InterruptedException {
+		final List<String> threads=new ArrayList<>();
+		HybridAssembler assembler=prepare(new HybridAssembler() {
+			@Override
+			Supplier<Sequence> keepRead(Supplier<Sequence> read) {
+				synchronized(threads) {
+					threads.add(Thread.currentThread().getName());
+				}
+				return super.keepRead(read);
+			}
+		}, 20);
+		assembler.assembly();
+		assertEquals(20, threads.size());
+		for(String name:threads)
+			assertFalse(name, name.startsWith("npgraph-partition-"));
+	}
+
+	//neither the reading thread nor the committing threads of the partitions wait forever for a partition that died
+	public void testCommitterFailure() throws Exception {
+		final HybridAssembler assembler=prepare(new HybridAssembler() {
+			@Override
+			public synchronized boolean getStopSignal() {
+				//only in the committing thread of the second partition
+				if(Thread.currentThread().getName().equals("npgraph-partition-1"))
+					throw new AssertionError("committing failed");
+				return super.getStopSignal();
+			}
+		}, 600);
+
+		final Throwable[] thrown=new Throwable[1];
+		Thread reading=new Thread(()->{
+			try {
+				assembler.assembly();
+			} catch (Throwable e) {
+				thrown[0]=e;
+			}
+		});
+		reading.start();
+		reading.join(30000);
+		assertFalse("the ingest hangs", reading.isAlive());
+		assertTrue(String.valueOf(thrown[0]), thrown[0] instanceof IllegalStateException);
+		Throwable cause=thrown[0];
+		while(cause.getCause()!=null)
+			cause=cause.getCause();
+		assertTrue(String.valueOf(cause), cause instanceof AssertionError);
+
+		long deadline=System.currentTimeMillis()+10000;
+		while(partitionThreadsAlive() && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+		assertFalse("committing threads of the partitions left waiting", partitionThreadsAlive());
+	}
+
+	private static boolean partitionThreadsAlive() {
+		return Thread.getAllStackTraces().keySet().stream().anyMatch(t->t.getName().startsWith("npgraph-partition-") && t.isAlive());
+	}
+}
@@ -0,0 +1,69 @@
+package org.rtassembly.npgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import htsjdk.samtools.SAMRecord;
+import japsa.seq.Sequence;
+import junit.framework.TestCase;
+
+/*
+ * Read sequences of SAM input, decoded lazily from the records of a read (HybridAssembler.getReadSequence())
+ */
+public class ReadSequenceTest extends TestCase {
+	private static final String READ="ACGTTGCAAGGNCT", REVERSE="AGNCCTTGCAACGT";
+
+	private static SAMRecord record(String bases, String cigar, boolean reverse, boolean secondary, boolean supplementary) {
+		SAMRecord rec=new SAMRecord(null);
+		rec.setReadName("read1");
+		rec.setReadString(bases);
+		rec.setCigarString(cigar);
+		rec.setReadNegativeStrandFlag(reverse);
+		rec.setNotPrimaryAlignmentFlag(secondary);
+		rec.setSupplementaryAlignmentFlag(supplementary);
+		return rec;
+	}
+
+	//bases of the primary record, back in the direction of the read
+	public void testPrimaryRecord() {
+		HybridAssembler assembler=new HybridAssembler();
+		Supplier<Sequence> read=assembler.getReadSequence(Arrays.asList(
+				record("*", "14M", false, true, false),
+				record(READ.substring(0, 10), "10M4H", false, false, true),
+				record(REVERSE, "14M", true, false, false)));
+		Sequence seq=read.get();
+		assertEquals(READ, seq.toString());
+		assertEquals("Rread1", seq.getName());
+
+		read=assembler.getReadSequence(Arrays.asList(record(READ, "4S10M", false, false, true), record(REVERSE, "10M4S", true, true, false)));
+		assertEquals(READ, read.get().toString());
+	}
+
+	//decoded once for all the building blocks of the read
+	public void testDecodedOnce() {
+		Supplier<Sequence> read=new HybridAssembler().getReadSequence(Arrays.asList(record(READ, "14M", false, false, false)));
+		Sequence seq=read.get();
+		assertSame(seq, read.get());
+		AlignedRead block1=new AlignedRead(read, new ArrayList<Alignment>()), block2=new AlignedRead(read, new ArrayList<Alignment>());
+		assertSame(seq, block1.getReadSequence());
+		assertSame(seq, block2.getReadSequence());
+		block2.reverse();
+		assertEquals(REVERSE, block2.getReadSequence().toString());
+		assertEquals(READ, seq.toString());
+	}
+
+	//no bases in any record (SEQ is '*', or only hard clipped records): the read is given without bases
+	public void testNoBases() {
+		HybridAssembler assembler=new HybridAssembler();
+		for(Supplier<Sequence> read:Arrays.asList(
+				assembler.getReadSequence(Arrays.asList(record("*", "14M", false, false, false), record("*", "14M", true, true, false))),
+				assembler.getReadSequence(Arrays.asList(record(READ.substring(4), "4H10M", false, false, true))))) {
+			assertNull(read.get());
+			AlignedRead block=new AlignedRead(read, new ArrayList<Alignment>());
+			assertNull(block.getReadSequence());
+			block.reverse();
+			assertNull(block.getReadSequence());
+		}
+	}
+}
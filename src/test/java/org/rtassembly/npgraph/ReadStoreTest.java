@@ -0,0 +1,110 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import japsa.seq.Alphabet;
+import japsa.seq.Sequence;
+import junit.framework.TestCase;
+
+/*
+ * Round trips through the read store, with chunks of 1KB so records roll over to the next chunk or span several
+ */
+public class ReadStoreTest extends TestCase {
+	private static final int CHUNK=1024;
+	private long cacheBases;
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		cacheBases=ReadStore.CACHE_BASES;
+		file=File.createTempFile("npgraph_reads", ".store");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		ReadStore.CACHE_BASES=cacheBases;
+		file.delete();
+	}
+
+	private static Sequence randomRead(Random random, String name, int length) {
+		Sequence retval=new Sequence(Alphabet.DNA5(), length, name);
+		for(int i=0;i<length;i++)
+			retval.setSymbol(i, random.nextInt(5));
+		return retval;
+	}
+
+	public void testRoundTrip() throws IOException {
+		ReadStore.CACHE_BASES=2000;
+		Random random=new Random(7);
+		List<Sequence> reads=new ArrayList<>();
+		List<Long> handles=new ArrayList<>();
+		try(ReadStore store=new ReadStore(file.getPath(), CHUNK)){
+			for(int i=0;i<60;i++) {
+				//every 10th read is larger than 2 chunks
+				Sequence read=randomRead(random, "read"+i, i%10==9 ? 3*CHUNK : random.nextInt(600));
+				reads.add(read);
+				handles.add(i%2==0 ? store.put(read) : store.put(read.getName(), read.toString().getBytes(), false));
+			}
+			assertEquals(reads.size(), store.getReadCount());
+			assertTrue("records should span several chunks", file.length() > 10*CHUNK);
+
+			//twice, in a random order: from the mapped chunks, the channel or the cache
+			for(int pass=0;pass<2;pass++) {
+				List<Integer> order=new ArrayList<>();
+				for(int i=0;i<reads.size();i++)
+					order.add(i);
+				Collections.shuffle(order, random);
+				for(int i:order) {
+					Sequence read=store.get(handles.get(i));
+					assertEquals(reads.get(i).getName(), read.getName());
+					assertTrue(Arrays.equals(reads.get(i).toBytes(), read.toBytes()));
+					//evicted down to the limit, but for the read just fetched
+					assertTrue(store.getCachedBases() <= Math.max(ReadStore.CACHE_BASES, read.length()));
+				}
+			}
+		}
+	}
+
+	public void testGetAfterClose() throws IOException {
+		ReadStore store=new ReadStore(file.getPath(), CHUNK);
+		Supplier<Sequence> read=store.supplier(store.put(randomRead(new Random(1), "read", 100)));
+		assertNotNull(read.get());
+		store.close();
+		assertFalse(file.exists());
+		assertNull(read.get());
+		AlignedRead reversed=new AlignedRead(read, new ArrayList<Alignment>());
+		reversed.reverse();
+		assertNull(reversed.getReadSequence());
+		store.close();
+	}
+
+	//only the reads making building blocks are written, once
+	public void testOnlyReadsWithBuildingBlocks() throws IOException {
+		HybridAssembler assembler=new HybridAssembler();
+		assembler.readStore=new ReadStore(file.getPath(), CHUNK);
+		try {
+			Sequence seq=randomRead(new Random(3), "read", 500);
+			Supplier<Sequence> read=()->seq;
+			assertSame(read, assembler.keepRead(read, null));
+			assertSame(read, assembler.keepRead(read, new ArrayList<AlignedRead>()));
+			assertEquals(0, assembler.readStore.getReadCount());
+
+			List<AlignedRead> blocks=Arrays.asList(new AlignedRead(read, new ArrayList<Alignment>()), new AlignedRead(read, new ArrayList<Alignment>()));
+			Supplier<Sequence> stored=assembler.keepRead(read, blocks);
+			assertTrue(stored instanceof ReadStore.Handle);
+			assertEquals(1, assembler.readStore.getReadCount());
+			for(AlignedRead block:blocks)
+				assertEquals(seq.toString(), block.getReadSequence().toString());
+			assertSame(stored, assembler.keepRead(stored, blocks));
+			assertEquals(1, assembler.readStore.getReadCount());
+		}finally {
+			assembler.readStore.close();
+		}
+	}
+}
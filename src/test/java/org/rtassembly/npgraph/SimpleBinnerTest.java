@@ -0,0 +1,122 @@
+package org.rtassembly.npgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.commons.math3.ml.clustering.Cluster;
+import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
+import org.apache.commons.math3.ml.clustering.DoublePoint;
+import org.graphstream.graph.Node;
+
+import junit.framework.TestCase;
+
+/*
+ * Binning of the nodes and edges of a graph by coverage, against the clustering and the maps of bins used before
+ */
+public class SimpleBinnerTest extends TestCase {
+	private BubbleFixture fixture;
+
+	@Override
+	protected void setUp() throws Exception {
+		fixture=new BubbleFixture("binner");
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	//unconnected unique nodes binned again with these coverages
+	private SimpleBinner binner(double... covs) throws IOException {
+		File gfa=new File(fixture.dir, "nodes.gfa");
+		Random random=new Random(7);
+		try(PrintWriter out=new PrintWriter(gfa)){
+			for(int i=0;i<covs.length;i++) {
+				StringBuilder seq=new StringBuilder();
+				for(int j=0;j<BubbleFixture.LONG;j++)
+					seq.append("ACGT".charAt(random.nextInt(4)));
+				out.println("S\t"+(i+1)+"\t"+seq+"\tKC:i:"+100*BubbleFixture.LONG);
+			}
+		}
+		BDGraph graph=BubbleFixture.assembler(new HybridAssembler(), gfa).simGraph;
+		for(int i=0;i<covs.length;i++)
+			graph.getNode(String.valueOf(i+1)).setAttribute("cov", covs[i]);
+		SimpleBinner retval=new SimpleBinner(graph);
+		retval.estimatePathsByCoverage();
+		return retval;
+	}
+
+	//same bins, in the same order, as DBSCAN (eps=GraphUtil.DISTANCE_THRES, minPts=0) on the coverages:
+	//runs of close coverages chained together, ties, and coverages without a valid distance (0) alone
+	public void testClustersSameAsDBSCAN() throws IOException {
+		double[] covs={20, 120, 0, 20, 400, 22, 60, 420, 0, 24, 60, 120, 440};
+		List<DoublePoint> points=new ArrayList<>();
+		for(int i=0;i<covs.length;i++)
+			points.add(new DoublePoint(new double[] {covs[i], i+1}));
+		List<List<String>> expected=new ArrayList<>();
+		for(Cluster<DoublePoint> c:new DBSCANClusterer<DoublePoint>(GraphUtil.DISTANCE_THRES, 0, (a,b)->GraphUtil.metric(a[0], b[0])).cluster(points)) {
+			List<String> ids=new ArrayList<>();
+			for(DoublePoint p:c.getPoints())
+				ids.add(String.valueOf((int) p.getPoint()[1]));
+			ids.sort(null);
+			expected.add(ids);
+		}
+		assertTrue(expected.toString(), expected.size() > 4 && expected.size() < points.size());
+
+		List<List<String>> bins=new ArrayList<>();
+		for(PopBin bin:binner(covs).binList) {
+			List<String> ids=new ArrayList<>();
+			for(Node n:bin.getCoreNodes())
+				ids.add(n.getId());
+			ids.sort(null);
+			bins.add(ids);
+		}
+		assertEquals(expected, bins);
+	}
+
+	//multiplicities of the bins (by index) of a row, ? if unknown
+	private static String bins(BinMatrix<?> matrix, int row) {
+		if(!matrix.isKnown(row))
+			return "?";
+		StringBuilder retval=new StringBuilder("{");
+		for(int i=0;i<matrix.getBinCount();i++)
+			if(matrix.get(row, i) > 0)
+				retval.append(i+":"+matrix.get(row, i)+",");
+		return retval.append("}").toString();
+	}
+
+	//2 populations (100 and 50) sharing the repeat 3, the repeat 6 twice in population 100 through the loop 6 -> 7 -> 6:
+	//same multiplicities of the nodes and edges as with the maps of bins used before
+	public void testBinsSameAsMaps() throws IOException {
+		int[][] nodes= {{BubbleFixture.LONG, 100}, {BubbleFixture.LONG, 50}, {BubbleFixture.SHORT, 150}, {BubbleFixture.LONG, 100},
+				{BubbleFixture.LONG, 50}, {BubbleFixture.SHORT, 200}, {BubbleFixture.MID, 100}, {BubbleFixture.LONG, 100}};
+		File gfa=new File(fixture.dir, "repeats.gfa");
+		Random random=new Random(11);
+		try(PrintWriter out=new PrintWriter(gfa)){
+			for(int i=0;i<nodes.length;i++) {
+				StringBuilder seq=new StringBuilder();
+				for(int j=0;j<nodes[i][0];j++)
+					seq.append("ACGT".charAt(random.nextInt(4)));
+				out.println("S\t"+(i+1)+"\t"+seq+"\tKC:i:"+(nodes[i][0]-BubbleFixture.K)*nodes[i][1]);
+			}
+			for(String link:new String[] {"1 3", "2 3", "3 4", "3 5", "4 6", "6 7", "7 6", "6 8"})
+				out.println("L\t"+link.split(" ")[0]+"\t+\t"+link.split(" ")[1]+"\t+\t"+BubbleFixture.K+"M");
+		}
+		BDGraph graph=BubbleFixture.assembler(new HybridAssembler(), gfa).simGraph;
+		SimpleBinner binner=graph.binner;
+		StringBuilder result=new StringBuilder();
+		for(String id:graph.nodes().map(n->n.getId()).collect(Collectors.toCollection(TreeSet::new)))
+			result.append(id+bins(binner.nodeBins, ((BDNode) graph.getNode(id)).binRow)+" ");
+		result.append("| ");
+		for(String id:BubbleFixture.edges(graph))
+			result.append(id+bins(binner.edgeBins, ((BDEdge) graph.getEdge(id)).binRow)+" ");
+		result.append("| unresolved:"+binner.unresolvedEdges.cardinality());
+		assertEquals("1{0:1,} 2{1:1,} 3{0:1,1:1,} 4{0:1,} 5{1:1,} 6{0:2,} 7{0:1,} 8{0:1,} | "
+				+ "1+,3+{0:1,} 2+,3+{1:1,} 3+,4+{0:1,} 3+,5+{1:1,} 4+,6+{0:1,} 6+,7+{0:1,} 6+,8+{0:1,} 6-,7-{0:1,} | unresolved:0", result.toString());
+	}
+}
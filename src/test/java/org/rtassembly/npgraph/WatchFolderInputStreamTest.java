@@ -0,0 +1,119 @@
+package org.rtassembly.npgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import junit.framework.TestCase;
+
+/*
+ * Reads of a watched folder of chunk files, counted per file so a resumed run leaves out the files already consumed
+ */
+public class WatchFolderInputStreamTest extends TestCase {
+	private int pollInterval;
+	private BubbleFixture bubble;
+	private File folder;
+
+	@Override
+	protected void setUp() throws Exception {
+		pollInterval=WatchFolderInputStream.POLL_INTERVAL;
+		WatchFolderInputStream.POLL_INTERVAL=50;
+		bubble=new BubbleFixture("watch");
+		folder=new File(bubble.dir, "fastq_pass");
+		folder.mkdirs();
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		WatchFolderInputStream.POLL_INTERVAL=pollInterval;
+		bubble.close();
+	}
+
+	//chunk files written in turn: FASTQ on 4 lines, FASTA on several lines without the last new line
+	private void chunk(String name, String content, long time) throws IOException {
+		File file=new File(folder, name);
+		try(PrintWriter out=new PrintWriter(file)){
+			out.print(content);
+		}
+		file.setLastModified(time);
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream retval=new ByteArrayOutputStream();
+		byte[] buffer=new byte[7];
+		int n;
+		while((n=in.read(buffer))!=-1)
+			retval.write(buffer, 0, n);
+		in.close();
+		return retval.toString();
+	}
+
+	public void testConsumedFiles() throws IOException {
+		long now=System.currentTimeMillis();
+		chunk("a.fastq", "@r1\nACGT\n+\n@@@@\n@r2\nAC\n+\n>@\n@r3\nA\n+\n@\n", now-3000);
+		chunk("b.fasta", ">r4\nACGT\nAC\n>r5 >\nACGT", now-2000);
+		chunk("c.fasta", ">r6\nAAAA\n", now-1000);
+		WatchFolderInputStream in=new WatchFolderInputStream(folder, new HybridAssembler(), 1);
+		String all=readAll(in);
+		assertTrue(all, all.contains("ACGT\n>r6"));
+
+		LinkedHashMap<String, Long> consumed=in.getConsumedFiles(Long.MAX_VALUE);
+		assertEquals(Arrays.asList("a.fastq", "b.fasta", "c.fasta"), Arrays.asList(consumed.keySet().toArray()));
+		assertEquals(Arrays.asList(3L, 2L, 1L), Arrays.asList(consumed.values().toArray()));
+		//only the files with all their reads consumed
+		assertEquals(Arrays.asList("a.fastq"), Arrays.asList(in.getConsumedFiles(4).keySet().toArray()));
+		assertTrue(in.getConsumedFiles(2).isEmpty());
+
+		//resumed: left out, still reported as consumed
+		in=new WatchFolderInputStream(folder, new HybridAssembler(), 1, in.getConsumedFiles(5));
+		assertEquals(">r6\nAAAA\n", readAll(in));
+		assertEquals(3, in.getConsumedFiles(6).size());
+	}
+
+	private HybridAssembler prepare(boolean resume) throws IOException {
+		HybridAssembler assembler=new HybridAssembler();
+		//the checkpoint is restored with the graph
+		assembler.setPrefix(bubble.dir.getPath());
+		assembler.setResume(resume);
+		bubble.mapReads(BubbleFixture.assembler(assembler, bubble.gfa()), folder);
+		assembler.setWatchTimeout(1);
+		assembler.setCheckpointInterval(3600);
+		assembler.setJournalFile(new File(bubble.dir, "reads.journal").getPath());
+		assertTrue(assembler.getErrorLog(), assembler.prepareLongReadsProcess());
+		return assembler;
+	}
+
+	private void reads(String name, int from, int count, long time) throws IOException {
+		File file=BubbleFixture.reads(new File(folder, name), from, count, BubbleFixture.spellings(bubble.gfa(), BubbleFixture.FORWARD));
+		file.setLastModified(time);
+	}
+
+	//files recorded in the checkpoint, restored on the bubble
+	private long checkpoint(LinkedHashMap<String, Long> consumed) throws IOException {
+		HybridAssembler assembler=bubble.assembler();
+		assembler.setPrefix(bubble.dir.getPath());
+		consumed.clear();
+		return GraphCheckpoint.restore(assembler.simGraph, assembler.getCheckpointFile(), consumed);
+	}
+
+	//the files of the checkpoint are not read again (here the first one is even gone), the others are read entirely
+	public void testResume() throws IOException, InterruptedException {
+		long now=System.currentTimeMillis();
+		reads("chunk1.fasta", 0, 4, now-2000);
+		prepare(false).assembly();
+		LinkedHashMap<String, Long> consumed=new LinkedHashMap<>();
+		assertEquals(4, checkpoint(consumed));
+		assertEquals(Long.valueOf(4), consumed.get("chunk1.fasta"));
+
+		new File(folder, "chunk1.fasta").delete();
+		reads("chunk2.fasta", 4, 3, now-1000);
+		HybridAssembler resumed=prepare(true);
+		resumed.assembly();
+		assertEquals(3, AlignmentJournal.readAll(new File(bubble.dir, "reads.journal").getPath(), resumed.simGraph).size());
+		assertEquals(7, checkpoint(consumed));
+		assertEquals(Arrays.asList("chunk1.fasta", "chunk2.fasta"), Arrays.asList(consumed.keySet().toArray()));
+	}
+}
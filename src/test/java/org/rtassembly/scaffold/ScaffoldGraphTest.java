@@ -0,0 +1,82 @@
+package org.rtassembly.scaffold;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import junit.framework.TestCase;
+
+/*
+ * Resolution of the references of a SAM header to the contigs (ScaffoldGraph.getReferenceTable())
+ */
+public class ScaffoldGraphTest extends TestCase {
+	private File contigs;
+
+	@Override
+	protected void setUp() throws Exception {
+		contigs=File.createTempFile("contigs", ".fasta");
+		try(PrintWriter out=new PrintWriter(contigs)){
+			for(String name:new String[] {"ctg1", "ctg2", "ctg3"})
+				out.println(">"+name+"\nACGTACGTACGTACGT");
+		}
+	}
+	@Override
+	protected void tearDown() throws Exception {
+		contigs.delete();
+	}
+
+	private static SAMFileHeader header(String... names) {
+		ArrayList<SAMSequenceRecord> refs=new ArrayList<>();
+		for(String name:names)
+			refs.add(new SAMSequenceRecord(name, 16));
+		SAMFileHeader retval=new SAMFileHeader();
+		retval.setSequenceDictionary(new SAMSequenceDictionary(refs));
+		return retval;
+	}
+
+	private static SAMRecord record(SAMFileHeader header, int refIndex) {
+		SAMRecord retval=new SAMRecord(header);
+		retval.setReferenceIndex(refIndex);
+		return retval;
+	}
+
+	//by name, whatever the order of the header
+	public void testByName() throws IOException {
+		ScaffoldGraph graph=new ScaffoldGraphDFS(contigs.getPath(), null);
+		SAMFileHeader header=header("ctg3", "ctg1", "ctg2");
+		Contig[] table=graph.getReferenceTable(header);
+		assertEquals(Arrays.asList("ctg3", "ctg1", "ctg2"), Arrays.asList(table[0].getName(), table[1].getName(), table[2].getName()));
+		assertSame(table[1], ScaffoldGraph.getContig(table, record(header, 1)));
+	}
+
+	//names not found while others are: left unresolved, as are the references beyond the table
+	public void testUnresolved() throws IOException {
+		ScaffoldGraph graph=new ScaffoldGraphDFS(contigs.getPath(), null);
+		SAMFileHeader header=header("ctg1", "NODE_2", "ctg3", "ctg4");
+		Contig[] table=graph.getReferenceTable(header);
+		assertEquals(4, table.length);
+		assertEquals("ctg3", table[2].getName());
+		assertNull(table[1]);
+		assertNull(table[3]);
+		assertNull(ScaffoldGraph.getContig(table, record(header, 1)));
+		assertNull(ScaffoldGraph.getContig(table, record(header, 3)));
+		assertNull(ScaffoldGraph.getContig(Arrays.copyOf(table, 3), record(header, 3)));
+		assertNull(ScaffoldGraph.getContig(table, record(header, -1)));
+	}
+
+	//none of the names found: by the order of the contigs as before
+	public void testByPosition() throws IOException {
+		ScaffoldGraph graph=new ScaffoldGraphDFS(contigs.getPath(), null);
+		SAMFileHeader header=header("NODE_1", "NODE_2", "NODE_3", "NODE_4");
+		Contig[] table=graph.getReferenceTable(header);
+		assertEquals(Arrays.asList("ctg1", "ctg2", "ctg3"), Arrays.asList(table[0].getName(), table[1].getName(), table[2].getName()));
+		assertNull(table[3]);
+		assertSame(table[1], ScaffoldGraph.getContig(table, record(header, 1)));
+	}
+}